@@ -0,0 +1,174 @@
+package jamel;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import jamel.util.Parameters;
+import jamel.util.Simulation;
+
+/**
+ * Runs a scenario without any graphical interface.
+ *
+ * Usage:
+ * {@code java jamel.BatchRunner <scenario.xml> <periods> <outputDirectory> [checkpoint]}
+ *
+ * The {@code gui} element of the scenario is ignored, the simulation starts
+ * immediately and runs the specified number of periods as fast as possible.
+ * The exports of the simulation are written into the output directory.
+ *
+ * If a checkpoint file is given, the simulation is restored from this
+ * checkpoint (written by a {@code checkpoint} event) instead of starting
+ * from the period 0: the run is resumed, or branched if the scenario differs
+ * from the scenario of the checkpoint.
+ */
+public class BatchRunner {
+
+	/**
+	 * The usage message.
+	 */
+	private static final String usage = "Usage: jamel.BatchRunner <scenario.xml> <periods> <outputDirectory> [checkpoint]";
+
+	/**
+	 * Creates and returns a new headless simulation.
+	 *
+	 * @param document
+	 *            the scenario document (its {@code gui} elements are removed).
+	 * @param file
+	 *            the scenario file.
+	 * @param outputDirectory
+	 *            the directory where the outputs of the simulation will be
+	 *            written.
+	 * @return a new simulation.
+	 */
+	static Simulation newHeadlessSimulation(final Document document, final File file, final File outputDirectory) {
+		return newHeadlessSimulation(document, file, outputDirectory, null);
+	}
+
+	/**
+	 * Creates and returns a new headless simulation, restored from the
+	 * specified checkpoint.
+	 * 
+	 * @param document
+	 *            the scenario document (its {@code gui} elements are removed).
+	 * @param file
+	 *            the scenario file.
+	 * @param outputDirectory
+	 *            the directory where the outputs of the simulation will be
+	 *            written.
+	 * @param checkpoint
+	 *            the checkpoint file ({@code null} to start a new
+	 *            simulation).
+	 * @return a new simulation.
+	 */
+	static Simulation newHeadlessSimulation(final Document document, final File file, final File outputDirectory,
+			final File checkpoint) {
+		final Element root = document.getDocumentElement();
+		if (!root.getTagName().equals("simulation")) {
+			throw new RuntimeException("Bad root: expected: simulation, found: " + root.getTagName());
+		}
+		final NodeList guis = root.getElementsByTagName("gui");
+		for (int i = guis.getLength() - 1; i >= 0; i--) {
+			guis.item(i).getParentNode().removeChild(guis.item(i));
+		}
+		if (!outputDirectory.exists() && !outputDirectory.mkdirs()) {
+			throw new RuntimeException("Unable to create the directory: " + outputDirectory.getPath());
+		}
+		final Simulation simulation = Jamel.newSimulation(new Parameters(root), file, checkpoint);
+		simulation.setOutputDirectory(outputDirectory);
+		return simulation;
+	}
+
+	/**
+	 * Parses the specified scenario file.
+	 *
+	 * @param file
+	 *            the scenario file.
+	 * @return the scenario document.
+	 */
+	static Document parse(final File file) {
+		final Document document;
+		try {
+			document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+		} catch (SAXException | IOException | ParserConfigurationException e) {
+			Jamel.println("***");
+			Jamel.println("Something went wrong while parsing the scenario file.");
+			Jamel.println("file: " + file.getPath());
+			Jamel.println();
+			throw new RuntimeException("Something went wrong while parsing the scenario file.", e);
+		}
+		return document;
+	}
+
+	/**
+	 * Parses the specified number of periods.
+	 *
+	 * @param arg
+	 *            the string to be parsed.
+	 * @return the number of periods.
+	 */
+	static int parsePeriods(final String arg) {
+		final int periods;
+		try {
+			periods = Integer.parseInt(arg);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Bad number of periods: " + arg);
+		}
+		if (periods < 0) {
+			throw new IllegalArgumentException("Bad number of periods: " + arg);
+		}
+		return periods;
+	}
+
+	/**
+	 * The main method of the batch runner.
+	 *
+	 * @param args
+	 *            the path of the scenario, the number of periods, the output
+	 *            directory and optionally the checkpoint to be restored.
+	 */
+	public static void main(final String[] args) {
+
+		if (System.getProperty("java.awt.headless") == null) {
+			System.setProperty("java.awt.headless", "true");
+		}
+
+		if (args.length != 3 && args.length != 4) {
+			System.err.println(usage);
+			System.exit(1);
+		}
+
+		final File file = new File(args[0]);
+		final int periods = parsePeriods(args[1]);
+		final File outputDirectory = new File(args[2]);
+		final File checkpoint = (args.length == 4) ? new File(args[3]) : null;
+		final SimpleDateFormat simpleDateFormat = new SimpleDateFormat("MMM d HH:mm:ss", Locale.US);
+
+		Jamel.println("Jamel " + Jamel.getVersion() + " (batch)");
+		Jamel.println("Start " + simpleDateFormat.format(new Date()));
+		Jamel.println("run " + file.getPath());
+
+		final Simulation simulation = newHeadlessSimulation(parse(file), file, outputDirectory, checkpoint);
+		final long start = System.currentTimeMillis();
+		simulation.run(periods);
+		simulation.close();
+		final long duration = System.currentTimeMillis() - start;
+
+		Jamel.println("periods", "" + periods);
+		Jamel.println("duration (ms)", "" + duration);
+		Jamel.println("End", simpleDateFormat.format(System.currentTimeMillis()));
+		Jamel.println();
+
+	}
+
+}
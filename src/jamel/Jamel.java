@@ -1,5 +1,6 @@
 package jamel;
 
+import java.awt.GraphicsEnvironment;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -99,7 +100,24 @@ public class Jamel {
 	 *            the scenario file.
 	 * @return a new simulation.
 	 */
-	private static Simulation newSimulation(final Parameters parameters, final File file) {
+	static Simulation newSimulation(final Parameters parameters, final File file) {
+		return newSimulation(parameters, file, null);
+	}
+
+	/**
+	 * Creates and returns a new simulation, restored from the specified
+	 * checkpoint.
+	 * 
+	 * @param parameters
+	 *            the description of the new simulation.
+	 * @param file
+	 *            the scenario file.
+	 * @param checkpoint
+	 *            the checkpoint file ({@code null} to start a new
+	 *            simulation).
+	 * @return a new simulation.
+	 */
+	static Simulation newSimulation(final Parameters parameters, final File file, final File checkpoint) {
 		if (file == null) {
 			throw new IllegalArgumentException("Path is null");
 		}
@@ -117,8 +135,15 @@ public class Jamel {
 		}
 
 		try {
-			simulation = (Simulation) Class.forName(simulationClassName, false, ClassLoader.getSystemClassLoader())
-					.getConstructor(Parameters.class, File.class).newInstance(parameters, file);
+			final Class<?> simulationClass = Class.forName(simulationClassName, false,
+					ClassLoader.getSystemClassLoader());
+			if (checkpoint == null) {
+				simulation = (Simulation) simulationClass.getConstructor(Parameters.class, File.class)
+						.newInstance(parameters, file);
+			} else {
+				simulation = (Simulation) simulationClass.getConstructor(Parameters.class, File.class, File.class)
+						.newInstance(parameters, file, checkpoint);
+			}
 		} catch (Exception e) {
 			final String message = "Something went wrong while creating the simulation.";
 			Jamel.println("***");
@@ -159,6 +184,13 @@ public class Jamel {
 	 *            the message.
 	 */
 	public static void errorMessage(final String title, final String message) {
+		if (GraphicsEnvironment.isHeadless()) {
+			// 2018-04-20: no dialog in batch mode.
+			println("***");
+			println(title + ": " + message);
+			println();
+			return;
+		}
 		JOptionPane.showMessageDialog(null, "<html>Jamel said:<br>\"" + message + "\"<br>" + seeLogFile + "</html>",
 				title, JOptionPane.ERROR_MESSAGE);
 	}
@@ -0,0 +1,1135 @@
+package jamel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import jamel.data.Expression;
+import jamel.util.Simulation;
+
+/**
+ * Hosts many headless simulations in a single JVM, driven through a small
+ * HTTP/JSON interface.
+ *
+ * Usage: {@code java jamel.Server [port] [outputDirectory] [scenarioDirectory]}
+ *
+ * The server listens on the loopback interface only (default port 8018). The
+ * requests must be addressed to a loopback host ({@code localhost},
+ * {@code 127.0.0.1} or {@code [::1]}), and the requests of a web page must
+ * come from the server itself (its {@code Origin}): the other ones are
+ * rejected, so that a web page cannot drive the simulations through the
+ * browser (cross-site requests, DNS rebinding).
+ * Each simulation is executed by its own thread, period by period (see
+ * {@link Simulation#step()}), and writes its exports into its own directory
+ * ({@code <outputDirectory>/sim-0001}, ...). The simulations share the JVM,
+ * so a new experiment does not pay the startup and the warm-up of the JIT
+ * again.
+ *
+ * The resources:
+ * <ul>
+ * <li>{@code GET /simulations}: the list of the simulations.</li>
+ * <li>{@code POST /simulations?file=<path>&seed=<n>}: creates a new
+ * simulation. The scenario is the body of the request (XML), or the file on
+ * the server if the body is empty. The file is also used to resolve the
+ * relative paths of the scenario. The path of the file is relative to the
+ * scenario directory (default: the working directory), and must not leave
+ * it. The body cannot declare a DTD (nor entities): such a scenario must be
+ * loaded from its file. The seed is optional.</li>
+ * <li>{@code GET /simulations/<id>}: the state of the simulation.</li>
+ * <li>{@code POST /simulations/<id>/step?periods=<n>&wait=true}: runs
+ * {@code n} more periods (default 1); if {@code wait} is set, the response
+ * is sent when these periods are done.</li>
+ * <li>{@code POST /simulations/<id>/start}: runs the simulation until it is
+ * paused.</li>
+ * <li>{@code POST /simulations/<id>/pause}: pauses the simulation (at the
+ * end of the current period).</li>
+ * <li>{@code GET /simulations/<id>/query?expr=<expression>&expr=...}: the
+ * values of the expressions.</li>
+ * <li>{@code GET /simulations/<id>/stream?expr=<expression>&expr=...}: the
+ * values of the expressions at the end of each new period, as server-sent
+ * events ({@code text/event-stream}).</li>
+ * <li>{@code DELETE /simulations/<id>}: stops the simulation and closes its
+ * exports.</li>
+ * </ul>
+ *
+ * The expressions are evaluated between two periods: the last period done
+ * is {@code t-1} (eg. {@code val(Sector2,price,t-1,mean)}).
+ */
+public class Server {
+
+	/**
+	 * A simulation hosted by the server.
+	 */
+	private static class Session {
+
+		/**
+		 * The output directory of the simulation.
+		 */
+		final private File directory;
+
+		/**
+		 * The thread of the simulation. All the accesses to the simulation
+		 * go through this executor.
+		 */
+		final private ExecutorService executor;
+
+		/**
+		 * The id of the session.
+		 */
+		final private int id;
+
+		/**
+		 * Completed when the periods requested are done (or when the
+		 * simulation is paused).
+		 */
+		private volatile CompletableFuture<Void> idle = CompletableFuture.completedFuture(null);
+
+		/**
+		 * The name of the simulation.
+		 */
+		private volatile String name = "";
+
+		/**
+		 * The current period of the simulation.
+		 */
+		private volatile int period = 0;
+
+		/**
+		 * The number of periods to be run (accessed by the thread of the
+		 * simulation only).
+		 */
+		private int remaining = 0;
+
+		/**
+		 * {@code true} if a period is waiting in the executor (accessed by
+		 * the thread of the simulation only).
+		 */
+		private boolean scheduled = false;
+
+		/**
+		 * The simulation (accessed by the thread of the simulation only).
+		 */
+		private Simulation simulation = null;
+
+		/**
+		 * The status of the simulation.
+		 */
+		private volatile String status = "new";
+
+		/**
+		 * The streams of values.
+		 */
+		final private List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+		/**
+		 * Creates a new session.
+		 *
+		 * @param id
+		 *            the id of the session.
+		 * @param directory
+		 *            the output directory of the simulation.
+		 */
+		private Session(final int id, final File directory) {
+			this.id = id;
+			this.directory = directory;
+			this.executor = Executors.newSingleThreadExecutor(runnable -> {
+				final Thread thread = new Thread(runnable, "Simulation " + id);
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+
+		/**
+		 * Executes the specified task in the thread of the simulation and
+		 * returns its result.
+		 *
+		 * @param <T>
+		 *            the type of the result.
+		 * @param task
+		 *            the task.
+		 * @return the result of the task.
+		 */
+		private <T> T call(final Callable<T> task) {
+			final T result;
+			try {
+				result = this.executor.submit(task).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw new RuntimeException(e.getCause());
+			}
+			return result;
+		}
+
+		/**
+		 * Checks that the simulation can be continued.
+		 */
+		private void checkStatus() {
+			if (this.status.startsWith("failed") || this.status.equals("closed")) {
+				throw new IllegalStateException("The simulation is " + this.status);
+			}
+		}
+
+		/**
+		 * Stops the simulation and closes its exports.
+		 */
+		private void close() {
+			this.call(() -> {
+				this.remaining = 0;
+				if (this.simulation != null && !this.status.equals("closed")) {
+					this.simulation.close();
+				}
+				this.status = "closed";
+				this.idle.complete(null);
+				for (final Subscriber subscriber : this.subscribers) {
+					subscriber.send("end", this.getState());
+					subscriber.close();
+				}
+				return null;
+			});
+			this.executor.shutdown();
+		}
+
+		/**
+		 * Creates the simulation.
+		 *
+		 * @param document
+		 *            the scenario.
+		 * @param file
+		 *            the scenario file.
+		 */
+		private void create(final Document document, final File file) {
+			this.call(() -> {
+				this.simulation = BatchRunner.newHeadlessSimulation(document, file, this.directory);
+				this.name = this.simulation.getName();
+				this.period = this.simulation.getPeriod();
+				this.status = "paused";
+				return null;
+			});
+		}
+
+		/**
+		 * Evaluates the specified expressions (in the thread of the
+		 * simulation).
+		 *
+		 * @param expressions
+		 *            the expressions.
+		 * @param queries
+		 *            the queries of the expressions.
+		 * @return the values, in JSON.
+		 */
+		private String evaluate(final Expression[] expressions, final String[] queries) {
+			final StringBuilder json = new StringBuilder();
+			json.append("{\"id\":").append(this.id).append(",\"period\":").append(this.period).append(",\"values\":{");
+			for (int i = 0; i < expressions.length; i++) {
+				if (i > 0) {
+					json.append(',');
+				}
+				quote(json, queries[i]);
+				json.append(':');
+				number(json, expressions[i].getValue());
+			}
+			json.append("}}");
+			return json.toString();
+		}
+
+		/**
+		 * Returns the state of the simulation, in JSON.
+		 *
+		 * @return the state of the simulation.
+		 */
+		private String getState() {
+			final StringBuilder json = new StringBuilder();
+			json.append("{\"id\":").append(this.id).append(",\"name\":");
+			quote(json, this.name);
+			json.append(",\"period\":").append(this.period).append(",\"status\":");
+			quote(json, this.status);
+			json.append(",\"directory\":");
+			quote(json, this.directory.getPath());
+			json.append('}');
+			return json.toString();
+		}
+
+		/**
+		 * Returns the specified expressions (in the thread of the
+		 * simulation).
+		 *
+		 * @param queries
+		 *            the queries.
+		 * @return the expressions.
+		 */
+		private Expression[] getExpressions(final String[] queries) {
+			if (queries.length == 0) {
+				throw new IllegalArgumentException("No expression (expected: expr=...)");
+			}
+			final Expression[] result = new Expression[queries.length];
+			for (int i = 0; i < queries.length; i++) {
+				try {
+					result[i] = this.simulation.getExpression(queries[i]);
+				} catch (RuntimeException e) {
+					throw new IllegalArgumentException("Bad expression: " + queries[i] + " (" + e.getMessage() + ")",
+							e);
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * Pauses the simulation at the end of the current period.
+		 */
+		private void pause() {
+			this.call(() -> {
+				this.remaining = 0;
+				return null;
+			});
+		}
+
+		/**
+		 * Executes the next period (in the thread of the simulation), then
+		 * schedules the following one.
+		 */
+		private void period() {
+			this.scheduled = false;
+			if (this.remaining > 0) {
+				if (this.remaining != Integer.MAX_VALUE) {
+					this.remaining--;
+				}
+				// Any failure (including an Error, eg. an OutOfMemoryError)
+				// stops the simulation: the waiters are released by
+				// schedule().
+				try {
+					this.simulation.step();
+					this.period = this.simulation.getPeriod();
+					for (final Subscriber subscriber : this.subscribers) {
+						if (!subscriber.send("period", this.evaluate(subscriber.expressions, subscriber.queries))) {
+							// The client is too slow.
+							subscriber.close();
+							this.subscribers.remove(subscriber);
+						}
+					}
+				} catch (Throwable e) {
+					this.remaining = 0;
+					this.status = "failed: " + e;
+					Jamel.println("***");
+					Jamel.println("Something went wrong in the simulation " + this.id + " (" + this.name + ")");
+					Jamel.println();
+					e.printStackTrace();
+					for (final Subscriber subscriber : this.subscribers) {
+						subscriber.send("error", this.getState());
+					}
+				} finally {
+					this.schedule();
+				}
+			} else {
+				this.schedule();
+			}
+		}
+
+		/**
+		 * Runs the specified number of periods.
+		 *
+		 * @param periods
+		 *            the number of periods ({@link Integer#MAX_VALUE} to run
+		 *            until the simulation is paused).
+		 * @return completed when these periods are done.
+		 */
+		private CompletableFuture<Void> run(final int periods) {
+			return this.call(() -> {
+				this.checkStatus();
+				if (periods == Integer.MAX_VALUE || this.remaining == Integer.MAX_VALUE) {
+					this.remaining = Integer.MAX_VALUE;
+				} else {
+					this.remaining = (int) Math.min(Integer.MAX_VALUE - 1, (long) this.remaining + periods);
+				}
+				if (this.idle.isDone() && this.remaining > 0) {
+					this.idle = new CompletableFuture<>();
+				}
+				this.schedule();
+				return this.idle;
+			});
+		}
+
+		/**
+		 * Schedules the next period, if any (in the thread of the
+		 * simulation).
+		 */
+		private void schedule() {
+			if (this.remaining > 0) {
+				this.status = "running";
+				if (!this.scheduled) {
+					this.scheduled = true;
+					this.executor.execute(this::period);
+				}
+			} else {
+				if (this.status.equals("running")) {
+					this.status = "paused";
+				}
+				this.idle.complete(null);
+			}
+		}
+
+		/**
+		 * Creates a new stream of the values of the specified expressions.
+		 *
+		 * @param queries
+		 *            the expressions.
+		 * @return the new stream.
+		 */
+		private Subscriber subscribe(final String[] queries) {
+			return this.call(() -> {
+				this.checkStatus();
+				final Subscriber subscriber = new Subscriber(queries, this.getExpressions(queries));
+				this.subscribers.add(subscriber);
+				return subscriber;
+			});
+		}
+
+	}
+
+	/**
+	 * A stream of the values of some expressions, at the end of each
+	 * period.
+	 */
+	private static class Subscriber {
+
+		/**
+		 * The end-of-stream marker.
+		 */
+		private static final String END = new String("end");
+
+		/**
+		 * The expressions.
+		 */
+		final private Expression[] expressions;
+
+		/**
+		 * The queries of the expressions.
+		 */
+		final private String[] queries;
+
+		/**
+		 * The events waiting to be sent to the client.
+		 */
+		final private BlockingQueue<String> queue = new ArrayBlockingQueue<>(STREAM_CAPACITY);
+
+		/**
+		 * {@code true} if the stream is closed.
+		 */
+		private volatile boolean closed = false;
+
+		/**
+		 * Creates a new stream.
+		 *
+		 * @param queries
+		 *            the queries of the expressions.
+		 * @param expressions
+		 *            the expressions.
+		 */
+		private Subscriber(final String[] queries, final Expression[] expressions) {
+			this.queries = queries;
+			this.expressions = expressions;
+		}
+
+		/**
+		 * Closes the stream.
+		 */
+		private void close() {
+			this.closed = true;
+			if (!this.queue.offer(END)) {
+				// The queue is full: the pending events are dropped.
+				this.queue.clear();
+				this.queue.offer(END);
+			}
+		}
+
+		/**
+		 * Sends the specified event.
+		 *
+		 * @param event
+		 *            the name of the event.
+		 * @param data
+		 *            the data of the event (JSON).
+		 * @return {@code false} if the event was dropped (the queue is
+		 *         full).
+		 */
+		private boolean send(final String event, final String data) {
+			return this.closed || this.queue.offer("event: " + event + "\ndata: " + data + "\n\n");
+		}
+
+	}
+
+	/**
+	 * The default port.
+	 */
+	private static final int DEFAULT_PORT = 8018;
+
+	/**
+	 * The interval between two keep-alive comments of the streams (in
+	 * seconds).
+	 */
+	private static final int KEEP_ALIVE = 15;
+
+	/**
+	 * The maximum number of events waiting to be sent to a client (a slower
+	 * client is disconnected).
+	 */
+	private static final int STREAM_CAPACITY = 10000;
+
+	/**
+	 * The names of the loopback host (as they appear in the {@code Host} and
+	 * {@code Origin} headers).
+	 */
+	private static final List<String> LOOPBACK = List.of("localhost", "127.0.0.1", "[::1]");
+
+	/**
+	 * The usage message.
+	 */
+	private static final String usage = "Usage: jamel.Server [port] [outputDirectory] [scenarioDirectory]";
+
+	/**
+	 * Returns the values of the specified parameter.
+	 *
+	 * @param params
+	 *            the parameters of the request.
+	 * @param key
+	 *            the name of the parameter.
+	 * @return the values of the parameter (an empty array if none).
+	 */
+	private static String[] getAll(final Map<String, List<String>> params, final String key) {
+		final List<String> values = params.get(key);
+		return (values == null) ? new String[0] : values.toArray(new String[values.size()]);
+	}
+
+	/**
+	 * Returns the first value of the specified parameter.
+	 *
+	 * @param params
+	 *            the parameters of the request.
+	 * @param key
+	 *            the name of the parameter.
+	 * @return the value of the parameter, or {@code null}.
+	 */
+	private static String getFirst(final Map<String, List<String>> params, final String key) {
+		final List<String> values = params.get(key);
+		return (values == null || values.isEmpty()) ? null : values.get(0);
+	}
+
+	/**
+	 * Returns {@code true} if the specified host is the loopback host.
+	 *
+	 * @param host
+	 *            the host (without port).
+	 * @return {@code true} if the host is the loopback host.
+	 */
+	private static boolean isLoopback(final String host) {
+		return host != null && LOOPBACK.contains(host.toLowerCase());
+	}
+
+	/**
+	 * Appends the specified number to the JSON text.
+	 *
+	 * @param json
+	 *            the JSON text.
+	 * @param value
+	 *            the number ({@code null} is written as {@code null},
+	 *            {@code NaN} as {@code "NaN"}).
+	 */
+	private static void number(final StringBuilder json, final Double value) {
+		if (value == null) {
+			json.append("null");
+		} else if (value.isNaN() || value.isInfinite()) {
+			json.append('"').append(value).append('"');
+		} else {
+			json.append(value.doubleValue());
+		}
+	}
+
+	/**
+	 * Parses the specified scenario, received from a client.
+	 *
+	 * The scenario cannot declare a DTD, and the external entities are not
+	 * resolved (a client could otherwise read the files of the server, or
+	 * make it send requests).
+	 *
+	 * @param body
+	 *            the scenario.
+	 * @param file
+	 *            the scenario file (used to resolve the relative paths).
+	 * @return the scenario.
+	 */
+	private static Document parse(final byte[] body, final File file) {
+		final Document result;
+		final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		try {
+			factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+			factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+		} catch (ParserConfigurationException e) {
+			throw new RuntimeException("Unable to configure the XML parser", e);
+		}
+		factory.setExpandEntityReferences(false);
+		factory.setXIncludeAware(false);
+		final InputSource source = new InputSource(new StringReader(new String(body, StandardCharsets.UTF_8)));
+		source.setSystemId(file.toURI().toString());
+		try {
+			result = factory.newDocumentBuilder().parse(source);
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Bad scenario: " + e.getMessage(), e);
+		}
+		return result;
+	}
+
+	/**
+	 * Parses the parameters of the specified request.
+	 *
+	 * @param exchange
+	 *            the request.
+	 * @return the parameters.
+	 */
+	private static Map<String, List<String>> parseQuery(final HttpExchange exchange) {
+		final Map<String, List<String>> result = new LinkedHashMap<>();
+		final String query = exchange.getRequestURI().getRawQuery();
+		if (query != null && !query.isEmpty()) {
+			for (final String pair : query.split("&")) {
+				final String[] split = pair.split("=", 2);
+				try {
+					final String key = URLDecoder.decode(split[0], "UTF-8");
+					final String value = (split.length == 2) ? URLDecoder.decode(split[1], "UTF-8") : "";
+					result.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
+				} catch (UnsupportedEncodingException | IllegalArgumentException e) {
+					throw new IllegalArgumentException("Bad query: " + query);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Appends the specified string to the JSON text, quoted and escaped.
+	 *
+	 * @param json
+	 *            the JSON text.
+	 * @param string
+	 *            the string.
+	 */
+	private static void quote(final StringBuilder json, final String string) {
+		json.append('"');
+		for (int i = 0; i < string.length(); i++) {
+			final char c = string.charAt(i);
+			if (c == '"' || c == '\\') {
+				json.append('\\').append(c);
+			} else if (c < 0x20) {
+				json.append(String.format("\\u%04x", (int) c));
+			} else {
+				json.append(c);
+			}
+		}
+		json.append('"');
+	}
+
+	/**
+	 * Sends the specified response.
+	 *
+	 * @param exchange
+	 *            the request.
+	 * @param code
+	 *            the status code.
+	 * @param json
+	 *            the body of the response (JSON).
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	private static void send(final HttpExchange exchange, final int code, final String json) throws IOException {
+		final byte[] bytes = (json + "\n").getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(code, bytes.length);
+		try (final OutputStream output = exchange.getResponseBody()) {
+			output.write(bytes);
+		}
+	}
+
+	/**
+	 * The main method of the server.
+	 *
+	 * @param args
+	 *            the port and the output directory (optional).
+	 * @throws IOException
+	 *             if the server cannot be started.
+	 */
+	public static void main(final String[] args) throws IOException {
+
+		if (System.getProperty("java.awt.headless") == null) {
+			System.setProperty("java.awt.headless", "true");
+		}
+
+		if (args.length > 3) {
+			System.err.println(usage);
+			System.exit(1);
+		}
+
+		final int port;
+		try {
+			port = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Bad port: " + args[0]);
+		}
+		final File outputDirectory = new File((args.length > 1) ? args[1] : "server");
+		final File scenarioDirectory = new File((args.length > 2) ? args[2] : ".");
+
+		final Server server = new Server(outputDirectory, scenarioDirectory);
+		server.start(port);
+		Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+
+	}
+
+	/**
+	 * The HTTP server.
+	 */
+	private HttpServer httpServer = null;
+
+	/**
+	 * The id of the last session.
+	 */
+	final private AtomicInteger lastId = new AtomicInteger();
+
+	/**
+	 * The output directory.
+	 */
+	final private File outputDirectory;
+
+	/**
+	 * The directory of the scenario files (the scenario files out of this
+	 * directory cannot be loaded).
+	 */
+	final private File scenarioDirectory;
+
+	/**
+	 * The sessions, by id.
+	 */
+	final private Map<Integer, Session> sessions = new ConcurrentSkipListMap<>();
+
+	/**
+	 * Creates a new server.
+	 *
+	 * @param outputDirectory
+	 *            the directory where the outputs of the simulations are
+	 *            written.
+	 * @param scenarioDirectory
+	 *            the directory of the scenario files.
+	 */
+	public Server(final File outputDirectory, final File scenarioDirectory) {
+		this.outputDirectory = outputDirectory;
+		this.scenarioDirectory = scenarioDirectory;
+	}
+
+	/**
+	 * Checks that the specified request comes from the loopback host, and
+	 * not from a web page of another origin.
+	 *
+	 * @param exchange
+	 *            the request.
+	 */
+	private void checkOrigin(final HttpExchange exchange) {
+		final Headers headers = exchange.getRequestHeaders();
+		final String host = headers.getFirst("Host");
+		final String hostName;
+		if (host == null) {
+			hostName = null;
+		} else if (host.startsWith("[")) {
+			hostName = host.substring(0, host.indexOf(']') + 1);
+		} else {
+			hostName = host.split(":", 2)[0];
+		}
+		if (!isLoopback(hostName)) {
+			throw new SecurityException("Forbidden host: " + host);
+		}
+		final String origin = headers.getFirst("Origin");
+		if (origin != null) {
+			boolean allowed;
+			try {
+				final URI uri = new URI(origin);
+				allowed = "http".equals(uri.getScheme()) && isLoopback(uri.getHost())
+						&& uri.getPort() == this.httpServer.getAddress().getPort();
+			} catch (URISyntaxException e) {
+				allowed = false;
+			}
+			if (!allowed) {
+				throw new SecurityException("Forbidden origin: " + origin);
+			}
+		}
+	}
+
+	/**
+	 * Creates a new simulation.
+	 *
+	 * @param exchange
+	 *            the request.
+	 * @param params
+	 *            the parameters of the request.
+	 * @return the new session.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	private Session create(final HttpExchange exchange, final Map<String, List<String>> params) throws IOException {
+		final byte[] body;
+		try (final InputStream input = exchange.getRequestBody()) {
+			body = input.readAllBytes();
+		}
+		final String path = getFirst(params, "file");
+		final File scenarioFile = (path != null) ? this.getScenarioFile(path) : null;
+		final int id = this.lastId.incrementAndGet();
+		final File directory = new File(this.outputDirectory, String.format("sim-%04d", id));
+		if (!directory.exists() && !directory.mkdirs()) {
+			throw new RuntimeException("Unable to create the directory: " + directory.getPath());
+		}
+		final File file;
+		final Document document;
+		if (body.length > 0) {
+			final File copy = new File(directory, "scenario.xml");
+			file = (scenarioFile != null) ? scenarioFile : copy;
+			document = parse(body, file);
+			Files.write(copy.toPath(), body);
+		} else if (scenarioFile != null) {
+			file = scenarioFile;
+			if (!file.isFile()) {
+				throw new IllegalArgumentException("File not found: " + path);
+			}
+			document = BatchRunner.parse(file);
+		} else {
+			throw new IllegalArgumentException("No scenario (expected: the scenario in the body, or file=...)");
+		}
+		final String seed = getFirst(params, "seed");
+		if (seed != null) {
+			try {
+				Integer.parseInt(seed);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Bad seed: " + seed);
+			}
+			document.getDocumentElement().setAttribute("randomSeed", seed);
+		}
+		final Session session = new Session(id, directory);
+		try {
+			session.create(document, file);
+		} catch (RuntimeException e) {
+			session.executor.shutdown();
+			throw new IllegalArgumentException("Unable to create the simulation: " + e.getMessage(), e);
+		}
+		this.sessions.put(id, session);
+		Jamel.println("Server", "new simulation " + id, file.getPath());
+		return session;
+	}
+
+	/**
+	 * Returns the specified scenario file.
+	 *
+	 * @param path
+	 *            the path of the file, relative to the scenario directory.
+	 * @return the scenario file.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	private File getScenarioFile(final String path) throws IOException {
+		final Path root = this.scenarioDirectory.toPath().toRealPath();
+		final Path result;
+		try {
+			result = root.resolve(path).normalize();
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException("Bad file: " + path);
+		}
+		// The links are followed, if the file exists.
+		if (!result.startsWith(root) || (Files.exists(result) && !result.toRealPath().startsWith(root))) {
+			throw new SecurityException("Out of the scenario directory: " + path);
+		}
+		return result.toFile();
+	}
+
+	/**
+	 * Returns the specified session.
+	 *
+	 * @param id
+	 *            the id of the session.
+	 * @return the session.
+	 */
+	private Session getSession(final String id) {
+		Session result = null;
+		try {
+			result = this.sessions.get(Integer.parseInt(id));
+		} catch (NumberFormatException e) {
+			// Not found.
+		}
+		if (result == null) {
+			throw new NoSuchElementException("Simulation not found: " + id);
+		}
+		return result;
+	}
+
+	/**
+	 * Handles a request.
+	 *
+	 * @param exchange
+	 *            the request.
+	 */
+	private void handle(final HttpExchange exchange) {
+		try {
+			try {
+				this.checkOrigin(exchange);
+				this.route(exchange);
+			} catch (SecurityException e) {
+				sendError(exchange, 403, e);
+			} catch (NoSuchElementException e) {
+				sendError(exchange, 404, e);
+			} catch (IllegalArgumentException e) {
+				sendError(exchange, 400, e);
+			} catch (IllegalStateException e) {
+				sendError(exchange, 409, e);
+			} catch (UnsupportedOperationException e) {
+				sendError(exchange, 405, e);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+				sendError(exchange, 500, e);
+			}
+		} catch (IOException e) {
+			// The client is gone.
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Dispatches the specified request.
+	 *
+	 * @param exchange
+	 *            the request.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	private void route(final HttpExchange exchange) throws IOException {
+		final String method = exchange.getRequestMethod();
+		final Map<String, List<String>> params = parseQuery(exchange);
+		final String path = exchange.getRequestURI().getPath().replaceAll("/+$", "");
+		final String[] segments = path.substring("/simulations".length()).replaceFirst("^/", "").split("/");
+		final String resource = (segments.length > 1) ? segments[1] : "";
+		if (path.equals("/simulations")) {
+			if (method.equals("GET")) {
+				final StringBuilder json = new StringBuilder("[");
+				for (final Session session : this.sessions.values()) {
+					json.append((json.length() == 1) ? "" : ",").append(session.getState());
+				}
+				send(exchange, 200, json.append("]").toString());
+			} else if (method.equals("POST")) {
+				send(exchange, 201, this.create(exchange, params).getState());
+			} else {
+				throw new UnsupportedOperationException("Method not allowed: " + method);
+			}
+		} else if (segments.length > 2 || !path.startsWith("/simulations/")) {
+			throw new NoSuchElementException("Not found: " + path);
+		} else {
+			final Session session = this.getSession(segments[0]);
+			final String expected = resource.equals("") ? (method.equals("DELETE") ? "DELETE" : "GET")
+					: (resource.equals("query") || resource.equals("stream")) ? "GET" : "POST";
+			if (!method.equals(expected)) {
+				throw new UnsupportedOperationException("Method not allowed: " + method);
+			}
+			switch (resource) {
+			case "":
+				if (method.equals("DELETE")) {
+					session.close();
+					this.sessions.remove(session.id);
+					Jamel.println("Server", "simulation " + session.id + " closed");
+				}
+				send(exchange, 200, session.getState());
+				break;
+			case "step":
+				final String periods = getFirst(params, "periods");
+				final int n;
+				try {
+					n = (periods == null) ? 1 : Integer.parseInt(periods);
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Bad number of periods: " + periods);
+				}
+				if (n < 0 || n == Integer.MAX_VALUE) {
+					throw new IllegalArgumentException("Bad number of periods: " + periods);
+				}
+				final CompletableFuture<Void> done = session.run(n);
+				if ("true".equals(getFirst(params, "wait"))) {
+					try {
+						done.get();
+					} catch (InterruptedException | ExecutionException e) {
+						throw new RuntimeException("Interrupted", e);
+					}
+				}
+				send(exchange, 200, session.getState());
+				break;
+			case "start":
+				session.run(Integer.MAX_VALUE);
+				send(exchange, 200, session.getState());
+				break;
+			case "pause":
+				session.pause();
+				send(exchange, 200, session.getState());
+				break;
+			case "query":
+				final String[] queries = getAll(params, "expr");
+				send(exchange, 200,
+						session.call(() -> session.evaluate(session.getExpressions(queries), queries)));
+				break;
+			case "stream":
+				this.stream(exchange, session.subscribe(getAll(params, "expr")), session);
+				break;
+			default:
+				throw new NoSuchElementException("Not found: " + path);
+			}
+		}
+	}
+
+	/**
+	 * Sends an error.
+	 *
+	 * @param exchange
+	 *            the request.
+	 * @param code
+	 *            the status code.
+	 * @param e
+	 *            the error.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	private static void sendError(final HttpExchange exchange, final int code, final Exception e)
+			throws IOException {
+		final StringBuilder json = new StringBuilder("{\"error\":");
+		quote(json, (e.getMessage() == null) ? e.toString() : e.getMessage());
+		send(exchange, code, json.append('}').toString());
+	}
+
+	/**
+	 * Sends the events of the specified stream, until the stream is closed
+	 * or the client is gone.
+	 *
+	 * @param exchange
+	 *            the request.
+	 * @param subscriber
+	 *            the stream.
+	 * @param session
+	 *            the session.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	private void stream(final HttpExchange exchange, final Subscriber subscriber, final Session session)
+			throws IOException {
+		try {
+			exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+			exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+			exchange.sendResponseHeaders(200, 0);
+			final OutputStream output = exchange.getResponseBody();
+			output.write(("event: state\ndata: " + session.getState() + "\n\n").getBytes(StandardCharsets.UTF_8));
+			output.flush();
+			while (true) {
+				final String event;
+				try {
+					event = subscriber.queue.poll(KEEP_ALIVE, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+				if (event == Subscriber.END) {
+					break;
+				}
+				output.write(((event == null) ? ": keep-alive\n\n" : event).getBytes(StandardCharsets.UTF_8));
+				output.flush();
+			}
+			output.close();
+		} finally {
+			subscriber.closed = true;
+			session.subscribers.remove(subscriber);
+		}
+	}
+
+	/**
+	 * Starts the server.
+	 *
+	 * @param port
+	 *            the port.
+	 * @throws IOException
+	 *             if the server cannot be started.
+	 */
+	public void start(final int port) throws IOException {
+		if (!this.outputDirectory.exists() && !this.outputDirectory.mkdirs()) {
+			throw new RuntimeException("Unable to create the directory: " + this.outputDirectory.getPath());
+		}
+		if (!this.scenarioDirectory.isDirectory()) {
+			throw new RuntimeException("Scenario directory not found: " + this.scenarioDirectory.getPath());
+		}
+		this.httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		this.httpServer.createContext("/simulations", this::handle);
+		// The streams hold their thread as long as the client is connected.
+		this.httpServer.setExecutor(Executors.newCachedThreadPool(runnable -> {
+			final Thread thread = new Thread(runnable, "Server");
+			thread.setDaemon(true);
+			return thread;
+		}));
+		this.httpServer.start();
+		Jamel.println("Jamel " + Jamel.getVersion() + " (server)");
+		Jamel.println("Server", "http://" + this.httpServer.getAddress().getHostString() + ":"
+				+ this.httpServer.getAddress().getPort() + "/simulations", this.outputDirectory.getPath());
+	}
+
+	/**
+	 * Stops the server and closes all the simulations.
+	 */
+	public void stop() {
+		if (this.httpServer != null) {
+			this.httpServer.stop(0);
+			this.httpServer = null;
+		}
+		for (final Session session : this.sessions.values()) {
+			try {
+				session.close();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+		this.sessions.clear();
+	}
+
+}
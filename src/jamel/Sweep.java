@@ -0,0 +1,403 @@
+package jamel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import jamel.util.Simulation;
+
+/**
+ * Runs a scenario many times, over a grid of random seeds and entity values.
+ *
+ * Usage:
+ * {@code java jamel.Sweep <scenario.xml> <periods> <outputDirectory> <seeds> [entity=value,value,...]...}
+ *
+ * The seeds are given as a single seed ({@code 7}), a list ({@code 1,5,9}) or
+ * a range ({@code 1-500}). Each {@code entity=...} argument overrides the
+ * value of an {@code <!ENTITY>} declared in the scenario; the grid is the
+ * cartesian product of the seeds and of all the values.
+ *
+ * Each run is an independent headless simulation (see {@link BatchRunner})
+ * with its own {@code randomSeed}, and writes its exports into its own
+ * directory ({@code <outputDirectory>/run-0001}, ...). The runs are executed by
+ * a pool of workers sized to the number of available processors. A summary of
+ * all the runs is written into {@code <outputDirectory>/sweep.csv}.
+ */
+public class Sweep {
+
+	/**
+	 * A run of the sweep.
+	 */
+	private static class Run {
+
+		/**
+		 * The duration of the run (in milliseconds).
+		 */
+		private long duration = 0;
+
+		/**
+		 * The entity values of this run.
+		 */
+		final private Map<String, String> entities;
+
+		/**
+		 * The id of this run.
+		 */
+		final private int id;
+
+		/**
+		 * The random seed of this run.
+		 */
+		final private int seed;
+
+		/**
+		 * The status of this run.
+		 */
+		private String status = "pending";
+
+		/**
+		 * Creates a new run.
+		 *
+		 * @param id
+		 *            the id of the run.
+		 * @param seed
+		 *            the random seed.
+		 * @param entities
+		 *            the entity values.
+		 */
+		private Run(final int id, final int seed, final Map<String, String> entities) {
+			this.id = id;
+			this.seed = seed;
+			this.entities = entities;
+		}
+
+		/**
+		 * Returns the name of the directory of this run.
+		 *
+		 * @return the name of the directory of this run.
+		 */
+		private String getDirectoryName() {
+			return String.format("run-%04d", this.id);
+		}
+
+	}
+
+	/**
+	 * The pattern of the entity declarations.
+	 */
+	private static final Pattern entityPattern = Pattern
+			.compile("(<!ENTITY\\s+)([^\\s\"']+)(\\s+)(\"[^\"]*\"|'[^']*')(\\s*>)");
+
+	/**
+	 * The usage message.
+	 */
+	private static final String usage = "Usage: jamel.Sweep <scenario.xml> <periods> <outputDirectory> <seeds> [entity=value,value,...]...";
+
+	/**
+	 * Escapes the specified value for a csv file.
+	 *
+	 * @param value
+	 *            the value to be escaped.
+	 * @return the escaped value.
+	 */
+	private static String csv(final String value) {
+		final String result;
+		if (value.contains(",") || value.contains("\"")) {
+			result = "\"" + value.replace("\"", "\"\"") + "\"";
+		} else {
+			result = value;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the text of the scenario, with the specified entity values.
+	 *
+	 * @param text
+	 *            the text of the scenario.
+	 * @param entities
+	 *            the entity values to be overridden.
+	 * @return the text of the scenario with the new entity values.
+	 */
+	static String override(final String text, final Map<String, String> entities) {
+		final Matcher matcher = entityPattern.matcher(text);
+		final StringBuffer sb = new StringBuffer();
+		final List<String> found = new LinkedList<>();
+		while (matcher.find()) {
+			final String name = matcher.group(2);
+			if (entities.containsKey(name)) {
+				final String value = entities.get(name);
+				if (value.contains("\"")) {
+					throw new IllegalArgumentException("Bad value for entity " + name + ": " + value);
+				}
+				matcher.appendReplacement(sb, Matcher.quoteReplacement(
+						matcher.group(1) + name + matcher.group(3) + "\"" + value + "\"" + matcher.group(5)));
+				found.add(name);
+			} else {
+				matcher.appendReplacement(sb, Matcher.quoteReplacement(matcher.group()));
+			}
+		}
+		matcher.appendTail(sb);
+		for (final String name : entities.keySet()) {
+			if (!found.contains(name)) {
+				throw new IllegalArgumentException("Entity not declared in the scenario: " + name);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Parses the specified seeds.
+	 *
+	 * @param arg
+	 *            the seeds (eg. {@code 7}, {@code 1,5,9} or {@code 1-500}).
+	 * @return an array of seeds.
+	 */
+	static int[] parseSeeds(final String arg) {
+		final int[] result;
+		try {
+			if (arg.matches("\\d+-\\d+")) {
+				final String[] bounds = arg.split("-");
+				final int first = Integer.parseInt(bounds[0]);
+				final int last = Integer.parseInt(bounds[1]);
+				if (last < first) {
+					throw new IllegalArgumentException("Bad seeds: " + arg);
+				}
+				result = new int[last - first + 1];
+				for (int i = 0; i < result.length; i++) {
+					result[i] = first + i;
+				}
+			} else {
+				final String[] seeds = arg.split(",");
+				result = new int[seeds.length];
+				for (int i = 0; i < result.length; i++) {
+					result[i] = Integer.parseInt(seeds[i].trim());
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Bad seeds: " + arg);
+		}
+		return result;
+	}
+
+	/**
+	 * The main method of the sweep.
+	 *
+	 * @param args
+	 *            the path of the scenario, the number of periods, the output
+	 *            directory, the seeds and the entity values.
+	 */
+	public static void main(final String[] args) {
+
+		if (System.getProperty("java.awt.headless") == null) {
+			System.setProperty("java.awt.headless", "true");
+		}
+
+		if (args.length < 4) {
+			System.err.println(usage);
+			System.exit(1);
+		}
+
+		final Map<String, String[]> grid = new LinkedHashMap<>();
+		for (int i = 4; i < args.length; i++) {
+			final String[] split = args[i].split("=", 2);
+			if (split.length != 2 || split[0].isEmpty() || split[1].isEmpty()) {
+				throw new IllegalArgumentException("Bad argument: " + args[i]);
+			}
+			grid.put(split[0], split[1].split(","));
+		}
+
+		final Sweep sweep = new Sweep(new File(args[0]), BatchRunner.parsePeriods(args[1]), new File(args[2]),
+				parseSeeds(args[3]), grid);
+		sweep.run(Runtime.getRuntime().availableProcessors());
+
+	}
+
+	/**
+	 * The output directory.
+	 */
+	final private File outputDirectory;
+
+	/**
+	 * The number of periods of each run.
+	 */
+	final private int periods;
+
+	/**
+	 * The runs.
+	 */
+	final private List<Run> runs = new ArrayList<>();
+
+	/**
+	 * The scenario file.
+	 */
+	final private File scenario;
+
+	/**
+	 * The text of the scenario file.
+	 */
+	final private String text;
+
+	/**
+	 * Creates a new sweep.
+	 *
+	 * @param scenario
+	 *            the scenario file.
+	 * @param periods
+	 *            the number of periods of each run.
+	 * @param outputDirectory
+	 *            the output directory.
+	 * @param seeds
+	 *            the random seeds.
+	 * @param grid
+	 *            the entity values.
+	 */
+	public Sweep(final File scenario, final int periods, final File outputDirectory, final int[] seeds,
+			final Map<String, String[]> grid) {
+		this.scenario = scenario;
+		this.periods = periods;
+		this.outputDirectory = outputDirectory;
+		try {
+			this.text = new String(Files.readAllBytes(scenario.toPath()), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new RuntimeException("Something went wrong while reading the scenario file.", e);
+		}
+
+		// Expands the grid.
+
+		List<Map<String, String>> points = new LinkedList<>();
+		points.add(new LinkedHashMap<>());
+		for (final Entry<String, String[]> entry : grid.entrySet()) {
+			final List<Map<String, String>> expanded = new LinkedList<>();
+			for (final Map<String, String> point : points) {
+				for (final String value : entry.getValue()) {
+					final Map<String, String> newPoint = new LinkedHashMap<>(point);
+					newPoint.put(entry.getKey(), value.trim());
+					expanded.add(newPoint);
+				}
+			}
+			points = expanded;
+		}
+		for (final Map<String, String> point : points) {
+			override(this.text, point); // Checks the entity names before starting.
+			for (final int seed : seeds) {
+				this.runs.add(new Run(this.runs.size() + 1, seed, point));
+			}
+		}
+	}
+
+	/**
+	 * Executes the specified run.
+	 *
+	 * @param run
+	 *            the run to be executed.
+	 */
+	private void execute(final Run run) {
+		final long start = System.currentTimeMillis();
+		try {
+			final InputSource source = new InputSource(new StringReader(override(this.text, run.entities)));
+			source.setSystemId(this.scenario.toURI().toString());
+			final Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(source);
+			document.getDocumentElement().setAttribute("randomSeed", "" + run.seed);
+			final Simulation simulation = BatchRunner.newHeadlessSimulation(document, this.scenario,
+					new File(this.outputDirectory, run.getDirectoryName()));
+			try {
+				simulation.run(this.periods);
+			} finally {
+				simulation.close();
+			}
+			run.status = "done";
+		} catch (Exception e) {
+			Jamel.println("***");
+			Jamel.println("Something went wrong in " + run.getDirectoryName());
+			Jamel.println();
+			e.printStackTrace();
+			run.status = "failed: " + e;
+		}
+		run.duration = System.currentTimeMillis() - start;
+		Jamel.println(run.getDirectoryName(), "seed " + run.seed, run.entities.toString(), run.status,
+				run.duration + " ms");
+	}
+
+	/**
+	 * Writes the summary of the sweep.
+	 */
+	private void writeSummary() {
+		final File file = new File(this.outputDirectory, "sweep.csv");
+		try (final PrintWriter writer = new PrintWriter(file, "UTF-8")) {
+			final List<String> names = new ArrayList<>();
+			if (!this.runs.isEmpty()) {
+				names.addAll(this.runs.get(0).entities.keySet());
+			}
+			final StringBuilder header = new StringBuilder("run,directory,seed");
+			for (final String name : names) {
+				header.append(",").append(csv(name));
+			}
+			header.append(",status,duration");
+			writer.println(header);
+			for (final Run run : this.runs) {
+				final StringBuilder line = new StringBuilder();
+				line.append(run.id).append(",").append(run.getDirectoryName()).append(",").append(run.seed);
+				for (final String name : names) {
+					line.append(",").append(csv(run.entities.get(name)));
+				}
+				line.append(",").append(csv(run.status)).append(",").append(run.duration);
+				writer.println(line);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Something went wrong while writing the summary.", e);
+		}
+	}
+
+	/**
+	 * Executes all the runs of this sweep.
+	 *
+	 * @param workers
+	 *            the number of runs executed concurrently.
+	 */
+	public void run(final int workers) {
+		if (workers < 1) {
+			throw new IllegalArgumentException("Bad number of workers: " + workers);
+		}
+		if (!this.outputDirectory.exists() && !this.outputDirectory.mkdirs()) {
+			throw new RuntimeException("Unable to create the directory: " + this.outputDirectory.getPath());
+		}
+		Jamel.println("Sweep", this.scenario.getPath(), this.runs.size() + " runs", workers + " workers");
+		final ExecutorService pool = Executors.newFixedThreadPool(workers);
+		final List<Future<?>> futures = new LinkedList<>();
+		for (final Run run : this.runs) {
+			futures.add(pool.submit(() -> execute(run)));
+		}
+		pool.shutdown();
+		for (final Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException | ExecutionException e) {
+				throw new RuntimeException("Something went wrong while waiting for the runs.", e);
+			}
+		}
+		this.writeSummary();
+		Jamel.println("Sweep done", new File(this.outputDirectory, "sweep.csv").getPath());
+	}
+
+}
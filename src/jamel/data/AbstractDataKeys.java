@@ -1,5 +1,6 @@
 package jamel.data;
 
+import java.io.Serializable;
 import java.lang.reflect.Field;
 import java.util.HashMap;
 import java.util.Map;
@@ -7,7 +8,12 @@ import java.util.Map;
 /**
  * An abstract record of data keys.
  */
-public class AbstractDataKeys implements DataKeys {
+public class AbstractDataKeys implements DataKeys, Serializable {
+
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
 
 	/**
 	 * A map that associates data indexes with keys.
@@ -0,0 +1,256 @@
+package jamel.data;
+
+import org.jfree.data.xy.XYDataItem;
+
+import jamel.util.Sector;
+
+/**
+ * A scatter series rendered straight from primitive arrays.
+ *
+ * At each refresh, the x, y and selection columns of all the agents of the
+ * sector are read in a single pass by {@link Sector#getSnapshot(int, String...)}
+ * and compacted into two arrays of doubles (the agents not selected, or with
+ * a missing value, are dropped). The arrays are then swapped in one step by
+ * the event dispatch thread: no data item is created at each refresh, the
+ * items are only created on demand by {@link #getDataItem(int)}.
+ *
+ * The selection criteria ({@code key=value}) are parsed once, and the value
+ * is compared as a primitive double.
+ *
+ * 2018-04-27: new class, replaces the scatter series of the sector data
+ * managers (a list of {@code XYDataItem}, rebuilt at each refresh).
+ */
+public class ArrayScatterDynamicSeries extends AbstractScatterDynamicSeries {
+
+	/**
+	 * Returns {@code true} if all the specified conditions are verified.
+	 *
+	 * @param conditions
+	 *            the conditions ({@code null} if no condition).
+	 * @return {@code true} if all the specified conditions are verified.
+	 */
+	private static boolean isVerified(final Expression[] conditions) {
+		boolean result = true;
+		if (conditions != null) {
+			for (int i = 0; i < conditions.length; i++) {
+				final Double value = conditions[i].getValue();
+				if (value == null || value != 1) {
+					result = false;
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The conditions of update of the series.
+	 */
+	final private Expression[] conditions;
+
+	/**
+	 * The number of items.
+	 */
+	private int count = 0;
+
+	/**
+	 * The keys of the columns of the snapshot (x, y, and the selection key if
+	 * any).
+	 */
+	final private String[] keys;
+
+	/**
+	 * The bounds of the items.
+	 */
+	private double maxX = Double.NaN, maxY = Double.NaN, minX = Double.NaN, minY = Double.NaN;
+
+	/**
+	 * The sector.
+	 */
+	final private Sector sector;
+
+	/**
+	 * The value of the selection key (meaningful only if there is a selection
+	 * key).
+	 */
+	final private double selectValue;
+
+	/**
+	 * The x values.
+	 */
+	private double[] xValues = new double[0];
+
+	/**
+	 * The y values.
+	 */
+	private double[] yValues = new double[0];
+
+	/**
+	 * Creates a new scatter series.
+	 *
+	 * @param sector
+	 *            the sector.
+	 * @param xKey
+	 *            the key for the x values.
+	 * @param yKey
+	 *            the key for the y values.
+	 * @param conditions
+	 *            the conditions of update of the series.
+	 * @param selection
+	 *            a string that defines the selection criteria (
+	 *            {@code key=value}), or {@code null}.
+	 */
+	public ArrayScatterDynamicSeries(final Sector sector, final String xKey, final String yKey,
+			final Expression[] conditions, final String selection) {
+		super(sector.getName() + "," + xKey + "," + yKey + "," + selection, false);
+		this.sector = sector;
+		this.conditions = conditions;
+		if (selection != null) {
+			final String[] select = selection.split("=", 2);
+			if (select.length != 2) {
+				throw new RuntimeException("Bad selection: " + selection);
+			}
+			this.keys = new String[] { xKey, yKey, select[0] };
+			this.selectValue = Double.parseDouble(select[1]);
+		} else {
+			this.keys = new String[] { xKey, yKey };
+			this.selectValue = Double.NaN;
+		}
+	}
+
+	/**
+	 * Takes a snapshot of the sector for the current period, and returns the
+	 * update of the series.
+	 *
+	 * @return the update of the series.
+	 */
+	private Runnable snapshot() {
+		final double[][] columns = this.sector.getSnapshot(this.sector.getPeriod(), this.keys);
+		final double[] x = columns[0];
+		final double[] y = columns[1];
+		final double[] select = (columns.length > 2) ? columns[2] : null;
+		double x0 = Double.POSITIVE_INFINITY;
+		double x1 = Double.NEGATIVE_INFINITY;
+		double y0 = Double.POSITIVE_INFINITY;
+		double y1 = Double.NEGATIVE_INFINITY;
+		int n = 0;
+		for (int i = 0; i < x.length; i++) {
+			if ((select == null || select[i] == this.selectValue) && !Double.isNaN(x[i]) && !Double.isNaN(y[i])) {
+				// The columns are compacted in place (they are not shared).
+				x[n] = x[i];
+				y[n] = y[i];
+				x0 = Math.min(x0, x[i]);
+				x1 = Math.max(x1, x[i]);
+				y0 = Math.min(y0, y[i]);
+				y1 = Math.max(y1, y[i]);
+				n++;
+			}
+		}
+		final int size = n;
+		final double[] bounds = (size == 0) ? new double[] { Double.NaN, Double.NaN, Double.NaN, Double.NaN }
+				: new double[] { x0, x1, y0, y1 };
+		return () -> {
+			this.xValues = x;
+			this.yValues = y;
+			this.count = size;
+			this.minX = bounds[0];
+			this.maxX = bounds[1];
+			this.minY = bounds[2];
+			this.maxY = bounds[3];
+		};
+	}
+
+	@Override
+	public void clear() {
+		this.xValues = new double[0];
+		this.yValues = new double[0];
+		this.count = 0;
+		this.minX = Double.NaN;
+		this.maxX = Double.NaN;
+		this.minY = Double.NaN;
+		this.maxY = Double.NaN;
+		super.clear();
+	}
+
+	@Override
+	public Runnable evaluate() {
+		return isVerified(this.conditions) ? this.snapshot() : null;
+	}
+
+	@Override
+	public XYDataItem getDataItem(int index) {
+		return new XYDataItem(this.getXValue(index), this.getYValue(index));
+	}
+
+	@Override
+	public int getItemCount() {
+		return this.count;
+	}
+
+	@Override
+	public double getMaxX() {
+		return this.maxX;
+	}
+
+	@Override
+	public double getMaxY() {
+		return this.maxY;
+	}
+
+	@Override
+	public double getMinX() {
+		return this.minX;
+	}
+
+	@Override
+	public double getMinY() {
+		return this.minY;
+	}
+
+	@Override
+	public Number getX(int index) {
+		return this.getXValue(index);
+	}
+
+	/**
+	 * Returns the x-value at the specified index.
+	 *
+	 * @param index
+	 *            the index (zero-based).
+	 * @return the x-value.
+	 */
+	public double getXValue(int index) {
+		if (index < 0 || index >= this.count) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", count: " + this.count);
+		}
+		return this.xValues[index];
+	}
+
+	@Override
+	public Number getY(int index) {
+		return this.getYValue(index);
+	}
+
+	/**
+	 * Returns the y-value at the specified index.
+	 *
+	 * @param index
+	 *            the index (zero-based).
+	 * @return the y-value.
+	 */
+	public double getYValue(int index) {
+		if (index < 0 || index >= this.count) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", count: " + this.count);
+		}
+		return this.yValues[index];
+	}
+
+	@Override
+	public void update(boolean refresh) {
+		if (refresh && isVerified(this.conditions)) {
+			this.snapshot().run();
+			this.fireSeriesChanged();
+		}
+	}
+
+}
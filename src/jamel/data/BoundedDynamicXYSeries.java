@@ -0,0 +1,428 @@
+package jamel.data;
+
+import org.jfree.data.xy.XYDataItem;
+
+/**
+ * A dynamic series for the long simulations, with a bounded retention and a
+ * downsampled view.
+ *
+ * The data items are kept in a primitive store (two columns of doubles, used
+ * as a ring buffer): at most {@code retention} items are kept, the oldest
+ * items are dropped first.
+ *
+ * The chart does not see all the items of the store, but a level-of-detail
+ * view: the items are grouped into buckets of consecutive items, and each
+ * bucket is represented by its minimum and its maximum (in the order of the
+ * store). The size of the buckets is a power of two, doubled as soon as the
+ * number of buckets exceeds {@code resolution} (eg the width of the chart in
+ * pixels): the view has at most {@code 2 * resolution} items, whatever the
+ * length of the simulation. The view is updated incrementally as the items
+ * are appended and dropped, and rebuilt only when the size of the buckets
+ * changes.
+ *
+ * A {@code resolution} of 0 means no downsampling (the view contains all the
+ * items of the store).
+ *
+ * 2018-04-27: new class.
+ */
+public class BoundedDynamicXYSeries extends StandardDynamicXYSeries {
+
+	/**
+	 * The index of the bounds of the view.
+	 */
+	private static final int MIN_X = 0, MAX_X = 1, MIN_Y = 2, MAX_Y = 3;
+
+	/**
+	 * The bounds of the view ({@code null} if they must be computed again).
+	 */
+	private double[] bounds = null;
+
+	/**
+	 * The size of the buckets (a power of two).
+	 */
+	private int bucketSize = 1;
+
+	/**
+	 * The index (since the creation of the series) of the oldest item in the
+	 * store.
+	 */
+	private int first = 0;
+
+	/**
+	 * The index of the maximum of the newest bucket.
+	 */
+	private int newestMax = 0;
+
+	/**
+	 * The index of the minimum of the newest bucket.
+	 */
+	private int newestMin = 0;
+
+	/**
+	 * The maximum number of buckets in the view (0 for no downsampling).
+	 */
+	final private int resolution;
+
+	/**
+	 * The maximum number of items in the store (0 for no limit).
+	 */
+	final private int retention;
+
+	/**
+	 * If {@code true}, the change events are not sent (while the view is
+	 * updated).
+	 */
+	private boolean silent = false;
+
+	/**
+	 * The number of items appended since the creation of the series (the
+	 * index of the next item).
+	 */
+	private int total = 0;
+
+	/**
+	 * The x values of the store.
+	 */
+	private double[] xs = new double[16];
+
+	/**
+	 * The y values of the store ({@code NaN} for {@code null}).
+	 */
+	private double[] ys = new double[16];
+
+	/**
+	 * Constructs a new empty series.
+	 *
+	 * @param xExp
+	 *            the expression of the x values.
+	 * @param yExp
+	 *            the expression of the y values.
+	 * @param conditions
+	 *            a list of conditions ({@code null} permitted).
+	 * @param retention
+	 *            the maximum number of items kept (0 for no limit).
+	 * @param resolution
+	 *            the maximum number of buckets in the view (at least 2, or 0
+	 *            for no downsampling).
+	 */
+	public BoundedDynamicXYSeries(Expression xExp, Expression yExp, Expression[] conditions, int retention,
+			int resolution) {
+		super(xExp, yExp, conditions);
+		if (retention < 0 || resolution < 0 || resolution == 1) {
+			throw new RuntimeException("Bad retention or resolution: " + retention + ", " + resolution);
+		}
+		this.retention = retention;
+		this.resolution = resolution;
+	}
+
+	/**
+	 * Returns the number of buckets between the oldest and the newest items
+	 * of the store.
+	 *
+	 * @return the number of buckets.
+	 */
+	private int getBucketCount() {
+		return (this.total == this.first) ? 0 : (this.total - 1) / this.bucketSize - this.first / this.bucketSize + 1;
+	}
+
+	/**
+	 * Returns the bounds of the view.
+	 *
+	 * @return the bounds of the view.
+	 */
+	private double[] getBounds() {
+		if (this.bounds == null) {
+			this.bounds = new double[] { Double.NaN, Double.NaN, Double.NaN, Double.NaN };
+			for (int i = 0; i < this.data.size(); i++) {
+				final XYDataItem item = (XYDataItem) this.data.get(i);
+				final double x = item.getXValue();
+				this.bounds[MIN_X] = minIgnoreNaN(this.bounds[MIN_X], x);
+				this.bounds[MAX_X] = maxIgnoreNaN(this.bounds[MAX_X], x);
+				if (item.getY() != null) {
+					final double y = item.getYValue();
+					this.bounds[MIN_Y] = minIgnoreNaN(this.bounds[MIN_Y], y);
+					this.bounds[MAX_Y] = maxIgnoreNaN(this.bounds[MAX_Y], y);
+				}
+			}
+		}
+		return this.bounds;
+	}
+
+	/**
+	 * Returns the number of items of the view by bucket.
+	 *
+	 * @return the number of items by bucket.
+	 */
+	private int getItemsByBucket() {
+		return (this.bucketSize == 1) ? 1 : 2;
+	}
+
+	/**
+	 * Returns a new data item for the specified item of the store.
+	 *
+	 * @param index
+	 *            the index of the item (since the creation of the series).
+	 * @return a new data item.
+	 */
+	private XYDataItem getNewItem(final int index) {
+		final int slot = index % this.xs.length;
+		return new XYDataItem(Double.valueOf(this.xs[slot]),
+				Double.isNaN(this.ys[slot]) ? null : Double.valueOf(this.ys[slot]));
+	}
+
+	/**
+	 * Returns the y value of the specified item of the store.
+	 *
+	 * @param index
+	 *            the index of the item (since the creation of the series).
+	 * @return the y value ({@code NaN} for {@code null}).
+	 */
+	private double getStoredY(final int index) {
+		return this.ys[index % this.ys.length];
+	}
+
+	/**
+	 * Rebuilds the whole view.
+	 */
+	@SuppressWarnings("unchecked")
+	private void rebuild() {
+		this.data.clear();
+		if (this.total > this.first) {
+			final int lastBucket = (this.total - 1) / this.bucketSize;
+			for (int bucket = this.first / this.bucketSize; bucket <= lastBucket; bucket++) {
+				final XYDataItem[] items = this.select(bucket);
+				for (final XYDataItem item : items) {
+					this.data.add(item);
+				}
+			}
+		}
+		this.bounds = null;
+	}
+
+	/**
+	 * Returns the items of the view that represent the specified extremes of
+	 * a bucket.
+	 *
+	 * @param min
+	 *            the index of the minimum of the bucket.
+	 * @param max
+	 *            the index of the maximum of the bucket.
+	 * @return the items that represent the bucket, in the order of the
+	 *         store.
+	 */
+	private XYDataItem[] getNewItems(final int min, final int max) {
+		final XYDataItem[] result;
+		if (this.getItemsByBucket() == 1) {
+			result = new XYDataItem[] { this.getNewItem(min) };
+		} else {
+			result = new XYDataItem[] { this.getNewItem(Math.min(min, max)), this.getNewItem(Math.max(min, max)) };
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the items of the view that represent the specified bucket.
+	 *
+	 * @param bucket
+	 *            the bucket.
+	 * @return the items that represent the bucket, in the order of the
+	 *         store.
+	 */
+	private XYDataItem[] select(final int bucket) {
+		final int start = Math.max(this.first, bucket * this.bucketSize);
+		final int end = Math.min(this.total, (bucket + 1) * this.bucketSize);
+		int min = start;
+		int max = start;
+		for (int i = start + 1; i < end; i++) {
+			final double y = this.getStoredY(i);
+			if (!Double.isNaN(y)) {
+				if (Double.isNaN(this.getStoredY(min)) || y < this.getStoredY(min)) {
+					min = i;
+				}
+				if (Double.isNaN(this.getStoredY(max)) || y > this.getStoredY(max)) {
+					max = i;
+				}
+			}
+		}
+		if (end == this.total) {
+			this.newestMin = min;
+			this.newestMax = max;
+		}
+		return this.getNewItems(min, max);
+	}
+
+	/**
+	 * Stores a new item, and drops the oldest item if the retention is
+	 * exceeded.
+	 *
+	 * @param xValue
+	 *            the x value.
+	 * @param yValue
+	 *            the y value ({@code null} permitted).
+	 * @return {@code true} if the oldest item was dropped.
+	 */
+	private boolean store(final double xValue, final Double yValue) {
+		final int size = this.total - this.first;
+		final boolean drop = this.retention > 0 && size == this.retention;
+		if (drop) {
+			this.first++;
+		} else if (size == this.xs.length) {
+			// The store is full: its capacity is doubled (the items keep
+			// their index).
+			final int capacity = (this.retention > 0) ? Math.min(2 * size, this.retention) : 2 * size;
+			final double[] newXs = new double[capacity];
+			final double[] newYs = new double[capacity];
+			for (int i = this.first; i < this.total; i++) {
+				newXs[i % capacity] = this.xs[i % this.xs.length];
+				newYs[i % capacity] = this.ys[i % this.ys.length];
+			}
+			this.xs = newXs;
+			this.ys = newYs;
+		}
+		final int slot = this.total % this.xs.length;
+		this.xs[slot] = xValue;
+		this.ys[slot] = (yValue == null) ? Double.NaN : yValue;
+		this.total++;
+		return drop;
+	}
+
+	/**
+	 * Updates the view after a new item was appended (and the oldest item
+	 * possibly dropped).
+	 *
+	 * @param dropped
+	 *            {@code true} if the oldest item was dropped.
+	 */
+	@SuppressWarnings("unchecked")
+	private void updateView(final boolean dropped) {
+		final int n = this.getItemsByBucket();
+
+		// The oldest bucket.
+
+		if (dropped) {
+			if (this.first % this.bucketSize == 0) {
+				// The oldest bucket is empty.
+				for (int i = 0; i < n; i++) {
+					this.data.remove(0);
+				}
+			} else {
+				final XYDataItem[] items = this.select(this.first / this.bucketSize);
+				for (int i = 0; i < n; i++) {
+					this.data.set(i, items[i]);
+				}
+			}
+		}
+
+		// The newest bucket.
+
+		final int newest = this.total - 1;
+		if (newest % this.bucketSize == 0 || newest == this.first) {
+			this.newestMin = newest;
+			this.newestMax = newest;
+			for (final XYDataItem item : this.getNewItems(newest, newest)) {
+				this.data.add(item);
+			}
+		} else {
+			final XYDataItem[] items;
+			if (dropped && this.first / this.bucketSize == newest / this.bucketSize) {
+				// The oldest bucket is also the newest one (already selected
+				// again).
+				items = this.getNewItems(this.newestMin, this.newestMax);
+			} else {
+				final double y = this.getStoredY(newest);
+				if (!Double.isNaN(y)) {
+					if (Double.isNaN(this.getStoredY(this.newestMin)) || y < this.getStoredY(this.newestMin)) {
+						this.newestMin = newest;
+					}
+					if (Double.isNaN(this.getStoredY(this.newestMax)) || y > this.getStoredY(this.newestMax)) {
+						this.newestMax = newest;
+					}
+				}
+				items = this.getNewItems(this.newestMin, this.newestMax);
+			}
+			for (int i = 0; i < n; i++) {
+				this.data.set(this.data.size() - n + i, items[i]);
+			}
+		}
+		this.bounds = null;
+	}
+
+	/**
+	 * Returns the largest of the two values, ignoring {@code NaN}.
+	 *
+	 * @param a
+	 *            a value.
+	 * @param b
+	 *            another value.
+	 * @return the largest value.
+	 */
+	private static double maxIgnoreNaN(final double a, final double b) {
+		return Double.isNaN(a) ? b : (Double.isNaN(b) ? a : Math.max(a, b));
+	}
+
+	/**
+	 * Returns the smallest of the two values, ignoring {@code NaN}.
+	 *
+	 * @param a
+	 *            a value.
+	 * @param b
+	 *            another value.
+	 * @return the smallest value.
+	 */
+	private static double minIgnoreNaN(final double a, final double b) {
+		return Double.isNaN(a) ? b : (Double.isNaN(b) ? a : Math.min(a, b));
+	}
+
+	@Override
+	protected void append(final Double xValue, final Double yValue) {
+		this.silent = true;
+		try {
+			final boolean dropped = this.store(xValue, yValue);
+			if (this.resolution > 0 && this.getBucketCount() > this.resolution) {
+				while (this.getBucketCount() > this.resolution) {
+					this.bucketSize *= 2;
+				}
+				this.rebuild();
+			} else {
+				this.updateView(dropped);
+			}
+		} finally {
+			this.silent = false;
+		}
+	}
+
+	@Override
+	public void clear() {
+		this.first = this.total;
+		super.clear();
+		this.bounds = null;
+	}
+
+	@Override
+	public void fireSeriesChanged() {
+		if (!this.silent) {
+			super.fireSeriesChanged();
+		}
+	}
+
+	@Override
+	public double getMaxX() {
+		return this.getBounds()[MAX_X];
+	}
+
+	@Override
+	public double getMaxY() {
+		return this.getBounds()[MAX_Y];
+	}
+
+	@Override
+	public double getMinX() {
+		return this.getBounds()[MIN_X];
+	}
+
+	@Override
+	public double getMinY() {
+		return this.getBounds()[MIN_Y];
+	}
+
+}
@@ -0,0 +1,214 @@
+package jamel.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An expression compiled into a flat program of primitive operations.
+ *
+ * The tree of operations built by the {@link ExpressionFactory} is turned
+ * into a postfix program, evaluated on a preallocated stack of doubles, so
+ * that the evaluation of the expression does not box any intermediate value.
+ * The leaves of the tree (the data accesses, the time, etc.) are evaluated
+ * through {@link Expression#getDoubleValue()}, and {@code NaN} stands for
+ * {@code null}. Constant sub-trees are folded at compile time.
+ *
+ * Each thread that evaluates a compiled expression has its own stack: the
+ * same expression can be evaluated by the thread of the simulation and by the
+ * event dispatch thread, or by the threads of the server.
+ */
+public final class CompiledExpression implements Expression {
+
+	/**
+	 * Pushes a constant.
+	 */
+	private static final int LOAD_CONSTANT = 16;
+
+	/**
+	 * Pushes the value of a leaf.
+	 */
+	private static final int LOAD_LEAF = 17;
+
+	/**
+	 * Compiles the specified expression.
+	 *
+	 * @param expression
+	 *            the expression to be compiled.
+	 * @return the compiled expression, or the expression itself if it is not
+	 *         an operation (nothing to compile).
+	 */
+	static Expression compile(final Expression expression) {
+		final Expression result;
+		if (!(expression instanceof Operation)) {
+			result = expression;
+		} else {
+			result = new CompiledExpression(fold(expression), expression.toString());
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the specified expression with its constant sub-trees replaced
+	 * by constants.
+	 *
+	 * @param expression
+	 *            the expression to be folded.
+	 * @return the folded expression.
+	 */
+	private static Expression fold(final Expression expression) {
+		final Expression result;
+		if (!(expression instanceof Operation) || ((Operation) expression).isConstant()) {
+			result = expression;
+		} else {
+			final Operation operation = (Operation) expression;
+			final Expression arg1 = fold(operation.arg1);
+			final Expression arg2 = (operation.arg2 == null) ? null : fold(operation.arg2);
+			final Operation newOperation = new Operation(operation.op, arg1, arg2);
+			if (isConstant(arg1) && (arg2 == null || isConstant(arg2))) {
+				final double value = newOperation.getDoubleValue();
+				result = Double.isNaN(value) ? new Operation(Operation.NULL, null, null) : new Operation(value);
+			} else {
+				result = newOperation;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns {@code true} if the specified expression is a constant.
+	 *
+	 * @param expression
+	 *            the expression to be tested.
+	 * @return {@code true} if the specified expression is a constant.
+	 */
+	private static boolean isConstant(final Expression expression) {
+		return expression instanceof Operation && ((Operation) expression).isConstant();
+	}
+
+	/**
+	 * The program (each instruction is an operation code in the lower byte
+	 * and an operand in the upper bytes).
+	 */
+	final private int[] code;
+
+	/**
+	 * The constants of the program.
+	 */
+	final private double[] constants;
+
+	/**
+	 * The leaves of the program.
+	 */
+	final private Expression[] leaves;
+
+	/**
+	 * The description of this expression.
+	 */
+	final private String name;
+
+	/**
+	 * The stack of the evaluator, one per thread.
+	 */
+	final private ThreadLocal<double[]> stack;
+
+	/**
+	 * Creates a new compiled expression.
+	 *
+	 * @param tree
+	 *            the (folded) tree of the expression.
+	 * @param name
+	 *            the description of the expression.
+	 */
+	private CompiledExpression(final Expression tree, final String name) {
+		final List<Integer> code = new ArrayList<>();
+		final List<Double> constants = new ArrayList<>();
+		final List<Expression> leaves = new ArrayList<>();
+		final int depth = this.emit(tree, code, constants, leaves);
+		this.code = new int[code.size()];
+		for (int i = 0; i < this.code.length; i++) {
+			this.code[i] = code.get(i);
+		}
+		this.constants = new double[constants.size()];
+		for (int i = 0; i < this.constants.length; i++) {
+			this.constants[i] = constants.get(i);
+		}
+		this.leaves = leaves.toArray(new Expression[leaves.size()]);
+		this.stack = ThreadLocal.withInitial(() -> new double[depth]);
+		this.name = name;
+	}
+
+	/**
+	 * Emits the program of the specified tree.
+	 *
+	 * @param tree
+	 *            the tree.
+	 * @param code
+	 *            the program.
+	 * @param constants
+	 *            the constants of the program.
+	 * @param leaves
+	 *            the leaves of the program.
+	 * @return the depth of the stack needed to evaluate the tree.
+	 */
+	private int emit(final Expression tree, final List<Integer> code, final List<Double> constants,
+			final List<Expression> leaves) {
+		final int depth;
+		if (!(tree instanceof Operation)) {
+			code.add(LOAD_LEAF | (leaves.size() << 8));
+			leaves.add(tree);
+			depth = 1;
+		} else {
+			final Operation operation = (Operation) tree;
+			if (operation.isConstant()) {
+				code.add(LOAD_CONSTANT | (constants.size() << 8));
+				constants.add(operation.getDoubleValue());
+				depth = 1;
+			} else if (operation.op == Operation.NEG) {
+				depth = this.emit(operation.arg1, code, constants, leaves);
+				code.add(Operation.NEG);
+			} else {
+				final int depth1 = this.emit(operation.arg1, code, constants, leaves);
+				final int depth2 = this.emit(operation.arg2, code, constants, leaves);
+				code.add(operation.op);
+				depth = Math.max(depth1, depth2 + 1);
+			}
+		}
+		return depth;
+	}
+
+	@Override
+	public double getDoubleValue() {
+		final double[] stack = this.stack.get();
+		int top = -1;
+		for (final int instruction : this.code) {
+			final int op = instruction & 0xFF;
+			switch (op) {
+			case LOAD_CONSTANT:
+				stack[++top] = this.constants[instruction >>> 8];
+				break;
+			case LOAD_LEAF:
+				stack[++top] = this.leaves[instruction >>> 8].getDoubleValue();
+				break;
+			case Operation.NEG:
+				stack[top] = -stack[top];
+				break;
+			default:
+				top--;
+				stack[top] = Operation.apply(op, stack[top], stack[top + 1]);
+			}
+		}
+		return stack[0];
+	}
+
+	@Override
+	public Double getValue() {
+		final double result = getDoubleValue();
+		return (Double.isNaN(result)) ? null : result;
+	}
+
+	@Override
+	public String toString() {
+		return this.name;
+	}
+
+}
@@ -5,6 +5,24 @@ package jamel.data;
  */
 public interface DynamicSeries {
 
+	/**
+	 * Evaluates the series for the current period, without modifying the
+	 * series.
+	 * 
+	 * Called by the simulation thread when the gui is refreshed
+	 * asynchronously: the values are read from the agents and stored in the
+	 * returned update, which is applied later by the event dispatch thread.
+	 * 
+	 * @return the update of the series (or {@code null} if the series is not
+	 *         updated at this period).
+	 */
+	public Runnable evaluate();
+
+	/**
+	 * Sends a change event to the listeners of the series.
+	 */
+	public void fireSeriesChanged();
+
 	/**
 	 * Updates the series.
 	 * 
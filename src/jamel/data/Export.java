@@ -1,26 +1,287 @@
 package jamel.data;
 
-import java.util.LinkedList;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPOutputStream;
 
-import jamel.Jamel;
 import jamel.util.JamelObject;
 import jamel.util.Parameters;
 import jamel.util.Simulation;
 
 /**
  * Exports the data observed into an output file.
+ *
+ * <p>
+ * The expressions to be exported are listed in the text content of the
+ * {@code export} element, separated by semicolons. The following attributes
+ * are optional:
+ * <ul>
+ * <li>{@code file}: the name of the output file, relative to the output
+ * directory of the simulation (default: {@code export});</li>
+ * <li>{@code format}: {@code csv} (default) or {@code binary};</li>
+ * <li>{@code compression}: {@code none} (default) or {@code gzip};</li>
+ * <li>{@code flush}: the number of periods between two flushes of the file
+ * (default: 0, the file is flushed when it is closed);</li>
+ * <li>{@code queue}: the capacity of the queue of the writer (default:
+ * 256 periods).</li>
+ * </ul>
+ *
+ * <p>
+ * One row is exported per period. The values are evaluated by the simulation
+ * thread and written by a background thread: the simulation only waits if
+ * the queue is full.
+ *
+ * <p>
+ * The binary format is columnar: a header ({@code "JMLX"}, the version, the
+ * number of columns and their names), then blocks of rows (the number of
+ * rows, the periods as ints, then each column as doubles, {@code NaN} for
+ * {@code null}), and finally a block of zero rows.
+ *
+ * 2018-04-23: implements the export of the data (was a TODO).
  */
 public class Export extends JamelObject {
 
+	/**
+	 * A writer of the rows, for a given format.
+	 */
+	private interface RowWriter {
+
+		/**
+		 * Closes the output.
+		 *
+		 * @throws IOException
+		 *             if an I/O error occurs.
+		 */
+		void close() throws IOException;
+
+		/**
+		 * Flushes the output.
+		 *
+		 * @throws IOException
+		 *             if an I/O error occurs.
+		 */
+		void flush() throws IOException;
+
+		/**
+		 * Writes the specified row.
+		 *
+		 * @param row
+		 *            the row (the period, then the values).
+		 * @throws IOException
+		 *             if an I/O error occurs.
+		 */
+		void write(double[] row) throws IOException;
+
+	}
+
+	/**
+	 * The number of rows of the blocks of the binary format.
+	 */
+	private static final int BLOCK_SIZE = 64;
+
+	/**
+	 * The default capacity of the queue.
+	 */
+	private static final int DEFAULT_QUEUE = 256;
+
+	/**
+	 * The end-of-stream marker.
+	 */
+	private static final double[] END = new double[0];
+
+	/**
+	 * The version of the binary format.
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * Returns a writer of rows in the binary columnar format.
+	 *
+	 * @param output
+	 *            the output stream.
+	 * @param names
+	 *            the names of the columns.
+	 * @return a new writer.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	private static RowWriter getBinaryWriter(final OutputStream output, final String[] names) throws IOException {
+		final DataOutputStream data = new DataOutputStream(output);
+		data.writeBytes("JMLX");
+		data.writeInt(VERSION);
+		data.writeInt(names.length);
+		for (final String name : names) {
+			data.writeUTF(name);
+		}
+		return new RowWriter() {
+
+			/**
+			 * The rows of the current block.
+			 */
+			final private double[][] block = new double[BLOCK_SIZE][];
+
+			/**
+			 * The number of rows in the current block.
+			 */
+			private int size = 0;
+
+			/**
+			 * Writes the current block.
+			 *
+			 * @throws IOException
+			 *             if an I/O error occurs.
+			 */
+			private void writeBlock() throws IOException {
+				if (this.size > 0) {
+					data.writeInt(this.size);
+					for (int i = 0; i < this.size; i++) {
+						data.writeInt((int) this.block[i][0]);
+					}
+					for (int column = 1; column <= names.length; column++) {
+						for (int i = 0; i < this.size; i++) {
+							data.writeDouble(this.block[i][column]);
+						}
+					}
+					this.size = 0;
+				}
+			}
+
+			@Override
+			public void close() throws IOException {
+				this.writeBlock();
+				data.writeInt(0);
+				data.close();
+			}
+
+			@Override
+			public void flush() throws IOException {
+				this.writeBlock();
+				data.flush();
+			}
+
+			@Override
+			public void write(final double[] row) throws IOException {
+				this.block[this.size] = row;
+				this.size++;
+				if (this.size == BLOCK_SIZE) {
+					this.writeBlock();
+				}
+			}
+
+		};
+	}
+
+	/**
+	 * Returns a writer of rows in the csv format (semicolon-separated, empty
+	 * cells for {@code null}).
+	 *
+	 * @param output
+	 *            the output stream.
+	 * @param names
+	 *            the names of the columns.
+	 * @return a new writer.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	private static RowWriter getCsvWriter(final OutputStream output, final String[] names) throws IOException {
+		final Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+		final StringBuilder header = new StringBuilder("period");
+		for (final String name : names) {
+			header.append(';').append(name.replace(';', ','));
+		}
+		writer.write(header.append('\n').toString());
+		return new RowWriter() {
+
+			/**
+			 * The line being written.
+			 */
+			final private StringBuilder line = new StringBuilder();
+
+			@Override
+			public void close() throws IOException {
+				writer.close();
+			}
+
+			@Override
+			public void flush() throws IOException {
+				writer.flush();
+			}
+
+			@Override
+			public void write(final double[] row) throws IOException {
+				this.line.setLength(0);
+				this.line.append((int) row[0]);
+				for (int i = 1; i < row.length; i++) {
+					this.line.append(';');
+					if (!Double.isNaN(row[i])) {
+						this.line.append(row[i]);
+					}
+				}
+				writer.write(this.line.append('\n').toString());
+			}
+
+		};
+	}
+
+	/**
+	 * {@code true} once the export has been closed.
+	 */
+	private boolean closed = false;
+
+	/**
+	 * The compression ({@code none} or {@code gzip}).
+	 */
+	final private String compression;
+
+	/**
+	 * The error raised by the writer thread.
+	 */
+	private volatile Throwable error = null;
+
 	/**
 	 * The data to be observed.
 	 */
-	final private List<Expression> expressions = new LinkedList<>();
+	final private List<Expression> expressions = new ArrayList<>();
+
+	/**
+	 * The name of the output file.
+	 */
+	final private String fileName;
+
+	/**
+	 * The number of periods between two flushes (0: flushed on close only).
+	 */
+	final private int flush;
+
+	/**
+	 * The format ({@code csv} or {@code binary}).
+	 */
+	final private String format;
+
+	/**
+	 * The queue of the rows to be written.
+	 */
+	final private BlockingQueue<double[]> queue;
+
+	/**
+	 * The writer thread (started with the first row).
+	 */
+	private Thread thread = null;
 
 	/**
 	 * Creates a new Export object.
-	 * 
+	 *
 	 * @param param
 	 *            the description of the data to be observed.
 	 * @param simulation
@@ -31,9 +292,114 @@ public class Export extends JamelObject {
 		final String[] keys = param.splitTextContent(";");
 		for (final String key : keys) {
 			if (!key.trim().isEmpty()) {
-				Jamel.notYetImplemented();
-				// this.expressions.add(this.getSimulation().getExpression(key.trim()));
+				this.expressions.add(this.getSimulation().getExpression(key.trim()));
+			}
+		}
+
+		this.format = param.hasAttribute("format") ? param.getAttribute("format") : "csv";
+		if (!this.format.equals("csv") && !this.format.equals("binary")) {
+			throw new RuntimeException("Bad export format: '" + this.format + "'");
+		}
+		this.compression = param.hasAttribute("compression") ? param.getAttribute("compression") : "none";
+		if (!this.compression.equals("none") && !this.compression.equals("gzip")) {
+			throw new RuntimeException("Bad export compression: '" + this.compression + "'");
+		}
+		this.flush = param.hasAttribute("flush") ? param.getIntAttribute("flush") : 0;
+		if (this.flush < 0) {
+			throw new RuntimeException("Bad flush interval: " + this.flush);
+		}
+		final int capacity = param.hasAttribute("queue") ? param.getIntAttribute("queue") : DEFAULT_QUEUE;
+		if (capacity < 1) {
+			throw new RuntimeException("Bad queue capacity: " + capacity);
+		}
+		this.queue = new ArrayBlockingQueue<>(capacity);
+
+		String fileName = param.hasAttribute("file") ? param.getAttribute("file") : "export";
+		final String extension = this.format.equals("csv") ? ".csv" : ".bin";
+		if (!fileName.endsWith(extension) && !fileName.endsWith(extension + ".gz")) {
+			fileName += extension;
+		}
+		if (this.compression.equals("gzip") && !fileName.endsWith(".gz")) {
+			fileName += ".gz";
+		}
+		this.fileName = fileName;
+	}
+
+	/**
+	 * Checks that the writer thread has not failed.
+	 */
+	private void checkError() {
+		if (this.error != null) {
+			throw new RuntimeException("Something went wrong while exporting the data: " + this.fileName,
+					this.error);
+		}
+	}
+
+	/**
+	 * Opens the output file and starts the writer thread.
+	 */
+	private void start() {
+		final File file = new File(this.getSimulation().getOutputDirectory(), this.fileName);
+		final File parent = file.getParentFile();
+		if (parent != null && !parent.exists() && !parent.mkdirs()) {
+			throw new RuntimeException("Unable to create the directory: " + parent.getPath());
+		}
+		final String[] names = new String[this.expressions.size()];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = this.expressions.get(i).toString();
+		}
+		final RowWriter writer;
+		try {
+			OutputStream output = new FileOutputStream(file);
+			if (this.compression.equals("gzip")) {
+				output = new GZIPOutputStream(output, 1 << 16, true);
 			}
+			output = new BufferedOutputStream(output, 1 << 16);
+			writer = this.format.equals("csv") ? getCsvWriter(output, names) : getBinaryWriter(output, names);
+		} catch (IOException e) {
+			throw new RuntimeException("Something went wrong while opening the file: " + file.getPath(), e);
+		}
+		this.thread = new Thread(() -> {
+			try {
+				int count = 0;
+				while (true) {
+					final double[] row = this.queue.take();
+					if (row == END) {
+						break;
+					}
+					writer.write(row);
+					count++;
+					if (this.flush > 0 && count % this.flush == 0) {
+						writer.flush();
+					}
+				}
+				writer.close();
+			} catch (Throwable e) {
+				this.error = e;
+				this.queue.clear();
+			}
+		}, "Export " + this.fileName);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Writes the remaining data and closes the output file.
+	 */
+	public void close() {
+		this.closed = true;
+		if (this.thread != null) {
+			try {
+				if (this.error == null) {
+					this.queue.put(END);
+				}
+				this.thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while closing the export: " + this.fileName, e);
+			}
+			this.thread = null;
+			this.checkError();
 		}
 	}
 
@@ -41,9 +407,27 @@ public class Export extends JamelObject {
 	 * Exports the data observed into the output file.
 	 */
 	public void run() {
-		// TODO implement me !
-		for (final Expression expression : this.expressions) {
-			Jamel.println(expression.toString(), expression.getValue() + ";");
+		if (!this.expressions.isEmpty()) {
+			this.checkError();
+			if (this.thread == null) {
+				if (this.closed) {
+					// 2018-04-27: a closed export is not reopened (the file
+					// would be truncated).
+					throw new RuntimeException("Export closed: " + this.fileName);
+				}
+				this.start();
+			}
+			final double[] row = new double[this.expressions.size() + 1];
+			row[0] = this.getPeriod();
+			for (int i = 0; i < this.expressions.size(); i++) {
+				row[i + 1] = this.expressions.get(i).getDoubleValue();
+			}
+			try {
+				this.queue.put(row);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while exporting the data: " + this.fileName, e);
+			}
 		}
 	}
 
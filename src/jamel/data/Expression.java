@@ -12,4 +12,15 @@ public interface Expression {
 	 */
 	Double getValue();
 
+	/**
+	 * Returns the numerical value of this expression as a primitive double,
+	 * {@code NaN} standing for {@code null}.
+	 * 
+	 * @return the numerical value of this expression, or {@code NaN}.
+	 */
+	default double getDoubleValue() {
+		final Double value = getValue();
+		return (value == null) ? Double.NaN : value;
+	}
+
 }
@@ -65,26 +65,7 @@ public class ExpressionFactory extends JamelObject {
 	 * @return the specified addition.
 	 */
 	private static Expression getAddition(final Expression arg1, final Expression arg2) {
-		ArgChecks.nullNotPermitted(arg1, "arg1");
-		ArgChecks.nullNotPermitted(arg2, "arg2");
-		final Expression result = new Expression() {
-
-			@Override
-			public Double getValue() {
-
-				final Double v1 = arg1.getValue();
-				final Double v2 = arg2.getValue();
-				return (v1 == null || v2 == null) ? null : v1 + v2;
-
-			}
-
-			@Override
-			public String toString() {
-				return "(" + arg1.toString() + " + " + arg2.toString() + ")";
-			}
-
-		};
-		return result;
+		return new Operation(Operation.ADD, arg1, arg2);
 	}
 
 	/**
@@ -97,26 +78,7 @@ public class ExpressionFactory extends JamelObject {
 	 * @return the specified division.
 	 */
 	private static Expression getDivision(final Expression arg1, final Expression arg2) {
-		ArgChecks.nullNotPermitted(arg1, "arg1");
-		ArgChecks.nullNotPermitted(arg2, "arg2");
-		final Expression result = new Expression() {
-
-			@Override
-			public Double getValue() {
-
-				final Double v1 = arg1.getValue();
-				final Double v2 = arg2.getValue();
-				return (v1 == null || v2 == null || v2 == 0) ? null : v1 / v2;
-
-			}
-
-			@Override
-			public String toString() {
-				return arg1.toString() + " / " + arg2.toString();
-			}
-
-		};
-		return result;
+		return new Operation(Operation.DIV, arg1, arg2);
 	}
 
 	/**
@@ -129,26 +91,7 @@ public class ExpressionFactory extends JamelObject {
 	 * @return the specified modulo operation.
 	 */
 	private static Expression getModulo(final Expression arg1, final Expression arg2) {
-		ArgChecks.nullNotPermitted(arg1, "arg1");
-		ArgChecks.nullNotPermitted(arg2, "arg2");
-		final Expression result = new Expression() {
-
-			@Override
-			public Double getValue() {
-
-				final Double v1 = arg1.getValue();
-				final Double v2 = arg2.getValue();
-				return (v1 == null || v2 == null || v2 == 0) ? null : v1 % v2;
-
-			}
-
-			@Override
-			public String toString() {
-				return arg1.toString() + " % " + arg2.toString();
-			}
-
-		};
-		return result;
+		return new Operation(Operation.MOD, arg1, arg2);
 	}
 
 	/**
@@ -161,26 +104,7 @@ public class ExpressionFactory extends JamelObject {
 	 * @return the specified multiplication.
 	 */
 	private static Expression getMultiplication(final Expression arg1, final Expression arg2) {
-		ArgChecks.nullNotPermitted(arg1, "arg1");
-		ArgChecks.nullNotPermitted(arg2, "arg2");
-		final Expression result = new Expression() {
-
-			@Override
-			public Double getValue() {
-
-				final Double v1 = arg1.getValue();
-				final Double v2 = arg2.getValue();
-				return (v1 == null || v2 == null) ? null : v1 * v2;
-
-			}
-
-			@Override
-			public String toString() {
-				return arg1.toString() + " * " + arg2.toString();
-			}
-
-		};
-		return result;
+		return new Operation(Operation.MUL, arg1, arg2);
 	}
 
 	/**
@@ -189,19 +113,7 @@ public class ExpressionFactory extends JamelObject {
 	 * @return a new "null" expression.
 	 */
 	private static Expression getNull() {
-		return new Expression() {
-
-			@Override
-			public Double getValue() {
-				return null;
-			}
-
-			@Override
-			public String toString() {
-				return "null";
-			}
-
-		};
+		return new Operation(Operation.NULL, null, null);
 	}
 
 	/**
@@ -212,21 +124,7 @@ public class ExpressionFactory extends JamelObject {
 	 * @return an expression that represents the specified numeric constant.
 	 */
 	private static Expression getNumeric(final double d) {
-
-		final Expression result = new Expression() {
-
-			@Override
-			public Double getValue() {
-				return d;
-			}
-
-			@Override
-			public String toString() {
-				return "" + d;
-			}
-
-		};
-		return result;
+		return new Operation(d);
 	}
 
 	/**
@@ -237,24 +135,7 @@ public class ExpressionFactory extends JamelObject {
 	 * @return the opposite of the specified expression.
 	 */
 	private static Expression getOpposite(final Expression arg) {
-		ArgChecks.nullNotPermitted(arg, "arg");
-		final Expression result = new Expression() {
-
-			@Override
-			public Double getValue() {
-
-				final Double v = arg.getValue();
-				return (v == null) ? null : -v;
-
-			}
-
-			@Override
-			public String toString() {
-				return "- " + arg.toString();
-			}
-
-		};
-		return result;
+		return new Operation(Operation.NEG, arg, null);
 	}
 
 	/**
@@ -267,26 +148,7 @@ public class ExpressionFactory extends JamelObject {
 	 * @return the specified subtraction.
 	 */
 	private static Expression getSubtraction(final Expression arg1, final Expression arg2) {
-		ArgChecks.nullNotPermitted(arg1, "arg1");
-		ArgChecks.nullNotPermitted(arg2, "arg2");
-		final Expression result = new Expression() {
-
-			@Override
-			public Double getValue() {
-
-				final Double v1 = arg1.getValue();
-				final Double v2 = arg2.getValue();
-				return (v1 == null || v2 == null) ? null : v1 - v2;
-
-			}
-
-			@Override
-			public String toString() {
-				return "(" + arg1.toString() + " - " + arg2.toString() + ")";
-			}
-
-		};
-		return result;
+		return new Operation(Operation.SUB, arg1, arg2);
 	}
 
 	/**
@@ -302,50 +164,12 @@ public class ExpressionFactory extends JamelObject {
 	 *         <code>0</code> otherwise.
 	 */
 	private static Expression getTestEqual(Expression arg1, Expression arg2) {
-		ArgChecks.nullNotPermitted(arg1, "arg1");
-		ArgChecks.nullNotPermitted(arg2, "arg2");
-		final Expression result = new Expression() {
-
-			@Override
-			public Double getValue() {
-
-				final Double v1 = arg1.getValue();
-				final Double v2 = arg2.getValue();
-				return (v1 == null || v2 == null) ? null : (v1.equals(v2)) ? 1. : 0.;
-
-			}
-
-			@Override
-			public String toString() {
-				return "isEqual(" + arg1.toString() + ", " + arg2.toString() + ")";
-			}
-
-		};
-		return result;
+		return new Operation(Operation.EQUAL, arg1, arg2);
 	}
 
 	@SuppressWarnings("javadoc")
 	private static Expression getTestNotEqual(Expression arg1, Expression arg2) {
-		ArgChecks.nullNotPermitted(arg1, "arg1");
-		ArgChecks.nullNotPermitted(arg2, "arg2");
-		final Expression result = new Expression() {
-
-			@Override
-			public Double getValue() {
-
-				final Double v1 = arg1.getValue();
-				final Double v2 = arg2.getValue();
-				return (v1 == null || v2 == null) ? null : (v1.equals(v2)) ? 0. : 1.;
-
-			}
-
-			@Override
-			public String toString() {
-				return "isEqual(" + arg1.toString() + ", " + arg2.toString() + ")";
-			}
-
-		};
-		return result;
+		return new Operation(Operation.NOT_EQUAL, arg1, arg2);
 	}
 
 	/**
@@ -495,14 +319,14 @@ public class ExpressionFactory extends JamelObject {
 	@SuppressWarnings("javadoc")
 	private Expression getTestEqual(String argString) {
 		final String[] args = split(argString);
-		final Expression result = getTestEqual(getExpression(args[0]), getExpression(args[1]));
+		final Expression result = getTestEqual(parse(args[0]), parse(args[1]));
 		return result;
 	}
 
 	@SuppressWarnings("javadoc")
 	private Expression getTestNotEqual(String argString) {
 		final String[] args = split(argString);
-		final Expression result = getTestNotEqual(getExpression(args[0]), getExpression(args[1]));
+		final Expression result = getTestNotEqual(parse(args[0]), parse(args[1]));
 		return result;
 	}
 
@@ -529,12 +353,25 @@ public class ExpressionFactory extends JamelObject {
 	/**
 	 * Returns the specified expression.
 	 * 
+	 * 2018-04-20: the expression is compiled into a flat evaluator (see
+	 * {@link CompiledExpression}).
+	 * 
 	 * @param query
 	 *            a string that describes the expression to be returned.
 	 * @return the specified expression.
 	 */
 	public Expression getExpression(final String query) {
+		return CompiledExpression.compile(this.parse(query));
+	}
 
+	/**
+	 * Parses the specified query and returns the tree of the expression.
+	 * 
+	 * @param query
+	 *            a string that describes the expression to be returned.
+	 * @return the tree of the specified expression.
+	 */
+	private Expression parse(final String query) {
 		try {
 
 			final Expression result;
@@ -590,8 +427,8 @@ public class ExpressionFactory extends JamelObject {
 				if (operator == null) {
 					throw new RuntimeException("Operator is null");
 				}
-				final Expression arg1 = getExpression(key.substring(0, position));
-				final Expression arg2 = getExpression(key.substring(position + 1));
+				final Expression arg1 = parse(key.substring(0, position));
+				final Expression arg2 = parse(key.substring(position + 1));
 
 				switch (operator) {
 				case '+':
@@ -616,7 +453,7 @@ public class ExpressionFactory extends JamelObject {
 			}
 
 			else if (key.startsWith("-")) {
-				result = getOpposite(getExpression(key.substring(1)));
+				result = getOpposite(parse(key.substring(1)));
 			}
 
 			else if (Pattern.matches("\\d.*", key)) {
@@ -728,6 +565,33 @@ public class ExpressionFactory extends JamelObject {
 
 		newSeries = new VectorDynamicXYSeries(seriesKey) {
 
+			@Override
+			public Runnable evaluate() {
+				Runnable result = null;
+				boolean update = true;
+				for (int i = 0; i < conditionsExp.length; i++) {
+					if (conditionsExp[i].getValue() == null || conditionsExp[i].getValue() != 1) {
+						update = false;
+						break;
+					}
+				}
+				if (update) {
+					try {
+						final Double xValue = xExp.getValue();
+						final Double yValue = yExp.getValue();
+						if (xValue != null && yValue != null) {
+							final VectorDataItem item = new VectorDataItem(xValue, yValue, deltaXExp.getValue(),
+									deltaYExp.getValue());
+							result = () -> this.add(item, false);
+						}
+					} catch (Exception e) {
+						throw new RuntimeException(
+								"Something went wrong while evaluating the series: " + this.getDescription(), e);
+					}
+				}
+				return result;
+			}
+
 			@Override
 			public void update(boolean refereshCharts) {
 				boolean update = true;
@@ -763,6 +627,41 @@ public class ExpressionFactory extends JamelObject {
 		return newSeries;
 	}
 
+	/**
+	 * Returns the specified series, with a bounded retention and a
+	 * downsampled view.
+	 * 
+	 * @param x
+	 *            the definition of x data.
+	 * @param y
+	 *            the definition of y data.
+	 * @param conditions
+	 *            the conditions.
+	 * @param retention
+	 *            the maximum number of data items kept (0 for no limit).
+	 * @param resolution
+	 *            the maximum number of buckets displayed (0 for no
+	 *            downsampling).
+	 * @return the specified series.
+	 */
+	public StandardDynamicXYSeries getXYSeries(String x, String y, String conditions, int retention,
+			int resolution) {
+		final StandardDynamicXYSeries newSeries;
+		if (retention == 0 && resolution == 0) {
+			newSeries = this.getXYSeries(x, y, conditions);
+		} else {
+			try {
+				newSeries = new BoundedDynamicXYSeries(this.getExpression(x), this.getExpression(y),
+						this.parseConditions(conditions), retention, resolution);
+			} catch (final Exception e) {
+				final String message = "Something went wrong with the series: " + x + ", " + y + ", " + conditions;
+				Jamel.println(message);
+				throw new RuntimeException(message, e);
+			}
+		}
+		return newSeries;
+	}
+
 	/**
 	 * Returns the specified series.
 	 * 
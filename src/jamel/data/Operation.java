@@ -0,0 +1,224 @@
+package jamel.data;
+
+import jamel.util.ArgChecks;
+
+/**
+ * A node of the tree of an expression: an arithmetic operation, a test or a
+ * constant.
+ *
+ * The operations follow the "null" semantics of the expressions: the result
+ * is {@code null} if an argument is {@code null}, or if the divisor of a
+ * division or of a modulo is zero.
+ *
+ * The trees made of operations are compiled into flat evaluators by
+ * {@link CompiledExpression}.
+ */
+final class Operation implements Expression {
+
+	/** The addition. */
+	static final int ADD = 1;
+
+	/** A numeric constant. */
+	static final int CONSTANT = 0;
+
+	/** The division. */
+	static final int DIV = 4;
+
+	/** The test of equality. */
+	static final int EQUAL = 7;
+
+	/** The modulo. */
+	static final int MOD = 5;
+
+	/** The multiplication. */
+	static final int MUL = 3;
+
+	/** The opposite. */
+	static final int NEG = 6;
+
+	/** The test of inequality. */
+	static final int NOT_EQUAL = 8;
+
+	/** The "null" constant. */
+	static final int NULL = 9;
+
+	/** The subtraction. */
+	static final int SUB = 2;
+
+	/**
+	 * Applies the specified binary operation to the specified values.
+	 * {@code NaN} stands for {@code null}.
+	 *
+	 * @param op
+	 *            the operation.
+	 * @param v1
+	 *            the first value.
+	 * @param v2
+	 *            the second value.
+	 * @return the result of the operation ({@code NaN} for {@code null}).
+	 */
+	static double apply(final int op, final double v1, final double v2) {
+		final double result;
+		switch (op) {
+		case ADD:
+			result = v1 + v2;
+			break;
+		case SUB:
+			result = v1 - v2;
+			break;
+		case MUL:
+			result = v1 * v2;
+			break;
+		case DIV:
+			result = (v2 == 0) ? Double.NaN : v1 / v2;
+			break;
+		case MOD:
+			result = (v2 == 0) ? Double.NaN : v1 % v2;
+			break;
+		case EQUAL:
+			result = (Double.isNaN(v1) || Double.isNaN(v2)) ? Double.NaN
+					: (Double.doubleToLongBits(v1) == Double.doubleToLongBits(v2)) ? 1. : 0.;
+			break;
+		case NOT_EQUAL:
+			result = (Double.isNaN(v1) || Double.isNaN(v2)) ? Double.NaN
+					: (Double.doubleToLongBits(v1) == Double.doubleToLongBits(v2)) ? 0. : 1.;
+			break;
+		default:
+			throw new IllegalArgumentException("Not a binary operation: " + op);
+		}
+		return result;
+	}
+
+	/**
+	 * The first argument (or the only argument of the opposite).
+	 */
+	final Expression arg1;
+
+	/**
+	 * The second argument.
+	 */
+	final Expression arg2;
+
+	/**
+	 * The operation.
+	 */
+	final int op;
+
+	/**
+	 * The value of the constant.
+	 */
+	final double value;
+
+	/**
+	 * Creates a new constant.
+	 *
+	 * @param value
+	 *            the value of the constant.
+	 */
+	Operation(final double value) {
+		this.op = CONSTANT;
+		this.value = value;
+		this.arg1 = null;
+		this.arg2 = null;
+	}
+
+	/**
+	 * Creates a new operation.
+	 *
+	 * @param op
+	 *            the operation.
+	 * @param arg1
+	 *            the first argument (or the only argument of the opposite, or
+	 *            {@code null} for the "null" constant).
+	 * @param arg2
+	 *            the second argument ({@code null} for the opposite and the
+	 *            "null" constant).
+	 */
+	Operation(final int op, final Expression arg1, final Expression arg2) {
+		if (op != NULL) {
+			ArgChecks.nullNotPermitted(arg1, "arg1");
+			if (op != NEG) {
+				ArgChecks.nullNotPermitted(arg2, "arg2");
+			}
+		}
+		this.op = op;
+		this.value = Double.NaN;
+		this.arg1 = arg1;
+		this.arg2 = arg2;
+	}
+
+	/**
+	 * Returns {@code true} if this operation is a constant.
+	 *
+	 * @return {@code true} if this operation is a constant.
+	 */
+	boolean isConstant() {
+		return this.op == CONSTANT || this.op == NULL;
+	}
+
+	@Override
+	public double getDoubleValue() {
+		final double result;
+		switch (this.op) {
+		case CONSTANT:
+			result = this.value;
+			break;
+		case NULL:
+			result = Double.NaN;
+			break;
+		case NEG:
+			result = -this.arg1.getDoubleValue();
+			break;
+		default:
+			result = apply(this.op, this.arg1.getDoubleValue(), this.arg2.getDoubleValue());
+		}
+		return result;
+	}
+
+	@Override
+	public Double getValue() {
+		final double result = getDoubleValue();
+		return (Double.isNaN(result)) ? null : result;
+	}
+
+	@Override
+	public String toString() {
+		final String result;
+		switch (this.op) {
+		case CONSTANT:
+			result = "" + this.value;
+			break;
+		case NULL:
+			result = "null";
+			break;
+		case ADD:
+			result = "(" + this.arg1.toString() + " + " + this.arg2.toString() + ")";
+			break;
+		case SUB:
+			result = "(" + this.arg1.toString() + " - " + this.arg2.toString() + ")";
+			break;
+		case MUL:
+			result = this.arg1.toString() + " * " + this.arg2.toString();
+			break;
+		case DIV:
+			result = this.arg1.toString() + " / " + this.arg2.toString();
+			break;
+		case MOD:
+			result = this.arg1.toString() + " % " + this.arg2.toString();
+			break;
+		case NEG:
+			result = "- " + this.arg1.toString();
+			break;
+		case EQUAL:
+			result = "isEqual(" + this.arg1.toString() + ", " + this.arg2.toString() + ")";
+			break;
+		case NOT_EQUAL:
+			result = "isNotEqual(" + this.arg1.toString() + ", " + this.arg2.toString() + ")";
+			break;
+		default:
+			throw new RuntimeException("Unexpected operation: " + this.op);
+		}
+		return result;
+	}
+
+}
@@ -8,8 +8,6 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.jfree.data.xy.XYDataItem;
-
 import jamel.Jamel;
 import jamel.util.Agent;
 import jamel.util.JamelObject;
@@ -617,57 +615,38 @@ public class SectorDataManager extends JamelObject {
 	 */
 	public DynamicSeries getScatterSeries(final String xKey, final String yKey, final Expression[] conditions,
 			final String selection) {
+		// Checks the keys.
+		this.dataKeys.indexOf(xKey);
+		this.dataKeys.indexOf(yKey);
+		return new ArrayScatterDynamicSeries(this.sector, xKey, yKey, conditions, selection);
+	}
 
-		final int xIndex = this.dataKeys.indexOf(xKey);
-		final int yIndex = this.dataKeys.indexOf(yKey);
-
-		final Integer selectIndex;
-		final Double selectValue;
-		if (selection != null) {
-			final String[] select = selection.split("=", 2);
-			selectIndex = this.dataKeys.indexOf(select[0]);
-			selectValue = Double.parseDouble(select[1]);
-		} else {
-			selectIndex = null;
-			selectValue = null;
+	/**
+	 * Returns the values of the specified data keys for all the agents at the
+	 * specified period, read in a single pass over the agents.
+	 * 
+	 * @param t
+	 *            the period.
+	 * @param keys
+	 *            the data keys.
+	 * @return the columns of the values, one per key (a missing value is
+	 *         {@code NaN}).
+	 */
+	public double[][] getSnapshot(final int t, final String... keys) {
+		final int[] indexes = new int[keys.length];
+		for (int k = 0; k < keys.length; k++) {
+			indexes[k] = this.dataKeys.indexOf(keys[k]);
 		}
-
-		return new AbstractScatterDynamicSeries(this.sector.getName() + "," + xKey + "," + yKey + "," + selection,
-				false) {
-
-			@SuppressWarnings("unchecked")
-			@Override
-			public void update(boolean refresh) {
-				if (refresh) {
-					boolean update = true;
-					if (conditions != null) {
-						for (int i = 0; i < conditions.length; i++) {
-							if (conditions[i].getValue() == null || conditions[i].getValue() != 1) {
-								update = false;
-								break;
-							}
-						}
-					}
-					if (update) {
-						final int t = getPeriod();
-						this.data.clear();
-						for (Agent agent : agents) {
-							final Double x = agent.getData(xIndex, t);
-							final Double y = agent.getData(yIndex, t);
-							@SuppressWarnings("null")
-							final boolean selected = (selectIndex == null
-									|| selectValue.equals(agent.getData(selectIndex, t)));
-							if (selected && x != null && y != null) {
-								final XYDataItem item = new XYDataItem(x, y);
-								this.data.add(item);
-							}
-						}
-						this.fireSeriesChanged();
-					}
-				}
+		final int size = this.agents.size();
+		final double[][] result = new double[keys.length][size];
+		for (int i = 0; i < size; i++) {
+			final Agent agent = this.agents.get(i);
+			for (int k = 0; k < indexes.length; k++) {
+				final Double value = agent.getData(indexes[k], t);
+				result[k][i] = (value != null) ? value : Double.NaN;
 			}
-
-		};
+		}
+		return result;
 	}
 
 	/**
@@ -59,26 +59,65 @@ public class StandardDynamicXYSeries extends XYSeries implements DynamicSeries {
 	}
 
 	/**
-	 * Updates the series, by adding new data items.
+	 * Appends a new data item to the series (without sending a change event).
 	 * 
-	 * @param refereshCharts
-	 *            a flag that indicates if the charts must be refreshed.
+	 * @param xValue
+	 *            the x value.
+	 * @param yValue
+	 *            the y value ({@code null} permitted).
 	 */
-	@Override
-	public void update(boolean refereshCharts) {
-		boolean update = true;
+	protected void append(final Double xValue, final Double yValue) {
+		this.add(xValue, yValue, false);
+	}
+
+	/**
+	 * Returns {@code true} if all the conditions of the series are satisfied.
+	 * 
+	 * @return {@code true} if all the conditions of the series are satisfied.
+	 */
+	private boolean isSatisfied() {
+		boolean result = true;
 		for (int i = 0; i < this.conditions.length; i++) {
 			if (conditions[i].getValue() == null || conditions[i].getValue() != 1) {
-				update = false;
+				result = false;
 				break;
 			}
 		}
-		if (update) {
+		return result;
+	}
+
+	@Override
+	public Runnable evaluate() {
+		Runnable result = null;
+		if (this.isSatisfied()) {
+			try {
+				final Double xValue = this.x.getValue();
+				if (xValue != null) {
+					final Double yValue = this.y.getValue();
+					result = () -> this.append(xValue, yValue);
+				}
+			} catch (Exception e) {
+				throw new RuntimeException("Something went wrong while evaluating the series: " + this.getDescription(),
+						e);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Updates the series, by adding new data items.
+	 * 
+	 * @param refereshCharts
+	 *            a flag that indicates if the charts must be refreshed.
+	 */
+	@Override
+	public void update(boolean refereshCharts) {
+		if (this.isSatisfied()) {
 			try {
 				final Double xValue = this.x.getValue();
 				if (xValue != null) {
 					final Double yValue = this.y.getValue();
-					this.add(xValue, yValue);
+					this.append(xValue, yValue);
 				}
 			} catch (Exception e) {
 				throw new RuntimeException("Something went wrong while updating the series: " + this.getDescription(),
@@ -91,7 +91,11 @@ public class BasicGui extends JamelObject implements Gui {
 
 		super(simulation);
 
-		this.chartManager = new ChartManager(this, expressionFactory);
+		// 2018-04-27: if the attribute 'fps' is set, the charts are
+		// refreshed asynchronously, at the specified frame rate.
+
+		this.chartManager = new ChartManager(this, expressionFactory,
+				param.hasAttribute("fps") ? param.getIntAttribute("fps") : 0);
 
 		this.sourceFile = sourceFile;
 
@@ -219,6 +223,11 @@ public class BasicGui extends JamelObject implements Gui {
 				title, JOptionPane.ERROR_MESSAGE);
 	}
 
+	@Override
+	public void dispose() {
+		this.chartManager.dispose();
+	}
+
 	@Override
 	public void doEvent(Parameters event) {
 		if (event.getName().equals("gui.exportCharts") || event.getAttribute("action").equals("exportCharts")) {
@@ -13,9 +13,11 @@ import java.text.NumberFormat;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
 
 import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 import org.jfree.chart.LegendItem;
 import org.jfree.chart.LegendItemCollection;
@@ -44,9 +46,62 @@ import jamel.util.Parameters;
 
 /**
  * The chart manager.
+ * 
+ * By default, the charts are refreshed synchronously: the simulation waits
+ * while the series are updated and the charts redrawn by the event dispatch
+ * thread.
+ * 
+ * If a frame rate is specified, the charts are refreshed asynchronously: the
+ * simulation thread only evaluates the series and the panels into a frame,
+ * which is added to a queue, and goes on. A timer renders the
+ * pending frames at the specified rate: the series updates of all the
+ * pending frames are applied (each series is notified once), and only the
+ * panels of the last frame are redrawn. The queue is bounded: when it is
+ * full, the simulation thread waits while the pending frames are rendered.
+ * The timer is stopped when the chart manager is disposed.
+ * 
+ * 2018-04-27: asynchronous refresh.
+ * 2018-04-29: bounded queue of frames, timer stopped by dispose().
  */
 public class ChartManager extends JamelObject {
 
+	/**
+	 * The values of the series and of the panels at a given period.
+	 */
+	private static class Frame {
+
+		/**
+		 * The updates of the panels (in the order of the panels, {@code null}
+		 * for the panels that are not updatable).
+		 */
+		final private Runnable[] panels;
+
+		/**
+		 * The updates of the series (in the order of the series, {@code null}
+		 * for the series that are not updated).
+		 */
+		final private Runnable[] series;
+
+		/**
+		 * Creates a new frame.
+		 * 
+		 * @param series
+		 *            the updates of the series.
+		 * @param panels
+		 *            the updates of the panels.
+		 */
+		private Frame(final Runnable[] series, final Runnable[] panels) {
+			this.series = series;
+			this.panels = panels;
+		}
+
+	}
+
+	/**
+	 * The maximum number of pending frames.
+	 */
+	private static final int MAX_PENDING_FRAMES = 64;
+
 	/**
 	 * A basic stroke used for legend items.
 	 */
@@ -162,12 +217,41 @@ public class ChartManager extends JamelObject {
 		return plot;
 	}
 
+	/**
+	 * Returns the value of the specified attribute of the series, or of the
+	 * chart if the series does not define it.
+	 * 
+	 * @param name
+	 *            the name of the attribute.
+	 * @param series
+	 *            the description of the series.
+	 * @param chart
+	 *            the description of the chart.
+	 * @return the value of the attribute (0 if neither defines it).
+	 */
+	private static int getIntAttribute(final String name, final Parameters series, final Parameters chart) {
+		final int result;
+		if (series.hasAttribute(name)) {
+			result = series.getIntAttribute(name);
+		} else if (chart.hasAttribute(name)) {
+			result = chart.getIntAttribute(name);
+		} else {
+			result = 0;
+		}
+		return result;
+	}
+
 	private static void ensureParentFileExist(final File file) {
 		if (!file.getParentFile().exists()) {
 			file.getParentFile().mkdirs();
 		}
 	}
 
+	/**
+	 * {@code true} once this chart manager is disposed.
+	 */
+	private volatile boolean disposed = false;
+
 	/**
 	 * The list of the series to update.
 	 */
@@ -178,6 +262,11 @@ public class ChartManager extends JamelObject {
 	 */
 	final private ExpressionFactory expressionFactory;
 
+	/**
+	 * The frames published by the simulation and not yet rendered.
+	 */
+	final private ArrayBlockingQueue<Frame> frames = new ArrayBlockingQueue<>(MAX_PENDING_FRAMES);
+
 	/**
 	 * The parent Gui.
 	 */
@@ -188,6 +277,12 @@ public class ChartManager extends JamelObject {
 	 */
 	final private List<Component> panels = new LinkedList<>();
 
+	/**
+	 * The timer that renders the pending frames ({@code null} if the charts
+	 * are refreshed synchronously).
+	 */
+	final private Timer renderer;
+
 	/**
 	 * Creates a new chart manager.
 	 * 
@@ -195,11 +290,24 @@ public class ChartManager extends JamelObject {
 	 *            the parent gui.
 	 * @param expressionFactory
 	 *            the expression factory.
+	 * @param fps
+	 *            the number of frames per second ({@code 0} for a synchronous
+	 *            refresh).
 	 */
-	public ChartManager(final Gui gui, final ExpressionFactory expressionFactory) {
+	public ChartManager(final Gui gui, final ExpressionFactory expressionFactory, final int fps) {
 		super(gui.getSimulation());
 		this.gui = gui;
 		this.expressionFactory = expressionFactory;
+		if (fps < 0) {
+			throw new RuntimeException("Bad frame rate: " + fps);
+		}
+		if (fps == 0) {
+			this.renderer = null;
+		} else {
+			this.renderer = new Timer(Math.max(1, 1000 / fps), (e) -> this.render());
+			this.renderer.setCoalesce(true);
+			this.renderer.start();
+		}
 	}
 
 	private void exportCharts(File parent, String exportDirectoryName, Parameters chartDescription) {
@@ -296,8 +404,12 @@ public class ChartManager extends JamelObject {
 				} else {
 
 					// Line series
+					// 2018-04-27: optional retention and downsampling, set
+					// for the chart or for the series.
 
-					newSeries = expressionFactory.getXYSeries(x, y, conditions);
+					final int retention = getIntAttribute("retention", seriesElement, params);
+					final int resolution = getIntAttribute("resolution", seriesElement, params);
+					newSeries = expressionFactory.getXYSeries(x, y, conditions, retention, resolution);
 				}
 				if (newSeries != null) {
 
@@ -460,12 +572,14 @@ public class ChartManager extends JamelObject {
 		}
 		final Parameters chartDescription = event.get("format");
 		if (SwingUtilities.isEventDispatchThread()) {
+			render();
 			exportCharts(parent, exportDirectoryName, chartDescription);
 		} else {
 			try {
 				SwingUtilities.invokeAndWait(new Runnable() {
 					@Override
 					public void run() {
+						render();
 						exportCharts(parent, exportDirectoryName, chartDescription);
 					}
 				});
@@ -519,29 +633,121 @@ public class ChartManager extends JamelObject {
 	}
 
 	/**
-	 * Refreshes each registred dynamic series.
+	 * Evaluates the series and the panels, and adds the new frame to the
+	 * queue of the pending frames (if the queue is full, waits while the
+	 * pending frames are rendered).
+	 * 
+	 * Called by the simulation thread.
 	 */
-	public void refresh() {
-		try {
-			SwingUtilities.invokeAndWait(new Runnable() {
+	private void publish() {
+		if (this.disposed) {
+			return;
+		}
+		final Runnable[] seriesUpdates = new Runnable[this.dynamicSeries.size()];
+		int i = 0;
+		for (final DynamicSeries series : this.dynamicSeries) {
+			seriesUpdates[i] = series.evaluate();
+			i++;
+		}
+		final Runnable[] panelUpdates = new Runnable[this.panels.size()];
+		int j = 0;
+		for (final Component panel : this.panels) {
+			if (panel instanceof Updatable) {
+				panelUpdates[j] = ((Updatable) panel).evaluate();
+			}
+			j++;
+		}
+		final Frame frame = new Frame(seriesUpdates, panelUpdates);
+		if (!this.frames.offer(frame)) {
+			try {
+				SwingUtilities.invokeAndWait(() -> this.render());
+			} catch (InvocationTargetException | InterruptedException e) {
+				e.printStackTrace();
+			}
+			this.frames.add(frame);
+		}
+	}
 
-				@Override
-				public void run() {
-					for (final DynamicSeries series : dynamicSeries) {
-						series.update(true);
-					}
-					for (final Component panel : panels) {
-						if (panel instanceof Updatable) {
-							((Updatable) panel).update();
-						}
+	/**
+	 * Renders the pending frames.
+	 * 
+	 * Called by the event dispatch thread.
+	 */
+	private void render() {
+		Frame frame = this.frames.poll();
+		if (frame != null) {
+			final boolean[] changed = new boolean[this.dynamicSeries.size()];
+			Frame last;
+			do {
+				for (int i = 0; i < frame.series.length; i++) {
+					if (frame.series[i] != null) {
+						frame.series[i].run();
+						changed[i] = true;
 					}
 				}
+				last = frame;
+				frame = this.frames.poll();
+			} while (frame != null);
 
-			});
-		} catch (InvocationTargetException | InterruptedException e) {
-			e.printStackTrace();
+			// Each series is notified once, whatever the number of frames.
+
+			int i = 0;
+			for (final DynamicSeries series : this.dynamicSeries) {
+				if (changed[i]) {
+					series.fireSeriesChanged();
+				}
+				i++;
+			}
+			for (final Runnable update : last.panels) {
+				if (update != null) {
+					update.run();
+				}
+			}
 		}
+	}
 
+	/**
+	 * Stops the timer that renders the pending frames, and renders the
+	 * remaining frames.
+	 * 
+	 * Should be called at the end of the simulation.
+	 */
+	public void dispose() {
+		if (this.renderer != null && !this.disposed) {
+			this.disposed = true;
+			this.renderer.stop();
+			SwingUtilities.invokeLater(() -> this.render());
+		}
+	}
+
+	/**
+	 * Refreshes each registred dynamic series (or, if the refresh is
+	 * asynchronous, publishes a new frame).
+	 */
+	public void refresh() {
+		if (this.renderer != null) {
+			this.publish();
+		} else {
+			try {
+				SwingUtilities.invokeAndWait(new Runnable() {
+
+					@Override
+					public void run() {
+						for (final DynamicSeries series : dynamicSeries) {
+							series.update(true);
+						}
+						for (final Component panel : panels) {
+							if (panel instanceof Updatable) {
+								((Updatable) panel).update();
+							}
+						}
+					}
+
+				});
+			} catch (InvocationTargetException | InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
 	}
 
 }
@@ -32,6 +32,15 @@ public interface Gui {
 	 */
 	void displayErrorMessage(String title, String message, Exception e);
 
+	/**
+	 * Releases the resources of this gui (eg. its timers).
+	 * 
+	 * Should be called at the end of the simulation.
+	 */
+	default void dispose() {
+		// Nothing to release.
+	}
+
 	/**
 	 * Executes the specified event.
 	 * 
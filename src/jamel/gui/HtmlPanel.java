@@ -446,6 +446,19 @@ public class HtmlPanel extends JScrollPane implements AdjustmentListener, Updata
 		}
 	}
 
+	@Override
+	public Runnable evaluate() {
+		final String newText = this.htmlElement.getText();
+		return () -> {
+			if (!this.text.equals(newText)) {
+				this.text = newText;
+				this.jEditorPane.setText(newText);
+				this.revalidate();
+				this.repaint();
+			}
+		};
+	}
+
 	@Override
 	public void update() {
 		final String newText = this.htmlElement.getText();
@@ -118,6 +118,11 @@ public class JamelChartPanel extends ChartPanel implements Updatable {
 
 	}
 
+	@Override
+	public Runnable evaluate() {
+		return this::update;
+	}
+
 	@Override
 	public void update() {
 		((JamelChart) this.getChart()).update();
@@ -5,6 +5,17 @@ package jamel.gui;
  */
 interface Updatable {
 
+	/**
+	 * Evaluates the content of the panel, without modifying the panel.
+	 * 
+	 * Called by the simulation thread when the gui is refreshed
+	 * asynchronously.
+	 * 
+	 * @return the update of the panel, to be applied by the event dispatch
+	 *         thread.
+	 */
+	Runnable evaluate();
+
 	/**
 	 * Updates the content of the panel.
 	 */
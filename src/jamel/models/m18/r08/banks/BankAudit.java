@@ -0,0 +1,514 @@
+package jamel.models.m18.r08.banks;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import jamel.Jamel;
+import jamel.util.Parameters;
+
+/**
+ * The audit of the accounts of a bank.
+ *
+ * The accounts keep running totals of their deposits, normal debts, overdue
+ * debts, interests and installments: each change of an account is recorded
+ * by the account itself (see {@link #deposit(int, long)},
+ * {@link #debt(int, long)}, {@link #overdue(int, long)} and
+ * {@link #service(int, long, long)}), in a column of values by account and
+ * in the total of the column.
+ *
+ * At each period, the audit checks in constant time that these totals are
+ * equal to the totals of the bank (the deposits, the outstanding debt, the
+ * overdue debt, the interests and the installments), that the total of the
+ * ledger of the loans is equal to the outstanding debt, and that the change
+ * in the capital of the bank (loans and overdue debts minus deposits) is
+ * equal to the interests received, minus the debts cancelled, minus the net
+ * inflow of cheques.
+ *
+ * A full recount (the sums of the columns, compared with the totals of the
+ * bank, and the normal debt of each account, compared with its debt in the
+ * ledger) is also performed every {@code audit.every} periods, either by the
+ * simulation thread or, if {@code audit.background} is {@code true}, by a
+ * background thread. The snapshot of the recount is a copy of the columns:
+ * the accounts are not visited by the simulation thread. An inconsistency
+ * found in the background is reported at the next period (or when the audit
+ * is closed).
+ *
+ * Parameters (optional attributes of the parameters of the bank sector):
+ * {@code audit.every} (the number of periods between two full recounts, 0
+ * for none, default: 0), {@code audit.background} (default: false).
+ *
+ * 2018-04-27: new class, replaces the calls to {@code checkConsistency()}
+ * that had been commented out because they were too slow.
+ */
+class BankAudit implements Serializable {
+
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The index of the column of the deposits.
+	 */
+	private static final int DEPOSIT = 0;
+
+	/**
+	 * The index of the column of the normal debts.
+	 */
+	private static final int DEBT = 1;
+
+	/**
+	 * The index of the column of the overdue debts.
+	 */
+	private static final int OVERDUE = 2;
+
+	/**
+	 * The index of the column of the interests of the period.
+	 */
+	private static final int INTERESTS = 3;
+
+	/**
+	 * The index of the column of the installments of the period.
+	 */
+	private static final int INSTALLMENTS = 4;
+
+	/**
+	 * The names of the columns.
+	 */
+	private static final String[] names = { "Deposits", "Debts", "Overdue debts", "Interests", "Installments" };
+
+	/**
+	 * A snapshot of the accounts and of the totals of the bank.
+	 */
+	private static class Snapshot {
+
+		/**
+		 * The copies of the columns of the accounts.
+		 */
+		final private long[][] columns;
+
+		/**
+		 * The debt of each account in the ledger of the loans.
+		 */
+		final private long[] ledger;
+
+		/**
+		 * The period.
+		 */
+		final private int period;
+
+		/**
+		 * The totals of the bank, by column.
+		 */
+		final private long[] totals;
+
+		/**
+		 * Creates a new snapshot.
+		 *
+		 * @param period
+		 *            the period.
+		 * @param columns
+		 *            the copies of the columns of the accounts.
+		 * @param ledger
+		 *            the debt of each account in the ledger of the loans.
+		 * @param totals
+		 *            the totals of the bank, by column.
+		 */
+		private Snapshot(int period, long[][] columns, long[] ledger, long[] totals) {
+			this.period = period;
+			this.columns = columns;
+			this.ledger = ledger;
+			this.totals = totals;
+		}
+
+	}
+
+	/**
+	 * Checks the specified snapshot.
+	 *
+	 * @param snapshot
+	 *            the snapshot to be checked.
+	 * @return a description of the inconsistency, or {@code null} if the
+	 *         snapshot is consistent.
+	 */
+	private static String count(final Snapshot snapshot) {
+		String result = null;
+		final long[] debts = snapshot.columns[DEBT];
+		for (int i = 0; i < debts.length; i++) {
+			if (debts[i] != snapshot.ledger[i]) {
+				result = "Account " + i + ": debt " + debts[i] + ", ledger " + snapshot.ledger[i];
+				break;
+			}
+		}
+		for (int column = 0; column < names.length && result == null; column++) {
+			final long[] values = snapshot.columns[column];
+			long sum = 0;
+			for (int i = 0; i < values.length; i++) {
+				sum += values[i];
+			}
+			if (sum != snapshot.totals[column]) {
+				result = names[column] + ": " + sum + ", bank: " + snapshot.totals[column];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * If the full recounts are performed by a background thread.
+	 */
+	final private boolean background;
+
+	/**
+	 * The capital of the bank at the last check ({@code null} before the
+	 * first check).
+	 */
+	private Long capital = null;
+
+	/**
+	 * The cheques deposited since the last check.
+	 */
+	private long chequesIn = 0;
+
+	/**
+	 * The cheques cleared (debited) since the last check.
+	 */
+	private long chequesOut = 0;
+
+	/**
+	 * The values of the accounts, by column and by account.
+	 */
+	private long[][] columns = new long[names.length][64];
+
+	/**
+	 * The debts cancelled since the last check.
+	 */
+	private long debtCancellations = 0;
+
+	/**
+	 * The inconsistency found by the background thread.
+	 */
+	transient private volatile String error = null;
+
+	/**
+	 * The number of periods between two full recounts (0 for none).
+	 */
+	final private int every;
+
+	/**
+	 * The background thread (created with the first background recount, shut
+	 * down by {@link #close()}).
+	 */
+	transient private ExecutorService executor = null;
+
+	/**
+	 * The interests received since the last check.
+	 */
+	private long interests = 0;
+
+	/**
+	 * The number of accounts.
+	 */
+	private int size = 0;
+
+	/**
+	 * The running totals of the accounts, by column.
+	 */
+	final private long[] totals = new long[names.length];
+
+	/**
+	 * Creates a new audit.
+	 *
+	 * @param params
+	 *            the parameters of the bank sector.
+	 */
+	BankAudit(final Parameters params) {
+		this.every = params.hasAttribute("audit.every") ? params.getIntAttribute("audit.every") : 0;
+		if (this.every < 0) {
+			throw new RuntimeException("Bad audit interval: " + this.every);
+		}
+		this.background = params.hasAttribute("audit.background")
+				&& Boolean.parseBoolean(params.getAttribute("audit.background"));
+	}
+
+	/**
+	 * Adds the specified value to the specified column.
+	 *
+	 * @param column
+	 *            the index of the column.
+	 * @param account
+	 *            the index of the account.
+	 * @param addend
+	 *            the value to be added.
+	 */
+	private void add(final int column, final int account, final long addend) {
+		this.columns[column][account] += addend;
+		this.totals[column] += addend;
+	}
+
+	/**
+	 * Reports an inconsistency.
+	 *
+	 * @param message
+	 *            the description of the inconsistency (starting with the
+	 *            period).
+	 */
+	private void fail(final String message) {
+		Jamel.println("***");
+		Jamel.println("Bank audit");
+		Jamel.println(message);
+		Jamel.println();
+		throw new RuntimeException("Inconsistency: " + message);
+	}
+
+	/**
+	 * Records the deposit of a cheque.
+	 *
+	 * @param amount
+	 *            the amount of the cheque.
+	 */
+	void chequeIn(final long amount) {
+		this.chequesIn += amount;
+	}
+
+	/**
+	 * Records the clearing of a cheque (the amount is debited from the
+	 * account of the drawer).
+	 *
+	 * @param amount
+	 *            the amount of the cheque.
+	 */
+	void chequeOut(final long amount) {
+		this.chequesOut += amount;
+	}
+
+	/**
+	 * Checks the totals of the bank (in constant time).
+	 *
+	 * @param period
+	 *            the current period.
+	 * @param deposits
+	 *            the deposits of the bank.
+	 * @param outstanding
+	 *            the outstanding debt of the bank.
+	 * @param overdue
+	 *            the overdue debt of the bank.
+	 * @param bankInterests
+	 *            the interests of the bank for the period.
+	 * @param installments
+	 *            the installments of the bank for the period.
+	 * @param ledger
+	 *            the total of the ledger of the loans.
+	 */
+	void check(final int period, final long deposits, final long outstanding, final long overdue,
+			final long bankInterests, final long installments, final long ledger) {
+		if (this.error != null) {
+			this.fail(this.error);
+		}
+		if (ledger != outstanding) {
+			this.fail("Period " + period + ": Outstanding debt: " + outstanding + ", ledger: " + ledger);
+		}
+		final long[] bank = { deposits, outstanding, overdue, bankInterests, installments };
+		for (int column = 0; column < names.length; column++) {
+			if (this.totals[column] != bank[column]) {
+				this.fail("Period " + period + ": " + names[column] + ": " + this.totals[column] + ", bank: "
+						+ bank[column]);
+			}
+		}
+		final long newCapital = outstanding + overdue - deposits;
+		if (this.capital != null) {
+			final long expected = this.capital + this.interests - this.debtCancellations - this.chequesIn
+					+ this.chequesOut;
+			if (newCapital != expected) {
+				this.fail("Period " + period + ": Capital: " + newCapital + ", expected: " + expected + " (previous: "
+						+ this.capital + ", interests: " + this.interests + ", cancellations: "
+						+ this.debtCancellations + ", cheques in: " + this.chequesIn + ", cheques out: "
+						+ this.chequesOut + ")");
+			}
+		}
+		this.capital = newCapital;
+		this.interests = 0;
+		this.debtCancellations = 0;
+		this.chequesIn = 0;
+		this.chequesOut = 0;
+	}
+
+	/**
+	 * Waits for the background recount, if any, and shuts the background
+	 * thread down.
+	 *
+	 * Should be called at the end of the simulation.
+	 */
+	void close() {
+		if (this.executor != null) {
+			this.executor.shutdown();
+			try {
+				this.executor.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			this.executor = null;
+			if (this.error != null) {
+				this.fail(this.error);
+			}
+		}
+	}
+
+	/**
+	 * Records a change in the normal debt of an account.
+	 *
+	 * @param account
+	 *            the index of the account.
+	 * @param change
+	 *            the change in the normal debt.
+	 */
+	void debt(final int account, final long change) {
+		this.add(DEBT, account, change);
+	}
+
+	/**
+	 * Records the cancellation of a debt.
+	 *
+	 * @param amount
+	 *            the amount cancelled.
+	 */
+	void debtCancellation(final long amount) {
+		this.debtCancellations += amount;
+	}
+
+	/**
+	 * Records a change in the deposit of an account.
+	 *
+	 * @param account
+	 *            the index of the account.
+	 * @param change
+	 *            the change in the deposit.
+	 */
+	void deposit(final int account, final long change) {
+		this.add(DEPOSIT, account, change);
+	}
+
+	/**
+	 * Returns {@code true} if a full recount is scheduled for the specified
+	 * period.
+	 *
+	 * @param period
+	 *            the period.
+	 * @return {@code true} if a full recount is scheduled.
+	 */
+	boolean isRecountDue(final int period) {
+		return this.every > 0 && period % this.every == 0;
+	}
+
+	/**
+	 * Opens a new account.
+	 *
+	 * @param account
+	 *            the index of the new account.
+	 */
+	void open(final int account) {
+		if (account >= this.columns[0].length) {
+			for (int column = 0; column < names.length; column++) {
+				this.columns[column] = Arrays.copyOf(this.columns[column], 2 * this.columns[column].length);
+			}
+		}
+		this.size = Math.max(this.size, account + 1);
+	}
+
+	/**
+	 * Records a change in the overdue debt of an account.
+	 *
+	 * @param account
+	 *            the index of the account.
+	 * @param change
+	 *            the change in the overdue debt.
+	 */
+	void overdue(final int account, final long change) {
+		this.add(OVERDUE, account, change);
+	}
+
+	/**
+	 * Performs a full recount of the accounts (in the background if
+	 * required).
+	 *
+	 * The snapshot is a copy of the columns: the bank totals are compared
+	 * with the sums of the columns, and the normal debt of each account with
+	 * its debt in the ledger.
+	 *
+	 * @param period
+	 *            the current period.
+	 * @param deposits
+	 *            the deposits of the bank.
+	 * @param outstanding
+	 *            the outstanding debt of the bank.
+	 * @param overdue
+	 *            the overdue debt of the bank.
+	 * @param bankInterests
+	 *            the interests of the bank for the period.
+	 * @param installments
+	 *            the installments of the bank for the period.
+	 * @param ledger
+	 *            the debt of each account in the ledger of the loans.
+	 */
+	void recount(final int period, final long deposits, final long outstanding, final long overdue,
+			final long bankInterests, final long installments, final long[] ledger) {
+		final long[][] copies = new long[names.length][];
+		for (int column = 0; column < names.length; column++) {
+			copies[column] = Arrays.copyOf(this.columns[column], this.size);
+		}
+		final Snapshot snapshot = new Snapshot(period, copies, Arrays.copyOf(ledger, this.size),
+				new long[] { deposits, outstanding, overdue, bankInterests, installments });
+		if (this.background) {
+			if (this.executor == null) {
+				this.executor = Executors.newSingleThreadExecutor(task -> {
+					final Thread thread = new Thread(task, "Bank audit");
+					thread.setDaemon(true);
+					return thread;
+				});
+			}
+			this.executor.execute(() -> {
+				final String message = count(snapshot);
+				if (message != null && this.error == null) {
+					this.error = "Period " + snapshot.period + ": " + message;
+				}
+			});
+		} else {
+			final String message = count(snapshot);
+			if (message != null) {
+				this.fail("Period " + snapshot.period + ": " + message);
+			}
+		}
+	}
+
+	/**
+	 * Resets the interests and the installments of an account (at the
+	 * beginning of the period).
+	 *
+	 * @param account
+	 *            the index of the account.
+	 */
+	void reset(final int account) {
+		this.add(INTERESTS, account, -this.columns[INTERESTS][account]);
+		this.add(INSTALLMENTS, account, -this.columns[INSTALLMENTS][account]);
+	}
+
+	/**
+	 * Records the service of a debt (the payment of its interests and its
+	 * installment).
+	 *
+	 * @param account
+	 *            the index of the account.
+	 * @param interest
+	 *            the amount of the interests.
+	 * @param installment
+	 *            the amount of the installment (principal + interests).
+	 */
+	void service(final int account, final long interest, final long installment) {
+		this.interests += interest;
+		this.add(INTERESTS, account, interest);
+		this.add(INSTALLMENTS, account, installment);
+	}
+
+}
@@ -1,11 +1,18 @@
 package jamel.models.m18.r08.banks;
 
+import java.io.Serializable;
+
 import jamel.util.Parameters;
 
 /**
  * A class to parse and store the constant parameters of the bank.
  */
-class BankConstants {
+class BankConstants implements Serializable {
+
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
 
 	/**
 	 * The capital target ratio.
@@ -14,6 +14,7 @@ package jamel.models.m18.r08.banks;
  * main banking objects (accounts, loans, deposits...)
  */
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
@@ -35,6 +36,7 @@ import jamel.models.m18.r08.util.BasicAmount;
 import jamel.models.m18.r08.util.BasicOwnership;
 import jamel.models.m18.r08.util.Cheque;
 import jamel.models.m18.r08.util.Equity;
+import jamel.models.m18.r08.util.Flyweights;
 import jamel.util.Agent;
 import jamel.util.ArgChecks;
 import jamel.util.JamelObject;
@@ -46,11 +48,21 @@ import jamel.util.Sector;
  */
 public class BasicBank extends JamelObject implements AccountHolder, Bank {
 
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * An abstract cheque.
 	 */
 	private abstract class AbstractCheque extends Amount implements Cheque {
 
+		/**
+		 * The version of the serialized form.
+		 */
+		private static final long serialVersionUID = 1L;
+
 		/**
 		 * The issue date of this cheque.
 		 */
@@ -93,6 +105,11 @@ public class BasicBank extends JamelObject implements AccountHolder, Bank {
 	 */
 	private class BankCheque extends AbstractCheque {
 
+		/**
+		 * The version of the serialized form.
+		 */
+		private static final long serialVersionUID = 1L;
+
 		/**
 		 * Should not be called.
 		 */
@@ -118,6 +135,11 @@ public class BasicBank extends JamelObject implements AccountHolder, Bank {
 	 */
 	private class BankOwnership extends BasicOwnership {
 
+		/**
+		 * The version of the serialized form.
+		 */
+		private static final long serialVersionUID = 1L;
+
 		/**
 		 * Creates a new ownership for this bank.
 		 */
@@ -155,121 +177,31 @@ public class BasicBank extends JamelObject implements AccountHolder, Bank {
 	 */
 	private class BasicAccount implements Account {
 
+		/**
+		 * The version of the serialized form.
+		 */
+		private static final long serialVersionUID = 1L;
+
 		/**
 		 * The debt.
 		 */
-		private class Debt {
+		private class Debt implements Serializable {
 
 			/**
-			 * A basic implementation of {@code Loan}.
+			 * The version of the serialized form.
 			 */
-			private class BasicLoan extends Amount implements Loan {
-
-				/**
-				 * If the loan is amortizing.
-				 */
-				final private boolean amortizing;
-
-				/**
-				 * The interest rate.
-				 */
-				final private double loanRate;
-
-				/**
-				 * The maturity date of this loan.
-				 */
-				final private int maturityDate;
-
-				/**
-				 * Creates a new {@code BasicLoan}.
-				 * 
-				 * @param amount
-				 *            the amount of the loan.
-				 * @param term
-				 *            the term of the loan.
-				 * @param amortizing
-				 *            if the loan is amortizing.
-				 */
-				private BasicLoan(final long amount, final int term, final boolean amortizing) {
-					if (term < 0) {
-						throw new IllegalArgumentException("Bad term: " + term);
-					}
-					if (amount <= 0) {
-						throw new RuntimeException("Bad amount: " + amount);
-					}
-					BasicAccount.this.deposit.plus(amount);
-					this.plus(amount);
-					this.loanRate = BasicBank.this.rateNormal;
-					this.maturityDate = BasicBank.this.getPeriod() + term;
-					this.amortizing = amortizing;
-					Debt.this.loanList.add(this);
-					Debt.this.normalDebtAmount.plus(amount);
-					BasicBank.this.loans.add(this);
-					BasicBank.this.outstandingDebtAmount.plus(amount);
-					// ***
-					// Debt.this.checkConsistency();
-					// BasicBank.this.checkConsistency();
-					// ***
-				}
-
-				/**
-				 * Removes the specified value from this debt.
-				 * 
-				 * @param subtrahend
-				 *            the amount to be removed.
-				 */
-				@Override
-				protected void minus(final long subtrahend) {
-					BasicBank.this.outstandingDebtAmount.minus(subtrahend);
-					Debt.this.normalDebtAmount.minus(subtrahend);
-					super.minus(subtrahend);
-				}
-
-				@Override
-				public int getMaturity() {
-					return this.maturityDate;
-				}
-
-				@Override
-				public void repay() {
-					// TODO Check une fois et une seule par période.
-					final long interest = (long) (this.getAmount() * this.loanRate);
-					final long principal;
-					final long term = this.maturityDate - BasicBank.this.getPeriod();
-					if (term == 0) {
-						principal = this.getAmount();
-					} else if (this.amortizing) {
-						principal = this.getAmount() / (term + 1);
-					} else {
-						principal = 0;
-					}
-					final long installment = principal + interest;
-					if (installment > deposit.getAmount()) {
-						if (Debt.this.overdueDebt == null) {
-							Debt.this.overdueDebt = new OverdueDebt();
-							BasicBank.this.overdueDebts.add(overdueDebt);
-						}
-						Debt.this.overdueDebt.add(installment - deposit.getAmount());
-					}
-					BasicAccount.this.deposit.minus(installment);
-					this.minus(principal);
-					if (this.getAmount() == 0) {
-						loanList.remove(this);
-					}
-					BasicBank.this.installments += installment;
-					BasicBank.this.interests += interest;
-					BasicBank.this.interestsNormal += interest;
-					Debt.this.installments += installment;
-					Debt.this.interests += interest;
-				}
-
-			}
+			private static final long serialVersionUID = 1L;
 
 			/**
 			 * Represents the overdue debt.
 			 */
 			private class OverdueDebt extends Amount implements Loan {
 
+				/**
+				 * The version of the serialized form.
+				 */
+				private static final long serialVersionUID = 1L;
+
 				/**
 				 * Adds a new amount of overdue debt.
 				 * The same amount is simultaneously credited to the related
@@ -297,6 +229,7 @@ public class BasicBank extends JamelObject implements AccountHolder, Bank {
 				@Override
 				protected void minus(final long subtrahend) {
 					BasicBank.this.overdueDebtAmount.minus(subtrahend);
+					BasicBank.this.audit.overdue(BasicAccount.this.index, -subtrahend);
 					super.minus(subtrahend);
 				}
 
@@ -309,6 +242,7 @@ public class BasicBank extends JamelObject implements AccountHolder, Bank {
 				@Override
 				protected void plus(long addend) {
 					BasicBank.this.overdueDebtAmount.plus(addend);
+					BasicBank.this.audit.overdue(BasicAccount.this.index, addend);
 					super.plus(addend);
 				}
 
@@ -326,6 +260,7 @@ public class BasicBank extends JamelObject implements AccountHolder, Bank {
 					final long installment = Math.min(this.getAmount(), BasicAccount.this.deposit.getAmount());
 					BasicAccount.this.deposit.minus(installment);
 					this.minus(installment);
+					BasicBank.this.audit.service(BasicAccount.this.index, interest, installment);
 					BasicBank.this.installments += installment;
 					BasicBank.this.interests += interest;
 					BasicBank.this.interestsOverdue += interest;
@@ -348,15 +283,13 @@ public class BasicBank extends JamelObject implements AccountHolder, Bank {
 			@SuppressWarnings("hiding")
 			private long interests = 0;
 
-			/**
-			 * The loans.
-			 */
-			private final List<BasicLoan> loanList = new LinkedList<>();
-
 			/**
 			 * Total amount of the debt of this account.
+			 * 
+			 * 2018-04-27: a primitive field (was a {@code BasicAmount}
+			 * object).
 			 */
-			private final BasicAmount normalDebtAmount = new BasicAmount();
+			private long normalDebtAmount = 0;
 
 			/**
 			 * The overdue debt.
@@ -382,21 +315,10 @@ public class BasicBank extends JamelObject implements AccountHolder, Bank {
 					long remainder = writeOff;
 					remainder -= this.overdueDebt.getAmount();
 					this.overdueDebt.cancel();
-					final List<Loan> cancelled = new LinkedList<>();
-					for (final BasicLoan loan : loanList) {
-						if (loan.getAmount() >= remainder) {
-							loan.minus(remainder);
-							if (loan.getAmount() == 0) {
-								cancelled.add(loan);
-							}
-							remainder = 0;
-							break;
-						}
-						remainder -= loan.getAmount();
-						loan.minus(loan.getAmount());
-						cancelled.add(loan);
-					}
-					this.loanList.removeAll(cancelled);
+					final long cancelled = BasicBank.this.ledger.cancel(BasicAccount.this.index, remainder);
+					this.decreaseNormalDebt(cancelled);
+					BasicBank.this.outstandingDebtAmount.minus(cancelled);
+					remainder -= cancelled;
 
 					if (remainder > 0) {
 						throw new RuntimeException("Remainder should be 0");
@@ -408,6 +330,27 @@ public class BasicBank extends JamelObject implements AccountHolder, Bank {
 				// ***
 			}
 
+			/**
+			 * Decreases the normal debt of this account.
+			 * 
+			 * @param subtrahend
+			 *            the amount to be subtracted.
+			 */
+			private void decreaseNormalDebt(final long subtrahend) {
+				if (subtrahend < 0) {
+					throw new RuntimeException("Negative subtrahend");
+				}
+				if (subtrahend > this.normalDebtAmount) {
+					Jamel.println();
+					Jamel.println("subtrahend", subtrahend);
+					Jamel.println("this.normalDebtAmount", this.normalDebtAmount);
+					Jamel.println();
+					throw new RuntimeException("subtrahend > amount");
+				}
+				this.normalDebtAmount -= subtrahend;
+				BasicBank.this.audit.debt(BasicAccount.this.index, -subtrahend);
+			}
+
 			/**
 			 * For debugging purpose.
 			 */
@@ -417,9 +360,7 @@ public class BasicBank extends JamelObject implements AccountHolder, Bank {
 				if (this.overdueDebt != null) {
 					sum += this.overdueDebt.getAmount();
 				}
-				for (Loan loan : this.loanList) {
-					sum += loan.getAmount();
-				}
+				sum += BasicBank.this.ledger.getAmount(BasicAccount.this.index);
 				if (this.getAmount() != sum) {
 					Jamel.println();
 					Jamel.println("this.getAmount()", this.getAmount());
@@ -436,7 +377,7 @@ public class BasicBank extends JamelObject implements AccountHolder, Bank {
 			 * @return the amount of the debt.
 			 */
 			private long getAmount() {
-				return this.normalDebtAmount.getAmount() + this.getOverdueDebt();
+				return this.normalDebtAmount + this.getOverdueDebt();
 			}
 
 			/**
@@ -445,13 +386,7 @@ public class BasicBank extends JamelObject implements AccountHolder, Bank {
 			 * @return the amount of long run debt.
 			 */
 			private long getLongRunAmount() {
-				long sum = 0;
-				for (Loan loan : this.loanList) {
-					if (loan.getMaturity() > getPeriod() + 12) {
-						sum += loan.getAmount();
-					}
-				}
-				return sum;
+				return BasicBank.this.ledger.getAmount(BasicAccount.this.index, getPeriod() + 12, Integer.MAX_VALUE);
 			}
 
 			/**
@@ -473,13 +408,8 @@ public class BasicBank extends JamelObject implements AccountHolder, Bank {
 			 * @return the amount of short run debt.
 			 */
 			private long getShortRun() {
-				long sum = 0;
-				for (Loan loan : this.loanList) {
-					if (loan.getMaturity() <= getPeriod() + 12) {
-						sum += loan.getAmount();
-					}
-				}
-				return sum + this.getOverdueDebt();
+				return BasicBank.this.ledger.getAmount(BasicAccount.this.index, Integer.MIN_VALUE, getPeriod() + 12)
+						+ this.getOverdueDebt();
 			}
 
 			/**
@@ -493,11 +423,54 @@ public class BasicBank extends JamelObject implements AccountHolder, Bank {
 			 * @param amortizing
 			 *            if the loan is amortizing.
 			 */
-			@SuppressWarnings("unused")
 			private void newLoan(long newDebt, int term, boolean amortizing) {
-				new BasicLoan(newDebt, term, amortizing);
-				// the new loan seems to be unused, but is automatically
-				// recorded in the loan list when created.
+				if (term < 0) {
+					throw new IllegalArgumentException("Bad term: " + term);
+				}
+				if (newDebt <= 0) {
+					throw new RuntimeException("Bad amount: " + newDebt);
+				}
+				BasicAccount.this.deposit.plus(newDebt);
+				BasicBank.this.ledger.add(BasicAccount.this.index, newDebt, BasicBank.this.rateNormal,
+						BasicBank.this.getPeriod() + term, amortizing);
+				this.normalDebtAmount += newDebt;
+				BasicBank.this.audit.debt(BasicAccount.this.index, newDebt);
+				BasicBank.this.outstandingDebtAmount.plus(newDebt);
+				// ***
+				// Debt.this.checkConsistency();
+				// BasicBank.this.checkConsistency();
+				// ***
+			}
+
+			/**
+			 * Debits the installments of the loans of this account, as
+			 * computed by the ledger of the bank. If the deposit is not
+			 * sufficient, the difference becomes overdue debt.
+			 * 
+			 * @param installment
+			 *            the total installment (principal + interests).
+			 * @param interest
+			 *            the total interest.
+			 * @param principal
+			 *            the total principal.
+			 */
+			private void repay(final long installment, final long interest, final long principal) {
+				if (installment > deposit.getAmount()) {
+					if (Debt.this.overdueDebt == null) {
+						Debt.this.overdueDebt = new OverdueDebt();
+						BasicBank.this.overdueDebts.add(overdueDebt);
+					}
+					Debt.this.overdueDebt.add(installment - deposit.getAmount());
+				}
+				BasicAccount.this.deposit.minus(installment);
+				this.decreaseNormalDebt(principal);
+				BasicBank.this.outstandingDebtAmount.minus(principal);
+				BasicBank.this.audit.service(BasicAccount.this.index, interest, installment);
+				BasicBank.this.installments += installment;
+				BasicBank.this.interests += interest;
+				BasicBank.this.interestsNormal += interest;
+				Debt.this.installments += installment;
+				Debt.this.interests += interest;
 			}
 
 		}
@@ -507,16 +480,27 @@ public class BasicBank extends JamelObject implements AccountHolder, Bank {
 		 */
 		private class Deposit extends Amount {
 
+			/**
+			 * The version of the serialized form.
+			 */
+			private static final long serialVersionUID = 1L;
+
 			/**
 			 * A basic cheque.
 			 */
 			private class BasicCheque extends AbstractCheque {
 
+				/**
+				 * The version of the serialized form.
+				 */
+				private static final long serialVersionUID = 1L;
+
 				/**
 				 * Clears the cheque
 				 */
 				@Override
 				protected void clear() {
+					BasicBank.this.audit.chequeOut(getAmount());
 					Deposit.this.minus(getAmount());
 					super.cancel();
 					this.issue = null;
@@ -539,6 +523,7 @@ public class BasicBank extends JamelObject implements AccountHolder, Bank {
 			@Override
 			protected void minus(final long subtrahend) {
 				BasicBank.this.depositsAmount.minus(subtrahend);
+				BasicBank.this.audit.deposit(BasicAccount.this.index, -subtrahend);
 				super.minus(subtrahend);
 			}
 
@@ -551,6 +536,7 @@ public class BasicBank extends JamelObject implements AccountHolder, Bank {
 			@Override
 			protected void plus(long addend) {
 				BasicBank.this.depositsAmount.plus(addend);
+				BasicBank.this.audit.deposit(BasicAccount.this.index, addend);
 				super.plus(addend);
 			}
 
@@ -565,6 +551,7 @@ public class BasicBank extends JamelObject implements AccountHolder, Bank {
 					throw new RuntimeException("Unknown type of cheque: " + cheque.getClass().getName());
 				}
 				this.plus(cheque.getAmount());
+				BasicBank.this.audit.chequeIn(cheque.getAmount());
 				((AbstractCheque) cheque).clear();
 				// ***
 				// checkConsistency();
@@ -601,6 +588,11 @@ public class BasicBank extends JamelObject implements AccountHolder, Bank {
 		 */
 		final private AccountHolder holder;
 
+		/**
+		 * The index of this account in the ledger of the bank.
+		 */
+		final private int index;
+
 		/**
 		 * If the account is open.
 		 */
@@ -617,9 +609,12 @@ public class BasicBank extends JamelObject implements AccountHolder, Bank {
 		 * 
 		 * @param holder
 		 *            the holder of the new account.
+		 * @param index
+		 *            the index of the account in the ledger of the bank.
 		 */
-		private BasicAccount(AccountHolder holder) {
+		private BasicAccount(AccountHolder holder, int index) {
 			this.holder = holder;
+			this.index = index;
 		}
 
 		@Override
@@ -643,6 +638,7 @@ public class BasicBank extends JamelObject implements AccountHolder, Bank {
 		public void cancelDebt(long amount) {
 			BasicBank.this.debtCancellationCount++;
 			BasicBank.this.debtCancellationValue += amount;
+			BasicBank.this.audit.debtCancellation(amount);
 			this.debt.cancel(amount);
 		}
 
@@ -756,6 +752,7 @@ public class BasicBank extends JamelObject implements AccountHolder, Bank {
 			this.open = true;
 			this.debt.installments = 0;
 			this.debt.interests = 0;
+			BasicBank.this.audit.reset(this.index);
 		}
 
 	}
@@ -809,6 +806,11 @@ public class BasicBank extends JamelObject implements AccountHolder, Bank {
 	 */
 	private final List<BasicAccount> accounts = new ArrayList<>();
 
+	/**
+	 * The audit of the accounts.
+	 */
+	final private BankAudit audit;
+
 	/**
 	 * The bank cheque.
 	 */
@@ -866,9 +868,9 @@ public class BasicBank extends JamelObject implements AccountHolder, Bank {
 	private long interestsOverdue = 0;
 
 	/**
-	 * The loans.
+	 * The ledger of the loans.
 	 */
-	final private List<Loan> loans = new LinkedList<>();
+	final private LoanLedger ledger = new LoanLedger();
 
 	/**
 	 * The amount of outstanding loans.
@@ -942,9 +944,11 @@ public class BasicBank extends JamelObject implements AccountHolder, Bank {
 		super(sector.getSimulation());
 		this.sector = sector;
 		this.id = id;
+		this.setRandomStream("agent:" + sector.getName() + "." + id);
 		final Parameters params = this.sector.getParameters();
 		ArgChecks.nullNotPermitted(params, "params");
-		this.cons = new BankConstants(params);
+		this.cons = Flyweights.get(params, BankConstants.class, BankConstants::new);
+		this.audit = new BankAudit(params);
 		this.agentDataset = new BasicAgentDataset(this);
 	}
 
@@ -998,26 +1002,20 @@ public class BasicBank extends JamelObject implements AccountHolder, Bank {
 			// ***
 		}
 
-		final ListIterator<Loan> it2 = this.loans.listIterator();
-		final int limit = getPeriod() + 12;
-		long longTermDebt = 0;
-		long shortTermDebt = 0;
-		while (it2.hasNext()) {
-			final Loan loan = it2.next();
-			loan.repay();
+		// 2018-04-26: the installments are computed by the ledger, bucket by
+		// bucket, and each account is debited once.
+
+		this.ledger.repay(getPeriod());
+		for (int i = 0; i < this.ledger.getTouchedCount(); i++) {
+			final int index = this.ledger.getTouched(i);
+			this.accounts.get(index).debt.repay(this.ledger.getInstallment(index), this.ledger.getInterest(index),
+					this.ledger.getPrincipal(index));
 			// ***
 			// checkConsistency();
 			// ***
-			if (loan.isEmpty()) {
-				it2.remove();
-			}
-
-			if (loan.getMaturity() > limit) {
-				longTermDebt += loan.getAmount();
-			} else {
-				shortTermDebt += loan.getAmount();
-			}
 		}
+		final long longTermDebt = this.ledger.getLongTermDebt();
+		long shortTermDebt = this.ledger.getShortTermDebt();
 		shortTermDebt += this.overdueDebtAmount.getAmount();
 
 		this.periodDataset.put(keys.longTermDebt, longTermDebt);
@@ -1151,6 +1149,23 @@ public class BasicBank extends JamelObject implements AccountHolder, Bank {
 		this.periodDataset.put(keys.debtCancellationCount, this.debtCancellationCount);
 		this.periodDataset.put(keys.debtCancellationValue, this.debtCancellationValue);
 		this.agentDataset.put(periodDataset);
+
+		// 2018-04-27: audit of the accounts.
+
+		this.audit.check(getPeriod(), liabilities, this.outstandingDebtAmount.getAmount(),
+				this.overdueDebtAmount.getAmount(), this.interests, this.installments, this.ledger.getTotal());
+		if (this.audit.isRecountDue(getPeriod())) {
+			this.audit.recount(getPeriod(), liabilities, this.outstandingDebtAmount.getAmount(),
+					this.overdueDebtAmount.getAmount(), this.interests, this.installments, this.ledger.getDebts());
+		}
+	}
+
+	/**
+	 * Waits for the background audit, if any, and shuts it down.
+	 */
+	@Override
+	public void dispose() {
+		this.audit.close();
 	}
 
 	@Override
@@ -1194,7 +1209,8 @@ public class BasicBank extends JamelObject implements AccountHolder, Bank {
 
 	@Override
 	public Account openAccount(final AccountHolder accountHolder) {
-		final BasicAccount account = new BasicAccount(accountHolder);
+		final BasicAccount account = new BasicAccount(accountHolder, this.accounts.size());
+		this.audit.open(account.index);
 		this.accounts.add(account);
 		return account;
 	}
@@ -1,9 +1,11 @@
 package jamel.models.m18.r08.banks;
 
+import java.io.Serializable;
+
 /**
  * Represents a bank loan.
  */
-interface Loan {
+interface Loan extends Serializable {
 
 	/**
 	 * Returns the current amount of the loan (its principal).
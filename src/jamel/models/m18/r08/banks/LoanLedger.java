@@ -0,0 +1,598 @@
+package jamel.models.m18.r08.banks;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The ledger of the loans of a bank.
+ *
+ * The loans are stored in primitive arrays, bucketed by maturity date: all
+ * the loans of a bucket have the same term, so that the installments are
+ * computed in a single pass over the arrays of each bucket, and the bucket
+ * of the loans that come to maturity is dropped at once. Each account keeps
+ * references to its loans (in the order of their creation), for the
+ * cancellation of its debt and for its short and long term debts.
+ *
+ * The installments computed by {@link #repay(int)} are accumulated by
+ * account: the bank then debits each account once, with the sum of its
+ * installments (the resulting deposit and overdue debt are the same as if
+ * the loans were repaid one by one).
+ *
+ * 2018-04-26: replaces the lists of {@code BasicLoan} of the bank and of its
+ * accounts.
+ */
+class LoanLedger implements Serializable {
+
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The loans of an account (references to the buckets, in the order of
+	 * the creation of the loans).
+	 */
+	private static class AccountLoans implements Serializable {
+
+		/**
+		 * The version of the serialized form.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The bucket of each loan.
+		 */
+		private Bucket[] buckets = new Bucket[4];
+
+		/**
+		 * The index of each loan in its bucket.
+		 */
+		private int[] indexes = new int[4];
+
+		/**
+		 * The number of loans.
+		 */
+		private int size = 0;
+
+		/**
+		 * Adds a reference to a loan.
+		 *
+		 * @param bucket
+		 *            the bucket of the loan.
+		 * @param index
+		 *            the index of the loan in the bucket.
+		 */
+		private void add(final Bucket bucket, final int index) {
+			if (this.size == this.buckets.length) {
+				this.buckets = Arrays.copyOf(this.buckets, 2 * this.size);
+				this.indexes = Arrays.copyOf(this.indexes, 2 * this.size);
+			}
+			this.buckets[this.size] = bucket;
+			this.indexes[this.size] = index;
+			this.size++;
+		}
+
+		/**
+		 * Removes the references to the loans repaid or cancelled.
+		 */
+		private void compact() {
+			int n = 0;
+			for (int i = 0; i < this.size; i++) {
+				if (!this.buckets[i].dropped && this.buckets[i].amounts[this.indexes[i]] > 0) {
+					this.buckets[n] = this.buckets[i];
+					this.indexes[n] = this.indexes[i];
+					n++;
+				}
+			}
+			Arrays.fill(this.buckets, n, this.size, null);
+			this.size = n;
+		}
+
+	}
+
+	/**
+	 * The loans that have the same maturity date.
+	 */
+	private static class Bucket implements Serializable {
+
+		/**
+		 * The version of the serialized form.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The account of each loan.
+		 */
+		private int[] accounts = new int[8];
+
+		/**
+		 * The amount of each loan.
+		 */
+		private long[] amounts = new long[8];
+
+		/**
+		 * If each loan is amortizing.
+		 */
+		private boolean[] amortizing = new boolean[8];
+
+		/**
+		 * {@code true} if the loans of this bucket have been repaid and the
+		 * bucket removed from the ledger.
+		 */
+		private boolean dropped = false;
+
+		/**
+		 * The maturity date of the loans.
+		 */
+		final private int maturity;
+
+		/**
+		 * The interest rate of each loan.
+		 */
+		private double[] rates = new double[8];
+
+		/**
+		 * The number of loans.
+		 */
+		private int size = 0;
+
+		/**
+		 * Creates a new bucket.
+		 *
+		 * @param maturity
+		 *            the maturity date of the loans.
+		 */
+		private Bucket(final int maturity) {
+			this.maturity = maturity;
+		}
+
+		/**
+		 * Adds a new loan.
+		 *
+		 * @param account
+		 *            the account.
+		 * @param amount
+		 *            the amount of the loan.
+		 * @param rate
+		 *            the interest rate.
+		 * @param amortizing
+		 *            if the loan is amortizing.
+		 * @return the index of the loan in the bucket.
+		 */
+		private int add(final int account, final long amount, final double rate, final boolean amortizing) {
+			if (this.size == this.amounts.length) {
+				final int capacity = 2 * this.size;
+				this.accounts = Arrays.copyOf(this.accounts, capacity);
+				this.amounts = Arrays.copyOf(this.amounts, capacity);
+				this.amortizing = Arrays.copyOf(this.amortizing, capacity);
+				this.rates = Arrays.copyOf(this.rates, capacity);
+			}
+			this.accounts[this.size] = account;
+			this.amounts[this.size] = amount;
+			this.rates[this.size] = rate;
+			this.amortizing[this.size] = amortizing;
+			this.size++;
+			return this.size - 1;
+		}
+
+	}
+
+	/**
+	 * The loans of each account.
+	 */
+	private AccountLoans[] accountLoans = new AccountLoans[64];
+
+	/**
+	 * The buckets, by maturity date.
+	 */
+	private Bucket[] buckets = new Bucket[64];
+
+	/**
+	 * The debt of each account (maintained incrementally, for the audit).
+	 */
+	private long[] debts = new long[64];
+
+	/**
+	 * The lowest maturity date of the buckets.
+	 */
+	private int first = Integer.MAX_VALUE;
+
+	/**
+	 * The total installment of each account in the last repayment.
+	 */
+	private long[] installments = new long[64];
+
+	/**
+	 * The total interest of each account in the last repayment.
+	 */
+	private long[] interests = new long[64];
+
+	/**
+	 * The highest maturity date of the buckets.
+	 */
+	private int last = Integer.MIN_VALUE;
+
+	/**
+	 * The long term debt after the last repayment.
+	 */
+	private long longTermDebt = 0;
+
+	/**
+	 * The number of repayments (used to mark the accounts debited).
+	 */
+	private int pass = 0;
+
+	/**
+	 * The total principal of each account in the last repayment.
+	 */
+	private long[] principals = new long[64];
+
+	/**
+	 * The short term debt (overdue debts excluded) after the last repayment.
+	 */
+	private long shortTermDebt = 0;
+
+	/**
+	 * The last repayment in which each account was debited.
+	 */
+	private int[] stamps = new int[64];
+
+	/**
+	 * The total amount of the loans (maintained incrementally, for the
+	 * audit).
+	 */
+	private long total = 0;
+
+	/**
+	 * The accounts debited in the last repayment.
+	 */
+	private int[] touched = new int[64];
+
+	/**
+	 * The number of accounts debited in the last repayment.
+	 */
+	private int touchedCount = 0;
+
+	/**
+	 * Ensures that the arrays of the accounts can contain the specified
+	 * account.
+	 *
+	 * @param account
+	 *            the index of the account.
+	 */
+	private void ensureAccountCapacity(final int account) {
+		if (account >= this.accountLoans.length) {
+			int capacity = this.accountLoans.length;
+			while (capacity <= account) {
+				capacity *= 2;
+			}
+			this.accountLoans = Arrays.copyOf(this.accountLoans, capacity);
+			this.debts = Arrays.copyOf(this.debts, capacity);
+			this.installments = Arrays.copyOf(this.installments, capacity);
+			this.interests = Arrays.copyOf(this.interests, capacity);
+			this.principals = Arrays.copyOf(this.principals, capacity);
+			this.stamps = Arrays.copyOf(this.stamps, capacity);
+		}
+	}
+
+	/**
+	 * Returns the bucket of the specified maturity date (a new bucket is
+	 * created if needed).
+	 *
+	 * @param maturity
+	 *            the maturity date.
+	 * @return the bucket.
+	 */
+	private Bucket getBucket(final int maturity) {
+		if (maturity >= this.buckets.length) {
+			int capacity = this.buckets.length;
+			while (capacity <= maturity) {
+				capacity *= 2;
+			}
+			this.buckets = Arrays.copyOf(this.buckets, capacity);
+		}
+		Bucket bucket = this.buckets[maturity];
+		if (bucket == null) {
+			bucket = new Bucket(maturity);
+			this.buckets[maturity] = bucket;
+			this.first = Math.min(this.first, maturity);
+			this.last = Math.max(this.last, maturity);
+		}
+		return bucket;
+	}
+
+	/**
+	 * Records a new loan.
+	 *
+	 * @param account
+	 *            the index of the account.
+	 * @param amount
+	 *            the amount of the loan.
+	 * @param rate
+	 *            the interest rate.
+	 * @param maturity
+	 *            the maturity date.
+	 * @param amortizing
+	 *            if the loan is amortizing.
+	 */
+	void add(final int account, final long amount, final double rate, final int maturity,
+			final boolean amortizing) {
+		if (amount <= 0) {
+			throw new RuntimeException("Bad amount: " + amount);
+		}
+		if (maturity < 0) {
+			throw new IllegalArgumentException("Bad maturity: " + maturity);
+		}
+		this.ensureAccountCapacity(account);
+		final Bucket bucket = this.getBucket(maturity);
+		final int index = bucket.add(account, amount, rate, amortizing);
+		if (this.accountLoans[account] == null) {
+			this.accountLoans[account] = new AccountLoans();
+		}
+		this.accountLoans[account].add(bucket, index);
+		this.debts[account] += amount;
+		this.total += amount;
+	}
+
+	/**
+	 * Cancels the specified amount of the debt of an account (the oldest
+	 * loans first).
+	 *
+	 * @param account
+	 *            the index of the account.
+	 * @param writeOff
+	 *            the amount to be cancelled.
+	 * @return the amount effectively cancelled.
+	 */
+	long cancel(final int account, final long writeOff) {
+		long remainder = writeOff;
+		final AccountLoans loans = (account < this.accountLoans.length) ? this.accountLoans[account] : null;
+		if (loans != null) {
+			for (int i = 0; i < loans.size && remainder > 0; i++) {
+				final Bucket bucket = loans.buckets[i];
+				if (!bucket.dropped) {
+					final int index = loans.indexes[i];
+					final long cancelled = Math.min(bucket.amounts[index], remainder);
+					bucket.amounts[index] -= cancelled;
+					remainder -= cancelled;
+				}
+			}
+			loans.compact();
+			this.debts[account] -= writeOff - remainder;
+		}
+		this.total -= writeOff - remainder;
+		return writeOff - remainder;
+	}
+
+	/**
+	 * Returns the debt of the specified account (overdue debt excluded).
+	 *
+	 * @param account
+	 *            the index of the account.
+	 * @return the debt of the account.
+	 */
+	long getAmount(final int account) {
+		return this.getAmount(account, Integer.MIN_VALUE, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the debt of the specified account for the loans whose maturity
+	 * date is in the specified range.
+	 *
+	 * @param account
+	 *            the index of the account.
+	 * @param from
+	 *            the lower bound of the range (exclusive).
+	 * @param to
+	 *            the upper bound of the range (inclusive).
+	 * @return the debt of the account in the specified range.
+	 */
+	long getAmount(final int account, final int from, final int to) {
+		long sum = 0;
+		final AccountLoans loans = (account < this.accountLoans.length) ? this.accountLoans[account] : null;
+		if (loans != null) {
+			loans.compact();
+			for (int i = 0; i < loans.size; i++) {
+				final Bucket bucket = loans.buckets[i];
+				if (bucket.maturity > from && bucket.maturity <= to) {
+					sum += bucket.amounts[loans.indexes[i]];
+				}
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns the debt of each account, maintained incrementally (the array
+	 * is not copied; the accounts without loan may be beyond its length).
+	 *
+	 * @return the debt of each account.
+	 */
+	long[] getDebts() {
+		return this.debts;
+	}
+
+	/**
+	 * Returns the total installment of the specified account in the last
+	 * repayment.
+	 *
+	 * @param account
+	 *            the index of the account.
+	 * @return the total installment.
+	 */
+	long getInstallment(final int account) {
+		return this.installments[account];
+	}
+
+	/**
+	 * Returns the total interest of the specified account in the last
+	 * repayment.
+	 *
+	 * @param account
+	 *            the index of the account.
+	 * @return the total interest.
+	 */
+	long getInterest(final int account) {
+		return this.interests[account];
+	}
+
+	/**
+	 * Returns the long term debt after the last repayment.
+	 *
+	 * @return the long term debt.
+	 */
+	long getLongTermDebt() {
+		return this.longTermDebt;
+	}
+
+	/**
+	 * Returns the total principal repaid by the specified account in the last
+	 * repayment.
+	 *
+	 * @param account
+	 *            the index of the account.
+	 * @return the total principal.
+	 */
+	long getPrincipal(final int account) {
+		return this.principals[account];
+	}
+
+	/**
+	 * Returns the short term debt after the last repayment (overdue debts
+	 * excluded).
+	 *
+	 * @return the short term debt.
+	 */
+	long getShortTermDebt() {
+		return this.shortTermDebt;
+	}
+
+	/**
+	 * Returns the total amount of the loans.
+	 *
+	 * @return the total amount of the loans.
+	 */
+	long getTotal() {
+		return this.total;
+	}
+
+	/**
+	 * Returns the specified account among the accounts debited in the last
+	 * repayment.
+	 *
+	 * @param i
+	 *            the index in the list of the accounts debited.
+	 * @return the index of the account.
+	 */
+	int getTouched(final int i) {
+		return this.touched[i];
+	}
+
+	/**
+	 * Returns the number of accounts debited in the last repayment.
+	 *
+	 * @return the number of accounts debited.
+	 */
+	int getTouchedCount() {
+		return this.touchedCount;
+	}
+
+	/**
+	 * Computes the installments of all the loans for the specified period,
+	 * and removes the principal repaid from the loans.
+	 *
+	 * The installments are accumulated by account, and the short and long
+	 * term debts are computed after the repayment (the loans that come to
+	 * maturity beyond {@code period + 12} are long term loans).
+	 *
+	 * @param period
+	 *            the current period.
+	 */
+	void repay(final int period) {
+		for (int i = 0; i < this.touchedCount; i++) {
+			final int account = this.touched[i];
+			this.installments[account] = 0;
+			this.interests[account] = 0;
+			this.principals[account] = 0;
+		}
+		this.touchedCount = 0;
+		this.pass++;
+		this.longTermDebt = 0;
+		this.shortTermDebt = 0;
+
+		final int limit = period + 12;
+		int newFirst = Integer.MAX_VALUE;
+		for (int maturity = this.first; maturity <= this.last; maturity++) {
+			final Bucket bucket = this.buckets[maturity];
+			if (bucket == null) {
+				continue;
+			}
+			final long term = maturity - period;
+			final int size = bucket.size;
+			final long[] amounts = bucket.amounts;
+			final double[] rates = bucket.rates;
+			final int[] accounts = bucket.accounts;
+			final boolean[] amortizing = bucket.amortizing;
+			long sum = 0;
+			for (int i = 0; i < size; i++) {
+				final long amount = amounts[i];
+				if (amount == 0) {
+					continue;
+				}
+				final long interest = (long) (amount * rates[i]);
+				final long principal;
+				if (term == 0) {
+					principal = amount;
+				} else if (amortizing[i]) {
+					principal = amount / (term + 1);
+				} else {
+					principal = 0;
+				}
+				amounts[i] = amount - principal;
+				sum += amount - principal;
+				final int account = accounts[i];
+				if (this.stamps[account] != this.pass) {
+					this.touch(account);
+				}
+				this.installments[account] += principal + interest;
+				this.interests[account] += interest;
+				this.principals[account] += principal;
+				this.debts[account] -= principal;
+				this.total -= principal;
+			}
+			if (maturity > limit) {
+				this.longTermDebt += sum;
+			} else {
+				this.shortTermDebt += sum;
+			}
+			if (sum == 0) {
+				// All the loans of the bucket have been repaid.
+				bucket.dropped = true;
+				this.buckets[maturity] = null;
+			} else if (newFirst == Integer.MAX_VALUE) {
+				newFirst = maturity;
+			}
+		}
+		this.first = newFirst;
+		if (newFirst == Integer.MAX_VALUE) {
+			this.last = Integer.MIN_VALUE;
+		}
+	}
+
+	/**
+	 * Adds the specified account to the accounts debited in the current
+	 * repayment.
+	 *
+	 * @param account
+	 *            the index of the account.
+	 */
+	private void touch(final int account) {
+		if (this.touchedCount == this.touched.length) {
+			this.touched = Arrays.copyOf(this.touched, 2 * this.touchedCount);
+		}
+		this.touched[this.touchedCount] = account;
+		this.touchedCount++;
+		this.stamps[account] = this.pass;
+	}
+
+}
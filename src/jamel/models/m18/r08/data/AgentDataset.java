@@ -1,11 +1,13 @@
 package jamel.models.m18.r08.data;
 
+import java.io.Serializable;
+
 import jamel.util.Agent;
 
 /**
  * Represents an agent dataset.
  */
-public interface AgentDataset {
+public interface AgentDataset extends Serializable {
 
 	/**
 	 * Returns the average value of the specified subset of data.
@@ -46,6 +48,17 @@ public interface AgentDataset {
 	 */
 	int getDataIndex(String key);
 
+	/**
+	 * Returns a new dataset for the specified period, to be filled by the
+	 * agent and then added to this agent dataset (see
+	 * {@link #put(PeriodDataset)}).
+	 * 
+	 * @param period
+	 *            the period of the new dataset.
+	 * @return a new period dataset.
+	 */
+	PeriodDataset getNewPeriodDataset(int period);
+
 	/**
 	 * Adds a new period dataset to this agent dataset.
 	 * 
@@ -14,6 +14,11 @@ import jamel.util.Simulation;
  */
 public class BasicAgentDataset implements AgentDataset {
 
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * TODO 24 should be a parameter
 	 */
@@ -138,6 +143,14 @@ public class BasicAgentDataset implements AgentDataset {
 		return this.keys.indexOf(key);
 	}
 
+	@Override
+	public PeriodDataset getNewPeriodDataset(final int period) {
+		if (period != this.simulation.getPeriod()) {
+			throw new RuntimeException("Inconsistency");
+		}
+		return new BasicPeriodDataset(this.agent);
+	}
+
 	@Override
 	public void put(PeriodDataset periodDataset) {
 		if (this.lastRecordPeriod == null) {
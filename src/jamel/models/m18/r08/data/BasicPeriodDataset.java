@@ -12,6 +12,11 @@ import jamel.util.Agent;
  */
 public class BasicPeriodDataset implements PeriodDataset {
 
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * The agent.
 	 */
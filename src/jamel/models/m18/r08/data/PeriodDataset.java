@@ -1,9 +1,11 @@
 package jamel.models.m18.r08.data;
 
+import java.io.Serializable;
+
 /**
  * Represents a dataset for one agent and one period.
  */
-public interface PeriodDataset {
+public interface PeriodDataset extends Serializable {
 
 	/**
 	 * Returns the value of the specified data.
@@ -3,15 +3,14 @@ package jamel.models.m18.r08.data;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-
-import org.jfree.data.xy.XYDataItem;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import jamel.Jamel;
-import jamel.data.AbstractScatterDynamicSeries;
+import jamel.data.ArrayScatterDynamicSeries;
 import jamel.data.DataKeys;
 import jamel.data.DynamicSeries;
 import jamel.data.Expression;
@@ -26,35 +25,26 @@ import jamel.util.JamelObject;
 
 /**
  * A manager for sector data.
+ * 
+ * 2018-04-20: the sum, min, max, count, mean and variance of each key
+ * referenced by an expression are computed in a single sweep at the end of
+ * each period, and stored in a primitive table indexed by key and period
+ * (replaces the cache of strings).
+ * 
+ * 2018-04-27: the scatter series are rendered from a snapshot of the columns
+ * of the sector dataset (see {@link #getSnapshot(int, String...)}).
  */
 public class SectorDataManager extends JamelObject {
 
 	/**
-	 * A class for the caches.
-	 * 
-	 * @param <T>
-	 *            type of the keys
-	 * @param <Y>
-	 *            type of the values
-	 */
-	private class Cache<T, Y> extends LinkedHashMap<T, Y> {
-
-		/**
-		 * Constructs an empty Cache instance with the specified initial
-		 * capacity.
-		 * 
-		 * @param initialCapacity
-		 *            the initial capacity
-		 */
-		public Cache(int initialCapacity) {
-			super(initialCapacity);
-		}
+	 * Constant for the COUNT operator (the number of non-null values).
+	 */
+	private static final int COUNT = 3;
 
-		@Override
-		protected boolean removeEldestEntry(Map.Entry<T, Y> eldest) {
-			return size() > MAX_CACHE_SIZE;
-		}
-	}
+	/**
+	 * The number of periods in the table of the statistics.
+	 */
+	private static final int depth = SectorDataset.maxSize + 1;
 
 	/**
 	 * Constant for the MAX operator.
@@ -62,20 +52,101 @@ public class SectorDataManager extends JamelObject {
 	private static final int MAX = 2;
 
 	/**
-	 * The maximum size of the cache.
+	 * Constant for the MEAN operator.
 	 */
-	static final private int MAX_CACHE_SIZE = 100;
+	private static final int MEAN = 4;
 
 	/**
 	 * Constant for the MIN operator.
 	 */
 	private static final int MIN = 1;
 
+	/**
+	 * The number of statistics computed for each key and each period.
+	 */
+	private static final int STATS = 6;
+
 	/**
 	 * Constant for the SUM operator.
 	 */
 	private static final int SUM = 0;
 
+	/**
+	 * Constant for the VAR operator (the population variance).
+	 */
+	private static final int VAR = 5;
+
+	/**
+	 * Adds the specified value to the statistics in the specified row.
+	 * 
+	 * The mean and the variance are accumulated with the Welford algorithm
+	 * and finalized by {@link #finish(double[], int)}.
+	 * 
+	 * @param row
+	 *            the row of the statistics.
+	 * @param offset
+	 *            the offset of the statistics in the row.
+	 * @param value
+	 *            the value to be added.
+	 */
+	private static void accumulate(final double[] row, final int offset, final double value) {
+		final double count = ++row[offset + COUNT];
+		if (count == 1) {
+			row[offset + SUM] = value;
+			row[offset + MIN] = value;
+			row[offset + MAX] = value;
+			row[offset + MEAN] = value;
+		} else {
+			row[offset + SUM] += value;
+			if (value < row[offset + MIN]) {
+				row[offset + MIN] = value;
+			}
+			if (value > row[offset + MAX]) {
+				row[offset + MAX] = value;
+			}
+			final double delta = value - row[offset + MEAN];
+			row[offset + MEAN] += delta / count;
+			row[offset + VAR] += delta * (value - row[offset + MEAN]);
+		}
+	}
+
+	/**
+	 * Finalizes the statistics in the specified row ({@code NaN} stands for
+	 * {@code null}).
+	 * 
+	 * @param row
+	 *            the row of the statistics.
+	 * @param offset
+	 *            the offset of the statistics in the row.
+	 */
+	private static void finish(final double[] row, final int offset) {
+		final double count = row[offset + COUNT];
+		if (count == 0) {
+			row[offset + MEAN] = Double.NaN;
+			row[offset + VAR] = Double.NaN;
+		} else {
+			row[offset + MEAN] = row[offset + SUM] / count;
+			row[offset + VAR] = row[offset + VAR] / count;
+		}
+	}
+
+	/**
+	 * Resets the statistics in the specified row.
+	 * 
+	 * @param row
+	 *            the row of the statistics.
+	 * @param offset
+	 *            the offset of the statistics in the row.
+	 */
+	private static void reset(final double[] row, final int offset) {
+		row[offset + SUM] = Double.NaN;
+		row[offset + MIN] = Double.NaN;
+		row[offset + MAX] = Double.NaN;
+		row[offset + COUNT] = 0;
+		row[offset + MEAN] = 0;
+		row[offset + VAR] = 0;
+	}
+
 	/**
 	 * Returns the {@code DataKeys} of the specified class of {@code Agent}.
 	 * 
@@ -83,7 +154,7 @@ public class SectorDataManager extends JamelObject {
 	 *            a class of {@code Agent}.
 	 * @return the {@code DataKeys} of the specified class of {@code Agent}.
 	 */
-	private static DataKeys getDataKeys(Class<? extends Agent> agentClass) {
+	public static DataKeys getDataKeys(Class<? extends Agent> agentClass) {
 		DataKeys result;
 		try {
 			final Method getActionMethod = agentClass.getMethod("getDataKeys");
@@ -175,11 +246,6 @@ public class SectorDataManager extends JamelObject {
 	 */
 	final private List<Agent> agents = new ArrayList<>();
 
-	/**
-	 * The cache of the results.
-	 */
-	final private Cache<String, Double> cache = new Cache<>(MAX_CACHE_SIZE);
-
 	/**
 	 * The indexes <-> keys dictionary for the sector.
 	 */
@@ -190,11 +256,35 @@ public class SectorDataManager extends JamelObject {
 	 */
 	final private Map<String, Expression> expressions = new HashMap<>();
 
+	/**
+	 * The IDs of the agents (their indexes in the columns of the sector
+	 * dataset), in the order of the list of the agents (empty if the agents
+	 * do not use the sector dataset).
+	 */
+	private int[] ids = new int[0];
+
+	/**
+	 * The keys referenced by the expressions (aggregated at the end of each
+	 * period).
+	 */
+	private int[] referencedKeys = new int[0];
+
 	/**
 	 * The parent sector.
 	 */
 	final private BasicSector sector;
 
+	/**
+	 * The table of the statistics: for each period slot, {@code STATS} values
+	 * per data key ({@code NaN} stands for {@code null}).
+	 */
+	final private double[][] stats;
+
+	/**
+	 * The period of the statistics of each data key, for each period slot.
+	 */
+	final private int[][] statsPeriods;
+
 	/**
 	 * Creates a new data manager.
 	 * 
@@ -207,84 +297,111 @@ public class SectorDataManager extends JamelObject {
 		super(sector.getSimulation());
 		this.sector = sector;
 		this.dataKeys = getDataKeys(this.sector.getAgentClass());
-		this.agents.addAll(agents);
+		final int size = (this.dataKeys == null) ? 0 : this.dataKeys.size();
+		this.stats = new double[depth][size * STATS];
+		this.statsPeriods = new int[depth][size];
+		for (int slot = 0; slot < depth; slot++) {
+			Arrays.fill(this.statsPeriods[slot], Integer.MIN_VALUE);
+		}
+		this.put(agents);
 	}
-	
+
 	/**
-	 * Returns the expression for the max of all specified values for the
-	 * specified period.
+	 * Computes the statistics of the specified data key for the specified
+	 * period, by a single sweep over the column of the sector dataset.
 	 * 
-	 * @param dataKey
-	 *            the key of the values.
-	 * @param periods
-	 *            the periods.
-	 * @return the expression for the max.
+	 * @param dataset
+	 *            the sector dataset.
+	 * @param key
+	 *            the data key.
+	 * @param offset
+	 *            the offset of the period in the column.
+	 * @param row
+	 *            the row where the statistics are stored.
 	 */
-	private Expression getMax(String dataKey, String periods) {
-
-		final int min = parsePeriods(periods, 0);
-		final int max = parsePeriods(periods, 1);
-		if (min != max) {
-			Jamel.println(min, max);
-			throw new RuntimeException("Bad periods: " + periods);
+	private void aggregate(final SectorDataset dataset, final int key, final int offset, final double[] row) {
+		final double[] values = dataset.getValues(key);
+		final AtomicLongArray present = dataset.getPresent(key);
+		final int[] ids = this.ids;
+		final int rowOffset = key * STATS;
+		reset(row, rowOffset);
+		for (int i = 0; i < ids.length; i++) {
+			final int cell = offset + ids[i];
+			if ((present.get(cell >>> 6) & (1L << cell)) != 0) {
+				accumulate(row, rowOffset, values[cell]);
+			}
 		}
+		finish(row, rowOffset);
+	}
 
-		final Expression expression = new Expression() {
-
-			/**
-			 * The date of the value in the cache.
-			 */
-			private Integer cacheDate = null;
-
-			/**
-			 * The value in the cache.
-			 */
-			private Double cacheValue = null;
-
-			@Override
-			public Double getValue() {
-				final Double result;
-				final int period = getPeriod();
-
-				if (this.cacheDate != null && period == this.cacheDate) {
-					result = this.cacheValue;
-				} else {
-					final int t = period - min;
-
-					result = SectorDataManager.this.getValue(dataKey, MAX, t);
-
-					// On place le résultat dans le cache de l'expression
-					// pour éviter d'avoir à le
-					// calculer à nouveau au cours de cette période.
-
-					this.cacheValue = result;
-					this.cacheDate = period;
-
-				}
-
-				return result;
+	/**
+	 * Computes the statistics of the specified data key for the specified
+	 * period, from the data of each agent.
+	 * 
+	 * @param key
+	 *            the data key.
+	 * @param t
+	 *            the period.
+	 * @param row
+	 *            the row where the statistics are stored.
+	 */
+	private void aggregate(final int key, final int t, final double[] row) {
+		final int rowOffset = key * STATS;
+		reset(row, rowOffset);
+		for (int i = 0; i < this.agents.size(); i++) {
+			final Double val = this.agents.get(i).getData(key, t);
+			if (val != null) {
+				accumulate(row, rowOffset, val);
 			}
+		}
+		finish(row, rowOffset);
+	}
 
-			@Override
-			public String toString() {
-				return "val(" + sector.getName() + ", " + dataKey + ", " + periods + ", max)";
+	/**
+	 * Checks that the specified data key exists, and registers it for the
+	 * aggregation at the end of each period.
+	 * 
+	 * @param dataKey
+	 *            the data key.
+	 * @return the index of the data key.
+	 */
+	private int reference(final String dataKey) {
+		if (this.dataKeys == null || !this.dataKeys.containsKey(dataKey)) {
+			final String message = "Unknown data key: '" + dataKey + "' for sector " + this.sector.getName();
+			Jamel.println("***");
+			Jamel.println(message);
+			Jamel.println();
+			throw new RuntimeException(message);
+		}
+		final int index = this.dataKeys.indexOf(dataKey);
+		for (final int key : this.referencedKeys) {
+			if (key == index) {
+				return index;
 			}
-
-		};
-		return expression;
+		}
+		this.referencedKeys = Arrays.copyOf(this.referencedKeys, this.referencedKeys.length + 1);
+		this.referencedKeys[this.referencedKeys.length - 1] = index;
+		return index;
 	}
 
 	/**
-	 * Returns the expression for the minimum of all specified values for the
-	 * specified period.
+	 * Returns the expression for the specified statistic of all specified
+	 * values for the specified period.
 	 * 
 	 * @param dataKey
 	 *            the key of the values.
 	 * @param periods
 	 *            the periods.
-	 * @return the expression for the minimum.
+	 * @param op
+	 *            the operator.
+	 * @param opName
+	 *            the name of the operator.
+	 * @return the expression for the statistic.
 	 */
-	private Expression getMin(String dataKey, String periods) {
+	private Expression getStatistic(final String dataKey, final String periods, final int op,
+			final String opName) {
+
+		final int dataIndex = this.reference(dataKey);
 
 		final int min = parsePeriods(periods, 0);
 		final int max = parsePeriods(periods, 1);
@@ -298,39 +415,41 @@ public class SectorDataManager extends JamelObject {
 			/**
 			 * The date of the value in the cache.
 			 */
-			private Integer cacheDate = null;
+			private int cacheDate = Integer.MIN_VALUE;
 
 			/**
-			 * The value in the cache.
+			 * The value in the cache ({@code NaN} for {@code null}).
 			 */
-			private Double cacheValue = null;
+			private double cacheValue = Double.NaN;
 
 			@Override
-			public Double getValue() {
-				final Double result;
+			public double getDoubleValue() {
 				final int period = getPeriod();
-				if (this.cacheDate != null && period == this.cacheDate) {
-					result = this.cacheValue;
-				} else {
-					final int t = period - min;
 
-					result = SectorDataManager.this.getValue(dataKey, MIN, t);
+				if (period != this.cacheDate) {
+					final int t = period - min;
 
 					// On place le résultat dans le cache de l'expression
 					// pour éviter d'avoir à le
 					// calculer à nouveau au cours de cette période.
 
-					this.cacheValue = result;
+					this.cacheValue = SectorDataManager.this.getDoubleValue(dataIndex, op, t);
 					this.cacheDate = period;
 
 				}
 
-				return result;
+				return this.cacheValue;
+			}
+
+			@Override
+			public Double getValue() {
+				final double result = this.getDoubleValue();
+				return Double.isNaN(result) ? null : result;
 			}
 
 			@Override
 			public String toString() {
-				return "val(" + sector.getName() + ", " + dataKey + ", " + periods + ", min)";
+				return "val(" + sector.getName() + ", " + dataKey + ", " + periods + ", " + opName + ")";
 			}
 
 		};
@@ -349,13 +468,7 @@ public class SectorDataManager extends JamelObject {
 	 */
 	private Expression getSum(final String dataKey, final String periods) {
 
-		if (!this.dataKeys.containsKey(dataKey)) {
-			final String message = "Unknown data key: '" + dataKey + "' for sector " + this.sector.getName();
-			Jamel.println("***");
-			Jamel.println(message);
-			Jamel.println();
-			throw new RuntimeException(message);
-		}
+		final int dataIndex = this.reference(dataKey);
 
 		final int min = parsePeriods(periods, 0);
 		final int max = parsePeriods(periods, 1);
@@ -369,26 +482,24 @@ public class SectorDataManager extends JamelObject {
 			/**
 			 * The date of the value in the cache.
 			 */
-			private Integer cacheDate = null;
+			private int cacheDate = Integer.MIN_VALUE;
 
 			/**
-			 * The value in the cache.
+			 * The value in the cache ({@code NaN} for {@code null}).
 			 */
-			private Double cacheValue = null;
+			private double cacheValue = Double.NaN;
 
 			@Override
-			public Double getValue() {
-				Double result = null;
+			public double getDoubleValue() {
 				final int period = getPeriod();
-				if (this.cacheDate != null && period == this.cacheDate.intValue()) {
-					result = this.cacheValue;
-				} else {
+				if (period != this.cacheDate) {
+					double result = Double.NaN;
 					final int start = period - min;
 					final int end = period - max;
 					for (int t = start; t <= end; t++) {
-						final Double sum = SectorDataManager.this.getValue(dataKey, SUM, t);
-						if (sum != null) {
-							if (result == null) {
+						final double sum = SectorDataManager.this.getDoubleValue(dataIndex, SUM, t);
+						if (!Double.isNaN(sum)) {
+							if (Double.isNaN(result)) {
 								result = sum;
 							} else {
 								result += sum;
@@ -405,7 +516,13 @@ public class SectorDataManager extends JamelObject {
 
 				}
 
-				return result;
+				return this.cacheValue;
+			}
+
+			@Override
+			public Double getValue() {
+				final double result = this.getDoubleValue();
+				return Double.isNaN(result) ? null : result;
 			}
 
 			@Override
@@ -420,62 +537,58 @@ public class SectorDataManager extends JamelObject {
 	/**
 	 * Returns the specified value.
 	 * 
-	 * @param dataKey
-	 *            the data key.
+	 * The statistics of the referenced keys are computed at the end of each
+	 * period (see {@link #close()}); the statistics of a period not yet
+	 * aggregated are computed on demand, from the data of each agent.
+	 * 
+	 * @param dataIndex
+	 *            the index of the data key.
 	 * @param op
 	 *            the operator.
 	 * @param t
 	 *            the period.
-	 * @return the specified value.
-	 */
-	@SuppressWarnings("null")
-	private Double getValue(String dataKey, int op, int t) {
-		final Double result;
-		final String query = "dataKey=" + dataKey + ", op=" + op + ", t=" + t;
-		if (cache.containsKey(query)) {
-			result = cache.get(query);
+	 * @return the specified value ({@code NaN} for {@code null}).
+	 */
+	private double getDoubleValue(final int dataIndex, final int op, final int t) {
+		final double[] row;
+		if (t < 0) {
+			row = new double[this.stats[0].length];
+			this.aggregate(dataIndex, t, row);
 		} else {
-			final int dataIndex = this.dataKeys.indexOf(dataKey);
-			Double sum = null;
-			Double min = null;
-			Double max = null;
-			for (int i = 0; i < this.agents.size(); i++) {
-				final Double val = this.agents.get(i).getData(dataIndex, t);
-				if (val != null) {
-					if (sum == null) {
-						sum = val;
-						min = val;
-						max = val;
-					} else {
-						sum += val;
-						if (val < min) {
-							min = val;
-						}
-						if (val > max) {
-							max = val;
-						}
-					}
-				}
-			}
-			cache.put("dataKey=" + dataKey + ", op=" + SUM + ", t=" + t, sum);
-			cache.put("dataKey=" + dataKey + ", op=" + MIN + ", t=" + t, min);
-			cache.put("dataKey=" + dataKey + ", op=" + MAX + ", t=" + t, max);
-			switch (op) {
-			case SUM:
-				result = sum;
-				break;
-			case MIN:
-				result = min;
-				break;
-			case MAX:
-				result = max;
-				break;
-			default:
-				throw new RuntimeException("Bad operator: " + op);
+			final int slot = t % depth;
+			row = this.stats[slot];
+			if (this.statsPeriods[slot][dataIndex] != t) {
+				this.statsPeriods[slot][dataIndex] = Integer.MIN_VALUE;
+				this.aggregate(dataIndex, t, row);
+				this.statsPeriods[slot][dataIndex] = t;
 			}
 		}
+		return row[dataIndex * STATS + op];
+	}
 
-		return result;
+	/**
+	 * Computes the statistics of all the referenced keys for the current
+	 * period, in a single sweep over the sector dataset. Must be called at
+	 * the end of the period, once all the agents are closed.
+	 */
+	public void close() {
+		if (this.referencedKeys.length > 0) {
+			final int t = getPeriod();
+			final int slot = t % depth;
+			final double[] row = this.stats[slot];
+			final SectorDataset dataset = this.sector.getDataset();
+			final int offset = (dataset == null || this.ids.length != this.agents.size()) ? -1
+					: dataset.getOffset(t);
+			for (final int key : this.referencedKeys) {
+				this.statsPeriods[slot][key] = Integer.MIN_VALUE;
+				if (offset >= 0) {
+					this.aggregate(dataset, key, offset, row);
+				} else {
+					this.aggregate(key, t, row);
+				}
+				this.statsPeriods[slot][key] = t;
+			}
+		}
 	}
 
 	/**
@@ -522,47 +635,35 @@ public class SectorDataManager extends JamelObject {
 				/**
 				 * The date of the value in the cache.
 				 */
-				private Integer cacheDate = null;
+				private int cacheDate = Integer.MIN_VALUE;
 
 				/**
-				 * The value in the cache.
+				 * The value in the cache ({@code NaN} for {@code null}).
 				 */
-				private Double cacheValue = null;
+				private double cacheValue = Double.NaN;
 
 				@Override
-				public Double getValue() {
-					Double value = null;
-					final Integer currentPeriod = getPeriod();
-					if (currentPeriod == this.cacheDate) {
-						value = this.cacheValue;
-					} else {
+				public double getDoubleValue() {
+					final int currentPeriod = getPeriod();
+					if (currentPeriod != this.cacheDate) {
 						final int t = currentPeriod - min;
-						final String query = "agentName=" + agentName + ", key=" + dataKey + ", t=" + t;
-						if (cache.containsKey(query)) {
-							value = cache.get(query);
-						} else {
-							final Double val = agent.getData(dataIndex, t);
-							/*for (final Agent agent : SectorDataManager.this.agents) {
-								Jamel.println(agent.getName(), agentName);
-
-								if (agent.getName().equals(agentName)) {
-									val = agent.getData(dataIndex, t);
-									break;
-								}
-							}*/
-							value = val;
-							cache.put(query, value);
-						}
+						final Double value = agent.getData(dataIndex, t);
 						// On met en cache le résultat pour éviter d'avoir à
 						// le
 						// calculer à nouveau au cours de cette période.
 
-						this.cacheValue = value;
+						this.cacheValue = (value == null) ? Double.NaN : value;
 						this.cacheDate = currentPeriod;
 
 					}
 
-					return value;
+					return this.cacheValue;
+				}
+
+				@Override
+				public Double getValue() {
+					final double result = this.getDoubleValue();
+					return Double.isNaN(result) ? null : result;
 				}
 
 				@Override
@@ -602,10 +703,19 @@ public class SectorDataManager extends JamelObject {
 				result = getSum(dataKey, period);
 				break;
 			case "min":
-				result = getMin(dataKey, period);
+				result = getStatistic(dataKey, period, MIN, operation);
 				break;
 			case "max":
-				result = getMax(dataKey, period);
+				result = getStatistic(dataKey, period, MAX, operation);
+				break;
+			case "count":
+				result = getStatistic(dataKey, period, COUNT, operation);
+				break;
+			case "mean":
+				result = getStatistic(dataKey, period, MEAN, operation);
+				break;
+			case "var":
+				result = getStatistic(dataKey, period, VAR, operation);
 				break;
 			default:
 				throw new RuntimeException("Not yet implemented: '" + operation + "'");
@@ -630,57 +740,56 @@ public class SectorDataManager extends JamelObject {
 	 */
 	public DynamicSeries getScatterSeries(final String xKey, final String yKey, final Expression[] conditions,
 			final String selection) {
+		// Checks the keys.
+		this.dataKeys.indexOf(xKey);
+		this.dataKeys.indexOf(yKey);
+		return new ArrayScatterDynamicSeries(this.sector, xKey, yKey, conditions, selection);
+	}
 
-		final int xIndex = this.dataKeys.indexOf(xKey);
-		final int yIndex = this.dataKeys.indexOf(yKey);
-
-		final Integer selectIndex;
-		final Double selectValue;
-		if (selection != null) {
-			final String[] select = selection.split("=", 2);
-			selectIndex = this.dataKeys.indexOf(select[0]);
-			selectValue = Double.parseDouble(select[1]);
-		} else {
-			selectIndex = null;
-			selectValue = null;
+	/**
+	 * Returns the values of the specified data keys for all the agents at the
+	 * specified period, read in bulk.
+	 * 
+	 * The values are copied from the columns of the sector dataset if the
+	 * period is still available there, else they are read from each agent.
+	 * 
+	 * @param t
+	 *            the period.
+	 * @param keys
+	 *            the data keys.
+	 * @return the columns of the values, one per key (a missing value is
+	 *         {@code NaN}).
+	 */
+	public double[][] getSnapshot(final int t, final String... keys) {
+		final int[] indexes = new int[keys.length];
+		for (int k = 0; k < keys.length; k++) {
+			indexes[k] = this.dataKeys.indexOf(keys[k]);
 		}
-
-		return new AbstractScatterDynamicSeries(this.sector.getName() + "," + xKey + "," + yKey + "," + selection,
-				false) {
-
-			@SuppressWarnings("unchecked")
-			@Override
-			public void update(boolean refresh) {
-				if (refresh) {
-					boolean update = true;
-					if (conditions != null) {
-						for (int i = 0; i < conditions.length; i++) {
-							if (conditions[i].getValue() == null || conditions[i].getValue() != 1) {
-								update = false;
-								break;
-							}
-						}
-					}
-					if (update) {
-						final int t = getPeriod();
-						this.data.clear();
-						for (Agent agent : agents) {
-							final Double x = agent.getData(xIndex, t);
-							final Double y = agent.getData(yIndex, t);
-							@SuppressWarnings("null")
-							final boolean selected = (selectIndex == null
-									|| selectValue.equals(agent.getData(selectIndex, t)));
-							if (selected && x != null && y != null) {
-								final XYDataItem item = new XYDataItem(x, y);
-								this.data.add(item);
-							}
-						}
-						this.fireSeriesChanged();
-					}
+		final int size = this.agents.size();
+		final double[][] result = new double[keys.length][size];
+		final SectorDataset dataset = this.sector.getDataset();
+		final int offset = (dataset == null || this.ids.length != size) ? -1 : dataset.getOffset(t);
+		if (offset >= 0) {
+			final int[] ids = this.ids;
+			for (int k = 0; k < indexes.length; k++) {
+				final double[] values = dataset.getValues(indexes[k]);
+				final AtomicLongArray present = dataset.getPresent(indexes[k]);
+				final double[] column = result[k];
+				for (int i = 0; i < size; i++) {
+					final int cell = offset + ids[i];
+					column[i] = ((present.get(cell >>> 6) & (1L << cell)) != 0) ? values[cell] : Double.NaN;
 				}
 			}
-
-		};
+		} else {
+			for (int i = 0; i < size; i++) {
+				final Agent agent = this.agents.get(i);
+				for (int k = 0; k < indexes.length; k++) {
+					final Double value = agent.getData(indexes[k], t);
+					result[k][i] = (value != null) ? value : Double.NaN;
+				}
+			}
+		}
+		return result;
 	}
 
 	/**
@@ -692,6 +801,12 @@ public class SectorDataManager extends JamelObject {
 	 */
 	public void put(List<? extends Agent> list) {
 		this.agents.addAll(list);
+		if (this.sector.getDataset() != null) {
+			this.ids = new int[this.agents.size()];
+			for (int i = 0; i < this.ids.length; i++) {
+				this.ids[i] = this.agents.get(i).getID();
+			}
+		}
 	}
 
 }
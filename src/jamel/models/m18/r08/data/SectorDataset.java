@@ -0,0 +1,448 @@
+package jamel.models.m18.r08.data;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import jamel.Jamel;
+import jamel.data.DataKeys;
+import jamel.util.Agent;
+
+/**
+ * A columnar dataset for all the agents of a sector.
+ *
+ * For each data key, the values of all the agents are stored in a ring buffer
+ * of primitive doubles (one slot per period, one cell per agent), together
+ * with a bitmap of the non-null values. The agent datasets returned by
+ * {@link #getNewAgentDataset(Agent)} are views on these columns: recording a
+ * value and reading a value back are array accesses, and no object is
+ * created per agent and per period.
+ *
+ * 2018-04-20: replaces {@code BasicAgentDataset} and
+ * {@code BasicPeriodDataset} for the agents of a {@code BasicSector}.
+ */
+public class SectorDataset implements Serializable {
+
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The dataset of an agent (a view on the columns of the sector dataset).
+	 */
+	private class ColumnarAgentDataset implements AgentDataset {
+
+		/**
+		 * The version of the serialized form.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The owner agent.
+		 */
+		final private Agent agent;
+
+		/**
+		 * The index of the agent in the columns.
+		 */
+		final private int id;
+
+		/**
+		 * The period of the last record.
+		 */
+		private Integer lastRecordPeriod = null;
+
+		/**
+		 * The dataset of the current period (reused from one period to the
+		 * next).
+		 */
+		final private ColumnarPeriodDataset periodDataset = new ColumnarPeriodDataset(this);
+
+		/**
+		 * The number of periods available (at most {@code maxSize}).
+		 */
+		private int size = 0;
+
+		/**
+		 * Creates a new agent dataset.
+		 *
+		 * @param agent
+		 *            the owner agent.
+		 */
+		private ColumnarAgentDataset(final Agent agent) {
+			this.agent = agent;
+			this.id = agent.getID();
+		}
+
+		@Override
+		public double average(int dataKey, int laps) {
+			if (laps < 0 || laps > maxSize) {
+				throw new RuntimeException("Bad value: " + laps);
+			}
+			final double result;
+			double sum = 0;
+			int count = 0;
+			for (int i = 0; i < this.size; i++) {
+				final int cell = cell(this.lastRecordPeriod - i, this.id);
+				if (isPresent(dataKey, cell)) {
+					sum += values[dataKey][cell];
+					count++;
+				}
+				if (count == laps) {
+					break;
+				}
+			}
+			if (count > 0) {
+				result = sum / count;
+			} else {
+				result = 0;
+			}
+			return result;
+		}
+
+		@Override
+		public Agent getAgent() {
+			return this.agent;
+		}
+
+		@Override
+		public Double getData(final int index, final int t) {
+			final Double result;
+			if (this.lastRecordPeriod == null) {
+				result = null;
+			} else {
+				final int timeIndex = this.lastRecordPeriod - t;
+				if (timeIndex < 0 || timeIndex >= maxSize) {
+					throw new IllegalArgumentException("Bad lag: " + timeIndex);
+				}
+				if (timeIndex >= this.size) {
+					result = null;
+				} else {
+					if (periods[t % depth] != t) {
+						Jamel.println("***");
+						Jamel.println("t", t);
+						Jamel.println("periods[t % depth]", periods[t % depth]);
+						throw new RuntimeException("Inconsistency");
+					}
+					final int cell = cell(t, this.id);
+					result = isPresent(index, cell) ? values[index][cell] : null;
+				}
+			}
+			return result;
+		}
+
+		@Override
+		public int getDataIndex(String key) {
+			return keys.indexOf(key);
+		}
+
+		@Override
+		public PeriodDataset getNewPeriodDataset(final int period) {
+			open(period);
+			this.periodDataset.period = period;
+			return this.periodDataset;
+		}
+
+		@Override
+		public void put(PeriodDataset periodDataset) {
+			if (periodDataset != this.periodDataset) {
+				throw new RuntimeException("Inconsistency");
+			}
+			if (this.lastRecordPeriod == null) {
+				this.lastRecordPeriod = periodDataset.getPeriod();
+			} else {
+				this.lastRecordPeriod++;
+				if (periodDataset.getPeriod() != this.lastRecordPeriod) {
+					Jamel.println(periodDataset.getPeriod(), this.lastRecordPeriod);
+					throw new RuntimeException("Inconsistency");
+				}
+			}
+			if (this.size < maxSize) {
+				this.size++;
+			}
+		}
+
+		@Override
+		public double sum(int dataKey, int laps) {
+			if (laps < 0 || laps > maxSize) {
+				throw new RuntimeException("Bad value: " + laps);
+			}
+			double sum = 0;
+			int count = 0;
+			for (int i = 0; i < this.size; i++) {
+				final int cell = cell(this.lastRecordPeriod - i, this.id);
+				if (isPresent(dataKey, cell)) {
+					sum += values[dataKey][cell];
+					count++;
+				}
+				if (count == laps) {
+					break;
+				}
+			}
+			return sum;
+		}
+
+	}
+
+	/**
+	 * The dataset of an agent for the current period (a view on the columns
+	 * of the sector dataset).
+	 */
+	private class ColumnarPeriodDataset implements PeriodDataset {
+
+		/**
+		 * The version of the serialized form.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The agent dataset.
+		 */
+		final private ColumnarAgentDataset agentDataset;
+
+		/**
+		 * The period.
+		 */
+		private int period;
+
+		/**
+		 * Creates a new period dataset.
+		 *
+		 * @param agentDataset
+		 *            the parent agent dataset.
+		 */
+		private ColumnarPeriodDataset(final ColumnarAgentDataset agentDataset) {
+			this.agentDataset = agentDataset;
+		}
+
+		@Override
+		public Double get(int index) {
+			final int cell = cell(this.period, this.agentDataset.id);
+			return isPresent(index, cell) ? values[index][cell] : null;
+		}
+
+		@Override
+		public Double get(String key) {
+			return get(keys.indexOf(key));
+		}
+
+		@Override
+		public int getPeriod() {
+			return this.period;
+		}
+
+		@Override
+		public void put(final int index, final Number value) {
+			if (index < 0 || index >= values.length) {
+				throw new IllegalArgumentException("Index out of range: " + index);
+			}
+			final int cell = cell(this.period, this.agentDataset.id);
+			if (isPresent(index, cell)) {
+				Jamel.println(this.agentDataset.agent.getName(), this.period, index, keys.getKey(index),
+						values[index][cell], value);
+				throw new RuntimeException("Already in the database: " + keys.getKey(index));
+			}
+			if (value != null && Double.isFinite(value.doubleValue())) {
+				values[index][cell] = value.doubleValue();
+				present[index].accumulateAndGet(cell >>> 6, 1L << cell, (word, bit) -> word | bit);
+			}
+		}
+
+	}
+
+	/**
+	 * The number of periods available for each agent.
+	 */
+	public static final int maxSize = 25;
+
+	/**
+	 * The number of slots of the ring buffers (the periods available, plus
+	 * the current period).
+	 */
+	private static final int depth = maxSize + 1;
+
+	/**
+	 * The number of cells of each slot (the maximum number of agents, a
+	 * multiple of 64).
+	 */
+	private int capacity = 64;
+
+	/**
+	 * The keys of the data.
+	 */
+	final private DataKeys keys;
+
+	/**
+	 * The period stored in each slot.
+	 */
+	final private int[] periods = new int[depth];
+
+	/**
+	 * The bitmaps of the non-null values, by data key (atomic, since the
+	 * agents of a parallel phase share the words of the bitmaps).
+	 */
+	private AtomicLongArray[] present;
+
+	/**
+	 * The values, by data key (for each key: {@code depth} slots of
+	 * {@code capacity} cells).
+	 */
+	private double[][] values;
+
+	/**
+	 * Creates a new sector dataset.
+	 *
+	 * @param keys
+	 *            the keys of the data.
+	 */
+	public SectorDataset(final DataKeys keys) {
+		this.keys = keys;
+		this.values = new double[keys.size()][depth * this.capacity];
+		this.present = new AtomicLongArray[keys.size()];
+		for (int key = 0; key < this.present.length; key++) {
+			this.present[key] = new AtomicLongArray(depth * this.capacity / 64);
+		}
+		Arrays.fill(this.periods, Integer.MIN_VALUE);
+	}
+
+	/**
+	 * Returns the index of the cell of the specified agent for the specified
+	 * period.
+	 *
+	 * @param t
+	 *            the period.
+	 * @param id
+	 *            the index of the agent.
+	 * @return the index of the cell.
+	 */
+	private int cell(final int t, final int id) {
+		return (t % depth) * this.capacity + id;
+	}
+
+	/**
+	 * Grows the columns so that they can contain the specified number of
+	 * agents.
+	 *
+	 * @param minCapacity
+	 *            the desired minimum number of agents.
+	 */
+	private void ensureCapacity(final int minCapacity) {
+		if (minCapacity > this.capacity) {
+			int newCapacity = this.capacity;
+			while (newCapacity < minCapacity) {
+				newCapacity *= 2;
+			}
+			for (int key = 0; key < this.values.length; key++) {
+				final double[] newValues = new double[depth * newCapacity];
+				final AtomicLongArray newPresent = new AtomicLongArray(depth * newCapacity / 64);
+				for (int slot = 0; slot < depth; slot++) {
+					System.arraycopy(this.values[key], slot * this.capacity, newValues, slot * newCapacity,
+							this.capacity);
+					for (int word = 0; word < this.capacity / 64; word++) {
+						newPresent.set(slot * newCapacity / 64 + word,
+								this.present[key].get(slot * this.capacity / 64 + word));
+					}
+				}
+				this.values[key] = newValues;
+				this.present[key] = newPresent;
+			}
+			this.capacity = newCapacity;
+		}
+	}
+
+	/**
+	 * Returns {@code true} if the specified cell contains a value.
+	 *
+	 * @param key
+	 *            the data key.
+	 * @param cell
+	 *            the cell.
+	 * @return {@code true} if the specified cell contains a value.
+	 */
+	private boolean isPresent(final int key, final int cell) {
+		return (this.present[key].get(cell >>> 6) & (1L << cell)) != 0;
+	}
+
+	/**
+	 * Opens the slot of the specified period (the data of the period that
+	 * used this slot before are erased).
+	 *
+	 * @param t
+	 *            the period.
+	 */
+	private void open(final int t) {
+		final int slot = t % depth;
+		if (this.periods[slot] != t) {
+			if (this.periods[slot] > t) {
+				throw new RuntimeException("Inconsistency");
+			}
+			final int words = this.capacity / 64;
+			for (int key = 0; key < this.present.length; key++) {
+				for (int word = slot * words; word < (slot + 1) * words; word++) {
+					this.present[key].set(word, 0L);
+				}
+			}
+			this.periods[slot] = t;
+		}
+	}
+
+	/**
+	 * Returns the offset of the slot of the specified period in the columns.
+	 * 
+	 * @param t
+	 *            the period.
+	 * @return the offset of the slot, or -1 if the period is not available.
+	 */
+	int getOffset(final int t) {
+		return (t >= 0 && this.periods[t % depth] == t) ? (t % depth) * this.capacity : -1;
+	}
+
+	/**
+	 * Returns the bitmap of the non-null values of the specified data key.
+	 * 
+	 * @param key
+	 *            the data key.
+	 * @return the bitmap of the non-null values.
+	 */
+	AtomicLongArray getPresent(final int key) {
+		return this.present[key];
+	}
+
+	/**
+	 * Returns the column of the specified data key.
+	 * 
+	 * @param key
+	 *            the data key.
+	 * @return the column of the values.
+	 */
+	double[] getValues(final int key) {
+		return this.values[key];
+	}
+
+	/**
+	 * Returns the keys of the data.
+	 *
+	 * @return the keys of the data.
+	 */
+	public DataKeys getKeys() {
+		return this.keys;
+	}
+
+	/**
+	 * Creates and returns a new dataset for the specified agent.
+	 *
+	 * @param agent
+	 *            the agent (its ID is its index in the columns, and must be
+	 *            unique in the sector).
+	 * @return a new dataset for the specified agent.
+	 */
+	public AgentDataset getNewAgentDataset(final Agent agent) {
+		if (agent.getID() < 0) {
+			throw new IllegalArgumentException("Bad ID: " + agent.getID());
+		}
+		this.ensureCapacity(agent.getID() + 1);
+		return new ColumnarAgentDataset(agent);
+	}
+
+}
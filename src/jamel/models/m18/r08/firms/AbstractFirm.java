@@ -95,6 +95,11 @@ import jamel.util.Sector;
  */
 abstract class AbstractFirm extends AbstractAgent implements Firm {
 
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * The data keys.
 	 */
@@ -1,14 +1,15 @@
 package jamel.models.m18.r08.firms;
 
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.ListIterator;
 
 import jamel.Jamel;
 import jamel.models.m18.r08.data.PeriodDataset;
 import jamel.models.m18.r08.roles.Worker;
-import jamel.models.m18.r08.util.BasicAmount;
 import jamel.models.m18.r08.util.Commodities;
 import jamel.models.m18.r08.util.JobContract;
 import jamel.util.ArgChecks;
@@ -26,9 +27,34 @@ import jamel.util.Simulation;
 class BasicFactory extends JamelObject {
 
 	/**
-	 * A machine.
+	 * The version of the serialized form.
 	 */
-	private class Machine {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * A group of machines of the same vintage: same date of creation, same
+	 * estimated expiration, same productivity and same book value.
+	 * 
+	 * The machines of a group depreciate together, so the machinery is
+	 * depreciated group by group instead of machine by machine. The dates when
+	 * the machines will brake are drawn machine by machine: they are kept in
+	 * the group, in ascending order, and the broken machines are scrapped from
+	 * the start of the array.
+	 * 
+	 * 2018-04-27: replaces the machines of the factory.
+	 */
+	private class Vintage implements Serializable {
+
+		/**
+		 * The version of the serialized form.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The number of machines of this group already scrapped (the first
+		 * ones of {@link #expirations}).
+		 */
+		private int broken = 0;
 
 		/**
 		 * The estimated expiration date.
@@ -36,78 +62,113 @@ class BasicFactory extends JamelObject {
 		final private int estimatedExpiration;
 
 		/**
-		 * The date when the machine will brake.
+		 * The dates when the machines will brake, in ascending order.
 		 */
-		final private int expiration;
+		private int[] expirations;
 
 		/**
-		 * The productivity of this machine.
+		 * The productivity of each machine.
 		 */
 		final private int productivity;
 
 		/**
-		 * The book value of this machine.
+		 * The book value of each machine.
 		 */
-		final private BasicAmount value;
+		private long value;
 
 		/**
-		 * Creates a new machine.
-		 * 
-		 * @param input
-		 *            the value of the new machine.
+		 * The period when the machines were created.
 		 */
-		private Machine(final Commodities input) {
-			if (!(input instanceof BasicGoods) || !(technology.getQualityOfInputForTheCreationOfANewMachine()
-					.equals(((BasicGoods) input).getQuality()))) {
-				throw new RuntimeException("Bad input");
-			}
-			final long valueBefore = input.getValue();
-			input.consume(technology.getInputVolumeForANewMachine());
-			this.value = new BasicAmount(valueBefore - input.getValue());
-			this.estimatedExpiration = getPeriod() + technology.getMachineTimeLife();
-			this.expiration = (int) (estimatedExpiration
-					+ getRandom().nextGaussian() * technology.getMachineTimeLifeStDev());
-			this.productivity = technology.getProductivity();
-		}
+		final private int vintage;
 
 		/**
 		 * Creates a new machine.
 		 * 
+		 * @param vintage
+		 *            the period when the machine was created.
 		 * @param value
-		 *            the value of the new machine.
-		 *
+		 *            the book value of the machine.
 		 * @param expiration
 		 *            the date when the machine will brake.
-		 * 
 		 * @param estimatedExpiration
 		 *            the estimation of the date when the machine will brake.
 		 */
-		private Machine(final long value, final int expiration, final int estimatedExpiration) {
-			this.value = new BasicAmount(value);
-			this.expiration = expiration;
+		private Vintage(final int vintage, final long value, final int expiration, final int estimatedExpiration) {
+			if (value < 0) {
+				throw new IllegalArgumentException("Bad value: " + value);
+			}
+			this.vintage = vintage;
+			this.value = value;
+			this.expirations = new int[] { expiration };
 			this.estimatedExpiration = estimatedExpiration;
 			this.productivity = technology.getProductivity();
 		}
 
 		/**
-		 * Depreciates the machine and returns the amount of the depreciation.
+		 * Adds the machines of the specified group to this group.
+		 * 
+		 * @param machines
+		 *            the machines to be added (a group with the same vintage,
+		 *            the same productivity and the same book value).
+		 */
+		private void add(final Vintage machines) {
+			final int size = this.size();
+			final int addedSize = machines.size();
+			final int[] merged = new int[size + addedSize];
+			int i = this.broken;
+			int j = machines.broken;
+			for (int k = 0; k < merged.length; k++) {
+				if (j == machines.expirations.length
+						|| (i < this.expirations.length && this.expirations[i] <= machines.expirations[j])) {
+					merged[k] = this.expirations[i];
+					i++;
+				} else {
+					merged[k] = machines.expirations[j];
+					j++;
+				}
+			}
+			this.expirations = merged;
+			this.broken = 0;
+		}
+
+		/**
+		 * Depreciates the machines of this group, scraps the broken ones, and
+		 * returns the amount of the depreciation.
+		 * 
+		 * The broken machines lose their whole value.
 		 * 
 		 * @return the amount of the depreciation.
 		 */
 		private long depreciate() {
-			long machineDepreciation;
-			if (getPeriod() > this.expiration || getPeriod() > this.estimatedExpiration) {
-				machineDepreciation = this.value.getAmount();
+			int newlyBroken = 0;
+			while (this.broken < this.expirations.length && getPeriod() > this.expirations[this.broken]) {
+				this.broken++;
+				newlyBroken++;
+			}
+			final long machineDepreciation;
+			if (getPeriod() > this.estimatedExpiration) {
+				machineDepreciation = this.value;
 			} else {
 				final int remainingTime = 1 + this.estimatedExpiration - getPeriod();
-				machineDepreciation = this.value.getAmount() / remainingTime;
+				machineDepreciation = this.value / remainingTime;
 			}
-			this.value.minus(machineDepreciation);
-			return machineDepreciation;
+			final long result = this.value * newlyBroken + machineDepreciation * this.size();
+			this.value -= machineDepreciation;
+			return result;
 		}
 
 		/**
-		 * Returns a new heap of materials.
+		 * Returns the number of machines in this group.
+		 * 
+		 * @return the number of machines in this group.
+		 */
+		private int size() {
+			return this.expirations.length - this.broken;
+		}
+
+		/**
+		 * Returns a new heap of materials, produced by one machine of this
+		 * group.
 		 * 
 		 * @param contract
 		 *            the job contract of the worker.
@@ -116,7 +177,7 @@ class BasicFactory extends JamelObject {
 		 * @return a new heap of materials.
 		 */
 		private Materials work(JobContract contract, Materials input) {
-			if (getPeriod() > this.expiration) {
+			if (getPeriod() > this.expirations[this.broken]) {
 				throw new RuntimeException("This machine is broken");
 			}
 			final Materials output;
@@ -137,7 +198,12 @@ class BasicFactory extends JamelObject {
 	/**
 	 * A heap of unfinished materials.
 	 */
-	class Materials {
+	class Materials implements Serializable {
+
+		/**
+		 * The version of the serialized form.
+		 */
+		private static final long serialVersionUID = 1L;
 
 		/**
 		 * The period of production of the materials.
@@ -280,6 +346,38 @@ class BasicFactory extends JamelObject {
 	 */
 	private static final FirmKeys keys = FirmKeys.getInstance();
 
+	/**
+	 * Sorts the groups of machines: the newest machines first (they are the
+	 * first used), then by estimated expiration, productivity and value.
+	 * 
+	 * The depreciation keeps this order: the machines of a vintage share their
+	 * estimated expiration, and the depreciated value is a non-decreasing
+	 * function of the value.
+	 */
+	private static final Comparator<Vintage> vintageComparator = new Comparator<Vintage>() {
+
+		@Override
+		public int compare(Vintage vintage0, Vintage vintage1) {
+			int result = Integer.compare(vintage1.vintage, vintage0.vintage);
+			if (result == 0) {
+				result = Integer.compare(vintage0.estimatedExpiration, vintage1.estimatedExpiration);
+			}
+			if (result == 0) {
+				result = Integer.compare(vintage0.productivity, vintage1.productivity);
+			}
+			if (result == 0) {
+				result = Long.compare(vintage0.value, vintage1.value);
+			}
+			return result;
+		}
+
+	};
+
+	/**
+	 * The number of machines.
+	 */
+	private int capacity = 0;
+
 	/**
 	 * The dataset.
 	 */
@@ -317,9 +415,10 @@ class BasicFactory extends JamelObject {
 	private int investmentSize = 0;
 
 	/**
-	 * The machines.
+	 * The machines, by groups of identical machines (sorted by
+	 * {@link #vintageComparator}).
 	 */
-	private final LinkedList<Machine> machinery = new LinkedList<>();
+	private final ArrayList<Vintage> machinery = new ArrayList<>();
 
 	/**
 	 * TODO should be a parameter.
@@ -387,9 +486,11 @@ class BasicFactory extends JamelObject {
 					? (int) (expiration0 + this.technology.getMachineTimeLife()
 							+ getRandom().nextGaussian() * this.technology.getMachineTimeLifeStDev())
 					: expiration0;
-			final Machine machine = new Machine(0, expiration, expiration);
-			this.machinery.add(machine);
-			this.productionAtFullCapacity += machine.productivity;
+			// The initial machines have no book value: their estimated
+			// expiration has no effect on their depreciation, it is the one of
+			// their vintage so that they form a single group.
+			this.addMachines(
+					new Vintage(getPeriod(), 0, expiration, getPeriod() + this.technology.getMachineTimeLife()));
 		}
 		this.inProcess = new Materials[this.technology.getProductionProcessLenght()];
 		for (int i = 0; i < this.inProcess.length; i++) {
@@ -398,6 +499,24 @@ class BasicFactory extends JamelObject {
 		this.inputForNewMachines = new BasicGoods(this.getTechnology().getQualityOfInputForTheCreationOfANewMachine());
 	}
 
+	/**
+	 * Adds the specified machines to the machinery (merges them with the
+	 * group of the same vintage and the same value if any).
+	 * 
+	 * @param machines
+	 *            the machines to be added.
+	 */
+	private void addMachines(final Vintage machines) {
+		final int index = Collections.binarySearch(this.machinery, machines, vintageComparator);
+		if (index >= 0) {
+			this.machinery.get(index).add(machines);
+		} else {
+			this.machinery.add(-index - 1, machines);
+		}
+		this.capacity += machines.size();
+		this.productionAtFullCapacity += machines.productivity * machines.size();
+	}
+
 	int getOverhead() {
 		return Math.round(this.getCapacity() * this.overHeadRatio);
 	}
@@ -406,21 +525,34 @@ class BasicFactory extends JamelObject {
 	 * Depreciates the machines.
 	 */
 	public void depreciation() {
-		final Iterator<Machine> it = this.machinery.iterator();
 		if (this.depreciation != null) {
 			throw new RuntimeException("Depreciation should be null at this point.");
 		}
+		// 2018-04-27: the machines are depreciated and scrapped by groups.
 		int broken = 0;
-		this.depreciation = 0l;
-		while (it.hasNext()) {
-			final Machine machine = it.next();
-			this.depreciation += machine.depreciate();
-			if (getPeriod() > machine.expiration) {
-				this.productionAtFullCapacity -= machine.productivity;
-				it.remove();
-				broken++;
+		long newDepreciation = 0;
+		int size = 0;
+		// The groups left empty are removed, and the neighbouring groups that
+		// have reached the same value are merged (the order is kept, see
+		// vintageComparator).
+		for (final Vintage machines : this.machinery) {
+			final int sizeBefore = machines.size();
+			newDepreciation += machines.depreciate();
+			final int lost = sizeBefore - machines.size();
+			this.productionAtFullCapacity -= machines.productivity * lost;
+			this.capacity -= lost;
+			broken += lost;
+			if (machines.size() > 0) {
+				if (size > 0 && vintageComparator.compare(this.machinery.get(size - 1), machines) == 0) {
+					this.machinery.get(size - 1).add(machines);
+				} else {
+					this.machinery.set(size, machines);
+					size++;
+				}
 			}
 		}
+		this.machinery.subList(size, this.machinery.size()).clear();
+		this.depreciation = newDepreciation;
 		this.dataset.put(keys.brokenMachines, broken);
 		this.dataset.put(keys.depreciation, this.depreciation);
 	}
@@ -455,10 +587,17 @@ class BasicFactory extends JamelObject {
 			throw new RuntimeException("Inconsistency");
 		}
 		for (int i = 0; i < size; i++) {
-			final Machine machine = new Machine(input);
-			this.machinery.addFirst(machine);
+			if (!(input instanceof BasicGoods) || !(technology.getQualityOfInputForTheCreationOfANewMachine()
+					.equals(((BasicGoods) input).getQuality()))) {
+				throw new RuntimeException("Bad input");
+			}
+			final long valueBefore = input.getValue();
+			input.consume(technology.getInputVolumeForANewMachine());
+			final int estimatedExpiration = getPeriod() + technology.getMachineTimeLife();
+			final int expiration = (int) (estimatedExpiration
+					+ getRandom().nextGaussian() * technology.getMachineTimeLifeStDev());
+			this.addMachines(new Vintage(getPeriod(), valueBefore - input.getValue(), expiration, estimatedExpiration));
 			this.investmentSize++;
-			this.productionAtFullCapacity += machine.productivity;
 		}
 	}
 
@@ -468,7 +607,7 @@ class BasicFactory extends JamelObject {
 	 * @return the capacity of the firm.
 	 */
 	public int getCapacity() {
-		return this.machinery.size();
+		return this.capacity;
 	}
 
 	/**
@@ -540,8 +679,8 @@ class BasicFactory extends JamelObject {
 	 */
 	public long getMachineryValue() {
 		long result = 0;
-		for (final Machine machine : this.machinery) {
-			result += machine.value.getAmount();
+		for (final Vintage machines : this.machinery) {
+			result += machines.value * machines.size();
 		}
 		return result;
 	}
@@ -617,7 +756,7 @@ class BasicFactory extends JamelObject {
 		final int overhead = this.getOverhead();
 
 		// TODO vérifier le fonctionnement de cette méthode en la traçant.
-		if (contracts.size() > overhead + this.machinery.size()) {
+		if (contracts.size() > overhead + this.capacity) {
 			throw new RuntimeException("Too many workers");
 		}
 
@@ -638,12 +777,18 @@ class BasicFactory extends JamelObject {
 		}
 		// ***
 
-		final ListIterator<? extends Machine> machineryIterator = this.machinery.listIterator();
+		int vintageIndex = 0;
+		int used = 0;
 
 		final Materials[] newMaterials = new Materials[this.technology.getProductionProcessLenght()];
 		while (workforceIterator.hasNext()) {
 			final JobContract contract = workforceIterator.next();
-			final Machine machine = machineryIterator.next();
+			while (used == this.machinery.get(vintageIndex).size()) {
+				vintageIndex++;
+				used = 0;
+			}
+			final Vintage machine = this.machinery.get(vintageIndex);
+			used++;
 			final double volume = machine.productivity * this.productionProcessLenght;
 			while (true) {
 				if (stage == 1 || this.inProcess[stage - 2].getVolume() >= volume) {
@@ -686,7 +831,7 @@ class BasicFactory extends JamelObject {
 
 		this.dataset.put(keys.productionValue, this.inProcess[this.productionProcessLenght - 1].getValue());
 		this.dataset.put(keys.productionVolume, this.inProcess[this.productionProcessLenght - 1].getVolume());
-		this.dataset.put(keys.capacity, this.machinery.size());
+		this.dataset.put(keys.capacity, this.capacity);
 		this.finishedGoods.put(this.inProcess[this.productionProcessLenght - 1]);
 	}
 
@@ -1,5 +1,6 @@
 package jamel.models.m18.r08.firms;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -19,6 +20,7 @@ import jamel.models.m18.r08.util.BasicOwnership;
 import jamel.models.m18.r08.util.Cheque;
 import jamel.models.m18.r08.util.Commodities;
 import jamel.models.m18.r08.util.Equity;
+import jamel.models.m18.r08.util.Flyweights;
 import jamel.models.m18.r08.util.JobContract;
 import jamel.models.m18.r08.util.JobOffer;
 import jamel.models.m18.r08.util.Supply;
@@ -128,11 +130,21 @@ import jamel.util.Sector;
  */
 public class BasicFirm2 extends AbstractFirm {
 
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * The bank ownership.
 	 */
 	class FirmOwnership extends BasicOwnership {
 
+		/**
+		 * The version of the serialized form.
+		 */
+		private static final long serialVersionUID = 1L;
+
 		/**
 		 * Creates a new ownership for this firm.
 		 */
@@ -174,7 +186,12 @@ public class BasicFirm2 extends AbstractFirm {
 	 * The sales manager.
 	 */
 	@SuppressWarnings("javadoc")
-	class SalesManager {
+	class SalesManager implements Serializable {
+
+		/**
+		 * The version of the serialized form.
+		 */
+		private static final long serialVersionUID = 1L;
 
 		private long salesValue = 0;
 
@@ -223,6 +240,11 @@ public class BasicFirm2 extends AbstractFirm {
 
 			supply = new Supply() {
 
+				/**
+				 * The version of the serialized form.
+				 */
+				private static final long serialVersionUID = 1L;
+
 				private long volume = supplyVolume;
 
 				private void anachronismDetection() {
@@ -332,7 +354,12 @@ public class BasicFirm2 extends AbstractFirm {
 	 * A workforce manager.
 	 */
 	@SuppressWarnings("javadoc")
-	class WorkforceManager {
+	class WorkforceManager implements Serializable {
+
+		/**
+		 * The version of the serialized form.
+		 */
+		private static final long serialVersionUID = 1L;
 
 		/** The job offer. */
 		private JobOffer jobOffer = null;
@@ -383,6 +410,11 @@ public class BasicFirm2 extends AbstractFirm {
 			if (vacancies != 0) {
 				jobOffer = new JobOffer() {
 
+					/**
+					 * The version of the serialized form.
+					 */
+					private static final long serialVersionUID = 1L;
+
 					final private long jobWage = (long) Math.floor(wage);
 
 					final private int validity = getPeriod();
@@ -426,6 +458,7 @@ public class BasicFirm2 extends AbstractFirm {
 						return vacancies;
 					}
 				};
+				laborMarket.post(BasicFirm2.this);
 			}
 		}
 
@@ -717,7 +750,7 @@ public class BasicFirm2 extends AbstractFirm {
 		this.factory = new BasicFactory(sector.getParameters().get("production"), sector.getSimulation());
 		final Parameters parameters = this.sector.getParameters();
 
-		this.cons = new FirmConstants(parameters);
+		this.cons = Flyweights.get(parameters, FirmConstants.class, FirmConstants::new);
 
 		this.markup = 1.f + this.cons.initialMarkupMin
 				+ getRandom().nextFloat() * (this.cons.initialMarkupMax - this.cons.initialMarkupMin);
@@ -843,6 +876,11 @@ public class BasicFirm2 extends AbstractFirm {
 	private JobContract newJobContract(final Worker worker, final long wage, final int term) {
 		final JobContract jobContract = new JobContract() {
 
+			/**
+			 * The version of the serialized form.
+			 */
+			private static final long serialVersionUID = 1L;
+
 			/**
 			 * The end of the contract.
 			 */
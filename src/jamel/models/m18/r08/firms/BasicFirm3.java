@@ -4,6 +4,11 @@ import jamel.util.Sector;
 
 public class BasicFirm3 extends BasicFirm2 {
 
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
 	private float animalSpirit = 1;
 
 	public BasicFirm3(Sector sector, int id) {
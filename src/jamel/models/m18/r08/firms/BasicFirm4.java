@@ -13,6 +13,11 @@ import jamel.util.Sector;
  */
 public class BasicFirm4 extends BasicFirm2 {
 
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * Creates a new firm.
 	 * 
@@ -1,5 +1,6 @@
 package jamel.models.m18.r08.firms;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -19,6 +20,7 @@ import jamel.models.m18.r08.util.BasicOwnership;
 import jamel.models.m18.r08.util.Cheque;
 import jamel.models.m18.r08.util.Commodities;
 import jamel.models.m18.r08.util.Equity;
+import jamel.models.m18.r08.util.Flyweights;
 import jamel.models.m18.r08.util.JobContract;
 import jamel.models.m18.r08.util.JobOffer;
 import jamel.models.m18.r08.util.Supply;
@@ -128,11 +130,21 @@ import jamel.util.Sector;
  */
 public class BasicFirm5 extends AbstractFirm {
 
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * The bank ownership.
 	 */
 	class FirmOwnership extends BasicOwnership {
 
+		/**
+		 * The version of the serialized form.
+		 */
+		private static final long serialVersionUID = 1L;
+
 		/**
 		 * Creates a new ownership for this firm.
 		 */
@@ -174,7 +186,121 @@ public class BasicFirm5 extends AbstractFirm {
 	 * The sales manager.
 	 */
 	@SuppressWarnings("javadoc")
-	class SalesManager {
+	class SalesManager implements Serializable {
+
+		/**
+		 * The version of the serialized form.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The supply of the firm for one period (out of date at the next
+		 * period).
+		 */
+		private class PeriodSupply implements Supply {
+
+			/**
+			 * The version of the serialized form.
+			 */
+			private static final long serialVersionUID = 1L;
+
+			private long volume;
+
+			final private int validPeriod;
+
+			/**
+			 * Creates a new supply.
+			 * 
+			 * @param validPeriod
+			 *            the period of validity.
+			 * @param volume
+			 *            the volume offered.
+			 */
+			private PeriodSupply(final int validPeriod, final long volume) {
+				this.validPeriod = validPeriod;
+				this.volume = volume;
+			}
+
+			private void anachronismDetection() {
+				if (this.validPeriod != getPeriod()) {
+					throw new RuntimeException("Out of date.");
+				}
+			}
+
+			@Override
+			public Double getPrice() {
+				anachronismDetection();
+				return price;
+			}
+
+			@Override
+			public long getPrice(long vol) {
+				anachronismDetection();
+				if (vol <= 0) {
+					throw new IllegalArgumentException("Bad volume: " + vol);
+				}
+				if (price == null) {
+					throw new RuntimeException("Price is null.");
+				}
+				return Math.max((long) (price * vol), 1);
+			}
+
+			@Override
+			public Supplier getSupplier() {
+				anachronismDetection();
+				return BasicFirm5.this;
+			}
+
+			@Override
+			public long getValue() {
+				if (price == null) {
+					throw new RuntimeException("Price is null.");
+				}
+				return (long) (price * volume);
+			}
+
+			@Override
+			public long getVolume() {
+				anachronismDetection();
+				return this.volume;
+			}
+
+			@Override
+			public boolean isEmpty() {
+				return this.volume == 0;
+			}
+
+			@Override
+			public Commodities purchase(long demand, Cheque cheque) {
+				anachronismDetection();
+				if (demand > this.volume) {
+					Jamel.println("Supply volume: " + this.volume);
+					Jamel.println("Demand volume: " + demand);
+					throw new IllegalArgumentException("Demand cannot exceed supply.");
+				}
+				if ((long) (this.getPrice() * demand) != cheque.getAmount()) {
+					if (cheque.getAmount() != 1 && demand != 1) {
+						throw new IllegalArgumentException("Cheque amount : expected <"
+								+ (long) (demand * this.getPrice()) + "> but was <" + cheque.getAmount() + ">");
+					}
+				}
+				this.volume -= demand;
+				salesValue += cheque.getAmount();
+				salesVolume += demand;
+				final Commodities sales = factory.getInventories().take(demand);
+				salesValueAtCost += sales.getValue();
+				sales.setValue(cheque.getAmount());
+				account.deposit(cheque);
+				return sales;
+			}
+
+			@Override
+			public String toString() {
+				anachronismDetection();
+				return "Supply by " + getName() + ": price <" + price + ">, volume <" + volume + ">";
+			}
+
+		}
 
 		private long salesValue = 0;
 
@@ -221,90 +347,7 @@ public class BasicFirm5 extends AbstractFirm {
 				supplyValue = 0;
 			}
 
-			supply = new Supply() {
-
-				private long volume = supplyVolume;
-
-				private void anachronismDetection() {
-					if (validPeriod != getPeriod()) {
-						throw new RuntimeException("Out of date.");
-					}
-				}
-
-				@Override
-				public Double getPrice() {
-					anachronismDetection();
-					return price;
-				}
-
-				@Override
-				public long getPrice(long vol) {
-					anachronismDetection();
-					if (vol <= 0) {
-						throw new IllegalArgumentException("Bad volume: " + vol);
-					}
-					if (price == null) {
-						throw new RuntimeException("Price is null.");
-					}
-					return Math.max((long) (price * vol), 1);
-				}
-
-				@Override
-				public Supplier getSupplier() {
-					anachronismDetection();
-					return BasicFirm5.this;
-				}
-
-				@Override
-				public long getValue() {
-					if (price == null) {
-						throw new RuntimeException("Price is null.");
-					}
-					return (long) (price * volume);
-				}
-
-				@Override
-				public long getVolume() {
-					anachronismDetection();
-					return this.volume;
-				}
-
-				@Override
-				public boolean isEmpty() {
-					return this.volume == 0;
-				}
-
-				@Override
-				public Commodities purchase(long demand, Cheque cheque) {
-					anachronismDetection();
-					if (demand > this.volume) {
-						Jamel.println("Supply volume: " + this.volume);
-						Jamel.println("Demand volume: " + demand);
-						throw new IllegalArgumentException("Demand cannot exceed supply.");
-					}
-					if ((long) (this.getPrice() * demand) != cheque.getAmount()) {
-						if (cheque.getAmount() != 1 && demand != 1) {
-							throw new IllegalArgumentException("Cheque amount : expected <"
-									+ (long) (demand * this.getPrice()) + "> but was <" + cheque.getAmount() + ">");
-						}
-					}
-					this.volume -= demand;
-					salesValue += cheque.getAmount();
-					salesVolume += demand;
-					final Commodities sales = factory.getInventories().take(demand);
-					salesValueAtCost += sales.getValue();
-					sales.setValue(cheque.getAmount());
-					account.deposit(cheque);
-					return sales;
-				}
-
-				@Override
-				public String toString() {
-					anachronismDetection();
-					return "Supply by " + getName() + ": price <" + price + ">, volume <" + volume + ">";
-				}
-
-			};
+			supply = new PeriodSupply(validPeriod, supplyVolume);
 		}
 
 		private Supply getSupply() {
@@ -332,7 +375,81 @@ public class BasicFirm5 extends AbstractFirm {
 	 * A workforce manager.
 	 */
 	@SuppressWarnings("javadoc")
-	class WorkforceManager {
+	class WorkforceManager implements Serializable {
+
+		/**
+		 * The version of the serialized form.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The job offer of the firm for one period (out of date at the next
+		 * period).
+		 */
+		private class PeriodJobOffer implements JobOffer {
+
+			/**
+			 * The version of the serialized form.
+			 */
+			private static final long serialVersionUID = 1L;
+
+			final private long jobWage;
+
+			final private int validity;
+
+			/**
+			 * Creates a new job offer.
+			 * 
+			 * @param jobWage
+			 *            the wage offered.
+			 * @param validity
+			 *            the period of validity.
+			 */
+			private PeriodJobOffer(final long jobWage, final int validity) {
+				this.jobWage = jobWage;
+				this.validity = validity;
+			}
+
+			@Override
+			public JobContract apply(final Worker worker) {
+				if (this.validity != getPeriod()) {
+					throw new RuntimeException("This job offer is out of date.");
+				}
+				if (!(vacancies > 0)) {
+					throw new RuntimeException("No vacancy.");
+				}
+				vacancies--;
+
+				final int term;
+				if (cons.jobContractMax == cons.jobContractMin) {
+					term = cons.jobContractMin;
+				} else {
+					term = cons.jobContractMin + getRandom().nextInt(cons.jobContractMax - cons.jobContractMin);
+				}
+
+				final JobContract jobContract = newJobContract(worker, jobWage, term);
+
+				workforce.add(jobContract);
+				return jobContract;
+
+			}
+
+			@Override
+			public long getWage() {
+				return jobWage;
+			}
+
+			@Override
+			public boolean isEmpty() {
+				return vacancies == 0;
+			}
+
+			@Override
+			public int size() {
+				return vacancies;
+			}
+
+		}
 
 		/** The job offer. */
 		private JobOffer jobOffer = null;
@@ -381,51 +498,8 @@ public class BasicFirm5 extends AbstractFirm {
 			}
 
 			if (vacancies != 0) {
-				jobOffer = new JobOffer() {
-
-					final private long jobWage = (long) Math.floor(wage);
-
-					final private int validity = getPeriod();
-
-					@Override
-					public JobContract apply(final Worker worker) {
-						if (validity != getPeriod()) {
-							throw new RuntimeException("This job offer is out of date.");
-						}
-						if (!(vacancies > 0)) {
-							throw new RuntimeException("No vacancy.");
-						}
-						vacancies--;
-
-						final int term;
-						if (cons.jobContractMax == cons.jobContractMin) {
-							term = cons.jobContractMin;
-						} else {
-							term = cons.jobContractMin + getRandom().nextInt(cons.jobContractMax - cons.jobContractMin);
-						}
-
-						final JobContract jobContract = newJobContract(worker, jobWage, term);
-
-						workforce.add(jobContract);
-						return jobContract;
-
-					}
-
-					@Override
-					public long getWage() {
-						return jobWage;
-					}
-
-					@Override
-					public boolean isEmpty() {
-						return vacancies == 0;
-					}
-
-					@Override
-					public int size() {
-						return vacancies;
-					}
-				};
+				jobOffer = new PeriodJobOffer((long) Math.floor(wage), getPeriod());
+				laborMarket.post(BasicFirm5.this);
 			}
 		}
 
@@ -594,6 +668,23 @@ public class BasicFirm5 extends AbstractFirm {
 		return keys;
 	}
 
+	/**
+	 * Returns {@code true} if the specified phase can be executed
+	 * concurrently by the firms (a phase declared with
+	 * {@code parallel="true"}).
+	 * 
+	 * Only the production is independent: each firm works with its own
+	 * factory, inventories and data, draws no random number, and touches no
+	 * other agent than its own workers (who work for this firm only).
+	 * 
+	 * @param phaseName
+	 *            the name of the phase.
+	 * @return {@code true} if the phase can be executed concurrently.
+	 */
+	static public boolean isIndependent(final String phaseName) {
+		return phaseName.equals("production");
+	}
+
 	/**
 	 * 
 	 */
@@ -718,7 +809,7 @@ public class BasicFirm5 extends AbstractFirm {
 		this.factory = new BasicFactory(sector.getParameters().get("production"), sector.getSimulation());
 		final Parameters parameters = this.sector.getParameters();
 
-		this.cons = new FirmConstants(parameters);
+		this.cons = Flyweights.get(parameters, FirmConstants.class, FirmConstants::new);
 
 		this.markup = 1.f + this.cons.initialMarkupMin
 				+ getRandom().nextFloat() * (this.cons.initialMarkupMax - this.cons.initialMarkupMin);
@@ -844,6 +935,11 @@ public class BasicFirm5 extends AbstractFirm {
 	private JobContract newJobContract(final Worker worker, final long wage, final int term) {
 		final JobContract jobContract = new JobContract() {
 
+			/**
+			 * The version of the serialized form.
+			 */
+			private static final long serialVersionUID = 1L;
+
 			/**
 			 * The end of the contract.
 			 */
@@ -16,6 +16,11 @@ import jamel.util.Sector;
  */
 public class BasicFirm6 extends BasicFirm5 {
 
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * Creates a new firm.
 	 * 
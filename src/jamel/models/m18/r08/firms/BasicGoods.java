@@ -12,6 +12,11 @@ import jamel.models.m18.r08.util.Commodities;
  */
 public class BasicGoods implements Commodities {
 
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * The quality, or type, of the goods in this heap.
 	 */
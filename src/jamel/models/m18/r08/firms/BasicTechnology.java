@@ -25,6 +25,11 @@ import jamel.util.Simulation;
  */
 public class BasicTechnology extends JamelObject implements Sector {
 
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * 
 	 */
@@ -1,12 +1,19 @@
 package jamel.models.m18.r08.firms;
 
+import java.io.Serializable;
+
 import jamel.util.Parameters;
 
 /**
  * A class to parse and store the constant parameters of the firm.
  */
 @SuppressWarnings("javadoc")
-class FirmConstants {
+class FirmConstants implements Serializable {
+
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
 
 	final String banks;
 
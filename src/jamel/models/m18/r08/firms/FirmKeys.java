@@ -11,6 +11,11 @@ import jamel.data.AbstractDataKeys;
  */
 final public class FirmKeys extends AbstractDataKeys {
 
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * An instance of {@code BasicFirmKeys}.
 	 */
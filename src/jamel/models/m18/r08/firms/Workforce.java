@@ -17,6 +17,11 @@ import jamel.models.m18.r08.util.JobContract;
  */
  class Workforce extends LinkedList<JobContract> {
 
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * Removes all invalid job contracts.
 	 */
@@ -1,23 +1,22 @@
 package jamel.models.m18.r08.households;
 
-import java.util.Arrays;
 import java.util.function.Consumer;
 
 import jamel.Jamel;
 import jamel.data.DataKeys;
 import jamel.models.m18.r08.firms.BasicGoods;
+import jamel.models.m18.r08.markets.SupplyBook;
 import jamel.models.m18.r08.roles.Bank;
 import jamel.models.m18.r08.roles.Shareholder;
 import jamel.models.m18.r08.roles.Supplier;
 import jamel.models.m18.r08.util.AbstractAgent;
 import jamel.models.m18.r08.util.Account;
 import jamel.models.m18.r08.util.AccountHolder;
-import jamel.models.m18.r08.util.BasicAmount;
 import jamel.models.m18.r08.util.Cheque;
 import jamel.models.m18.r08.util.Commodities;
 import jamel.models.m18.r08.util.Equity;
+import jamel.models.m18.r08.util.Flyweights;
 import jamel.models.m18.r08.util.Supply;
-import jamel.models.m18.r08.util.Tools;
 import jamel.util.Agent;
 import jamel.util.Parameters;
 import jamel.util.Sector;
@@ -45,6 +44,11 @@ import jamel.util.Sector;
  */
 public class BasicShareholder extends AbstractAgent implements Shareholder, Household {
 
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * The data keys.
 	 */
@@ -100,8 +104,10 @@ public class BasicShareholder extends AbstractAgent implements Shareholder, Hous
 
 	/**
 	 * The amount of the dividends received for this period.
+	 * 
+	 * 2018-04-27: a primitive field (was a {@code BasicAmount} object).
 	 */
-	final private BasicAmount dividends = new BasicAmount();
+	private long dividends = 0;
 
 	/**
 	 * The equities owned by this shareholder.
@@ -123,6 +129,12 @@ public class BasicShareholder extends AbstractAgent implements Shareholder, Hous
 	 */
 	final private Supplier[] suppliers;
 
+	/**
+	 * The index of the most expensive of the regular suppliers at the last
+	 * purchase (replaced at the next purchase).
+	 */
+	private int worstSupplier;
+
 	/**
 	 * The sector of the suppliers.
 	 */
@@ -143,7 +155,7 @@ public class BasicShareholder extends AbstractAgent implements Shareholder, Hous
 		if (params == null) {
 			throw new RuntimeException("Parameters are null.");
 		}
-		this.consts = new ShareholderConstants(params);
+		this.consts = Flyweights.get(params, ShareholderConstants.class, ShareholderConstants::new);
 
 		final String bankSectorName = params.getAttribute("bankSector");
 		this.account = ((Bank) this.getSimulation().getSector(bankSectorName).selectArray(1)[0]).openAccount(this);
@@ -151,6 +163,7 @@ public class BasicShareholder extends AbstractAgent implements Shareholder, Hous
 		final Parameters goodMarketParams = params.get("goodMarket");
 		this.supplierSector = this.getSimulation().getSector(goodMarketParams.getAttribute("suppliers"));
 		this.suppliers = new Supplier[this.consts.supplySearch];
+		this.worstSupplier = this.suppliers.length - 1;
 
 	}
 
@@ -190,17 +203,23 @@ public class BasicShareholder extends AbstractAgent implements Shareholder, Hous
 	 * 
 	 * @param budget
 	 *            the value of the goods to be purchased and consumed.
+	 * @param book
+	 *            the book of the supplies of the market.
 	 */
-	protected void purchase(final long budget) {
+	protected void purchase(final long budget, final SupplyBook book) {
 		long consumptionVolume = 0;
 		long consumptionValue = 0;
 		long amount = budget;
 		if (amount > 0) {
-			this.suppliers[suppliers.length - 1] = (Supplier) this.supplierSector.select();
+			// 2018-04-27: the most expensive supplier of the previous purchase
+			// is replaced, and the suppliers are taken from the book, the
+			// cheapest first (they are no longer sorted).
 
-			Arrays.sort(suppliers, Tools.supplierComparator);
+			this.suppliers[this.worstSupplier] = (Supplier) this.supplierSector.select();
+			this.worstSupplier = book.rank(this.suppliers, this.supplierSector);
 
-			for (Supplier supplier : suppliers) {
+			for (int i = book.next(); i != -1; i = book.next()) {
+				final Supplier supplier = this.suppliers[i];
 				if (supplier == null || supplier.getSupply() == null || supplier.getSupply().isEmpty()
 						|| supplier.getSupply().getPrice() > amount) {
 					break;
@@ -228,6 +247,7 @@ public class BasicShareholder extends AbstractAgent implements Shareholder, Hous
 					}
 					final Commodities goods = supply.purchase(consumVol,
 							this.account.issueCheque(supply.getSupplier(), spending));
+					book.update(supplier, this.supplierSector);
 					if (!((BasicGoods) goods).getQuality().equals(this.consts.consumptionGoodsQuality)) {
 						throw new RuntimeException("Bad quality: " + ((BasicGoods) goods).getQuality());
 					}
@@ -252,7 +272,7 @@ public class BasicShareholder extends AbstractAgent implements Shareholder, Hous
 
 	@Override
 	public void acceptDividendCheque(Cheque cheque) {
-		this.dividends.plus(cheque.getAmount());
+		this.dividends += cheque.getAmount();
 		this.account.deposit(cheque);
 	}
 
@@ -280,7 +300,7 @@ public class BasicShareholder extends AbstractAgent implements Shareholder, Hous
 		}
 		this.putData(keys.count, 1);
 		this.putData(keys.money, this.account.getAmount());
-		this.putData(keys.dividends, this.dividends.getAmount());
+		this.putData(keys.dividends, this.dividends);
 		final long newPortfolioValue = this.equities.getValue();
 		final long capitalAppreciation = newPortfolioValue - this.equitiesValue;
 		this.putData(keys.capitalAppreciation, capitalAppreciation);
@@ -291,15 +311,18 @@ public class BasicShareholder extends AbstractAgent implements Shareholder, Hous
 
 	/**
 	 * The consumption phase.
+	 * 
+	 * @param book
+	 *            the book of the supplies of the market.
 	 */
 	@Override
-	public void consumption() {
+	public void consumption(final SupplyBook book) {
 
 		// 2018-03-02 : publique, appelée par le marché des biens.
 
 		final long budget = this.consumptionBudget();
 		this.putData(keys.consumptionBudget, budget);
-		this.purchase(budget);
+		this.purchase(budget, book);
 
 	}
 
@@ -340,7 +363,7 @@ public class BasicShareholder extends AbstractAgent implements Shareholder, Hous
 	@Override
 	public void open() {
 		super.open();
-		this.dividends.cancel();
+		this.dividends = 0;
 	}
 
 	@Override
@@ -17,6 +17,11 @@ import jamel.util.Sector;
  */
 public class BasicShareholder2 extends BasicShareholder {
 
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * Creates a new shareholder.
 	 * 
@@ -1,6 +1,5 @@
 package jamel.models.m18.r08.households;
 
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedList;
@@ -10,18 +9,18 @@ import java.util.function.Consumer;
 import jamel.Jamel;
 import jamel.data.DataKeys;
 import jamel.models.m18.r08.firms.BasicGoods;
+import jamel.models.m18.r08.markets.SupplyBook;
 import jamel.models.m18.r08.roles.Bank;
 import jamel.models.m18.r08.roles.Supplier;
 import jamel.models.m18.r08.roles.Worker;
 import jamel.models.m18.r08.util.AbstractAgent;
 import jamel.models.m18.r08.util.Account;
-import jamel.models.m18.r08.util.BasicAmount;
 import jamel.models.m18.r08.util.Cheque;
 import jamel.models.m18.r08.util.Commodities;
+import jamel.models.m18.r08.util.Flyweights;
 import jamel.models.m18.r08.util.JobContract;
 import jamel.models.m18.r08.util.JobOffer;
 import jamel.models.m18.r08.util.Supply;
-import jamel.models.m18.r08.util.Tools;
 import jamel.util.Agent;
 import jamel.util.Parameters;
 import jamel.util.Sector;
@@ -53,6 +52,11 @@ import jamel.util.Sector;
  */
 public class BasicWorker2 extends AbstractAgent implements Worker, Household {
 
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * The job offer comparator.
 	 * <p>
@@ -152,6 +156,12 @@ public class BasicWorker2 extends AbstractAgent implements Worker, Household {
 	 */
 	final private Supplier[] suppliers;
 
+	/**
+	 * The index of the most expensive of the regular suppliers at the last
+	 * purchase (replaced at the next purchase).
+	 */
+	private int worstSupplier;
+
 	/**
 	 * The sector of the suppliers.
 	 */
@@ -159,8 +169,10 @@ public class BasicWorker2 extends AbstractAgent implements Worker, Household {
 
 	/**
 	 * The amount of the wage received for this period.
+	 * 
+	 * 2018-04-27: a primitive field (was a {@code BasicAmount} object).
 	 */
-	private final BasicAmount wage = new BasicAmount();
+	private long wage = 0;
 
 	/**
 	 * The labor contract.
@@ -197,11 +209,12 @@ public class BasicWorker2 extends AbstractAgent implements Worker, Household {
 	 */
 	public BasicWorker2(final Sector sector, final int id) {
 		super(sector, id);
-		this.k = new WorkerConstants(this.sector.getParameters());
+		this.k = Flyweights.get(this.sector.getParameters(), WorkerConstants.class, WorkerConstants::new);
 		this.account = ((Bank) this.getSimulation().getSector(this.k.bankSectorName).selectArray(1)[0])
 				.openAccount(this);
 		this.supplierSector = this.getSimulation().getSector(this.k.supplierSectorName);
 		this.suppliers = new Supplier[this.k.supplySearch];
+		this.worstSupplier = this.suppliers.length - 1;
 	}
 
 	/**
@@ -223,15 +236,15 @@ public class BasicWorker2 extends AbstractAgent implements Worker, Household {
 	public void acceptPayCheque(Cheque cheque) {
 		if (this.jobContract == null || this.jobContract.getWage() != cheque.getAmount()
 		// || this.jobContract.getEmployer() != cheque.getDrawer()
-				|| this.wage.getAmount() != 0) {
+				|| this.wage != 0) {
 			Jamel.println("this.jobContract", this.jobContract);
 			Jamel.println("this.jobContract.getWage()", this.jobContract.getWage());
 			Jamel.println("cheque.getAmount()", cheque.getAmount());
-			Jamel.println("this.wage.getAmount()", this.wage.getAmount());
+			Jamel.println("this.wage", this.wage);
 			throw new RuntimeException("Pay cheque trouble");
 		}
 
-		this.wage.plus(cheque.getAmount());
+		this.wage += cheque.getAmount();
 		this.account.deposit(cheque);
 
 		// Comptabiliser ce paiement, à des fins statisques mais aussi pour que
@@ -267,13 +280,12 @@ public class BasicWorker2 extends AbstractAgent implements Worker, Household {
 				throw new RuntimeException("This worker is not exhausted while there is a labor contract.");
 			}
 		}
-		if (this.exhausted && (this.wage.isEmpty() || this.jobContract == null
-				|| this.jobContract.getWage() != this.wage.getAmount())) {
+		if (this.exhausted && (this.wage == 0 || this.jobContract == null
+				|| this.jobContract.getWage() != this.wage)) {
 			Jamel.println();
-			Jamel.println("this.wage.isEmpty()", this.wage.isEmpty());
+			Jamel.println("this.wage", this.wage);
 			Jamel.println("this.jobContract", this.jobContract);
 			Jamel.println("this.jobContract.getWage()", this.jobContract.getWage());
-			Jamel.println("this.wage.getAmount()", this.wage.getAmount());
 			throw new RuntimeException("This worker is exhausted but there is a problem with its labor contract.");
 		}
 		this.putData(keys.count, 1);
@@ -289,7 +301,7 @@ public class BasicWorker2 extends AbstractAgent implements Worker, Household {
 			this.putData(keys.employmentDuration, 0);
 		}
 		this.putData(keys.money, this.account.getAmount());
-		this.putData(keys.wage, this.wage.getAmount());
+		this.putData(keys.wage, this.wage);
 		this.putData(keys.reservationWage, this.reservationWage);
 		this.putData(keys.unempDuration, this.unempDuration);
 		super.close();
@@ -297,9 +309,12 @@ public class BasicWorker2 extends AbstractAgent implements Worker, Household {
 
 	/**
 	 * The consumption phase.
+	 * 
+	 * @param book
+	 *            the book of the supplies of the market.
 	 */
 	@Override
-	public void consumption() {
+	public void consumption(final SupplyBook book) {
 
 		// 2018-03-02 : publique, appelée par le marché des biens.
 
@@ -322,11 +337,15 @@ public class BasicWorker2 extends AbstractAgent implements Worker, Household {
 		long consumptionVolume = 0;
 		long consumptionValue = 0;
 		if (budget > 0) {
-			this.suppliers[suppliers.length - 1] = (Supplier) this.supplierSector.select();
+			// 2018-04-27: the most expensive supplier of the previous purchase
+			// is replaced, and the suppliers are taken from the book, the
+			// cheapest first (they are no longer sorted).
 
-			Arrays.sort(suppliers, Tools.supplierComparator);
+			this.suppliers[this.worstSupplier] = (Supplier) this.supplierSector.select();
+			this.worstSupplier = book.rank(this.suppliers, this.supplierSector);
 
-			for (Supplier supplier : suppliers) {
+			for (int i = book.next(); i != -1; i = book.next()) {
+				final Supplier supplier = this.suppliers[i];
 				if (supplier == null || supplier.getSupply() == null || supplier.getSupply().isEmpty()
 						|| supplier.getSupply().getPrice() > budget) {
 					break;
@@ -354,6 +373,7 @@ public class BasicWorker2 extends AbstractAgent implements Worker, Household {
 					}
 					final Commodities goods = supply.purchase(consumVol,
 							this.account.issueCheque(supply.getSupplier(), spending));
+					book.update(supplier, this.supplierSector);
 					if (!((BasicGoods) goods).getQuality().equals(this.k.consumptionGoodsQuality)) {
 						throw new RuntimeException("Bad quality: " + ((BasicGoods) goods).getQuality());
 					}
@@ -406,7 +426,7 @@ public class BasicWorker2 extends AbstractAgent implements Worker, Household {
 		super.open();
 		this.jobOffers.clear();
 		this.exhausted = false;
-		this.wage.cancel();
+		this.wage = 0;
 	}
 
 	@Override
@@ -1,5 +1,6 @@
 package jamel.models.m18.r08.households;
 
+import java.io.Serializable;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -15,7 +16,12 @@ import jamel.models.m18.r08.util.Equity;
  * Pour permettre aux shareholders de connaître leur richesse.
  */
 @SuppressWarnings("javadoc")
-public class Equities {
+public class Equities implements Serializable {
+
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
 
 	private Map<String, Equity> titles = new LinkedHashMap<>();
 
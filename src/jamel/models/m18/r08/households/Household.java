@@ -1,5 +1,6 @@
 package jamel.models.m18.r08.households;
 
+import jamel.models.m18.r08.markets.SupplyBook;
 import jamel.util.Agent;
 
 /**
@@ -12,7 +13,10 @@ public interface Household extends Agent {
 
 	/**
 	 * The consumption phase.
+	 * 
+	 * @param book
+	 *            the book of the supplies of the market.
 	 */
-	void consumption();
+	void consumption(SupplyBook book);
 
 }
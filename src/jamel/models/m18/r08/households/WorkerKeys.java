@@ -7,6 +7,11 @@ import jamel.data.AbstractDataKeys;
  */
 public class WorkerKeys extends AbstractDataKeys {
 
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * An instance of {@code BasicWorkerKeys}.
 	 */
@@ -1,7 +1,8 @@
 package jamel.models.m18.r08.markets;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -12,6 +13,9 @@ import jamel.data.DynamicSeries;
 import jamel.data.Expression;
 import jamel.data.SectorDataManager;
 import jamel.models.m18.r08.households.Household;
+import jamel.models.m18.r08.util.BasicSector;
+import jamel.models.m18.r08.util.ProfiledPhase;
+import jamel.models.m18.r08.util.Tools;
 import jamel.util.Agent;
 import jamel.util.JamelObject;
 import jamel.util.Parameters;
@@ -31,6 +35,16 @@ import jamel.util.Simulation;
  */
 public class BasicConsumptionGoodMarket extends JamelObject implements Sector {
 
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The book of the supplies (not saved in the checkpoints).
+	 */
+	transient private SupplyBook book = new SupplyBook();
+
 	/**
 	 * The data manager.
 	 */
@@ -41,6 +55,18 @@ public class BasicConsumptionGoodMarket extends JamelObject implements Sector {
 	 */
 	final private List<Sector> consumers = new LinkedList<>();
 
+	/**
+	 * The households of the current period, shuffled (reused from one period
+	 * to the next).
+	 */
+	transient private Agent[] households = new Agent[0];
+
+	/**
+	 * The households of the consumer sectors, in the order of the sectors
+	 * (collected again only when the number of households changes).
+	 */
+	transient private Agent[] population = new Agent[0];
+
 	/**
 	 * The name of the sector.
 	 */
@@ -52,9 +78,10 @@ public class BasicConsumptionGoodMarket extends JamelObject implements Sector {
 	final private Parameters params;
 
 	/**
-	 * The list of the phases, accessible by their names.
+	 * The list of the phases, accessible by their names (not saved in the
+	 * checkpoints).
 	 */
-	final private Map<String, Phase> phases = new HashMap<>();
+	transient private Map<String, Phase> phases = new HashMap<>();
 
 	/**
 	 * Creates a new basic sector.
@@ -69,6 +96,7 @@ public class BasicConsumptionGoodMarket extends JamelObject implements Sector {
 		super(simulation);
 		this.params = params;
 		this.name = this.params.getAttribute("name");
+		this.setRandomStream("sector:" + this.name);
 
 		this.dataManager = null;
 
@@ -82,6 +110,30 @@ public class BasicConsumptionGoodMarket extends JamelObject implements Sector {
 
 	}
 
+	/**
+	 * Collects the households of the consumer sectors, if their number has
+	 * changed.
+	 */
+	private void updatePopulation() {
+		int size = 0;
+		boolean known = true;
+		for (final Sector sector : this.consumers) {
+			if (sector instanceof BasicSector) {
+				size += ((BasicSector) sector).size();
+			} else {
+				known = false;
+			}
+		}
+		if (!known || size != this.population.length) {
+			final List<Agent> list = new ArrayList<>();
+			for (final Sector sector : this.consumers) {
+				list.addAll(sector.selectAll());
+			}
+			this.population = list.toArray(new Agent[list.size()]);
+			this.households = new Agent[this.population.length];
+		}
+	}
+
 	/**
 	 * Returns an expression that gives access to some sectoral data.
 	 * 
@@ -90,27 +142,7 @@ public class BasicConsumptionGoodMarket extends JamelObject implements Sector {
 	 * @return an expression that gives access to some sectoral data.
 	 */
 	private Expression getSectorDataAccess(String arg) {
-		final Expression result;
-		final String[] args = arg.split("\\.");
-		if (args[0].equals("phase") && args[2].equals("runtime")) {
-			final Phase phase = this.phases.get(args[1]);
-			result = new Expression() {
-
-				@Override
-				public Double getValue() {
-					return (double) phase.getRuntime();
-				}
-
-				@Override
-				public String toString() {
-					return name + ".phase." + args[1] + ".runtime";
-				}
-
-			};
-		} else {
-			throw new RuntimeException("Bad key: '" + args[0] + "' in '" + arg + "'");
-		}
-		return result;
+		return ProfiledPhase.getExpression(this.phases, arg);
 	}
 
 	@Override
@@ -165,48 +197,29 @@ public class BasicConsumptionGoodMarket extends JamelObject implements Sector {
 			throw new RuntimeException("Bad phase name: '" + phaseName + "'");
 		}
 
-		final Phase result = new Phase() {
-
-			private long runtime = 0;
-
-			@Override
-			public String getName() {
-				return phaseName;
-			}
-
-			@Override
-			public long getRuntime() {
-				return this.runtime;
-			}
-
-			@Override
-			public Sector getSector() {
-				return BasicConsumptionGoodMarket.this;
-			}
+		final Phase result = new ProfiledPhase(this, phaseName) {
 
 			@Override
-			public void run() {
-
-				final long start = System.currentTimeMillis();
+			protected void execute() {
 
-				final List<Agent> households = new ArrayList<>();
-
-				for (Sector sector : consumers) {
-					households.addAll(sector.selectAll());
-				}
+				// 2018-04-27: the households are collected again only when a
+				// consumer sector has grown (the agents are never removed). The
+				// shuffle is the one of Collections.shuffle().
 
+				updatePopulation();
+				final int size = population.length;
+				System.arraycopy(population, 0, households, 0, size);
 				if (shuffle) {
-					Collections.shuffle(households, getRandom());
+					Tools.shuffle(households, size, getRandom());
 				}
 
-				for (int i = 0; i < households.size(); i++) {
-					((Household) households.get(i)).consumption();
+				book.open(getPeriod());
+				for (int i = 0; i < size; i++) {
+					final long start = this.startAgent();
+					((Household) households[i]).consumption(book);
+					this.endAgent(start);
 				}
 
-				final long end = System.currentTimeMillis();
-
-				runtime += end - start;
-
 			}
 
 		};
@@ -262,4 +275,23 @@ public class BasicConsumptionGoodMarket extends JamelObject implements Sector {
 		return null;
 	}
 
+	/**
+	 * Restores this market from a checkpoint (the phases are created again
+	 * from the scenario).
+	 * 
+	 * @param in
+	 *            the stream of the checkpoint.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 * @throws ClassNotFoundException
+	 *             if the class of a serialized object cannot be found.
+	 */
+	private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		this.book = new SupplyBook();
+		this.households = new Agent[0];
+		this.population = new Agent[0];
+		this.phases = new HashMap<>();
+	}
+
 }
@@ -1,5 +1,7 @@
 package jamel.models.m18.r08.markets;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -12,6 +14,7 @@ import jamel.data.DynamicSeries;
 import jamel.data.Expression;
 import jamel.models.m18.r08.firms.Firm;
 import jamel.models.m18.r08.households.Household;
+import jamel.models.m18.r08.util.ProfiledPhase;
 import jamel.util.Agent;
 import jamel.util.JamelObject;
 import jamel.util.Parameters;
@@ -33,6 +36,11 @@ import jamel.util.Simulation;
  */
 public class BasicInvestmentGoodMarket extends JamelObject implements Sector {
 
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * The customer sectors.
 	 */
@@ -49,9 +57,10 @@ public class BasicInvestmentGoodMarket extends JamelObject implements Sector {
 	final private Parameters params;
 
 	/**
-	 * The list of the phases, accessible by their names.
+	 * The list of the phases, accessible by their names (not saved in the
+	 * checkpoints).
 	 */
-	final private Map<String, Phase> phases = new HashMap<>();
+	transient private Map<String, Phase> phases = new HashMap<>();
 
 	/**
 	 * Creates a new basic sector.
@@ -66,6 +75,7 @@ public class BasicInvestmentGoodMarket extends JamelObject implements Sector {
 		super(simulation);
 		this.params = params;
 		this.name = this.params.getAttribute("name");
+		this.setRandomStream("sector:" + this.name);
 
 		final String firmSectorsParameter = this.params.getString("parameters.firms");
 		if (firmSectorsParameter == null || firmSectorsParameter.isEmpty()) {
@@ -125,29 +135,10 @@ public class BasicInvestmentGoodMarket extends JamelObject implements Sector {
 			throw new RuntimeException("Bad phase name: '" + phaseName + "'");
 		}
 
-		final Phase result = new Phase() {
-
-			private long runtime = 0;
+		final Phase result = new ProfiledPhase(this, phaseName) {
 
 			@Override
-			public String getName() {
-				return phaseName;
-			}
-
-			@Override
-			public long getRuntime() {
-				return this.runtime;
-			}
-
-			@Override
-			public Sector getSector() {
-				return BasicInvestmentGoodMarket.this;
-			}
-
-			@Override
-			public void run() {
-
-				final long start = System.currentTimeMillis();
+			protected void execute() {
 
 				final List<Agent> firms = new ArrayList<>();
 
@@ -160,13 +151,11 @@ public class BasicInvestmentGoodMarket extends JamelObject implements Sector {
 				}
 
 				for (int i = 0; i < firms.size(); i++) {
+					final long start = this.startAgent();
 					((Firm) firms.get(i)).invest();
+					this.endAgent(start);
 				}
 
-				final long end = System.currentTimeMillis();
-
-				runtime += end - start;
-
 			}
 
 		};
@@ -223,4 +212,20 @@ public class BasicInvestmentGoodMarket extends JamelObject implements Sector {
 		return null;
 	}
 
+	/**
+	 * Restores this market from a checkpoint (the phases are created again
+	 * from the scenario).
+	 * 
+	 * @param in
+	 *            the stream of the checkpoint.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 * @throws ClassNotFoundException
+	 *             if the class of a serialized object cannot be found.
+	 */
+	private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		this.phases = new HashMap<>();
+	}
+
 }
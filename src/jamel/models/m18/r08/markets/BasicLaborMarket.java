@@ -1,8 +1,10 @@
 package jamel.models.m18.r08.markets;
 
-import java.util.Collections;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -12,6 +14,10 @@ import jamel.data.Expression;
 import jamel.models.m18.r08.roles.Employer;
 import jamel.models.m18.r08.roles.Worker;
 import jamel.models.m18.r08.util.BasicSector;
+import jamel.models.m18.r08.util.JobOffer;
+import jamel.models.m18.r08.util.ProfiledPhase;
+import jamel.models.m18.r08.util.Sampler;
+import jamel.models.m18.r08.util.Tools;
 import jamel.util.Agent;
 import jamel.util.JamelObject;
 import jamel.util.Parameters;
@@ -24,6 +30,8 @@ import jamel.util.Simulation;
  * 
  * Admet plusieurs secteur employeurs mais un seul secteur travailleurs.
  * 
+ * 2018-04-29: the employers post their job offers ({@link #post(Employer)}).
+ * 
  * 2018-03-10: jamel/models/m18/r01/markets/BasicLaborMarket.java
  * 
  * 2018-03-08 : BasicLaborMarket3
@@ -37,10 +45,32 @@ import jamel.util.Simulation;
  */
 public class BasicLaborMarket extends JamelObject implements Sector {
 
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * The employers.
 	 */
-	final private List<Sector> employers = new LinkedList<>();
+	final private List<Sector> employers = new ArrayList<>();
+
+	/**
+	 * The sampler of the employer sectors (weighted by their sizes).
+	 */
+	final private Sampler employerSampler;
+
+	/**
+	 * The job seekers of the current matching (reused from one period to the
+	 * next, not saved in the checkpoints).
+	 */
+	transient private Worker[] jobSeekers = new Worker[0];
+
+	/**
+	 * The number of employers that have posted a job offer in the current
+	 * period.
+	 */
+	transient private int nVacancies = 0;
 
 	/**
 	 * The name of the sector.
@@ -53,9 +83,28 @@ public class BasicLaborMarket extends JamelObject implements Sector {
 	final private Parameters params;
 
 	/**
-	 * The list of the phases, accessible by their names.
+	 * The list of the phases, accessible by their names (not saved in the
+	 * checkpoints).
 	 */
-	final private Map<String, Phase> phases = new HashMap<>();
+	transient private Map<String, Phase> phases = new HashMap<>();
+
+	/**
+	 * The workers, collected once and collected again only when the number
+	 * of workers changes (not saved in the checkpoints).
+	 */
+	transient private Worker[] population = new Worker[0];
+
+	/**
+	 * The period of the job offers posted.
+	 */
+	transient private int postingPeriod = Integer.MIN_VALUE;
+
+	/**
+	 * The employers that have posted a job offer in the current period, in
+	 * the order of their postings (reused from one period to the next, not
+	 * saved in the checkpoints).
+	 */
+	transient private Employer[] vacancies = new Employer[0];
 
 	/**
 	 * The workers.
@@ -75,6 +124,7 @@ public class BasicLaborMarket extends JamelObject implements Sector {
 		super(simulation);
 		this.params = params;
 		this.name = this.params.getAttribute("name");
+		this.setRandomStream("sector:" + this.name);
 		final String employerString = this.params.getString("parameters.employers");
 		if (employerString == null || employerString.isEmpty()) {
 			throw new RuntimeException("Missing or empty employers attribute.");
@@ -83,6 +133,18 @@ public class BasicLaborMarket extends JamelObject implements Sector {
 			this.employers.add(this.getSimulation().getSector(employerSector.trim()));
 		}
 		this.workers = this.getSimulation().getSector(this.params.getString("parameters.workers"));
+		this.employerSampler = new Sampler(this.employers.size());
+	}
+
+	/**
+	 * Collects the workers, if their number has changed.
+	 */
+	private void updatePopulation() {
+		final boolean known = this.workers instanceof BasicSector;
+		if (!known || ((BasicSector) this.workers).size() != this.population.length) {
+			final List<? extends Agent> list = this.workers.selectAll();
+			this.population = list.toArray(new Worker[list.size()]);
+		}
 	}
 
 	/**
@@ -93,27 +155,7 @@ public class BasicLaborMarket extends JamelObject implements Sector {
 	 * @return an expression that gives access to some sectoral data.
 	 */
 	private Expression getSectorDataAccess(String arg) {
-		final Expression result;
-		final String[] args = arg.split("\\.");
-		if (args[0].equals("phase") && args[2].equals("runtime")) {
-			final Phase phase = this.phases.get(args[1]);
-			result = new Expression() {
-
-				@Override
-				public Double getValue() {
-					return (double) phase.getRuntime();
-				}
-
-				@Override
-				public String toString() {
-					return name + ".phase." + args[1] + ".runtime";
-				}
-
-			};
-		} else {
-			throw new RuntimeException("Bad key: '" + args[0] + "' in '" + arg + "'");
-		}
-		return result;
+		return ProfiledPhase.getExpression(this.phases, arg);
 	}
 
 	@Override
@@ -170,74 +212,74 @@ public class BasicLaborMarket extends JamelObject implements Sector {
 
 		final Phase result;
 		if (phaseName.equals("matching")) {
-			result = new Phase() {
-
-				private long runtime = 0;
-
-				@Override
-				public String getName() {
-					return phaseName;
-				}
-
-				@Override
-				public long getRuntime() {
-					return this.runtime;
-				}
+			result = new ProfiledPhase(this, phaseName) {
 
 				@Override
-				public Sector getSector() {
-					return BasicLaborMarket.this;
-				}
+				protected void execute() {
 
-				@Override
-				public void run() {
+					// 2018-04-27: the job seekers and the vacancies are
+					// collected into arrays (the job seekers were in a linked
+					// list, randomly accessed).
 
-					final long start = System.currentTimeMillis();
+					// 2018-04-29: the workers are collected again only when
+					// their number changes, and the vacancies are the job
+					// offers posted by the employers (the employer sectors
+					// were scanned at each period).
 
-					final List<Worker> jobSeekers = new LinkedList<>();
-					for (Agent worker : workers.selectAll()) {
-						if (!((Worker) worker).isEmployed()) {
-							jobSeekers.add((Worker) worker);
+					updatePopulation();
+					if (jobSeekers.length < population.length) {
+						jobSeekers = new Worker[population.length];
+					}
+					int nSeekers = 0;
+					for (final Worker worker : population) {
+						if (!worker.isEmployed()) {
+							jobSeekers[nSeekers] = worker;
+							nSeekers++;
 						}
 					}
 
-					final List<Employer> employers2 = new LinkedList<>();
-					for (Sector employerSector : employers) {
-						for (Agent employer : employerSector.selectAll()) {
-							if (((Employer) employer).getJobOffer() != null
-									&& !((Employer) employer).getJobOffer().isEmpty()) {
-								employers2.add((Employer) employer);
-							}
+					if (postingPeriod != getPeriod()) {
+						Arrays.fill(vacancies, 0, nVacancies, null);
+						nVacancies = 0;
+					}
+					int nOpen = 0;
+					for (int e = 0; e < nVacancies; e++) {
+						final JobOffer jobOffer = vacancies[e].getJobOffer();
+						if (jobOffer != null && !jobOffer.isEmpty()) {
+							vacancies[nOpen] = vacancies[e];
+							nOpen++;
 						}
 					}
+					Arrays.fill(vacancies, nOpen, nVacancies, null);
+					nVacancies = nOpen;
 
-					Collections.shuffle(employers2, getRandom());
-					Collections.shuffle(jobSeekers, getRandom());
+					Tools.shuffle(vacancies, nVacancies, getRandom());
+					Tools.shuffle(jobSeekers, nSeekers, getRandom());
 
-					for (Employer employer : employers2) {
-						if (jobSeekers.size() == 0) {
-							break;
-						}
-						if (employer.getJobOffer() == null) {
-							throw new RuntimeException("Inconsistency");
-						}
-						final int size = employer.getJobOffer().size();
-
-						for (int i = 0; i < size * 3; i++) {
-							final Worker jobSeeker = jobSeekers
-									.get(getRandom().nextInt(jobSeekers.size()));
-							jobSeeker.addJobOffer(employer.getJobOffer());
+					if (nSeekers > 0) {
+						for (int e = 0; e < nVacancies; e++) {
+							final JobOffer jobOffer = vacancies[e].getJobOffer();
+							if (jobOffer == null) {
+								throw new RuntimeException("Inconsistency");
+							}
+							final int size = jobOffer.size();
+							for (int i = 0; i < size * 3; i++) {
+								jobSeekers[getRandom().nextInt(nSeekers)].addJobOffer(jobOffer);
+							}
 						}
-
 					}
 
-					for (Worker jobSeeker : jobSeekers) {
-						jobSeeker.chooseJob();
+					for (int i = 0; i < nSeekers; i++) {
+						final long start = this.startAgent();
+						jobSeekers[i].chooseJob();
+						this.endAgent(start);
 					}
 
-					final long end = System.currentTimeMillis();
+					// The references to the agents are released.
 
-					runtime += end - start;
+					Arrays.fill(jobSeekers, 0, nSeekers, null);
+					Arrays.fill(vacancies, 0, nVacancies, null);
+					nVacancies = 0;
 
 				}
 
@@ -256,6 +298,28 @@ public class BasicLaborMarket extends JamelObject implements Sector {
 
 	}
 
+	/**
+	 * Posts the job offer of the specified employer, for the matching of the
+	 * current period.
+	 * <p>
+	 * To be called by the employer when it opens a new job offer.
+	 * 
+	 * @param employer
+	 *            the employer.
+	 */
+	public synchronized void post(final Employer employer) {
+		if (this.postingPeriod != getPeriod()) {
+			Arrays.fill(this.vacancies, 0, this.nVacancies, null);
+			this.nVacancies = 0;
+			this.postingPeriod = getPeriod();
+		}
+		if (this.nVacancies == this.vacancies.length) {
+			this.vacancies = Arrays.copyOf(this.vacancies, Math.max(64, 2 * this.nVacancies));
+		}
+		this.vacancies[this.nVacancies] = employer;
+		this.nVacancies++;
+	}
+
 	@Override
 	public DynamicSeries getScatterSeries(final String xKey, final String yKey, Expression[] conditions,
 			String selection) {
@@ -300,28 +364,19 @@ public class BasicLaborMarket extends JamelObject implements Sector {
 	 * @return one employer selected at random.
 	 */
 	public Employer selectEmployer() {
-		final int sizes[] = new int[this.employers.size()];
+		// 2018-04-27: the cumulative sizes of the employer sectors are
+		// cached (they were computed at each call).
 		int index = 0;
-		int size = 0;
 		for (Sector sector : this.employers) {
-			size+=((BasicSector)sector).size();
-			sizes[index]=size;
+			this.employerSampler.setWeight(index, ((BasicSector) sector).size());
 			index++;
 		}
-		
-		final int alea = getRandom().nextInt(size);
-		int selected = -1;
-		for (int i=0;i<sizes.length;i++) {
-			if (alea<sizes[i]) {
-				selected = i;
-				break;
-			}
+		final int selected;
+		try {
+			selected = this.employerSampler.select(getRandom());
+		} catch (RuntimeException e) {
+			throw new RuntimeException("No employer sector or employer sectors are empty.", e);
 		}
-		
-		if (selected==-1) {
-			throw new RuntimeException("No employer sector or employer sectors are empty.");
-		}
-		
 		return (Employer) this.employers.get(selected).select();
 	}
 
@@ -331,4 +386,24 @@ public class BasicLaborMarket extends JamelObject implements Sector {
 		return null;
 	}
 
+	/**
+	 * Restores this market from a checkpoint (the phases are created again
+	 * from the scenario).
+	 * 
+	 * @param in
+	 *            the stream of the checkpoint.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 * @throws ClassNotFoundException
+	 *             if the class of a serialized object cannot be found.
+	 */
+	private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		this.jobSeekers = new Worker[0];
+		this.vacancies = new Employer[0];
+		this.phases = new HashMap<>();
+		this.population = new Worker[0];
+		this.postingPeriod = Integer.MIN_VALUE;
+	}
+
 }
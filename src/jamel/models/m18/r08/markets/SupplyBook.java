@@ -0,0 +1,245 @@
+package jamel.models.m18.r08.markets;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jamel.models.m18.r08.roles.Supplier;
+import jamel.models.m18.r08.util.Supply;
+import jamel.util.Agent;
+import jamel.util.Sector;
+
+/**
+ * A price-indexed book of the supplies of the consumption goods market.
+ *
+ * The supplies of each sector of suppliers are indexed once per period, the
+ * first time a household queries the book: the suppliers are ranked by the
+ * price of their supply. A household then asks the book for the cheapest
+ * supplies among its sampled suppliers, one at a time, until its budget is
+ * spent: its suppliers are not sorted. The book is updated as the supplies
+ * are exhausted.
+ *
+ * The cheapest supplies come first, the suppliers without supply (or with
+ * an empty supply) last, and the suppliers with the same price in the order
+ * of their indexes.
+ *
+ * 2018-04-26: new class, replaces the sort of the suppliers of each
+ * household by a comparator of their supplies (removed).
+ * 2018-04-27: the suppliers are queried one at a time instead of being
+ * sorted.
+ */
+public class SupplyBook {
+
+	/**
+	 * The index of the supplies of a sector.
+	 */
+	private static class Index {
+
+		/**
+		 * The rank of the supply of each supplier (by ID), or
+		 * {@code Integer.MAX_VALUE} if the supplier has no supply or if its
+		 * supply is exhausted.
+		 */
+		private int[] ranks = new int[0];
+
+		/**
+		 * The period of the last indexation.
+		 */
+		private int period = Integer.MIN_VALUE;
+
+		/**
+		 * Returns the rank of the specified supplier.
+		 *
+		 * @param supplier
+		 *            the supplier (can be {@code null}).
+		 * @return the rank of the supplier.
+		 */
+		private int getRank(final Supplier supplier) {
+			final int result;
+			if (supplier == null) {
+				result = Integer.MAX_VALUE;
+			} else {
+				final int id = ((Agent) supplier).getID();
+				result = (id < this.ranks.length) ? this.ranks[id] : Integer.MAX_VALUE;
+			}
+			return result;
+		}
+
+		/**
+		 * Indexes the supplies of the specified suppliers.
+		 *
+		 * @param suppliers
+		 *            the suppliers.
+		 */
+		private void index(final List<? extends Agent> suppliers) {
+			int maxID = -1;
+			for (final Agent supplier : suppliers) {
+				maxID = Math.max(maxID, supplier.getID());
+			}
+			if (this.ranks.length <= maxID) {
+				this.ranks = new int[maxID + 1];
+			}
+			Arrays.fill(this.ranks, Integer.MAX_VALUE);
+
+			final double[] prices = new double[suppliers.size()];
+			final int[] ids = new int[suppliers.size()];
+			int size = 0;
+			for (final Agent supplier : suppliers) {
+				final Supply supply = ((Supplier) supplier).getSupply();
+				if (supply != null && supply.getVolume() > 0) {
+					prices[size] = supply.getPrice();
+					ids[size] = supplier.getID();
+					size++;
+				}
+			}
+
+			// Equal prices share the same rank: the rank of a supply is the
+			// number of distinct prices lower than its price.
+
+			final double[] distinct = Arrays.copyOf(prices, size);
+			Arrays.sort(distinct);
+			int count = 0;
+			for (int i = 0; i < size; i++) {
+				if (count == 0 || distinct[i] != distinct[count - 1]) {
+					distinct[count] = distinct[i];
+					count++;
+				}
+			}
+			for (int i = 0; i < size; i++) {
+				this.ranks[ids[i]] = Arrays.binarySearch(distinct, 0, count, prices[i]);
+			}
+		}
+
+	}
+
+	/**
+	 * The indexes of the supplies, by sector of suppliers.
+	 */
+	final private Map<Sector, Index> indexes = new HashMap<>();
+
+	/**
+	 * The number of the suppliers being ranked.
+	 */
+	private int count = 0;
+
+	/**
+	 * The ranks of the suppliers being ranked, -1 for the suppliers already
+	 * returned (reused from one household to the next).
+	 */
+	private int[] keys = new int[0];
+
+	/**
+	 * The current period.
+	 */
+	private int period = Integer.MIN_VALUE;
+
+	/**
+	 * Returns the index of the specified sector, updated for the current
+	 * period.
+	 *
+	 * @param sector
+	 *            the sector of the suppliers.
+	 * @return the index of the sector.
+	 */
+	private Index getIndex(final Sector sector) {
+		Index index = this.indexes.get(sector);
+		if (index == null) {
+			index = new Index();
+			this.indexes.put(sector, index);
+		}
+		if (index.period != this.period) {
+			index.index(sector.selectAll());
+			index.period = this.period;
+		}
+		return index;
+	}
+
+	/**
+	 * Opens the book for a new period (the supplies will be indexed again).
+	 *
+	 * @param period
+	 *            the current period.
+	 */
+	void open(final int period) {
+		this.period = period;
+	}
+
+	/**
+	 * Removes the supply of the specified supplier from the book if it is
+	 * exhausted.
+	 *
+	 * Must be called after each purchase.
+	 *
+	 * @param supplier
+	 *            the supplier.
+	 * @param sector
+	 *            the sector of the supplier.
+	 */
+	public void update(final Supplier supplier, final Sector sector) {
+		final Supply supply = supplier.getSupply();
+		if (supply == null || supply.getVolume() == 0) {
+			final Index index = this.getIndex(sector);
+			final int id = ((Agent) supplier).getID();
+			if (id < index.ranks.length) {
+				index.ranks[id] = Integer.MAX_VALUE;
+			}
+		}
+	}
+
+	/**
+	 * Returns the index of the cheapest supplier not yet returned among the
+	 * suppliers passed to the last call of {@link #rank(Supplier[], Sector)}.
+	 *
+	 * The suppliers are returned in the order of their ranks at the time of
+	 * this call; the suppliers with the same rank in the order of their
+	 * indexes. The suppliers without supply are returned last.
+	 *
+	 * @return the index of the supplier, or -1 if all the suppliers have been
+	 *         returned.
+	 */
+	public int next() {
+		int result = -1;
+		for (int i = 0; i < this.count; i++) {
+			if (this.keys[i] >= 0 && (result == -1 || this.keys[i] < this.keys[result])) {
+				result = i;
+			}
+		}
+		if (result != -1) {
+			this.keys[result] = -1;
+		}
+		return result;
+	}
+
+	/**
+	 * Ranks the specified suppliers, and returns the index of the most
+	 * expensive one.
+	 *
+	 * The suppliers are then returned one by one, the cheapest supplies
+	 * first, by {@link #next()}: the household stops as soon as a supply is
+	 * too expensive or missing, so that the suppliers are not sorted.
+	 *
+	 * @param suppliers
+	 *            the suppliers of the household (some can be {@code null}).
+	 * @param sector
+	 *            the sector of the suppliers.
+	 * @return the index of the most expensive supplier (the last one of the
+	 *         suppliers with the highest rank, eg. a supplier without supply).
+	 */
+	public int rank(final Supplier[] suppliers, final Sector sector) {
+		final Index index = this.getIndex(sector);
+		if (this.keys.length < suppliers.length) {
+			this.keys = new int[suppliers.length];
+		}
+		this.count = suppliers.length;
+		int result = -1;
+		for (int i = 0; i < suppliers.length; i++) {
+			this.keys[i] = index.getRank(suppliers[i]);
+			if (result == -1 || this.keys[i] >= this.keys[result]) {
+				result = i;
+			}
+		}
+		return result;
+	}
+
+}
@@ -2,7 +2,6 @@ package jamel.models.m18.r08.util;
 
 import jamel.models.m18.r08.data.AgentDataset;
 import jamel.models.m18.r08.data.BasicAgentDataset;
-import jamel.models.m18.r08.data.BasicPeriodDataset;
 import jamel.models.m18.r08.data.PeriodDataset;
 import jamel.util.Agent;
 import jamel.util.JamelObject;
@@ -13,6 +12,11 @@ import jamel.util.Sector;
  */
 abstract public class AbstractAgent extends JamelObject implements Agent {
 
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * The id of this agent.
 	 */
@@ -21,8 +25,14 @@ abstract public class AbstractAgent extends JamelObject implements Agent {
 	/** A flag that indicates if this firm is open or not. */
 	private boolean open;
 
-	/** The current period. */
-	private Integer period = null;
+	/**
+	 * The current period ({@code Integer.MIN_VALUE} before the first
+	 * opening).
+	 * 
+	 * 2018-04-27: a primitive field (was a boxed {@code Integer}, a new
+	 * object per agent and per period).
+	 */
+	private int period = Integer.MIN_VALUE;
 
 	/**
 	 * The dataset.
@@ -51,7 +61,14 @@ abstract public class AbstractAgent extends JamelObject implements Agent {
 		super(sector.getSimulation());
 		this.sector = sector;
 		this.id = id;
-		this.agentDataset = new BasicAgentDataset(this);
+		this.setRandomStream("agent:" + sector.getName() + "." + id);
+		if (sector instanceof BasicSector) {
+			// 2018-04-20: the data of the agents are stored in the columns of
+			// the sector.
+			this.agentDataset = ((BasicSector) sector).getNewAgentDataset(this);
+		} else {
+			this.agentDataset = new BasicAgentDataset(this);
+		}
 	}
 
 	/**
@@ -94,7 +111,7 @@ abstract public class AbstractAgent extends JamelObject implements Agent {
 			throw new RuntimeException("Already open.");
 		}
 		this.open = true;
-		if (this.period == null) {
+		if (this.period == Integer.MIN_VALUE) {
 			this.period = this.getPeriod();
 		} else {
 			this.period++;
@@ -102,7 +119,7 @@ abstract public class AbstractAgent extends JamelObject implements Agent {
 				throw new RuntimeException("Bad period");
 			}
 		}
-		this.periodDataset = new BasicPeriodDataset(this);
+		this.periodDataset = this.agentDataset.getNewPeriodDataset(this.period);
 	}
 
 }
@@ -14,6 +14,11 @@ import jamel.models.m18.r08.roles.Shareholder;
  */
 abstract public class AbstractEquity implements Equity {
 
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * If this equity is canceled.
 	 */
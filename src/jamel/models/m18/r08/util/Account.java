@@ -1,9 +1,11 @@
 package jamel.models.m18.r08.util;
 
+import java.io.Serializable;
+
 /**
  * Represents an account.
  */
-public interface Account {
+public interface Account extends Serializable {
 
 	/**
 	 * Borrows the specified amount of money.
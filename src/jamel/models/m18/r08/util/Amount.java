@@ -1,5 +1,7 @@
 package jamel.models.m18.r08.util;
 
+import java.io.Serializable;
+
 import jamel.Jamel;
 
 /**
@@ -7,7 +9,12 @@ import jamel.Jamel;
  * 
  * Always positive.
  */
-abstract public class Amount {
+abstract public class Amount implements Serializable {
+
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
 
 	/**
 	 * The amount.
@@ -5,6 +5,11 @@ package jamel.models.m18.r08.util;
  */
 public class BasicAmount extends Amount {
 
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * Creates a new empty {@code Amount}.
 	 */
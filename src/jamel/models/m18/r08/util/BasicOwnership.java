@@ -11,6 +11,11 @@ import jamel.util.Agent;
  */
 public class BasicOwnership implements Ownership {
 
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * Cancels and removes all of the equities in this ownership.
 	 * The total value is set to zero.
@@ -28,6 +33,11 @@ public class BasicOwnership implements Ownership {
 	 */
 	private class BasicEquity extends AbstractEquity {
 
+		/**
+		 * The version of the serialized form.
+		 */
+		private static final long serialVersionUID = 1L;
+
 		/**
 		 * The number of shares.
 		 */
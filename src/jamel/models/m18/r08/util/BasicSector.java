@@ -9,16 +9,23 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.Consumer;
 
 import jamel.Jamel;
+import jamel.data.DataKeys;
 import jamel.data.DynamicSeries;
 import jamel.data.Expression;
+import jamel.models.m18.r08.data.AgentDataset;
 import jamel.models.m18.r08.data.SectorDataManager;
+import jamel.models.m18.r08.data.SectorDataset;
 import jamel.util.Agent;
 import jamel.util.JamelObject;
 import jamel.util.Parameters;
 import jamel.util.Phase;
+import jamel.util.RandomStream;
 import jamel.util.Sector;
 import jamel.util.Simulation;
 
@@ -27,6 +34,16 @@ import jamel.util.Simulation;
  */
 public class BasicSector extends JamelObject implements Sector {
 
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The number of chunks of the parallel phases.
+	 */
+	private static final int PARALLEL_CHUNKS = 64;
+
 	/**
 	 * Returns the specified action.
 	 * 
@@ -51,6 +68,33 @@ public class BasicSector extends JamelObject implements Sector {
 		return action;
 	}
 
+	/**
+	 * Returns {@code true} if the agents of the specified class can execute
+	 * the specified phase concurrently, as declared by the static method
+	 * {@code isIndependent(String)} of the agent class ({@code false} if the
+	 * agent class does not declare this method).
+	 * 
+	 * @param phaseName
+	 *            the name of the phase.
+	 * @param agentClass
+	 *            the targeted Class of agents.
+	 * @return {@code true} if the phase can be executed concurrently.
+	 */
+	private static boolean isIndependent(String phaseName, Class<? extends Agent> agentClass) {
+		boolean result;
+		try {
+			final Method method = agentClass.getMethod("isIndependent", String.class);
+			result = (Boolean) method.invoke(null, phaseName);
+		} catch (NoSuchMethodException e) {
+			result = false;
+		} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException
+				| SecurityException e) {
+			throw new RuntimeException("Something went wrong while checking the phase \"" + phaseName
+					+ "\" for the agent \"" + agentClass.getName() + "\".", e);
+		}
+		return result;
+	}
+
 	/**
 	 * Creates and returns a new agent.
 	 * 
@@ -91,9 +135,14 @@ public class BasicSector extends JamelObject implements Sector {
 	final private ArrayList<Agent> agents = new ArrayList<>();
 
 	/**
-	 * The data manager.
+	 * The data manager (not saved in the checkpoints, rebuilt on restore).
+	 */
+	transient private SectorDataManager dataManager;
+
+	/**
+	 * The columnar dataset of the agents (created with the first agent).
 	 */
-	final private SectorDataManager dataManager;
+	private SectorDataset dataset = null;
 
 	/**
 	 * The name of the sector.
@@ -106,9 +155,17 @@ public class BasicSector extends JamelObject implements Sector {
 	final private Parameters params;
 
 	/**
-	 * The list of the phases, accessible by their names.
+	 * The list of the phases, accessible by their names (not saved in the
+	 * checkpoints, rebuilt on restore).
+	 */
+	transient private Map<String, Phase> phases = new HashMap<>();
+
+	/**
+	 * The samplers used to select agents, one for each thread (their buffers
+	 * are reused from one selection to the next, and are not shared between
+	 * the threads of a parallel phase).
 	 */
-	final private Map<String, Phase> phases = new HashMap<>();
+	transient private ThreadLocal<Sampler> samplers = ThreadLocal.withInitial(Sampler::new);
 
 	/**
 	 * Creates a new basic sector.
@@ -123,6 +180,7 @@ public class BasicSector extends JamelObject implements Sector {
 		super(simulation);
 		this.params = params;
 		this.name = this.params.getAttribute("name");
+		this.setRandomStream("sector:" + this.name);
 
 		// Initializes the type of the agents.
 
@@ -160,27 +218,32 @@ public class BasicSector extends JamelObject implements Sector {
 	 * @return an expression that gives access to some sectoral data.
 	 */
 	private Expression getSectorDataAccess(String arg) {
-		final Expression result;
-		final String[] args = arg.split("\\.");
-		if (args[0].equals("phase") && args[2].equals("runtime")) {
-			final Phase phase = this.phases.get(args[1]);
-			result = new Expression() {
-
-				@Override
-				public Double getValue() {
-					return (double) phase.getRuntime();
-				}
+		return ProfiledPhase.getExpression(this.phases, arg);
+	}
 
-				@Override
-				public String toString() {
-					return name + ".phase." + args[1] + ".runtime";
-				}
+	/**
+	 * Returns the sampler used to select agents: the sampler of the current
+	 * thread.
+	 * 
+	 * @return the sampler used to select agents.
+	 */
+	private Sampler getSampler() {
+		// 2018-04-29: one sampler for each thread (a new sampler was created
+		// at each selection in the parallel phases).
+		return this.samplers.get();
+	}
 
-			};
-		} else {
-			throw new RuntimeException("Bad key: '" + args[0] + "' in '" + arg + "'");
-		}
-		return result;
+	/**
+	 * Returns the random used to select agents: the random of the current
+	 * chunk if called from a parallel phase, the random stream of this sector
+	 * otherwise.
+	 * 
+	 * @return the random used to select agents.
+	 */
+	private Random getSelectionRandom() {
+		final Random local = (this.getSimulation() instanceof BasicSimulation)
+				? ((BasicSimulation) this.getSimulation()).getLocalRandom() : null;
+		return (local != null) ? local : this.getRandom();
 	}
 
 	/**
@@ -207,11 +270,29 @@ public class BasicSector extends JamelObject implements Sector {
 
 	}
 
+	/**
+	 * Rebuilds the transient state of this sector (its data manager, its
+	 * phases and its samplers) after it was restored from a checkpoint.
+	 */
+	void restore() {
+		this.phases = new HashMap<>();
+		this.samplers = ThreadLocal.withInitial(Sampler::new);
+		this.dataManager = new SectorDataManager(this.agents, this);
+	}
+
 	@Override
 	public void close() {
 		for (int i = 0; i < this.agents.size(); i++) {
 			this.agents.get(i).close();
 		}
+		this.dataManager.close();
+	}
+
+	@Override
+	public void dispose() {
+		for (int i = 0; i < this.agents.size(); i++) {
+			this.agents.get(i).dispose();
+		}
 	}
 
 	@Override
@@ -240,6 +321,16 @@ public class BasicSector extends JamelObject implements Sector {
 		return result;
 	}
 
+	/**
+	 * Returns the columnar dataset of the agents of this sector.
+	 * 
+	 * @return the columnar dataset of the agents of this sector, or
+	 *         {@code null} if the sector is empty.
+	 */
+	public SectorDataset getDataset() {
+		return this.dataset;
+	}
+
 	@Override
 	public Expression getIndividualDataAccess(String agentName, String[] args) {
 		return this.dataManager.getDataAccess(agentName, args);
@@ -250,6 +341,25 @@ public class BasicSector extends JamelObject implements Sector {
 		return this.name;
 	}
 
+	/**
+	 * Creates and returns a new dataset for the specified agent of this
+	 * sector.
+	 * 
+	 * @param agent
+	 *            the agent.
+	 * @return a new agent dataset.
+	 */
+	AgentDataset getNewAgentDataset(final Agent agent) {
+		if (this.dataset == null) {
+			final DataKeys keys = SectorDataManager.getDataKeys(this.agentClass);
+			if (keys == null) {
+				throw new RuntimeException("Sector '" + this.name + "': no data keys for " + this.agentClass.getName());
+			}
+			this.dataset = new SectorDataset(keys);
+		}
+		return this.dataset.getNewAgentDataset(agent);
+	}
+
 	@Override
 	public Parameters getParameters() {
 		return this.params.get("parameters");
@@ -257,49 +367,54 @@ public class BasicSector extends JamelObject implements Sector {
 
 	@Override
 	public Phase getPhase(final String phaseName, final boolean shuffle) {
+		return this.getPhase(phaseName, shuffle, false);
+	}
+
+	@Override
+	public Phase getPhase(final String phaseName, final boolean shuffle, final boolean parallel) {
 
 		if (phaseName == null) {
 			throw new RuntimeException("Phase name is null");
 		}
+		if (parallel && !isIndependent(phaseName, agentClass)) {
+			// 2018-04-27: only the phases declared independent by the agents
+			// can be executed concurrently.
+			throw new RuntimeException("Sector " + name + ": the phase '" + phaseName
+					+ "' can't be executed in parallel (not declared independent by " + agentClass.getName() + ").");
+		}
 		final Consumer<? super Agent> action = getAction(phaseName, agentClass);
+		final String randomKey = "phase:" + this.name + "." + phaseName;
+		final Random random = (this.getSimulation() instanceof BasicSimulation)
+				? ((BasicSimulation) this.getSimulation()).getPhaseRandom(randomKey)
+				: this.getSimulation().getRandom(randomKey);
 
-		final Phase result = new Phase() {
-
-			private long runtime = 0;
-
-			@Override
-			public String getName() {
-				return phaseName;
-			}
+		final Phase result = new ProfiledPhase(this, phaseName) {
 
-			@Override
-			public long getRuntime() {
-				return this.runtime;
-			}
+			// 2018-04-27: if the profiling is enabled, the latency of each
+			// agent is measured.
 
-			@Override
-			public Sector getSector() {
-				return BasicSector.this;
-			}
+			final private Consumer<? super Agent> measuredAction = this.isDetailed() ? (agent) -> {
+				final long start = this.startAgent();
+				action.accept(agent);
+				this.endAgent(start);
+			} : action;
 
 			@Override
-			public void run() {
-
-				final long start = System.currentTimeMillis();
+			protected void execute() {
 
 				if (shuffle) {
-					Collections.shuffle(BasicSector.this.agents, BasicSector.this.getRandom());
+					Collections.shuffle(BasicSector.this.agents, random);
 				}
 
 				// ***
 				// Jamel.println(getPeriod(),BasicSector.this.name,this.getName(),agents.size());
 				// ***
 
-				BasicSector.this.agents.forEach(action);
-
-				final long end = System.currentTimeMillis();
-
-				runtime += end - start;
+				if (parallel) {
+					BasicSector.this.runParallel(this.measuredAction, random);
+				} else {
+					BasicSector.this.agents.forEach(this.measuredAction);
+				}
 
 			}
 
@@ -315,12 +430,65 @@ public class BasicSector extends JamelObject implements Sector {
 
 	}
 
+	/**
+	 * Executes the specified action for each agent, concurrently.
+	 * 
+	 * The list of the agents is partitioned into a fixed number of chunks
+	 * (independent of the number of processors), executed on the common
+	 * fork-join pool. The agents draw from their own random streams; the
+	 * other objects draw from a random proper to each chunk, seeded from the
+	 * random of the phase and from the index of the chunk. Hence the results
+	 * do not depend on the scheduling of the threads.
+	 * 
+	 * @param action
+	 *            the action to be executed.
+	 * @param phaseRandom
+	 *            the random of the phase.
+	 */
+	private void runParallel(final Consumer<? super Agent> action, final Random phaseRandom) {
+		final int size = this.agents.size();
+		final int chunks = Math.min(PARALLEL_CHUNKS, size);
+		if (chunks > 0) {
+			final long base = phaseRandom.nextLong();
+			final BasicSimulation simulation = (this.getSimulation() instanceof BasicSimulation)
+					? (BasicSimulation) this.getSimulation() : null;
+			final List<ForkJoinTask<?>> tasks = new ArrayList<>(chunks);
+			for (int chunk = 0; chunk < chunks; chunk++) {
+				final int from = (int) ((long) chunk * size / chunks);
+				final int to = (int) ((long) (chunk + 1) * size / chunks);
+				final Random random = new RandomStream(base + chunk);
+				tasks.add(ForkJoinPool.commonPool().submit(() -> {
+					if (simulation != null) {
+						simulation.setLocalRandom(random);
+					}
+					try {
+						for (int i = from; i < to; i++) {
+							action.accept(this.agents.get(i));
+						}
+					} finally {
+						if (simulation != null) {
+							simulation.setLocalRandom(null);
+						}
+					}
+				}));
+			}
+			for (final ForkJoinTask<?> task : tasks) {
+				task.join();
+			}
+		}
+	}
+
 	@Override
 	public DynamicSeries getScatterSeries(final String xKey, final String yKey, Expression[] conditions,
 			String selection) {
 		return this.dataManager.getScatterSeries(xKey, yKey, conditions, selection);
 	}
 
+	@Override
+	public double[][] getSnapshot(final int t, final String... keys) {
+		return this.dataManager.getSnapshot(t, keys);
+	}
+
 	@Override
 	public void open() {
 		for (int i = 0; i < this.agents.size(); i++) {
@@ -330,35 +498,24 @@ public class BasicSector extends JamelObject implements Sector {
 
 	@Override
 	public Agent select() {
-		Agent result = this.agents.get(this.getRandom().nextInt(this.agents.size()));
+		Agent result = this.agents.get(this.getSelectionRandom().nextInt(this.agents.size()));
 		return result;
 	}
 
 	@Override
 	public Agent[] select(int n, Agent special) {
+		// 2018-04-27: Fisher-Yates sampling (was a sampling by
+		// rejection, without guarantee of termination). The selection is
+		// completed with nulls if the sector is too small.
+		final Sampler sampler = this.getSampler();
+		final int count = sampler.sample(this.getSelectionRandom(), this.agents.size(), n + 1);
 		final Agent[] result = (Agent[]) Array.newInstance(this.agentClass, n);
 		int i = 0;
-		while (true) {
-			// TODO vérifier que la collection est assez grande pour qu'il y ait
-			// une sortie ou prévoir un coupe-circuit.
-			Agent newAgent = this.agents.get(this.getRandom().nextInt(this.agents.size()));
-			if (this == newAgent) {
-				newAgent = null;
-			} else {
-				for (int j = 0; j < i - 1; j++) {
-					// Si l'agent est déjà dans la sélection, on l'efface.
-					if (result[j] == newAgent) {
-						newAgent = null;
-						break;
-					}
-				}
-			}
-			if (newAgent != null) {
-				result[i] = newAgent;
+		for (int j = 0; j < count && i < n; j++) {
+			final Agent agent = this.agents.get(sampler.get(j));
+			if (agent != special) {
+				result[i] = agent;
 				i++;
-				if (i == result.length) {
-					break;
-				}
 			}
 		}
 		return result;
@@ -372,38 +529,28 @@ public class BasicSector extends JamelObject implements Sector {
 
 	@Override
 	public Agent[] selectArray(final int n) {
-		// TODO revoir cette méthode, s'inspirer de la suivante + coupe circuit.
+		// 2018-04-27: Fisher-Yates sampling. The selection is
+		// completed with nulls if the sector is too small.
+		final Sampler sampler = this.getSampler();
+		final int count = sampler.sample(this.getSelectionRandom(), this.agents.size(), n);
 		final Agent[] result = (Agent[]) Array.newInstance(this.agentClass, n);
-		for (int i = 0; i < n; i++) {
-			result[i] = this.agents.get(this.getRandom().nextInt(this.agents.size()));
-			for (int j = 0; j < i; j++) {
-				// Si l'agent est déjà dans la sélection, on l'efface.
-				if (result[j] == result[i]) {
-					result[i] = null;
-					i--;
-					break;
-				}
-			}
+		for (int i = 0; i < count; i++) {
+			result[i] = this.agents.get(sampler.get(i));
 		}
 		return result;
 	}
 
 	@Override
 	public List<? extends Agent> selectList(int n) {
-		// TODO verifier cette méthode :
-		// 1/ what if n>agents.size() ?
-		// 2/ performance
 		if (n > this.agents.size()) {
 			throw new RuntimeException("n>this.agents.size()");
 		}
-		final List<Agent> result = new LinkedList<>();
+		// 2018-04-27: Fisher-Yates sampling.
+		final Sampler sampler = this.getSampler();
+		sampler.sample(this.getSelectionRandom(), this.agents.size(), n);
+		final List<Agent> result = new ArrayList<>(n);
 		for (int i = 0; i < n; i++) {
-			Agent agent = this.agents.get(this.getRandom().nextInt(this.agents.size()));
-			if (result.contains(agent)) {
-				i--;
-			} else {
-				result.add(agent);
-			}
+			result.add(this.agents.get(sampler.get(i)));
 		}
 		return result;
 	}
@@ -26,6 +26,7 @@ import jamel.gui.Gui;
 import jamel.util.BasicTimer;
 import jamel.util.Parameters;
 import jamel.util.Phase;
+import jamel.util.RandomStream;
 import jamel.util.Sector;
 import jamel.util.Simulation;
 
@@ -183,8 +184,10 @@ public class BasicSimulation implements Simulation {
 	 */
 	private Date date = new Date();
 
-	/** The events. */
-	private final Map<Integer, Parameters> events = new HashMap<>();
+	/**
+	 * The scheduler of the events of the scenario.
+	 */
+	final private EventScheduler events;
 
 	/**
 	 * The list of the exports.
@@ -206,6 +209,12 @@ public class BasicSimulation implements Simulation {
 	 */
 	private Gui gui;
 
+	/**
+	 * The directory where the outputs of the simulation are written (if
+	 * {@code null}, the default directory is used).
+	 */
+	private File outputDirectory = null;
+
 	/**
 	 * A flag that indicates whether the simulation is paused or not.
 	 */
@@ -216,6 +225,12 @@ public class BasicSimulation implements Simulation {
 	 */
 	final private List<Phase> phases = new LinkedList<>();
 
+	/**
+	 * If {@code true}, the phases measure the latency of each agent (see
+	 * {@link ProfiledPhase}).
+	 */
+	final private boolean profiling;
+
 	/**
 	 * A collection of expressions to copute the data the agents can access
 	 * (e.g. the inflation rate).
@@ -233,6 +248,23 @@ public class BasicSimulation implements Simulation {
 	 */
 	final private Random random;
 
+	/**
+	 * The random seed.
+	 */
+	final private long seed;
+
+	/**
+	 * The random streams of the phases, by key (the phases are not saved in
+	 * the checkpoints, their streams are).
+	 */
+	final private Map<String, Random> streams = new HashMap<>();
+
+	/**
+	 * The random of the current thread, when it executes a chunk of a
+	 * parallel phase (see {@link #setLocalRandom(Random)}).
+	 */
+	final private ThreadLocal<Random> localRandom = new ThreadLocal<>();
+
 	/**
 	 * The number of periods between two refreshing of the gui.
 	 */
@@ -258,6 +290,12 @@ public class BasicSimulation implements Simulation {
 	 */
 	final private Expression simDuration = new Expression() {
 
+		@Override
+		public double getDoubleValue() {
+			final long now = System.currentTimeMillis();
+			return (start == null) ? Double.NaN : now - start;
+		}
+
 		@Override
 		public Double getValue() {
 			final long now = System.currentTimeMillis();
@@ -282,6 +320,11 @@ public class BasicSimulation implements Simulation {
 	 */
 	private Expression simFreeMemory = new Expression() {
 
+		@Override
+		public double getDoubleValue() {
+			return Runtime.getRuntime().freeMemory();
+		}
+
 		@Override
 		public Double getValue() {
 			return (double) Runtime.getRuntime().freeMemory();
@@ -304,6 +347,11 @@ public class BasicSimulation implements Simulation {
 	 */
 	private final Expression simSpeed = new Expression() {
 
+		@Override
+		public double getDoubleValue() {
+			return (speed == null) ? Double.NaN : speed;
+		}
+
 		@Override
 		public Double getValue() {
 			return speed;
@@ -321,6 +369,11 @@ public class BasicSimulation implements Simulation {
 	 */
 	final private Expression simTime = new Expression() {
 
+		@Override
+		public double getDoubleValue() {
+			return timer.getPeriod();
+		}
+
 		@Override
 		public Double getValue() {
 			return (double) timer.getPeriod();
@@ -338,6 +391,11 @@ public class BasicSimulation implements Simulation {
 	 */
 	private final Expression simTotalMemory = new Expression() {
 
+		@Override
+		public double getDoubleValue() {
+			return Runtime.getRuntime().totalMemory();
+		}
+
 		@Override
 		public Double getValue() {
 			return (double) Runtime.getRuntime().totalMemory();
@@ -377,51 +435,97 @@ public class BasicSimulation implements Simulation {
 	 *            The file that contains the description of the simulation.
 	 */
 	public BasicSimulation(final Parameters scenario, final File file) {
+		this(scenario, file, null);
+	}
+
+	/**
+	 * Creates an new simulation, restored from the specified checkpoint.
+	 * 
+	 * The sectors, the agents, the current period and the randoms are
+	 * restored from the checkpoint; the phases, the exports, the events and
+	 * the gui are created from the scenario (which may differ from the
+	 * scenario of the checkpoint, to branch a run).
+	 * 
+	 * @param scenario
+	 *            the parameters of the simulation.
+	 * @param file
+	 *            The file that contains the description of the simulation.
+	 * @param checkpoint
+	 *            the checkpoint file ({@code null} to start a new
+	 *            simulation).
+	 */
+	public BasicSimulation(final Parameters scenario, final File file, final File checkpoint) {
 
 		this.scenario = scenario;
 		this.file = file;
-		this.timer = new BasicTimer(0);
+		this.seed = this.scenario.getIntAttribute("randomSeed");
 
-		// Inits the random.
+		if (checkpoint == null) {
 
-		this.random = new Random(this.scenario.getIntAttribute("randomSeed"));
+			this.timer = new BasicTimer(0);
 
-		// Looks for the sectors.
+			// Inits the random.
 
-		{
-			final Parameters sectorsTag = this.scenario.get("sectors");
-			final String defaultClassName = sectorsTag.getAttribute("defaultClassName");
-			for (final Parameters params : sectorsTag.getAll("sector")) {
-				final Sector sector = getNewSector(this, params, defaultClassName);
-				this.sectors.put(sector.getName(), sector);
-				Jamel.println("new sector", sector.getName());
+			this.random = new Random(this.seed);
+
+			// Looks for the sectors.
+
+			{
+				final Parameters sectorsTag = this.scenario.get("sectors");
+				final String defaultClassName = sectorsTag.getAttribute("defaultClassName");
+				for (final Parameters params : sectorsTag.getAll("sector")) {
+					final Sector sector = getNewSector(this, params, defaultClassName);
+					this.sectors.put(sector.getName(), sector);
+					Jamel.println("new sector", sector.getName());
+				}
 			}
-		}
 
-		// Populate the sectors.
+			// Populate the sectors.
 
-		{
+			{
+				for (Sector sector : sectors.values()) {
+					if (sector instanceof BasicSector) {
+						((BasicSector) sector).populate();
+					}
+				}
+			}
+
+		} else {
+
+			// 2018-04-25: restores the sectors from the checkpoint.
+
+			final Checkpoint state = Checkpoint.read(checkpoint, this);
+			this.timer = new BasicTimer(state.period);
+			this.random = state.random;
+			this.streams.putAll(state.streams);
+			this.sectors.putAll(state.sectors);
+			this.publicValues.putAll(state.publicValues);
 			for (Sector sector : sectors.values()) {
 				if (sector instanceof BasicSector) {
-					((BasicSector) sector).populate();
+					((BasicSector) sector).restore();
 				}
+				Jamel.println("restored sector", sector.getName());
 			}
+			Jamel.println("restored period", state.period);
+
 		}
 
 		// Looks for the phases.
 
 		{
 			final Parameters phasesTag = this.scenario.get("phases");
+			this.profiling = Boolean.parseBoolean(phasesTag.getAttribute("profile"));
 			for (final Parameters params : phasesTag.getAll("phase")) {
 				final String phaseName = params.getAttribute("name");
 				final boolean shuffle = Boolean.parseBoolean(params.getAttribute("shuffle"));
+				final boolean parallel = Boolean.parseBoolean(params.getAttribute("parallel"));
 				final String[] sectorNames = params.splitTextContent(",");
 				for (String sectorName : sectorNames) {
 					final Sector sector = this.sectors.get(sectorName);
 					if (sector == null) {
 						throw new RuntimeException("Sector not found: \'" + sectorName + "\'");
 					}
-					final Phase phase = sector.getPhase(phaseName, shuffle);
+					final Phase phase = sector.getPhase(phaseName, shuffle, parallel);
 					if (phase == null) {
 						throw new RuntimeException(
 								"Sector: " + sectorName + ", unable to create the phase: \'" + phaseName + "\'");
@@ -442,21 +546,6 @@ public class BasicSimulation implements Simulation {
 			}
 		}
 
-		// Looks for the events.
-
-		{
-			final Parameters eventsTag = this.scenario.get("events");
-			if (eventsTag != null) {
-				for (Parameters event : eventsTag.getAll("when")) {
-					final int period = event.getIntAttribute("t");
-					if (this.events.containsKey(period)) {
-						throw new RuntimeException("Events already defined for the period: " + period);
-					}
-					this.events.put(period, event);
-				}
-			}
-		}
-
 		{
 			final Parameters guiP = this.scenario.get("gui");
 			if (guiP == null) {
@@ -471,6 +560,12 @@ public class BasicSimulation implements Simulation {
 			}
 		}
 
+		// Looks for the events.
+		// 2018-04-27: parsed once into a scheduler (after the gui, which is
+		// the target of some events).
+
+		this.events = new EventScheduler(this.scenario.get("events"), this);
+
 		final Parameters phasesTag = this.scenario.get("public");
 		if (phasesTag != null) {
 			for (final Parameters params : phasesTag.getAll("data")) {
@@ -486,25 +581,15 @@ public class BasicSimulation implements Simulation {
 	 * Executes the events of the simulation.
 	 */
 	private void doEvents() {
-		final Parameters currentEvents = this.events.get(getPeriod());
-		if (currentEvents != null) {
-			for (Parameters event : currentEvents.getAll()) {
-				if (!event.hasAttribute("sector")) {
-					this.event(event);
-				} else {
-					final String sectorName = event.getAttribute("sector");
-					// TODO test if sector exists else throw new exception
-					this.sectors.get(sectorName).doEvent(event);
-				}
-			}
-		}
+		this.events.run(getPeriod());
 	}
 
 	/**
 	 * Pauses the simulation.
 	 */
 	private void doPause() {
-		if (isPaused()) {
+		// 2018-04-20: no pause without gui (batch mode).
+		if (isPaused() && this.gui != null) {
 			this.gui.refresh();
 			while (isPaused()) {
 				try {
@@ -516,6 +601,15 @@ public class BasicSimulation implements Simulation {
 		}
 	}
 
+	/**
+	 * Writes the remaining data of the exports and closes their files.
+	 */
+	private void closeExports() {
+		for (final Export export : this.exports) {
+			export.close();
+		}
+	}
+
 	/**
 	 * Executes a period of the simulation.
 	 */
@@ -552,9 +646,11 @@ public class BasicSimulation implements Simulation {
 			this.publicValues.put(key, value);
 		}
 
-		final boolean refereshGui = this.timer.getPeriod() % this.refresh == 0;
-		if (refereshGui) {
-			this.gui.refresh();
+		if (this.gui != null) {
+			final boolean refereshGui = this.timer.getPeriod() % this.refresh == 0;
+			if (refereshGui) {
+				this.gui.refresh();
+			}
 		}
 
 		for (final Export export : this.exports) {
@@ -565,6 +661,21 @@ public class BasicSimulation implements Simulation {
 		this.timer.next();
 	}
 
+	@Override
+	public void close() {
+		this.closeExports();
+		// 2018-04-27: releases the resources of the sectors (eg. the threads
+		// of the bank audits).
+		for (final Sector sector : this.sectors.values()) {
+			sector.dispose();
+		}
+		// 2018-04-29: releases the resources of the gui (eg. the timer of
+		// the charts).
+		if (this.gui != null) {
+			this.gui.dispose();
+		}
+	}
+
 	@Override
 	public void displayErrorMessage(String title, String message) {
 		if (this.gui != null) {
@@ -576,12 +687,38 @@ public class BasicSimulation implements Simulation {
 
 	@Override
 	public void event(Parameters event) {
-		switch (event.getName()) {
-		case "do":
+		this.getEvent(event).fire();
+	}
+
+	@Override
+	public boolean eventMethodImplemented() {
+		return true;
+	}
+
+	/**
+	 * Parses the specified event.
+	 * 
+	 * The action, the sector and the attributes of the event are resolved
+	 * once, when the event is parsed.
+	 * 
+	 * @param event
+	 *            the description of the event.
+	 * @return the parsed event.
+	 */
+	EventScheduler.Event getEvent(final Parameters event) {
+		final EventScheduler.Event result;
+		if (event.hasAttribute("sector")) {
+			final String sectorName = event.getAttribute("sector");
+			final Sector sector = this.sectors.get(sectorName);
+			if (sector == null) {
+				throw new RuntimeException("Sector not found: \'" + sectorName + "\'");
+			}
+			result = () -> sector.doEvent(event);
+		} else if (event.getName().equals("do")) {
 			final String action = event.getAttribute("action");
 			switch (action) {
 			case "pause":
-				this.pause = true;
+				result = () -> this.pause = true;
 				break;
 			case "exportCharts":
 				/* 
@@ -589,23 +726,39 @@ public class BasicSimulation implements Simulation {
 				 * Plutôt que de recevoir un évènement de la part de l'interface, 
 				 * la simulation devrait consulter l'interface et recueillir une liste d'événements à effectuer.
 				 */
-				this.gui.doEvent(event);
+				if (this.gui != null) {
+					final Gui target = this.gui;
+					result = () -> target.doEvent(event);
+				} else {
+					result = () -> Jamel.println("period " + getPeriod() + ": no gui, exportCharts ignored");
+				}
 				break;
 			case "beep":
-				Toolkit.getDefaultToolkit().beep();
+				if (this.gui != null) {
+					result = () -> Toolkit.getDefaultToolkit().beep();
+				} else {
+					result = () -> {
+						// Nothing to do without gui.
+					};
+				}
+				break;
+			case "checkpoint":
+				final String to = event.getAttribute("to");
+				result = () -> this.writeCheckpoint(new File(this.getOutputDirectory(),
+						to.isEmpty() ? "checkpoint-" + getPeriod() + ".jcp" : to));
 				break;
 			default:
 				throw new RuntimeException("Not yet implemented: \'" + action + "\'");
 			}
-			break;
-		default:
+		} else {
 			throw new RuntimeException("Not yet implemented: \'" + event.getName() + "\'");
 		}
+		return result;
 	}
 
 	@Override
-	public boolean eventMethodImplemented() {
-		return true;
+	public Expression getExpression(final String query) {
+		return this.expressionFactory.getExpression(query);
 	}
 
 	@Override
@@ -618,6 +771,17 @@ public class BasicSimulation implements Simulation {
 		return this.file;
 	}
 
+	@Override
+	public File getOutputDirectory() {
+		final File result;
+		if (this.outputDirectory != null) {
+			result = this.outputDirectory;
+		} else {
+			result = Simulation.super.getOutputDirectory();
+		}
+		return result;
+	}
+
 	@Override
 	public Expression getFreeMemory() {
 		return this.simFreeMemory;
@@ -687,7 +851,59 @@ public class BasicSimulation implements Simulation {
 	 */
 	@Override
 	public Random getRandom() {
-		return random;
+		final Random local = this.localRandom.get();
+		return (local != null) ? local : this.random;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * 2018-04-28: the stream is derived at each call, and kept by the caller
+	 * (the agents and the sectors hold their own streams, saved with them in
+	 * the checkpoints).
+	 */
+	@Override
+	public Random getRandom(final String key) {
+		return new RandomStream(this.seed, key);
+	}
+
+	/**
+	 * Returns the random stream of the specified phase.
+	 * 
+	 * The phases are created again from the scenario when a checkpoint is
+	 * restored, so their streams are kept by the simulation, and saved in the
+	 * checkpoints. Called when the phases are created.
+	 * 
+	 * @param key
+	 *            the key of the stream.
+	 * @return the random stream of the phase.
+	 */
+	Random getPhaseRandom(final String key) {
+		Random result = this.streams.get(key);
+		if (result == null) {
+			result = this.getRandom(key);
+			this.streams.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the random of the current thread, if it executes a chunk of a
+	 * parallel phase.
+	 * 
+	 * @return the random of the current thread, or {@code null}.
+	 */
+	Random getLocalRandom() {
+		return this.localRandom.get();
+	}
+
+	/**
+	 * Returns {@code true} if the phases measure the latency of each agent.
+	 * 
+	 * @return {@code true} if the phases measure the latency of each agent.
+	 */
+	boolean isProfiling() {
+		return this.profiling;
 	}
 
 	@Override
@@ -740,7 +956,69 @@ public class BasicSimulation implements Simulation {
 			final long after = System.currentTimeMillis();
 			this.speed = 1. / (after - before);
 		}
+		this.close();
+
+	}
+
+	@Override
+	public void run(final int periods) {
+		if (periods < 0) {
+			throw new IllegalArgumentException("Bad number of periods: " + periods);
+		}
+		this.run = true;
+		this.pause = false;
+		this.start = System.currentTimeMillis();
+		for (int i = 0; i < periods && this.run; i++) {
+			final long before = System.currentTimeMillis();
+			this.doPeriod();
+			final long after = System.currentTimeMillis();
+			this.speed = 1. / (after - before);
+		}
+		this.run = false;
+		// 2018-04-27: the exports are left open (they were closed here, and
+		// truncated by the next call); they are closed by close().
+	}
 
+	/**
+	 * Sets the random returned by {@link #getRandom()} to the current thread.
+	 * Used by the parallel phases, so that each chunk of agents draws from
+	 * its own deterministic stream.
+	 * 
+	 * @param random
+	 *            the random of the current thread ({@code null} to restore
+	 *            the random of the simulation).
+	 */
+	void setLocalRandom(final Random random) {
+		if (random == null) {
+			this.localRandom.remove();
+		} else {
+			this.localRandom.set(random);
+		}
+	}
+
+	@Override
+	public void setOutputDirectory(final File directory) {
+		this.outputDirectory = directory;
+	}
+
+	@Override
+	public void step() {
+		if (this.start == null) {
+			this.start = System.currentTimeMillis();
+		}
+		final long before = System.currentTimeMillis();
+		this.doPeriod();
+		final long after = System.currentTimeMillis();
+		this.speed = 1. / (after - before);
+	}
+
+	@Override
+	public void writeCheckpoint(final File checkpoint) {
+		final long start = System.currentTimeMillis();
+		new Checkpoint(this.getPeriod() + 1, this.random, this.streams, this.sectors, this.publicValues)
+				.write(checkpoint, this);
+		Jamel.println("period " + getPeriod() + ": checkpoint " + checkpoint.getPath() + " ("
+				+ (System.currentTimeMillis() - start) + " ms)");
 	}
 
 }
@@ -0,0 +1,258 @@
+package jamel.models.m18.r08.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import jamel.Jamel;
+import jamel.util.Sector;
+import jamel.util.Simulation;
+
+/**
+ * The state of a simulation, saved into (or restored from) a checkpoint
+ * file.
+ *
+ * The checkpoint contains the sectors (with their agents, their accounts,
+ * their loans, their data and their random streams), the current period, the
+ * random, the random streams of the phases, and the public values. It does not contain the phases, the
+ * exports, the public data, the events and the gui, which are rebuilt from
+ * the scenario: a checkpoint can therefore be restored with the scenario
+ * that created it (to resume the run) or with a modified scenario (to branch
+ * the run, eg. with other events).
+ *
+ * The file is a gzipped Java serialization stream. The references to the
+ * simulation are replaced by a token when the checkpoint is written, and by
+ * the new simulation when it is restored.
+ *
+ * The Java serialization is used because the graph of the agents is cyclic
+ * (accounts, loans, contracts, ownerships, inner classes of the agents) and
+ * must be restored with its identities; the bulky data are already compact
+ * (the columns of primitive arrays of {@code SectorDataset}). The classes of
+ * the checkpoint declare a {@code serialVersionUID} of 1: the compatibility
+ * of the files is controlled by {@link #VERSION}, which is raised when the
+ * serialized form changes.
+ *
+ * 2018-04-25: new class.
+ * 2018-04-27: explicit serialVersionUIDs.
+ */
+final class Checkpoint implements Serializable {
+
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * A stand-in for the simulation in the checkpoint files.
+	 */
+	private enum SimulationToken {
+
+		/**
+		 * The unique token.
+		 */
+		SIMULATION;
+
+	}
+
+	/**
+	 * The header of the checkpoint files.
+	 */
+	private static final String HEADER = "jamel.checkpoint.m18.r08";
+
+	/**
+	 * The size of the stack of the threads that write and read the
+	 * checkpoints (the graph of the agents is deep).
+	 */
+	private static final long STACK_SIZE = 1L << 30;
+
+	/**
+	 * The version of the checkpoint files.
+	 */
+	private static final int VERSION = 9;
+
+	/**
+	 * Reads a checkpoint.
+	 *
+	 * @param file
+	 *            the checkpoint file.
+	 * @param simulation
+	 *            the simulation to be restored (replaces the token).
+	 * @return the checkpoint.
+	 */
+	static Checkpoint read(final File file, final Simulation simulation) {
+		final Checkpoint[] result = new Checkpoint[1];
+		execute("Checkpoint reader", () -> {
+			try (final InputStream input = new BufferedInputStream(
+					new GZIPInputStream(new FileInputStream(file), 1 << 16), 1 << 16);
+					final ObjectInputStream in = new ObjectInputStream(input) {
+
+						{
+							this.enableResolveObject(true);
+						}
+
+						@Override
+						protected Object resolveObject(Object obj) throws IOException {
+							return (obj == SimulationToken.SIMULATION) ? simulation : obj;
+						}
+
+					}) {
+				final String header = in.readUTF();
+				final int version = in.readInt();
+				if (!header.equals(HEADER) || version != VERSION) {
+					throw new RuntimeException("Bad checkpoint file: " + header + " (version " + version + ")");
+				}
+				result[0] = (Checkpoint) in.readObject();
+			} catch (IOException | ClassNotFoundException e) {
+				throw new RuntimeException("Something went wrong while reading the checkpoint: " + file.getPath(),
+						e);
+			}
+		});
+		return result[0];
+	}
+
+	/**
+	 * Executes the specified task in a new thread, with a large stack, and
+	 * waits for its completion.
+	 *
+	 * @param name
+	 *            the name of the thread.
+	 * @param task
+	 *            the task to be executed.
+	 */
+	private static void execute(final String name, final Runnable task) {
+		final Throwable[] error = new Throwable[1];
+		final Thread thread = new Thread(null, () -> {
+			try {
+				task.run();
+			} catch (Throwable e) {
+				error[0] = e;
+			}
+		}, name, STACK_SIZE);
+		thread.start();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted", e);
+		}
+		if (error[0] instanceof RuntimeException) {
+			throw (RuntimeException) error[0];
+		} else if (error[0] instanceof Error) {
+			throw (Error) error[0];
+		} else if (error[0] != null) {
+			throw new RuntimeException(error[0]);
+		}
+	}
+
+	/**
+	 * The period.
+	 */
+	final int period;
+
+	/**
+	 * The public values.
+	 */
+	final Map<String, Double> publicValues;
+
+	/**
+	 * The random of the simulation.
+	 */
+	final Random random;
+
+	/**
+	 * The sectors.
+	 */
+	final Map<String, Sector> sectors;
+
+	/**
+	 * The random streams of the phases.
+	 */
+	final Map<String, Random> streams;
+
+	/**
+	 * Creates a new checkpoint.
+	 *
+	 * @param period
+	 *            the period.
+	 * @param random
+	 *            the random of the simulation.
+	 * @param streams
+	 *            the random streams of the phases.
+	 * @param sectors
+	 *            the sectors.
+	 * @param publicValues
+	 *            the public values.
+	 */
+	Checkpoint(final int period, final Random random, final Map<String, Random> streams,
+			final Map<String, Sector> sectors, final Map<String, Double> publicValues) {
+		this.period = period;
+		this.random = random;
+		this.streams = new LinkedHashMap<>(streams);
+		this.sectors = new LinkedHashMap<>(sectors);
+		this.publicValues = new LinkedHashMap<>(publicValues);
+	}
+
+	/**
+	 * Writes this checkpoint.
+	 *
+	 * @param file
+	 *            the checkpoint file.
+	 * @param simulation
+	 *            the simulation (replaced by a token).
+	 */
+	void write(final File file, final Simulation simulation) {
+		final File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.exists() && !parent.mkdirs()) {
+			throw new RuntimeException("Unable to create the directory: " + parent.getPath());
+		}
+		final File temp = new File(file.getPath() + ".tmp");
+		execute("Checkpoint writer", () -> {
+			try (final OutputStream output = new BufferedOutputStream(
+					new GZIPOutputStream(new FileOutputStream(temp), 1 << 16), 1 << 16);
+					final ObjectOutputStream out = new ObjectOutputStream(output) {
+
+						{
+							this.enableReplaceObject(true);
+						}
+
+						@Override
+						protected Object replaceObject(Object obj) throws IOException {
+							return (obj == simulation) ? SimulationToken.SIMULATION : obj;
+						}
+
+					}) {
+				out.writeUTF(HEADER);
+				out.writeInt(VERSION);
+				out.writeObject(this);
+			} catch (IOException e) {
+				temp.delete();
+				Jamel.println("***");
+				Jamel.println("Something went wrong while writing the checkpoint.");
+				Jamel.println("file: " + file.getPath());
+				Jamel.println();
+				throw new RuntimeException("Something went wrong while writing the checkpoint: " + file.getPath(),
+						e);
+			}
+		});
+		if (file.exists() && !file.delete()) {
+			throw new RuntimeException("Unable to replace the checkpoint: " + file.getPath());
+		}
+		if (!temp.renameTo(file)) {
+			throw new RuntimeException("Unable to rename the checkpoint: " + temp.getPath());
+		}
+	}
+
+}
@@ -1,9 +1,11 @@
 package jamel.models.m18.r08.util;
 
+import java.io.Serializable;
+
 /**
  * Represents a cheque.
  */
-public interface Cheque {
+public interface Cheque extends Serializable {
 
 	/**
 	 * Returns the amount of this cheque.
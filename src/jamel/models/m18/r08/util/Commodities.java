@@ -1,9 +1,11 @@
 package jamel.models.m18.r08.util;
 
+import java.io.Serializable;
+
 /**
  * Represents a heap of commodities.
  */
-public interface Commodities {
+public interface Commodities extends Serializable {
 
 	/**
 	 * Appends the content of the specified heap of commodities to this heap of
@@ -1,5 +1,7 @@
 package jamel.models.m18.r08.util;
 
+import java.io.Serializable;
+
 import jamel.models.m18.r08.roles.Shareholder;
 
 /**
@@ -9,7 +11,7 @@ import jamel.models.m18.r08.roles.Shareholder;
  * pour que les shareholders puissent savoir la richesse qu'ils
  * détiennent sous la forme d'entreprises.
  */
-public interface Equity {
+public interface Equity extends Serializable {
 
 	/**
 	 * Returns the name of the company.
@@ -0,0 +1,303 @@
+package jamel.models.m18.r08.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import jamel.data.Expression;
+import jamel.util.Parameters;
+
+/**
+ * A scheduler for the events of the scenario.
+ *
+ * The events are parsed once, when the simulation is created, into
+ * {@link Event} objects. The target sector of an event is resolved then, and
+ * so is the action of the events of the simulation itself (pause, beep,
+ * checkpoint, exportCharts): a missing sector or an unknown action fails at
+ * the creation of the simulation. The events of a sector are not parsed:
+ * their raw {@link Parameters} are passed to {@code Sector.doEvent()}, which
+ * parses them when the event is fired (as the gui does for the chart
+ * exports). Three kinds of triggers are supported:
+ *
+ * <pre>
+ * {@code
+ * <events>
+ * 	<when t="300"> ... </when>
+ * 	<when every="100" start="200" end="1000"> ... </when>
+ * 	<when expression="val(Sector2,price,t,mean)" above="20"> ... </when>
+ * 	<when expression="val(Workers,employed,t,sum)" below="5000"> ... </when>
+ * </events>
+ * }
+ * </pre>
+ *
+ * The triggers on the period ({@code t} and {@code every}; {@code start}
+ * defaults to {@code every}, {@code end} is optional) are kept in a priority
+ * queue ordered by their next period: at each period, only the head of the
+ * queue is compared with the current period. The conditional triggers fire
+ * each time the value of their expression crosses the threshold (from below
+ * for {@code above}, from above for {@code below}); their expression is
+ * evaluated once per period, at the end of the period (after the exports).
+ *
+ * 2018-04-27: new class, replaces the map of the events by period of
+ * {@link BasicSimulation}.
+ */
+class EventScheduler {
+
+	/**
+	 * An event, parsed once.
+	 */
+	interface Event {
+
+		/**
+		 * Executes the event.
+		 */
+		void fire();
+
+	}
+
+	/**
+	 * A trigger on the period.
+	 */
+	private static class PeriodTrigger implements Comparable<PeriodTrigger> {
+
+		/**
+		 * The last period of the trigger.
+		 */
+		final private int end;
+
+		/**
+		 * The events.
+		 */
+		final private Event[] events;
+
+		/**
+		 * The interval between two occurrences (0 for a single occurrence).
+		 */
+		final private int every;
+
+		/**
+		 * The next period of the trigger.
+		 */
+		private int next;
+
+		/**
+		 * The rank of the trigger in the scenario (the triggers of the same
+		 * period are fired in the order of the scenario).
+		 */
+		final private int rank;
+
+		/**
+		 * Creates a new trigger.
+		 *
+		 * @param next
+		 *            the first period of the trigger.
+		 * @param every
+		 *            the interval between two occurrences (0 for a single
+		 *            occurrence).
+		 * @param end
+		 *            the last period of the trigger.
+		 * @param rank
+		 *            the rank of the trigger in the scenario.
+		 * @param events
+		 *            the events.
+		 */
+		private PeriodTrigger(final int next, final int every, final int end, final int rank, final Event[] events) {
+			this.next = next;
+			this.every = every;
+			this.end = end;
+			this.rank = rank;
+			this.events = events;
+		}
+
+		@Override
+		public int compareTo(PeriodTrigger other) {
+			final int result;
+			if (this.next != other.next) {
+				result = Integer.compare(this.next, other.next);
+			} else {
+				result = Integer.compare(this.rank, other.rank);
+			}
+			return result;
+		}
+
+	}
+
+	/**
+	 * A trigger on an expression crossing a threshold.
+	 */
+	private static class ThresholdTrigger {
+
+		/**
+		 * The events.
+		 */
+		final private Event[] events;
+
+		/**
+		 * The expression.
+		 */
+		final private Expression expression;
+
+		/**
+		 * The value of the expression at the previous period ({@code NaN} if
+		 * not available).
+		 */
+		private double previous = Double.NaN;
+
+		/**
+		 * The threshold.
+		 */
+		final private double threshold;
+
+		/**
+		 * {@code true} if the trigger fires when the value crosses the
+		 * threshold from below, {@code false} from above.
+		 */
+		final private boolean upward;
+
+		/**
+		 * Creates a new trigger.
+		 *
+		 * @param expression
+		 *            the expression.
+		 * @param threshold
+		 *            the threshold.
+		 * @param upward
+		 *            {@code true} if the trigger fires when the value crosses
+		 *            the threshold from below, {@code false} from above.
+		 * @param events
+		 *            the events.
+		 */
+		private ThresholdTrigger(final Expression expression, final double threshold, final boolean upward,
+				final Event[] events) {
+			this.expression = expression;
+			this.threshold = threshold;
+			this.upward = upward;
+			this.events = events;
+		}
+
+		/**
+		 * Evaluates the expression, and returns {@code true} if it has just
+		 * crossed the threshold.
+		 *
+		 * @return {@code true} if the expression has just crossed the
+		 *         threshold.
+		 */
+		private boolean isCrossed() {
+			final Double value = this.expression.getValue();
+			final double current = (value == null) ? Double.NaN : value;
+			final boolean result;
+			if (this.upward) {
+				result = this.previous <= this.threshold && current > this.threshold;
+			} else {
+				result = this.previous >= this.threshold && current < this.threshold;
+			}
+			this.previous = current;
+			return result;
+		}
+
+	}
+
+	/**
+	 * Executes the specified events.
+	 *
+	 * @param events
+	 *            the events to be executed.
+	 */
+	private static void fire(final Event[] events) {
+		for (int i = 0; i < events.length; i++) {
+			events[i].fire();
+		}
+	}
+
+	/**
+	 * The triggers on the period, by next period.
+	 */
+	final private PriorityQueue<PeriodTrigger> queue = new PriorityQueue<>();
+
+	/**
+	 * The triggers on an expression.
+	 */
+	final private ThresholdTrigger[] thresholds;
+
+	/**
+	 * Creates a new scheduler.
+	 *
+	 * @param eventsTag
+	 *            the description of the events ({@code null} if no event).
+	 * @param simulation
+	 *            the simulation.
+	 */
+	EventScheduler(final Parameters eventsTag, final BasicSimulation simulation) {
+		final List<ThresholdTrigger> conditionals = new ArrayList<>();
+		if (eventsTag != null) {
+			final int period = simulation.getPeriod();
+			int rank = 0;
+			for (final Parameters when : eventsTag.getAll("when")) {
+				final List<Parameters> children = when.getAll();
+				final Event[] events = new Event[children.size()];
+				for (int i = 0; i < events.length; i++) {
+					events[i] = simulation.getEvent(children.get(i));
+				}
+				if (when.hasAttribute("t")) {
+					final int t = when.getIntAttribute("t");
+					if (t >= period) {
+						this.queue.add(new PeriodTrigger(t, 0, t, rank, events));
+					}
+				} else if (when.hasAttribute("every")) {
+					final int every = when.getIntAttribute("every");
+					if (every <= 0) {
+						throw new RuntimeException("Bad event: every=" + every);
+					}
+					int next = when.hasAttribute("start") ? when.getIntAttribute("start") : every;
+					final int end = when.hasAttribute("end") ? when.getIntAttribute("end") : Integer.MAX_VALUE;
+					if (next < period) {
+						// Restored from a checkpoint: skips the past occurrences.
+						next += ((period - next + every - 1) / every) * every;
+					}
+					if (next <= end) {
+						this.queue.add(new PeriodTrigger(next, every, end, rank, events));
+					}
+				} else if (when.hasAttribute("expression")) {
+					final Expression expression = simulation.getExpression(when.getAttribute("expression"));
+					if (when.hasAttribute("above") == when.hasAttribute("below")) {
+						throw new RuntimeException("Bad event: either 'above' or 'below' expected.");
+					}
+					final boolean upward = when.hasAttribute("above");
+					final double threshold = when.getDoubleAttribute(upward ? "above" : "below");
+					conditionals.add(new ThresholdTrigger(expression, threshold, upward, events));
+				} else {
+					throw new RuntimeException("Bad event: 't', 'every' or 'expression' expected.");
+				}
+				rank++;
+			}
+		}
+		this.thresholds = conditionals.toArray(new ThresholdTrigger[conditionals.size()]);
+	}
+
+	/**
+	 * Executes the events of the specified period.
+	 *
+	 * @param t
+	 *            the current period.
+	 */
+	void run(final int t) {
+		while (!this.queue.isEmpty() && this.queue.peek().next <= t) {
+			final PeriodTrigger trigger = this.queue.poll();
+			if (trigger.next == t) {
+				fire(trigger.events);
+			}
+			if (trigger.every > 0) {
+				trigger.next += trigger.every;
+				if (trigger.next <= trigger.end) {
+					this.queue.add(trigger);
+				}
+			}
+		}
+		for (int i = 0; i < this.thresholds.length; i++) {
+			if (this.thresholds[i].isCrossed()) {
+				fire(this.thresholds[i].events);
+			}
+		}
+	}
+
+}
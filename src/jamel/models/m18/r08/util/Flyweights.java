@@ -0,0 +1,55 @@
+package jamel.models.m18.r08.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Function;
+
+import jamel.util.Parameters;
+
+/**
+ * A cache of the immutable objects shared by the agents (eg. their
+ * constants).
+ *
+ * An object is created once for each set of parameters (the parameters of a
+ * sector are a single object, see {@link Parameters#get(String)}) and each
+ * type, then shared by all the agents created with these parameters: one set
+ * of constants per sector instead of one per agent. The shared objects must
+ * be immutable, and must not refer to the parameters (the cache would never
+ * be cleared).
+ *
+ * 2018-04-27: new class.
+ */
+public class Flyweights {
+
+	/**
+	 * The shared objects, by parameters and by type.
+	 */
+	private static final Map<Parameters, Map<Class<?>, Object>> cache = new WeakHashMap<>();
+
+	/**
+	 * Returns the shared object of the specified type for the specified
+	 * parameters (created by the factory if it does not exist yet).
+	 *
+	 * @param <T>
+	 *            the type of the object.
+	 * @param parameters
+	 *            the parameters.
+	 * @param type
+	 *            the type of the object.
+	 * @param factory
+	 *            the factory that creates the object from the parameters.
+	 * @return the shared object.
+	 */
+	public static synchronized <T> T get(final Parameters parameters, final Class<T> type,
+			final Function<Parameters, ? extends T> factory) {
+		final Map<Class<?>, Object> objects = cache.computeIfAbsent(parameters, k -> new HashMap<>());
+		Object result = objects.get(type);
+		if (result == null) {
+			result = factory.apply(parameters);
+			objects.put(type, result);
+		}
+		return type.cast(result);
+	}
+
+}
@@ -1,11 +1,13 @@
 package jamel.models.m18.r08.util;
 
+import java.io.Serializable;
+
 import jamel.models.m18.r08.roles.Worker;
 
 /**
  * Represents the job offer of an employer.
  */
-public interface JobOffer {
+public interface JobOffer extends Serializable {
 
 	/**
 	 * Submits the application of the specified worker.
@@ -1,10 +1,11 @@
 package jamel.models.m18.r08.util;
 
+import java.io.Serializable;
 import java.util.List;
 
 import jamel.models.m18.r08.roles.Shareholder;
 
-public interface Ownership {
+public interface Ownership extends Serializable {
 
 	List<? extends Equity> getEquities();
 
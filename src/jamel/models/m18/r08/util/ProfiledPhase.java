@@ -0,0 +1,497 @@
+package jamel.models.m18.r08.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import jamel.data.Expression;
+import jamel.util.Phase;
+import jamel.util.Sector;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A phase that measures its own execution.
+ *
+ * At each period, the phase records its duration (in nanoseconds), the
+ * memory allocated by the simulation thread during its execution (if the JVM
+ * supports it), and emits a JDK Flight Recorder event ({@code jamel.Phase}).
+ *
+ * If the profiling is enabled ({@code <phases profile="true">} in the
+ * scenario), the phase also records the latency of each agent in a
+ * histogram (log-linear buckets, with a relative precision of about 3%, in
+ * the manner of HdrHistogram). The histogram can be fed concurrently by the
+ * chunks of a parallel phase; but the allocations of the worker threads of a
+ * parallel phase are not counted.
+ *
+ * The measures of the last period are accessed through the keys
+ * {@code phase.<name>.<statistic>} of the sector, eg
+ * {@code val(Sector1, phase.payWages.p99)}. The statistics are:
+ * {@code runtime} (the cumulative time in ms, as before), {@code nanos},
+ * {@code allocated} (bytes), {@code count} (the number of agents measured),
+ * {@code mean}, {@code p50}, {@code p90}, {@code p99}, {@code p999} and
+ * {@code max} (the latencies of the agents, in ns).
+ *
+ * 2018-04-27: new class, replaces the millisecond timers of the phases of
+ * the sectors and of the markets (which rounded most phases to 0 ms).
+ */
+public abstract class ProfiledPhase implements Phase {
+
+	/**
+	 * A histogram of latencies.
+	 */
+	private static class Histogram {
+
+		/**
+		 * The number of bits of the sub-buckets.
+		 */
+		private static final int SUB_BITS = 5;
+
+		/**
+		 * The number of sub-buckets by power of two.
+		 */
+		private static final int SUB_COUNT = 1 << SUB_BITS;
+
+		/**
+		 * The number of buckets (enough for any positive long).
+		 */
+		private static final int SIZE = SUB_COUNT * (64 - SUB_BITS);
+
+		/**
+		 * Returns the index of the bucket of the specified value.
+		 *
+		 * @param value
+		 *            the value (non-negative).
+		 * @return the index of the bucket.
+		 */
+		private static int getIndex(final long value) {
+			final int result;
+			if (value < SUB_COUNT) {
+				result = (int) value;
+			} else {
+				final int magnitude = 63 - Long.numberOfLeadingZeros(value);
+				final int shift = magnitude - SUB_BITS;
+				result = SUB_COUNT * (shift + 1) + (int) ((value >>> shift) & (SUB_COUNT - 1));
+			}
+			return result;
+		}
+
+		/**
+		 * Returns the highest value of the specified bucket.
+		 *
+		 * @param index
+		 *            the index of the bucket.
+		 * @return the highest value of the bucket.
+		 */
+		private static long getHighestValue(final int index) {
+			final long result;
+			if (index < SUB_COUNT) {
+				result = index;
+			} else {
+				final int shift = index / SUB_COUNT - 1;
+				final long sub = SUB_COUNT + index % SUB_COUNT;
+				result = ((sub + 1) << shift) - 1;
+			}
+			return result;
+		}
+
+		/**
+		 * The counts of the buckets.
+		 */
+		final private AtomicLongArray counts = new AtomicLongArray(SIZE);
+
+		/**
+		 * The number of values recorded.
+		 */
+		final private AtomicLong count = new AtomicLong();
+
+		/**
+		 * The greatest value recorded.
+		 */
+		final private AtomicLong max = new AtomicLong();
+
+		/**
+		 * The sum of the values recorded.
+		 */
+		final private AtomicLong sum = new AtomicLong();
+
+		/**
+		 * Returns the mean of the values recorded.
+		 *
+		 * @return the mean, or {@code null} if no value was recorded.
+		 */
+		private Double getMean() {
+			final long n = this.count.get();
+			return (n == 0) ? null : (double) this.sum.get() / n;
+		}
+
+		/**
+		 * Returns the value at the specified percentile (the highest value
+		 * equivalent to the value found).
+		 *
+		 * @param percentile
+		 *            the percentile (between 0 and 100).
+		 * @return the value, or {@code null} if no value was recorded.
+		 */
+		private Double getValueAtPercentile(final double percentile) {
+			final long n = this.count.get();
+			Double result = null;
+			if (n > 0) {
+				final long rank = Math.max(1, (long) Math.ceil(percentile / 100. * n));
+				long cumulative = 0;
+				for (int i = 0; i < SIZE; i++) {
+					cumulative += this.counts.get(i);
+					if (cumulative >= rank) {
+						result = (double) Math.min(getHighestValue(i), this.max.get());
+						break;
+					}
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * Records the specified value.
+		 *
+		 * @param value
+		 *            the value to be recorded.
+		 */
+		private void record(final long value) {
+			final long v = Math.max(0, value);
+			this.counts.incrementAndGet(getIndex(v));
+			this.count.incrementAndGet();
+			this.sum.addAndGet(v);
+			this.max.accumulateAndGet(v, Math::max);
+		}
+
+		/**
+		 * Clears the histogram.
+		 */
+		private void reset() {
+			for (int i = 0; i < SIZE; i++) {
+				this.counts.set(i, 0);
+			}
+			this.count.set(0);
+			this.max.set(0);
+			this.sum.set(0);
+		}
+
+	}
+
+	/**
+	 * The Flight Recorder event of a phase.
+	 */
+	@Name("jamel.Phase")
+	@Label("Phase")
+	@Category("Jamel")
+	@StackTrace(false)
+	static class PhaseEvent extends jdk.jfr.Event {
+
+		/**
+		 * The number of agents measured.
+		 */
+		@Label("Agents")
+		int agents;
+
+		/**
+		 * The memory allocated by the simulation thread.
+		 */
+		@Label("Allocated")
+		@DataAmount
+		long allocated;
+
+		/**
+		 * The period.
+		 */
+		@Label("Period")
+		int period;
+
+		/**
+		 * The name of the phase.
+		 */
+		@Label("Phase")
+		String phase;
+
+		/**
+		 * The name of the sector.
+		 */
+		@Label("Sector")
+		String sector;
+
+	}
+
+	/**
+	 * The thread management interface of the JVM.
+	 */
+	private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+	/**
+	 * Returns the memory allocated by the current thread since its start.
+	 *
+	 * @return the memory allocated (in bytes), or -1 if the JVM does not
+	 *         support it.
+	 */
+	private static long getAllocatedBytes() {
+		long result = -1;
+		if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+			final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadMXBean;
+			if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+				result = bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns an expression that gives access to a statistic of a phase of a
+	 * sector, described by a key {@code phase.<name>.<statistic>}.
+	 *
+	 * @param phases
+	 *            the phases of the sector, by name.
+	 * @param key
+	 *            the key.
+	 * @return the expression.
+	 */
+	public static Expression getExpression(final Map<String, Phase> phases, final String key) {
+		final String[] args = key.split("\\.");
+		if (!args[0].equals("phase") || args.length != 3) {
+			throw new RuntimeException("Bad key: '" + args[0] + "' in '" + key + "'");
+		}
+		final Phase phase = phases.get(args[1]);
+		if (!(phase instanceof ProfiledPhase)) {
+			throw new RuntimeException("Phase not found: '" + args[1] + "' in '" + key + "'");
+		}
+		return ((ProfiledPhase) phase).getExpression(args[2]);
+	}
+
+	/**
+	 * The memory allocated during the last execution (-1 if unknown).
+	 */
+	private long allocated = -1;
+
+	/**
+	 * If {@code true}, the latency of each agent is measured.
+	 */
+	final private boolean detailed;
+
+	/**
+	 * The histogram of the latencies of the agents during the last
+	 * execution.
+	 */
+	final private Histogram histogram;
+
+	/**
+	 * The name of the phase.
+	 */
+	final private String name;
+
+	/**
+	 * The duration of the last execution (in ns).
+	 */
+	private long nanos = 0;
+
+	/**
+	 * The cumulative duration of the executions (in ns).
+	 */
+	private long runtime = 0;
+
+	/**
+	 * The sector.
+	 */
+	final private Sector sector;
+
+	/**
+	 * Creates a new phase.
+	 *
+	 * @param sector
+	 *            the sector of the phase.
+	 * @param name
+	 *            the name of the phase.
+	 */
+	public ProfiledPhase(final Sector sector, final String name) {
+		this.sector = sector;
+		this.name = name;
+		this.detailed = (sector.getSimulation() instanceof BasicSimulation)
+				&& ((BasicSimulation) sector.getSimulation()).isProfiling();
+		this.histogram = this.detailed ? new Histogram() : null;
+	}
+
+	/**
+	 * Executes the phase (called by {@link #run()}, which measures it).
+	 */
+	abstract protected void execute();
+
+	/**
+	 * Returns {@code true} if the latency of each agent is measured.
+	 *
+	 * @return {@code true} if the latency of each agent is measured.
+	 */
+	protected boolean isDetailed() {
+		return this.detailed;
+	}
+
+	/**
+	 * Records the latency of an agent.
+	 *
+	 * @param start
+	 *            the value returned by {@link #startAgent()}.
+	 */
+	protected void endAgent(final long start) {
+		if (this.detailed) {
+			this.histogram.record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Starts the measure of the latency of an agent.
+	 *
+	 * @return the start of the measure (to be passed to
+	 *         {@link #endAgent(long)}).
+	 */
+	protected long startAgent() {
+		return this.detailed ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Returns an expression that gives access to the specified statistic of
+	 * this phase.
+	 *
+	 * @param statistic
+	 *            the name of the statistic.
+	 * @return the expression.
+	 */
+	public Expression getExpression(final String statistic) {
+		final String description = this.sector.getName() + ".phase." + this.name + "." + statistic;
+		final Expression result;
+		switch (statistic) {
+		case "runtime":
+			result = newExpression(description, () -> (double) this.getRuntime());
+			break;
+		case "nanos":
+			result = newExpression(description, () -> (double) this.nanos);
+			break;
+		case "allocated":
+			result = newExpression(description, () -> (this.allocated < 0) ? null : (double) this.allocated);
+			break;
+		case "count":
+			result = newExpression(description, () -> this.detailed ? (double) this.histogram.count.get() : null);
+			break;
+		case "mean":
+			result = newExpression(description, () -> this.detailed ? this.histogram.getMean() : null);
+			break;
+		case "max":
+			result = newExpression(description, () -> (this.detailed && this.histogram.count.get() > 0)
+					? (double) this.histogram.max.get() : null);
+			break;
+		case "p50":
+			result = this.getPercentile(description, 50);
+			break;
+		case "p90":
+			result = this.getPercentile(description, 90);
+			break;
+		case "p99":
+			result = this.getPercentile(description, 99);
+			break;
+		case "p999":
+			result = this.getPercentile(description, 99.9);
+			break;
+		default:
+			throw new RuntimeException("Bad key: '" + statistic + "' in '" + description + "'");
+		}
+		return result;
+	}
+
+	/**
+	 * Returns an expression that gives access to the specified percentile of
+	 * the latencies of the agents.
+	 *
+	 * @param description
+	 *            the description of the expression.
+	 * @param percentile
+	 *            the percentile (between 0 and 100).
+	 * @return the expression.
+	 */
+	private Expression getPercentile(final String description, final double percentile) {
+		return newExpression(description,
+				() -> this.detailed ? this.histogram.getValueAtPercentile(percentile) : null);
+	}
+
+	/**
+	 * Returns a new expression.
+	 *
+	 * @param description
+	 *            the description of the expression.
+	 * @param value
+	 *            the value of the expression.
+	 * @return a new expression.
+	 */
+	private static Expression newExpression(final String description, final Expression value) {
+		return new Expression() {
+
+			@Override
+			public Double getValue() {
+				return value.getValue();
+			}
+
+			@Override
+			public String toString() {
+				return description;
+			}
+
+		};
+	}
+
+	@Override
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Returns the run time of this phase, ie, the cumulative time spent in
+	 * this phase since the start of the simulation (in ms).
+	 *
+	 * @return the run time of this phase.
+	 */
+	@Override
+	public long getRuntime() {
+		return this.runtime / 1000000;
+	}
+
+	@Override
+	public Sector getSector() {
+		return this.sector;
+	}
+
+	@Override
+	final public void run() {
+		final PhaseEvent event = new PhaseEvent();
+		event.begin();
+		if (this.detailed) {
+			this.histogram.reset();
+		}
+		final long allocatedBefore = getAllocatedBytes();
+		final long start = System.nanoTime();
+
+		this.execute();
+
+		this.nanos = System.nanoTime() - start;
+		this.runtime += this.nanos;
+		final long allocatedAfter = getAllocatedBytes();
+		this.allocated = (allocatedBefore < 0 || allocatedAfter < 0) ? -1 : allocatedAfter - allocatedBefore;
+		event.end();
+		if (event.shouldCommit()) {
+			event.sector = this.sector.getName();
+			event.phase = this.name;
+			event.period = this.sector.getPeriod();
+			event.allocated = this.allocated;
+			event.agents = this.detailed ? (int) this.histogram.count.get() : 0;
+			event.commit();
+		}
+	}
+
+}
@@ -0,0 +1,281 @@
+package jamel.models.m18.r08.util;
+
+import java.io.Serializable;
+import java.util.Random;
+
+/**
+ * Random sampling facilities.
+ *
+ * A {@code Sampler} selects an index at random, with a probability
+ * proportional to the weight of the index (eg the population of a sector).
+ * The alias table of the weights (Vose's method) is built again only when a
+ * weight has changed: a selection is two random draws and one comparison,
+ * whatever the number of indices, without allocation. The table is built
+ * with integer arithmetic, so the probabilities are exact.
+ *
+ * The method {@link #sample(Random, int, int)} selects distinct indices
+ * (sampling without replacement), by a partial Fisher-Yates shuffle of an
+ * array kept by the sampler: one random draw and one swap per index
+ * selected, whatever the size of the population. The swaps are then undone,
+ * in the reverse order, so that the array is the identity again for the
+ * next sampling. The buffers are reused from one sampling to the next: a
+ * sampling does not allocate (except when the population grows).
+ *
+ * 2018-04-27: new class, replaces the sampling by rejection in
+ * {@code BasicSector} and the cumulative sizes computed at each call in
+ * {@code BasicLaborMarket.selectEmployer()}.
+ * 2018-04-27: the sampling without replacement reuses the buffers of the
+ * sampler (was a static method that allocated its buffers at each call).
+ * 2018-04-29: the weighted selection uses an alias table (was a binary
+ * search in the cumulative weights).
+ */
+public class Sampler implements Serializable {
+
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The alias of each index (not saved in the checkpoints).
+	 */
+	transient private int[] alias = null;
+
+	/**
+	 * {@code true} if the alias table must be built again.
+	 */
+	transient private boolean dirty = true;
+
+	/**
+	 * The number of indices selected by the last sampling.
+	 */
+	transient private int count = 0;
+
+	/**
+	 * The threshold of each index in the alias table: the index is selected
+	 * if a draw in {@code [0, total)} is lower than its threshold, its alias
+	 * otherwise (not saved in the checkpoints).
+	 */
+	transient private int[] threshold = null;
+
+	/**
+	 * The sum of the weights.
+	 */
+	transient private int total = 0;
+
+	/**
+	 * The array shuffled by the sampling ({@code permutation[i] == i} between
+	 * two samplings).
+	 */
+	transient private int[] permutation = null;
+
+	/**
+	 * The indices selected by the last sampling.
+	 */
+	transient private int[] selection = null;
+
+	/**
+	 * The position swapped at each draw of the last sampling.
+	 */
+	transient private int[] swaps = null;
+
+	/**
+	 * The weights.
+	 */
+	private int[] weights;
+
+	/**
+	 * Creates a new sampler, without weights (for the sampling without
+	 * replacement).
+	 */
+	public Sampler() {
+		this(0);
+	}
+
+	/**
+	 * Creates a new sampler.
+	 *
+	 * @param size
+	 *            the number of indices.
+	 */
+	public Sampler(final int size) {
+		this.weights = new int[size];
+	}
+
+	/**
+	 * Builds the alias table of the weights (Vose's method).
+	 * 
+	 * Each index is given a column of height {@code total}. The weights,
+	 * multiplied by the number of indices, are poured into the columns: each
+	 * index lower than the column keeps its weight and is completed by an
+	 * index greater than the column (its alias).
+	 */
+	private void build() {
+		final int n = this.weights.length;
+		if (this.alias == null || this.alias.length != n) {
+			this.alias = new int[n];
+			this.threshold = new int[n];
+		}
+		long sum = 0;
+		for (int i = 0; i < n; i++) {
+			sum += this.weights[i];
+		}
+		if (sum > Integer.MAX_VALUE) {
+			throw new RuntimeException("Total weight overflow: " + sum);
+		}
+		this.total = (int) sum;
+		if (this.total > 0) {
+
+			// The scaled weights, the indices lower than the column (from the
+			// start of the work array) and the indices greater than or equal
+			// to the column (from the end).
+
+			final long[] scaled = new long[n];
+			final int[] work = new int[n];
+			int small = 0;
+			int large = n;
+			for (int i = 0; i < n; i++) {
+				scaled[i] = (long) this.weights[i] * n;
+				if (scaled[i] < this.total) {
+					work[small] = i;
+					small++;
+				} else {
+					large--;
+					work[large] = i;
+				}
+			}
+			while (small > 0 && large < n) {
+				small--;
+				final int less = work[small];
+				final int more = work[large];
+				large++;
+				this.threshold[less] = (int) scaled[less];
+				this.alias[less] = more;
+				scaled[more] -= this.total - scaled[less];
+				if (scaled[more] < this.total) {
+					work[small] = more;
+					small++;
+				} else {
+					large--;
+					work[large] = more;
+				}
+			}
+			while (small > 0) {
+				small--;
+				this.threshold[work[small]] = this.total;
+				this.alias[work[small]] = work[small];
+			}
+			while (large < n) {
+				this.threshold[work[large]] = this.total;
+				this.alias[work[large]] = work[large];
+				large++;
+			}
+		}
+		this.dirty = false;
+	}
+
+	/**
+	 * Returns the specified index of the last sampling.
+	 *
+	 * @param i
+	 *            the rank of the index in the sampling.
+	 * @return the index.
+	 */
+	public int get(final int i) {
+		if (i >= this.count) {
+			throw new IndexOutOfBoundsException("Index: " + i + ", count: " + this.count);
+		}
+		return this.selection[i];
+	}
+
+	/**
+	 * Selects distinct indices at random in {@code [0, n)}.
+	 *
+	 * The indices are in a random order, and are returned by
+	 * {@link #get(int)} until the next sampling. If {@code k > n}, all the
+	 * {@code n} indices are selected.
+	 *
+	 * @param random
+	 *            the source of randomness.
+	 * @param n
+	 *            the size of the population.
+	 * @param k
+	 *            the number of indices to be selected.
+	 * @return the number of indices selected ({@code min(k, n)}).
+	 */
+	public int sample(final Random random, final int n, final int k) {
+		if (n < 0 || k < 0) {
+			throw new IllegalArgumentException("Bad size: " + n + ", " + k);
+		}
+		final int m = Math.min(k, n);
+		if (this.permutation == null || this.permutation.length < n) {
+			this.permutation = new int[Math.max(n, (this.permutation == null) ? 0 : 2 * this.permutation.length)];
+			for (int i = 0; i < this.permutation.length; i++) {
+				this.permutation[i] = i;
+			}
+		}
+		if (this.selection == null || this.selection.length < m) {
+			this.selection = new int[Math.max(m, 8)];
+			this.swaps = new int[this.selection.length];
+		}
+		final int[] array = this.permutation;
+		for (int i = 0; i < m; i++) {
+			final int j = i + random.nextInt(n - i);
+			final int value = array[j];
+			array[j] = array[i];
+			array[i] = value;
+			this.swaps[i] = j;
+			this.selection[i] = value;
+		}
+
+		// Undoes the swaps, in the reverse order.
+
+		for (int i = m - 1; i >= 0; i--) {
+			final int j = this.swaps[i];
+			final int value = array[j];
+			array[j] = array[i];
+			array[i] = value;
+		}
+		this.count = m;
+		return m;
+	}
+
+	/**
+	 * Selects an index at random, with a probability proportional to its
+	 * weight.
+	 *
+	 * @param random
+	 *            the source of randomness.
+	 * @return the index selected.
+	 */
+	public int select(final Random random) {
+		if (this.dirty || this.alias == null) {
+			this.build();
+		}
+		if (this.total == 0) {
+			throw new RuntimeException("Empty sampler.");
+		}
+		final int column = random.nextInt(this.weights.length);
+		return (random.nextInt(this.total) < this.threshold[column]) ? column : this.alias[column];
+	}
+
+	/**
+	 * Sets the weight of the specified index (the alias table is built again
+	 * only if the weight has changed).
+	 *
+	 * @param index
+	 *            the index.
+	 * @param weight
+	 *            the new weight.
+	 */
+	public void setWeight(final int index, final int weight) {
+		if (weight < 0) {
+			throw new IllegalArgumentException("Bad weight: " + weight);
+		}
+		if (this.weights[index] != weight) {
+			this.weights[index] = weight;
+			this.dirty = true;
+		}
+	}
+
+}
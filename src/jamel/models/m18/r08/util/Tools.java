@@ -1,8 +1,6 @@
 package jamel.models.m18.r08.util;
 
-import java.util.Comparator;
-
-import jamel.models.m18.r08.roles.Supplier;
+import java.util.Random;
 
 /**
  * A convenience class that provides methods for agents from various packages.
@@ -10,42 +8,26 @@ import jamel.models.m18.r08.roles.Supplier;
 public class Tools {
 
 	/**
-	 * A supplier comparator.
+	 * Randomly permutes the first elements of the specified array.
+	 * 
+	 * Uses the same algorithm and the same draws as
+	 * {@code Collections.shuffle(List, Random)}: shuffling an array gives the
+	 * same permutation as shuffling a list of the same elements.
+	 * 
+	 * @param array
+	 *            the array to be shuffled.
+	 * @param size
+	 *            the number of elements to be shuffled.
+	 * @param random
+	 *            the source of randomness.
 	 */
-	private static class SupplierComparator implements Comparator<Supplier> {
-
-		@Override
-		public int compare(Supplier s1, Supplier s2) {
-			final int result;
-			final Double p1;
-			final Double p2;
-			if (s1 != null && s1.getSupply() != null && s1.getSupply().getVolume() > 0) {
-				p1 = s1.getSupply().getPrice();
-			} else {
-				p1 = null;
-			}
-			if (s2 != null && s2.getSupply() != null && s2.getSupply().getVolume() > 0) {
-				p2 = s2.getSupply().getPrice();
-			} else {
-				p2 = null;
-			}
-			if (p1 == null && p2 == null) {
-				result = 0;
-			} else if (p1 == null) {
-				result = 1;
-			} else if (p2 == null) {
-				result = -1;
-			} else {
-				result = p1.compareTo(p2);
-			}
-			return result;
+	public static void shuffle(final Object[] array, final int size, final Random random) {
+		for (int i = size; i > 1; i--) {
+			final int j = random.nextInt(i);
+			final Object tmp = array[i - 1];
+			array[i - 1] = array[j];
+			array[j] = tmp;
 		}
-
 	}
 
-	/**
-	 * A public instance of {@code SupplierComparator}.
-	 */
-	final public static SupplierComparator supplierComparator = new SupplierComparator();
-
 }
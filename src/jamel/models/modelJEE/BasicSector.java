@@ -232,6 +232,11 @@ public class BasicSector extends JamelObject implements Sector {
 		return this.dataManager.getScatterSeries(xKey, yKey, conditions, selection);
 	}
 
+	@Override
+	public double[][] getSnapshot(int t, String... keys) {
+		return this.dataManager.getSnapshot(t, keys);
+	}
+
 	@Override
 	public void open() {
 		Jamel.notUsed();
@@ -1,8 +1,7 @@
 package jamel.models.modelJEE.firms.factory;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -24,130 +23,11 @@ import jamel.util.Simulation;
 @SuppressWarnings("javadoc")
 public class BasicFactory extends JamelObject {
 
-	/**
-	 * A basic implementation of {@link WorkInProgress}.
-	 * 
-	 * TODO: objet � supprimer, remplacer par une classe anonyme. TODO:
-	 * externaliser l'interface.
-	 */
-	private class BasicWorkInProgress extends HashMap<Rational, Materials> implements WorkInProgress {
-
-		/**
-		 * Creates a new {@link BasicWorkInProgress}.
-		 * 
-		 * @param productionTime
-		 *            the production time (i.e. the number of stages in the
-		 *            production process).
-		 */
-		public BasicWorkInProgress(int productionTime) {
-			super(productionTime);
-			for (int i = 1; i < productionTime; i++) {
-				final Rational completion = new Rational(i, productionTime);
-				final Materials materials = new BasicMaterials(0, 0, completion, getSimulation());
-				this.put(completion, materials);
-			}
-		}
-
-		@Override
-		public void delete() {
-			for (Materials material : this.values()) {
-				material.delete();
-			}
-		}
-
-		@Override
-		public void depreciate(double d) {
-			for (Materials materials : this.values()) {
-				final long newValue = (long) (materials.getBookValue() * d);
-				materials.setValue(newValue);
-			}
-		}
-
-		@Override
-		public Materials get(Rational completion) {
-			if (!this.containsKey(completion)) {
-				throw new RuntimeException("This completion not exists: " + completion);
-			}
-			return super.get(completion);
-		}
-
-		@Override
-		public Long getBookValue() {
-			long value = 0;
-			for (Materials materials : this.values()) {
-				value += materials.getBookValue();
-			}
-			return value;
-		}
-
-		@Override
-		public Materials[] getStuff(int maxCompletion) {
-			final Materials[] inputs = new Materials[maxCompletion];
-			for (int i = 0; i < maxCompletion; i++) {
-				final Rational completion = new Rational(maxCompletion - i, productionTime);
-				final Materials input = this.get(completion);
-				inputs[i] = input;
-			}
-			return inputs;
-		}
-
-		@Override
-		public boolean isCancelled() {
-			return false;
-		}
-
-		@Override
-		public void put(WorkInProgress input) {
-			for (Entry<Rational, Materials> entry : this.entrySet()) {
-				entry.getValue().add(input.get(entry.getKey()));
-			}
-		}
-
-		@Override
-		public void putStuff(Materials stuff) {
-			final Materials materials = this.get(stuff.getCompletion());
-			if (materials == null) {
-				throw new RuntimeException("Materials not found: " + stuff.getCompletion());
-			}
-			materials.add(stuff);
-		}
-
-		@Override
-		public String toString() {
-			String result = "";
-			for (Materials m : this.values()) {
-				result = result + m.getCompletion() + ": " + m.getVolume() + "; ";
-			}
-			return result;
-		}
-
-	}
-
 	/**
 	 * The data keys.
 	 */
 	private static final BasicFirmKeys keys = BasicFirmKeys.getInstance();
 
-	/**
-	 * A comparator to sort the machinery according to the productivity of the
-	 * machines (higher productivities first).
-	 */
-	private static final Comparator<Machine> productivityComparator = new Comparator<Machine>() {
-
-		@Override
-		public int compare(Machine machine0, Machine machine1) {
-			final int result;
-			if (machine0.getProductivity() == machine1.getProductivity()) {
-				result = 0;
-			} else if (machine0.getProductivity() < machine1.getProductivity()) {
-				result = 1;
-			} else {
-				result = -1;
-			}
-			return result;
-		}
-	};
-
 	final private AgentDataset dataset;
 
 	final private Memory<Long> depreciationMemory = new Memory<Long>(12);
@@ -184,6 +64,13 @@ public class BasicFactory extends JamelObject {
 	 */
 	private final int productionTime;
 
+	/**
+	 * The materials produced during the current period (merged into the
+	 * work in progress at the end of the production, and reused at each
+	 * period).
+	 */
+	private final WorkInProgress newWorkInProgress;
+
 	/** The work in progress. */
 	private final WorkInProgress workInProgress;
 
@@ -206,7 +93,8 @@ public class BasicFactory extends JamelObject {
 		this.productionTime = productionTime;
 		// FIXME productionTime devrait être déduit de l'examen des machines.
 		this.expandCapacity(machines);
-		this.workInProgress = new BasicWorkInProgress(productionTime);
+		this.workInProgress = new StagedWorkInProgress(productionTime, simulation);
+		this.newWorkInProgress = new StagedWorkInProgress(productionTime, simulation);
 		this.finishedGoods = new FinishedGoods();
 	}
 
@@ -371,14 +259,29 @@ public class BasicFactory extends JamelObject {
 		return (this.getFinishedGoodsVolume()) / normalVolume;
 	}
 
+	/**
+	 * Returns the productivities of the machines, higher productivities
+	 * first.
+	 * <p>
+	 * 2018-04-27: the productivities are sorted, not the machinery (which
+	 * was re-sorted at each call).
+	 * 
+	 * @return the productivities of the machines.
+	 */
 	public long[] getMachinery() {
-		final long[] productivities = new long[machinery.size()];
-		Collections.sort(this.machinery, productivityComparator);
+		final int size = machinery.size();
+		final long[] productivities = new long[size];
 		int index = 0;
 		for (Machine machine : this.machinery) {
 			productivities[index] = machine.getProductivity();
 			index++;
 		}
+		Arrays.sort(productivities);
+		for (int i = 0; i < size / 2; i++) {
+			final long productivity = productivities[i];
+			productivities[i] = productivities[size - 1 - i];
+			productivities[size - 1 - i] = productivity;
+		}
 		return productivities;
 	}
 
@@ -466,7 +369,9 @@ public class BasicFactory extends JamelObject {
 			throw new IllegalArgumentException("Workforce: " + workforce.size() + ", capacity: " + machinery.size());
 		}
 
-		final WorkInProgress newWorkInProgress = new BasicWorkInProgress(this.productionTime);
+		// 2018-04-27: the new work in progress is emptied by the merge at
+		// the end of the production, and reused.
+		final WorkInProgress newWorkInProgress = this.newWorkInProgress;
 		final Commodities production = new FinishedGoods();
 
 		if (workforce.size() != 0) {
@@ -61,8 +61,14 @@ public class BasicMachine extends JamelObject implements Machine {
 	 */
 	private boolean cancelled;
 
-	/** How much materials are completed by period of production. */
-	private final Rational increment;
+	/**
+	 * The completions of the stages of the production process (shared by
+	 * all the machines of the same production time).
+	 * <p>
+	 * 2018-04-27: replaces the increment, which created a new completion at
+	 * each step of the production.
+	 */
+	private final Rational[] stages;
 
 	/** The last time this machine was used. */
 	private int lastUsed = -1;
@@ -125,7 +131,7 @@ public class BasicMachine extends JamelObject implements Machine {
 		}
 		this.productionTime = technology.getProductionTime();
 		this.productivity = technology.getProductivity();
-		this.increment = new Rational(1, productionTime);
+		this.stages = Rational.getStages(productionTime);
 		this.bookValue = acquisitionCost;
 		if (getPeriod() == 0) {
 			this.start = getPeriod() - random.nextInt((int) technology.getTimelifeMean());
@@ -238,7 +244,11 @@ public class BasicMachine extends JamelObject implements Machine {
 				}
 				final long materialsVolume = materials.getVolume();
 				final Rational materialsCompletion = materials.getCompletion();
-				final Rational outputCompletion = materialsCompletion.add(increment);
+				final int materialsStage = materialsCompletion.getStage(this.productionTime);
+				if (materialsStage < 1 || materialsStage >= this.productionTime) {
+					throw new RuntimeException("Bad completion: " + materialsCompletion);
+				}
+				final Rational outputCompletion = this.stages[materialsStage + 1];
 				final Materials output;
 				if (materialsVolume == newVolume) {
 					output = getNewMaterials(newVolume, materials.getBookValue() + inputValue, outputCompletion,
@@ -268,7 +278,8 @@ public class BasicMachine extends JamelObject implements Machine {
 			}
 		}
 		if (newVolume > 0) {
-			final Materials output = new BasicMaterials(newVolume, inputValue, increment, getSimulation());
+			final Materials output = new BasicMaterials(newVolume, inputValue, this.stages[1],
+					getSimulation());
 			outputs.add(output);
 			inputValue = 0;
 		}
@@ -1,5 +1,7 @@
 package jamel.models.modelJEE.firms.factory;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 import jamel.Jamel;
 
 /**
@@ -55,6 +57,37 @@ import jamel.Jamel;
 		return result;
 	}
 
+	/**
+	 * The stages of the production processes, by production time.
+	 */
+	private static final ConcurrentHashMap<Integer, Rational[]> stages = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns the completions of the stages of a production process of the
+	 * specified production time: the element <code>i</code> is
+	 * <code>i/productionTime</code>, from 0 to 1.
+	 * <p>
+	 * 2018-04-27: the completions are created once and shared, instead of
+	 * being created at each step of the production.
+	 * 
+	 * @param productionTime
+	 *            the production time (i.e. the number of stages in the
+	 *            production process).
+	 * @return the completions of the stages (the array must not be modified).
+	 */
+	static Rational[] getStages(final int productionTime) {
+		if (productionTime <= 0) {
+			throw new IllegalArgumentException("Bad production time: " + productionTime);
+		}
+		return stages.computeIfAbsent(productionTime, k -> {
+			final Rational[] result = new Rational[k + 1];
+			for (int i = 0; i <= k; i++) {
+				result[i] = new Rational(i, k);
+			}
+			return result;
+		});
+	}
+
 	/**
 	 * For debugging purpose.
 	 * 
@@ -214,6 +247,26 @@ import jamel.Jamel;
 		return numerator;
 	}
 
+	/**
+	 * Returns the stage of a production process of the specified production
+	 * time that corresponds to this completion.
+	 * 
+	 * @param productionTime
+	 *            the production time.
+	 * @return the stage (<code>this * productionTime</code>), or -1 if this
+	 *         completion is not a stage of this production process.
+	 */
+	int getStage(final int productionTime) {
+		final int product = numerator * productionTime;
+		final int result;
+		if (product % denominator != 0) {
+			result = -1;
+		} else {
+			result = product / denominator;
+		}
+		return result;
+	}
+
 	@Override
 	public int hashCode() {
 		return numerator + 11 * denominator;
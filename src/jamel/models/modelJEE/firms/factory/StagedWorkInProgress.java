@@ -0,0 +1,281 @@
+package jamel.models.modelJEE.firms.factory;
+
+import jamel.util.JamelObject;
+import jamel.util.Simulation;
+
+/**
+ * A work in progress indexed by stage.
+ * <p>
+ * The materials of the stage <code>i</code> (i.e. of completion
+ * <code>i/productionTime</code>, from 1 to <code>productionTime-1</code>)
+ * are stored in primitive arrays (volume, value, production period), and
+ * are accessed through a view created once for each stage. Nothing is
+ * created at each step of the production: the heap of a stage is found by
+ * its index, not by hashing a new completion.
+ * <p>
+ * 2018-04-27: new class, replaces <code>BasicFactory.BasicWorkInProgress</code>
+ * (a <code>HashMap&lt;Rational, Materials&gt;</code>).
+ */
+class StagedWorkInProgress extends JamelObject implements WorkInProgress {
+
+	/**
+	 * The heap of materials of a stage (a view on the arrays of the work in
+	 * progress).
+	 */
+	private class Stage implements Materials {
+
+		/**
+		 * The index of the stage.
+		 */
+		final private int index;
+
+		/**
+		 * Creates a new view.
+		 *
+		 * @param index
+		 *            the index of the stage.
+		 */
+		private Stage(final int index) {
+			this.index = index;
+		}
+
+		@Override
+		public void add(Materials stuff) {
+			if (!stuff.getCompletion().equals(this.getCompletion())) {
+				throw new IllegalArgumentException("Bad completion: " + stuff.getCompletion());
+			}
+			StagedWorkInProgress.this.add(this.index, stuff.getVolume(), stuff.getBookValue(),
+					stuff.getProductionPeriod());
+			stuff.delete();
+		}
+
+		@Override
+		public void delete() {
+			volumes[this.index] = 0;
+			values[this.index] = 0;
+		}
+
+		@Override
+		public void delete(long volume, long value) {
+			volumes[this.index] -= volume;
+			values[this.index] -= value;
+		}
+
+		@Override
+		public Long getBookValue() {
+			return values[this.index];
+		}
+
+		@Override
+		public Rational getCompletion() {
+			return completions[this.index];
+		}
+
+		@Override
+		public int getProductionPeriod() {
+			return periods[this.index];
+		}
+
+		@Override
+		public long getVolume() {
+			return volumes[this.index];
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+
+		@Override
+		public void setValue(long newValue) {
+			if (newValue < 0) {
+				throw new IllegalArgumentException("Negative value");
+			}
+			values[this.index] = newValue;
+		}
+
+		@Override
+		public String toString() {
+			return completions[this.index] + ": " + volumes[this.index];
+		}
+
+	}
+
+	/**
+	 * The completions of the stages.
+	 */
+	final private Rational[] completions;
+
+	/**
+	 * The inputs returned by {@link #getStuff(int)}, by max completion
+	 * (created once).
+	 */
+	final private Materials[][] inputs;
+
+	/**
+	 * The production period of the materials of each stage.
+	 */
+	final private int[] periods;
+
+	/**
+	 * The production time (i.e. the number of stages in the production
+	 * process).
+	 */
+	final private int productionTime;
+
+	/**
+	 * The views on the stages.
+	 */
+	final private Stage[] stages;
+
+	/**
+	 * The value of the materials of each stage.
+	 */
+	final private long[] values;
+
+	/**
+	 * The volume of the materials of each stage.
+	 */
+	final private long[] volumes;
+
+	/**
+	 * Creates a new {@link StagedWorkInProgress}.
+	 *
+	 * @param productionTime
+	 *            the production time (i.e. the number of stages in the
+	 *            production process).
+	 * @param simulation
+	 *            the simulation.
+	 */
+	StagedWorkInProgress(final int productionTime, final Simulation simulation) {
+		super(simulation);
+		this.productionTime = productionTime;
+		this.completions = Rational.getStages(productionTime);
+		this.volumes = new long[productionTime];
+		this.values = new long[productionTime];
+		this.periods = new int[productionTime];
+		this.stages = new Stage[productionTime];
+		for (int i = 1; i < productionTime; i++) {
+			this.stages[i] = new Stage(i);
+			this.periods[i] = getPeriod();
+		}
+		this.inputs = new Materials[productionTime][];
+		for (int max = 0; max < productionTime; max++) {
+			this.inputs[max] = new Materials[max];
+			for (int i = 0; i < max; i++) {
+				this.inputs[max][i] = this.stages[max - i];
+			}
+		}
+	}
+
+	/**
+	 * Adds materials to the specified stage.
+	 *
+	 * @param stage
+	 *            the index of the stage.
+	 * @param volume
+	 *            the volume of the materials.
+	 * @param value
+	 *            the value of the materials.
+	 * @param period
+	 *            the production period of the materials.
+	 */
+	private void add(final int stage, final long volume, final long value, final int period) {
+		this.periods[stage] = Math.max(this.periods[stage], period);
+		this.volumes[stage] += volume;
+		this.values[stage] += value;
+	}
+
+	/**
+	 * Returns the index of the stage of the specified completion.
+	 *
+	 * @param completion
+	 *            the completion.
+	 * @return the index of the stage.
+	 */
+	private int getIndex(final Rational completion) {
+		final int result = completion.getStage(this.productionTime);
+		if (result < 1 || result >= this.productionTime) {
+			throw new RuntimeException("This completion not exists: " + completion);
+		}
+		return result;
+	}
+
+	@Override
+	public void delete() {
+		for (int i = 1; i < this.productionTime; i++) {
+			this.volumes[i] = 0;
+			this.values[i] = 0;
+		}
+	}
+
+	@Override
+	public void depreciate(double d) {
+		for (int i = 1; i < this.productionTime; i++) {
+			this.values[i] = (long) (this.values[i] * d);
+		}
+	}
+
+	@Override
+	public Materials get(Rational completion) {
+		return this.stages[this.getIndex(completion)];
+	}
+
+	@Override
+	public Long getBookValue() {
+		long value = 0;
+		for (int i = 1; i < this.productionTime; i++) {
+			value += this.values[i];
+		}
+		return value;
+	}
+
+	/**
+	 * Returns an array of materials, sorted by completion in descending
+	 * order.
+	 * <p>
+	 * The array is shared between the calls and must not be modified.
+	 */
+	@Override
+	public Materials[] getStuff(int maxCompletion) {
+		return this.inputs[maxCompletion];
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return false;
+	}
+
+	@Override
+	public void put(WorkInProgress input) {
+		if (input instanceof StagedWorkInProgress
+				&& ((StagedWorkInProgress) input).productionTime == this.productionTime) {
+			final StagedWorkInProgress other = (StagedWorkInProgress) input;
+			for (int i = 1; i < this.productionTime; i++) {
+				this.add(i, other.volumes[i], other.values[i], other.periods[i]);
+			}
+			other.delete();
+		} else {
+			for (int i = 1; i < this.productionTime; i++) {
+				this.stages[i].add(input.get(this.completions[i]));
+			}
+		}
+	}
+
+	@Override
+	public void putStuff(Materials stuff) {
+		final int stage = this.getIndex(stuff.getCompletion());
+		this.add(stage, stuff.getVolume(), stuff.getBookValue(), stuff.getProductionPeriod());
+		stuff.delete();
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder result = new StringBuilder();
+		for (int i = 1; i < this.productionTime; i++) {
+			result.append(this.completions[i]).append(": ").append(this.volumes[i]).append("; ");
+		}
+		return result.toString();
+	}
+
+}
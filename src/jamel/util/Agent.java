@@ -14,6 +14,15 @@ public interface Agent {
 	 */
 	void close();
 
+	/**
+	 * Releases the resources of this agent (eg. its threads).
+	 * 
+	 * Should be called at the end of the simulation.
+	 */
+	default void dispose() {
+		// Nothing to release.
+	}
+
 	/**
 	 * Forces the execution of the specified event.
 	 * 
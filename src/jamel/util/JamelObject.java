@@ -1,11 +1,28 @@
 package jamel.util;
 
+import java.io.Serializable;
 import java.util.Random;
 
 /**
  * An abstract class that provides convenience methods.
+ * 
+ * A {@code JamelObject} is serializable, so that the state of the
+ * simulation can be saved into a checkpoint: the reference to the parent
+ * simulation must be replaced by the stream (see
+ * {@code ObjectOutputStream.replaceObject()}).
  */
-public abstract class JamelObject {
+public abstract class JamelObject implements Serializable {
+
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The own random stream of this object ({@code null} if this object draws
+	 * from the random of the simulation).
+	 */
+	private Random random = null;
 
 	/**
 	 * The parent simulation.
@@ -65,7 +82,7 @@ public abstract class JamelObject {
 	 * @return the random.
 	 */
 	final public Random getRandom() {
-		return this.simulation.getRandom();
+		return (this.random != null) ? this.random : this.simulation.getRandom();
 	}
 
 	/**
@@ -88,6 +105,16 @@ public abstract class JamelObject {
 		return this.simulation;
 	}
 
+	/**
+	 * Sets the own random stream of this object.
+	 * 
+	 * @param key
+	 *            the key of the stream (must be unique in the simulation).
+	 */
+	final protected void setRandomStream(final String key) {
+		this.random = this.simulation.getRandom(key);
+	}
+
 	final public double nextDouble(double d1, double d2) {
 		if (d2 <= d1) {
 			throw new IllegalArgumentException("Bad values: " + d1 + ", " + d2);
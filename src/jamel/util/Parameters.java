@@ -1,9 +1,21 @@
 package jamel.util;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
@@ -11,15 +23,250 @@ import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
+import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.Node;
+import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 
 /**
  * Encapsulates a set of parameters.
  * To facilitate the parsing of XML elements.
+ * 
+ * 2018-04-27: the element is compiled once, when the root parameters are
+ * created, into an immutable tree of indices (the attributes by name, with
+ * their numeric values parsed once, and the descendants by tag name). The
+ * accessors no longer walk the DOM, and each element is encapsulated by a
+ * single {@code Parameters} object (returned again by each call to
+ * {@link #get(String)}). The string representation is computed on demand.
+ * The DOM must not be modified once the parameters are created.
  */
-public class Parameters {
+public class Parameters implements Serializable {
+
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The compiled form of an element.
+	 */
+	private static class Index {
+
+		/**
+		 * The attributes, by name.
+		 */
+		final private Map<String, String> attributes;
+
+		/**
+		 * The child elements, in document order.
+		 */
+		final private List<Index> children;
+
+		/**
+		 * The descendant elements by tag name, in document order (as
+		 * returned by {@code getElementsByTagName}; the key {@code "*"}
+		 * matches all the descendants).
+		 */
+		final private Map<String, List<Index>> descendants;
+
+		/**
+		 * The numeric values of the attributes (the attributes that are not
+		 * numbers are absent).
+		 */
+		final private Map<String, Double> doubles;
+
+		/**
+		 * The element.
+		 */
+		final private Element element;
+
+		/**
+		 * The integer values of the attributes (the attributes that are not
+		 * integers are absent).
+		 */
+		final private Map<String, Integer> ints;
+
+		/**
+		 * The resolved dotted keys (eg. {@code "production.capacity"}).
+		 */
+		final private Map<String, Key> keys = new ConcurrentHashMap<>();
+
+		/**
+		 * The parameters that encapsulate this element.
+		 */
+		final private Parameters parameters;
+
+		/**
+		 * Compiles the specified element and its descendants.
+		 * 
+		 * @param element
+		 *            the element to be compiled.
+		 */
+		private Index(final Element element) {
+			this.element = element;
+			final NamedNodeMap attributeNodes = element.getAttributes();
+			final Map<String, String> attributes = new HashMap<>();
+			final Map<String, Double> doubles = new HashMap<>();
+			final Map<String, Integer> ints = new HashMap<>();
+			for (int i = 0; i < attributeNodes.getLength(); i++) {
+				final String name = attributeNodes.item(i).getNodeName().intern();
+				final String value = attributeNodes.item(i).getNodeValue();
+				attributes.put(name, value);
+				try {
+					doubles.put(name, Double.parseDouble(value));
+				} catch (NumberFormatException e) {
+					// Not a number.
+				}
+				try {
+					ints.put(name, Integer.parseInt(value));
+				} catch (NumberFormatException e) {
+					// Not an integer.
+				}
+			}
+			this.attributes = attributes;
+			this.doubles = doubles;
+			this.ints = ints;
+
+			final List<Index> children = new ArrayList<>();
+			final Map<String, List<Index>> descendants = new HashMap<>();
+			final NodeList nodes = element.getChildNodes();
+			for (int i = 0; i < nodes.getLength(); i++) {
+				if (nodes.item(i) instanceof Element) {
+					final Index child = new Index((Element) nodes.item(i));
+					children.add(child);
+					descendants.computeIfAbsent(child.element.getTagName().intern(), k -> new ArrayList<>()).add(child);
+					descendants.computeIfAbsent("*", k -> new ArrayList<>()).add(child);
+					for (final Map.Entry<String, List<Index>> entry : child.descendants.entrySet()) {
+						descendants.computeIfAbsent(entry.getKey(), k -> new ArrayList<>()).addAll(entry.getValue());
+					}
+				}
+			}
+			this.children = Collections.unmodifiableList(children);
+			this.descendants = descendants;
+			this.parameters = new Parameters(this);
+		}
+
+		/**
+		 * Returns the first descendant with the specified tag name.
+		 * 
+		 * @param name
+		 *            the tag name.
+		 * @return the first descendant with the specified tag name, or
+		 *         {@code null} if not found.
+		 */
+		private Index getFirst(final String name) {
+			final List<Index> list = this.descendants.get(name);
+			return (list == null) ? null : list.get(0);
+		}
+
+		/**
+		 * Resolves the specified key: the key is an attribute of this element,
+		 * or a dotted key ({@code "sub.key"}) that designates an attribute of
+		 * the first descendant named {@code sub}.
+		 * 
+		 * @param key
+		 *            the key.
+		 * @return the resolved key, or {@code null} if the key can't be
+		 *         resolved.
+		 */
+		private Key resolve(final String key) {
+			Key result = this.keys.get(key);
+			if (result == null) {
+				if (this.attributes.containsKey(key)) {
+					result = new Key(this, key);
+				} else {
+					final String[] split = key.split("\\.", 2);
+					if (split.length == 1) {
+						result = new Key(this, key);
+					} else {
+						final Index sub = this.getFirst(split[0]);
+						result = (sub == null) ? null : sub.resolve(split[1]);
+					}
+				}
+				if (result != null) {
+					this.keys.put(key, result);
+				}
+			}
+			return result;
+		}
+
+	}
+
+	/**
+	 * A resolved key.
+	 */
+	private static class Key {
+
+		/**
+		 * The name of the attribute.
+		 */
+		final private String attribute;
+
+		/**
+		 * The element that owns the attribute.
+		 */
+		final private Index owner;
+
+		/**
+		 * Creates a new resolved key.
+		 * 
+		 * @param owner
+		 *            the element that owns the attribute.
+		 * @param attribute
+		 *            the name of the attribute.
+		 */
+		private Key(final Index owner, final String attribute) {
+			this.owner = owner;
+			this.attribute = attribute;
+		}
+
+	}
+
+	/**
+	 * The serialized form of a set of parameters (its XML text).
+	 */
+	private static class SerializedForm implements Serializable {
+
+		/**
+		 * The version of the serialized form.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The XML text of the parameters.
+		 */
+		final private String xml;
+
+		/**
+		 * Creates a new serialized form.
+		 * 
+		 * @param xml
+		 *            the XML text of the parameters.
+		 */
+		private SerializedForm(final String xml) {
+			this.xml = xml;
+		}
+
+		/**
+		 * Returns the parameters described by the XML text.
+		 * 
+		 * @return the parameters.
+		 * @throws ObjectStreamException
+		 *             if the XML text cannot be parsed.
+		 */
+		private Object readResolve() throws ObjectStreamException {
+			try {
+				final Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+						.parse(new InputSource(new StringReader(this.xml)));
+				return new Parameters(document.getDocumentElement());
+			} catch (ParserConfigurationException | SAXException | IOException e) {
+				throw new InvalidObjectException("Unable to parse the parameters: " + e.getMessage());
+			}
+		}
+
+	}
 
 	/**
 	 * Converts an element into a string.
@@ -46,47 +293,52 @@ public class Parameters {
 	}
 
 	/**
-	 * Converts a <code>NodeList</code> into a <code>List</code> of
+	 * Converts a list of indices into a <code>List</code> of
 	 * <code>Parameters</code>.
 	 * 
-	 * @param nodeList
-	 *            the <code>NodeList</code> to be converted
+	 * @param indices
+	 *            the list to be converted (can be <code>null</code>).
 	 * @return a <code>List</code> of <code>Parameters</code>
 	 */
-	private static List<Parameters> getList(final NodeList nodeList) {
+	private static List<Parameters> getList(final List<Index> indices) {
 		final List<Parameters> result = new LinkedList<>();
-		for (int i = 0; i < nodeList.getLength(); i++) {
-			if (nodeList.item(i) instanceof Element) {
-				result.add(new Parameters(nodeList.item(i)));
+		if (indices != null) {
+			for (final Index index : indices) {
+				result.add(index.parameters);
 			}
 		}
 		return result;
 	}
 
+	/**
+	 * The compact text content (computed on demand).
+	 */
+	private volatile String compactText = null;
+
 	/**
 	 * The encapsulated XML element.
 	 */
 	final private Element element;
 
 	/**
-	 * The string representation of these parameters.
+	 * The compiled element.
 	 */
-	final private String string;
+	final private Index index;
+
+	/**
+	 * The string representation of these parameters (computed on demand).
+	 */
+	private volatile String string = null;
 
 	/**
 	 * Creates a new Parameters object.
 	 * 
-	 * @param node
-	 *            the XML node to be encapsulated. The node should be an
-	 *            instance of <code>Element</code>.
+	 * @param index
+	 *            the compiled element to be encapsulated.
 	 */
-	private Parameters(final Node node) {
-		ArgChecks.nullNotPermitted(node, "node");
-		if (!(node instanceof Element)) {
-			throw new IllegalArgumentException("The node should be an Element: " + node.getNodeName());
-		}
-		this.element = (Element) node;
-		this.string = element2string(this.element);
+	private Parameters(final Index index) {
+		this.index = index;
+		this.element = index.element;
 	}
 
 	/**
@@ -96,8 +348,9 @@ public class Parameters {
 	 *            the XML element to be encapsulated.
 	 */
 	public Parameters(final Element element) {
+		ArgChecks.nullNotPermitted(element, "element");
+		this.index = new Index(element);
 		this.element = element;
-		this.string = element2string(this.element);
 	}
 
 	/**
@@ -110,14 +363,8 @@ public class Parameters {
 	 *         found.
 	 */
 	public Parameters get(String name) {
-		final Parameters result;
-		final Node node = this.element.getElementsByTagName(name).item(0);
-		if (node == null) {
-			result = null;
-		} else {
-			result = new Parameters(node);
-		}
-		return result;
+		final Index sub = this.index.getFirst(name);
+		return (sub == null) ? null : sub.parameters;
 	}
 
 	/**
@@ -126,7 +373,7 @@ public class Parameters {
 	 * @return a list of all sub parameters.
 	 */
 	public List<Parameters> getAll() {
-		return getList(this.element.getChildNodes());
+		return getList(this.index.children);
 	}
 
 	/**
@@ -139,7 +386,7 @@ public class Parameters {
 	 * @return a list of all sub parameters with the given name
 	 */
 	public List<Parameters> getAll(String name) {
-		return getList(this.element.getElementsByTagName(name));
+		return getList(this.index.descendants.get(name));
 	}
 
 	/**
@@ -151,7 +398,8 @@ public class Parameters {
 	 *         attribute does not have a specified or default value.
 	 */
 	public String getAttribute(String name) {
-		return this.element.getAttribute(name);
+		final String result = this.index.attributes.get(name);
+		return (result == null) ? "" : result;
 	}
 
 	/**
@@ -161,7 +409,10 @@ public class Parameters {
 	 * @return the text content of the encapsulated element and its descendants.
 	 */
 	public String getCompactText() {
-		return this.element.getTextContent().replaceAll("(\\p{javaSpaceChar}|\\r|\\n|\\t)", "");
+		if (this.compactText == null) {
+			this.compactText = this.element.getTextContent().replaceAll("(\\p{javaSpaceChar}|\\r|\\n|\\t)", "");
+		}
+		return this.compactText;
 	}
 
 	/**
@@ -173,9 +424,11 @@ public class Parameters {
 	 */
 	public Double getDoubleAttribute(String name) {
 		final Double result;
-		final String attribute = this.element.getAttribute(name);
+		final String attribute = this.getAttribute(name);
 		if (attribute.isEmpty()) {
 			result = null;
+		} else if (this.index.doubles.containsKey(name)) {
+			result = this.index.doubles.get(name);
 		} else {
 			result = Double.parseDouble(attribute);
 		}
@@ -192,26 +445,11 @@ public class Parameters {
 	 * @return the double value of the specified parameter.
 	 */
 	public Double getDoubleValue(String key) {
-		final Double result;
-		if (this.hasAttribute(key)) {
-			result = this.getDoubleAttribute(key);
-		} else {
-			final String[] split = key.split("\\.", 2);
-			if (split.length == 1) {
-				result = this.getDoubleAttribute(key);
-				if (result == null) {
-					throw new RuntimeException("Parameter not found: " + key);
-				}
-			} else {
-				final Parameters sub = this.get(split[0]);
-				if (sub == null) {
-					throw new RuntimeException("Parameter not found: " + key);
-					// result = null;
-				}
-				result = sub.getDoubleValue(split[1]);
-			}
+		final Key resolved = this.index.resolve(key);
+		if (resolved == null || !resolved.owner.attributes.containsKey(resolved.attribute)) {
+			throw new RuntimeException("Parameter not found: " + key);
 		}
-		return result;
+		return resolved.owner.parameters.getDoubleAttribute(resolved.attribute);
 	}
 
 	/**
@@ -245,26 +483,11 @@ public class Parameters {
 	 * @return the integer value of the specified parameter.
 	 */
 	public Integer getInt(String key) {
-		final Integer result;
-		if (this.hasAttribute(key)) {
-			result = this.getIntAttribute(key);
-		} else {
-			final String[] split = key.split("\\.", 2);
-			if (split.length == 1) {
-				result = this.getIntAttribute(key);
-				if (result == null) {
-					throw new RuntimeException("Parameter not found: '" + element.getTagName()+"."+key + "'");
-				}
-			} else {
-				final Parameters sub = this.get(split[0]);
-				if (sub == null) {
-					throw new RuntimeException("Parameter not found: '" + element.getTagName()+"."+key + "'");
-					// result = null;
-				}
-				result = sub.getInt(split[1]);
-			}
+		final Key resolved = this.index.resolve(key);
+		if (resolved == null) {
+			throw new RuntimeException("Parameter not found: '" + element.getTagName() + "." + key + "'");
 		}
-		return result;
+		return resolved.owner.parameters.getIntAttribute(resolved.attribute);
 	}
 
 	/**
@@ -275,11 +498,16 @@ public class Parameters {
 	 * @return The attribute value as a <code>Integer</code>.
 	 */
 	public Integer getIntAttribute(String name) {
-		if (!this.element.hasAttribute(name)) {
-			throw new RuntimeException(
-					"Attribute not found: \"" + name + "\" in \"" + this.element.getTagName() + "\".");
+		final Integer result = this.index.ints.get(name);
+		if (result == null) {
+			if (!this.hasAttribute(name)) {
+				throw new RuntimeException(
+						"Attribute not found: \"" + name + "\" in \"" + this.element.getTagName() + "\".");
+			}
+			// Not an integer: throws a NumberFormatException.
+			Integer.parseInt(this.getAttribute(name));
 		}
-		return Integer.parseInt(this.element.getAttribute(name));
+		return result;
 	}
 
 	/**
@@ -299,19 +527,10 @@ public class Parameters {
 	 * @return the string value of the specified parameter.
 	 */
 	public String getString(String key) {
-		final String result;
-		if (this.hasAttribute(key)) {
-			result = this.getAttribute(key);
-		} else {
-			final String[] split = key.split("\\.", 2);
-			if (split.length == 1) {
-					throw new RuntimeException("Parameter not found: " + key);
-			}
-			final Parameters sub = this.get(split[0]);
-			if (sub == null) {
-				throw new RuntimeException("Parameter not found: " + key);
-			}
-			result = sub.getString(split[1]);
+		final Key resolved = this.index.resolve(key);
+		final String result = (resolved == null) ? null : resolved.owner.attributes.get(resolved.attribute);
+		if (result == null) {
+			throw new RuntimeException("Parameter not found: " + key);
 		}
 		return result;
 	}
@@ -338,7 +557,7 @@ public class Parameters {
 	 *         otherwise.
 	 */
 	public boolean hasAttribute(String name) {
-		return this.element.hasAttribute(name);
+		return this.index.attributes.containsKey(name);
 	}
 
 	/**
@@ -358,7 +577,20 @@ public class Parameters {
 
 	@Override
 	public String toString() {
+		if (this.string == null) {
+			this.string = element2string(this.element);
+		}
 		return this.string;
 	}
 
+	/**
+	 * Returns the serialized form of these parameters (the XML element
+	 * itself is not serializable).
+	 * 
+	 * @return the serialized form of these parameters.
+	 */
+	private Object writeReplace() {
+		return new SerializedForm(this.toString());
+	}
+
 }
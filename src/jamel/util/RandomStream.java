@@ -0,0 +1,107 @@
+package jamel.util;
+
+import java.util.Random;
+
+/**
+ * A fast, unsynchronized and reproducible stream of pseudorandom numbers
+ * (the SplitMix64 generator).
+ *
+ * Each stream is derived from the seed of the simulation and from a key (the
+ * name of a sector, of a phase, of an agent...), so that each component of
+ * the simulation can draw from its own stream: the numbers drawn by a
+ * component do not depend on the draws of the other components, nor on the
+ * order in which the threads are scheduled.
+ *
+ * A stream is not thread-safe: it must be used by one thread at a time.
+ */
+public class RandomStream extends Random {
+
+	/**
+	 * The version of the serialized form.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The increment of the state (the golden gamma).
+	 */
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	/**
+	 * Returns a 64-bit hash of the specified key.
+	 *
+	 * @param key
+	 *            the key.
+	 * @return the hash of the key.
+	 */
+	private static long hash(final String key) {
+		long h = 0x5851F42D4C957F2DL;
+		for (int i = 0; i < key.length(); i++) {
+			h = mix(h + key.charAt(i) * GOLDEN_GAMMA);
+		}
+		return h;
+	}
+
+	/**
+	 * Returns a well-distributed 64-bit hash of the specified value (the
+	 * finalizer of SplitMix64).
+	 *
+	 * @param z
+	 *            the value to be hashed.
+	 * @return the hash.
+	 */
+	static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * The state of the generator.
+	 */
+	private long state;
+
+	/**
+	 * Creates a new stream.
+	 *
+	 * @param seed
+	 *            the seed.
+	 */
+	public RandomStream(final long seed) {
+		super(seed);
+		this.state = mix(seed);
+	}
+
+	/**
+	 * Creates a new stream, derived from the specified seed and key.
+	 *
+	 * @param seed
+	 *            the seed of the simulation.
+	 * @param key
+	 *            the key of the stream.
+	 */
+	public RandomStream(final long seed, final String key) {
+		this(mix(seed) ^ hash(key));
+	}
+
+	@Override
+	protected int next(final int bits) {
+		return (int) (this.nextLong() >>> (64 - bits));
+	}
+
+	@Override
+	public double nextDouble() {
+		return (this.nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	@Override
+	public long nextLong() {
+		this.state += GOLDEN_GAMMA;
+		return mix(this.state);
+	}
+
+	@Override
+	public void setSeed(final long seed) {
+		this.state = mix(seed);
+	}
+
+}
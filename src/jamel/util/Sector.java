@@ -2,6 +2,7 @@ package jamel.util;
 
 import java.util.List;
 
+import jamel.Jamel;
 import jamel.data.DynamicSeries;
 import jamel.data.Expression;
 
@@ -15,6 +16,15 @@ public interface Sector {
 	 */
 	void close();
 
+	/**
+	 * Releases the resources of the sector and of its agents.
+	 * 
+	 * Should be called at the end of the simulation.
+	 */
+	default void dispose() {
+		// Nothing to release.
+	}
+
 	/**
 	 * Executes the specified event.
 	 * 
@@ -84,6 +94,25 @@ public interface Sector {
 	 */
 	Phase getPhase(String phaseName, boolean shuffle);
 
+	/**
+	 * Returns the specified phase.
+	 * 
+	 * @param phaseName
+	 *            the name of the phase.
+	 * @param shuffle
+	 *            {@code true} if the agents must be shuffled before acting.
+	 * @param parallel
+	 *            {@code true} if the agents can act concurrently (the action
+	 *            of each agent must not touch the other agents).
+	 * @return the specified phase.
+	 */
+	default Phase getPhase(String phaseName, boolean shuffle, boolean parallel) {
+		if (parallel) {
+			Jamel.notYetImplemented("Parallel phases are not supported by the sector: " + getName());
+		}
+		return getPhase(phaseName, shuffle);
+	}
+
 	/**
 	 * Returns the specified scatter series.
 	 * 
@@ -99,6 +128,25 @@ public interface Sector {
 	 */
 	DynamicSeries getScatterSeries(String xKey, String yKey, Expression[] conditions, String selection);
 
+	/**
+	 * Returns the values of the specified data keys for all the agents of the
+	 * sector at the specified period, read in bulk.
+	 *
+	 * The result contains one column per key, and one row per agent (in the
+	 * same order for all the columns). A missing value is {@code NaN}. The
+	 * columns are created for the caller, which can modify them.
+	 *
+	 * @param t
+	 *            the period.
+	 * @param keys
+	 *            the data keys.
+	 * @return the columns of the values, one per key.
+	 */
+	default double[][] getSnapshot(int t, String... keys) {
+		Jamel.notYetImplemented("Snapshots are not supported by the sector: " + getName());
+		return null;
+	}
+
 	/**
 	 * Returns the simulation.
 	 * 
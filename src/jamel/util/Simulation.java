@@ -11,6 +11,15 @@ import jamel.data.Expression;
  */
 public interface Simulation {
 
+	/**
+	 * Writes the remaining data of the exports and closes their files, and
+	 * releases the resources of the sectors. Called at the end of a
+	 * simulation executed by {@link #run(int)} or {@link #step()}.
+	 */
+	default void close() {
+		Jamel.notYetImplemented();
+	}
+
 	/**
 	 * Brings up a dialog that displays an error message.
 	 * 
@@ -54,6 +63,29 @@ public interface Simulation {
 	 */
 	File getFile();
 
+	/**
+	 * Returns the directory where the outputs of this simulation (exports,
+	 * charts) are written.
+	 * 
+	 * @return the output directory.
+	 */
+	default File getOutputDirectory() {
+		return new File(getFile().getParentFile(), "exports/" + getName());
+	}
+
+	/**
+	 * Returns the expression described by the specified query.
+	 * 
+	 * @param query
+	 *            the description of the expression (eg.
+	 *            {@code "val(Workers,money,t,sum)"}).
+	 * @return the expression.
+	 */
+	default Expression getExpression(String query) {
+		Jamel.notYetImplemented();
+		return null;
+	}
+
 	/**
 	 * Returns an access to the simulation free memory.
 	 * 
@@ -100,6 +132,22 @@ public interface Simulation {
 	 */
 	Random getRandom();
 
+	/**
+	 * Returns the random stream of the specified key.
+	 * 
+	 * The stream is derived from the random seed of the simulation and from
+	 * the key, and is always the same for a given key. By default, returns
+	 * the random of the simulation.
+	 * 
+	 * @param key
+	 *            the key of the stream (eg. the name of a sector or of an
+	 *            agent).
+	 * @return the random stream of the specified key.
+	 */
+	default Random getRandom(String key) {
+		return getRandom();
+	}
+
 	/**
 	 * Returns the specified sector.
 	 * Used by a sector to get access to another sector.
@@ -149,4 +197,50 @@ public interface Simulation {
 	 */
 	void run();
 
+	/**
+	 * Runs the specified number of periods, as fast as possible, without
+	 * waiting for the gui.
+	 * The exports are left open, so that the simulation can be continued by a
+	 * later call; they are closed by {@link #close()}.
+	 * Used by the batch runner.
+	 * 
+	 * @param periods
+	 *            the number of periods to be run.
+	 */
+	default void run(int periods) {
+		Jamel.notYetImplemented();
+	}
+
+	/**
+	 * Sets the directory where the outputs of this simulation are written.
+	 * 
+	 * @param directory
+	 *            the output directory.
+	 */
+	default void setOutputDirectory(File directory) {
+		Jamel.notYetImplemented();
+	}
+
+	/**
+	 * Executes one period, as fast as possible, without waiting for the gui.
+	 * As {@link #run(int)}, the exports are left open; they are closed by
+	 * {@link #close()}.
+	 * Used by the server.
+	 */
+	default void step() {
+		Jamel.notYetImplemented();
+	}
+
+	/**
+	 * Writes the state of this simulation into the specified checkpoint file.
+	 * Must be called between two periods: the simulation restored from the
+	 * checkpoint starts with the next period.
+	 * 
+	 * @param checkpoint
+	 *            the checkpoint file.
+	 */
+	default void writeCheckpoint(File checkpoint) {
+		Jamel.notYetImplemented();
+	}
+
 }